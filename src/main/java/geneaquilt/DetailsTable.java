@@ -23,6 +23,7 @@ import java.awt.Component;
 import java.awt.Dimension;
 import java.awt.Font;
 import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.Vector;
 import java.util.Map.Entry;
 
@@ -36,10 +37,14 @@ import javax.swing.table.DefaultTableModel;
 import javax.swing.table.JTableHeader;
 import javax.swing.table.TableCellRenderer;
 import javax.swing.table.TableColumnModel;
+import javax.swing.table.TableRowSorter;
 
 /**
  * <b>DetailsTable</b> Visualize the details of selected items.
  * 
+ * <p>The rows can be sorted by attribute or by value, numbers such as
+ * the ancestor and descendant counts being sorted by value.</p>
+ * 
  * @author Jean-Daniel Fekete
  */
 public class DetailsTable extends JTable implements ChangeListener {
@@ -53,6 +58,26 @@ public class DetailsTable extends JTable implements ChangeListener {
     	emptyLine.add("");
     	emptyLine.add("");
     }
+    
+    /**
+     * Orders the numbers by value before the other values, 
+     * sorted by text.
+     */
+    static final Comparator<Object> VALUE_ORDER = new Comparator<Object>() {
+        public int compare(Object a, Object b) {
+            if (a instanceof Number && b instanceof Number)
+                return Double.compare(
+                        ((Number)a).doubleValue(), 
+                        ((Number)b).doubleValue());
+            if (a instanceof Number)
+                return -1;
+            if (b instanceof Number)
+                return 1;
+            String sa = a == null ? "" : a.toString();
+            String sb = b == null ? "" : b.toString();
+            return sa.compareTo(sb);
+        }
+    };
 
     /**
      * Creates a details table looking at the selection.
@@ -68,6 +93,11 @@ public class DetailsTable extends JTable implements ChangeListener {
         model = (DefaultTableModel) getModel();
         model.addColumn("Attribute");
         model.addColumn("Value");
+        TableRowSorter<DefaultTableModel> sorter = 
+            new TableRowSorter<DefaultTableModel>(model);
+        sorter.setComparator(1, VALUE_ORDER);
+        sorter.setSortsOnUpdates(true);
+        setRowSorter(sorter);
         setAutoResizeMode(JTable.AUTO_RESIZE_OFF);
         TableColumnModel tcm = getColumnModel();
         tcm.getColumn(0).setPreferredWidth(75);
@@ -83,7 +113,7 @@ public class DetailsTable extends JTable implements ChangeListener {
                         hasFocus,
                         row,
                         column);
-                setBackground(cellColor.get(row));
+                setBackground(cellColor.get(table.convertRowIndexToModel(row)));
                 return this;
             }
         });
@@ -169,7 +199,7 @@ public class DetailsTable extends JTable implements ChangeListener {
     	if (model.getRowCount() > 0) {
     		model.addRow(emptyLine);
     		cellColor.add(Color.white);
-    		setRowHeight(model.getRowCount() - 1, 6);
+    		setRowHeight(convertRowIndexToView(model.getRowCount() - 1), 6);
     	}
         
         for (Entry<String, Object> entry : v.getProps().entrySet()) {
@@ -177,7 +207,7 @@ public class DetailsTable extends JTable implements ChangeListener {
             row.add(entry.getKey());
             row.add(entry.getValue());
             model.addRow(row);
-            setRowHeight(model.getRowCount() - 1, getRowHeight());
+            setRowHeight(convertRowIndexToView(model.getRowCount() - 1), getRowHeight());
             cellColor.add(c);
         }
 
@@ -12,6 +12,11 @@ import edu.umd.cs.piccolo.PLayer;
 import edu.umd.cs.piccolo.PNode;
 import edu.umd.cs.piccolo.util.PBounds;
 import edu.umd.cs.piccolo.util.PDebug;
+import geneaquilt.algorithms.InbreedingCoefficient;
+import geneaquilt.algorithms.KinshipMatrix;
+import geneaquilt.algorithms.LineageCounter;
+import geneaquilt.algorithms.Relationship;
+import geneaquilt.algorithms.RelationshipCalculator;
 import geneaquilt.data.DateRange;
 import geneaquilt.data.Indi;
 import geneaquilt.data.Network;
@@ -20,11 +25,15 @@ import geneaquilt.event.DisabablePanEventHandler;
 import geneaquilt.event.MouseWheelZoomController;
 import geneaquilt.io.DOTLayersReader;
 import geneaquilt.io.DOTWriter;
+import geneaquilt.io.GEDParallelReader;
 import geneaquilt.io.GEDReader;
+import geneaquilt.io.GEDStreamReader;
 import geneaquilt.io.JSONWriter;
 import geneaquilt.io.LayerWriter;
 import geneaquilt.io.LayersReader;
 import geneaquilt.io.PEDReader;
+import geneaquilt.io.SnapshotReader;
+import geneaquilt.io.SnapshotWriter;
 import geneaquilt.io.TIPReader;
 import geneaquilt.nodes.GraphicsConstants;
 import geneaquilt.nodes.PEdge;
@@ -35,6 +44,7 @@ import geneaquilt.nodes.QuiltManager;
 import geneaquilt.nodes.TextOutlineManager;
 import geneaquilt.nodes.TimeLine;
 import geneaquilt.selection.DOIManager;
+import geneaquilt.selection.Selection;
 import geneaquilt.selection.SelectionManager;
 import geneaquilt.selection.SlidingController;
 import geneaquilt.utils.GUIUtils;
@@ -56,6 +66,7 @@ import java.io.IOException;
 import java.net.URL;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.List;
 import java.util.Set;
 import java.util.TreeSet;
 import java.util.regex.Pattern;
@@ -121,6 +132,8 @@ public class GeneaQuilt implements PFilterAnimation.Target {
     private TimeLine timeLine;
     private PCanvas timeLineCanvas;
     private DOIManager doiManager;
+    private RelationshipCalculator relationshipCalculator;
+    private Collection<Vertex> searchResult;
     private JToggleButton filterBox;
 //    private PLayer bgLayer;
     private PLayer mainLayer;
@@ -212,6 +225,15 @@ public class GeneaQuilt implements PFilterAnimation.Target {
         });
         fileMenu.add(exportSelectionMenu);
         
+        JMenuItem exportKinshipMenu = new JMenuItem("Export kinship to CSV...");
+        exportKinshipMenu.addActionListener(new ActionListener() {
+            public void actionPerformed(ActionEvent e) {
+                if (getQuilt()!=null)
+                    getQuilt().saveKinshipAsCSV();
+            }
+        });
+        fileMenu.add(exportKinshipMenu);
+        
         fileMenu.add(Printer.createExportMenu());
         
 //        JMenuItem printMenu = new JMenuItem("Print...");
@@ -293,6 +315,39 @@ public class GeneaQuilt implements PFilterAnimation.Target {
         
         viewMenu.addSeparator();
         
+        JCheckBoxMenuItem dotLayers = new JCheckBoxMenuItem(
+                "Compute Layers with DOT",
+                DOTLayersReader.isDotEnabled());
+        viewMenu.add(dotLayers);
+        dotLayers.addItemListener(new ItemListener() {
+            public void itemStateChanged(ItemEvent ev) {
+                DOTLayersReader.setDotEnabled(
+                        ev.getStateChange()==ItemEvent.SELECTED);
+            }
+        });
+        
+        JCheckBoxMenuItem alignByDate = new JCheckBoxMenuItem(
+                "Align Components by Date",
+                QuiltManager.isAlignByDate());
+        viewMenu.add(alignByDate);
+        alignByDate.addItemListener(new ItemListener() {
+            public void itemStateChanged(ItemEvent ev) {
+                QuiltManager.setAlignByDate(
+                        ev.getStateChange()==ItemEvent.SELECTED);
+            }
+        });
+        
+        JCheckBoxMenuItem lineageWeighted = new JCheckBoxMenuItem(
+                "Weight DOI by Lineage Size",
+                DOIManager.isLineageWeighted());
+        viewMenu.add(lineageWeighted);
+        lineageWeighted.addItemListener(new ItemListener() {
+            public void itemStateChanged(ItemEvent ev) {
+                DOIManager.setLineageWeighted(
+                        ev.getStateChange()==ItemEvent.SELECTED);
+            }
+        });
+        
         JCheckBoxMenuItem dotDebug = new JCheckBoxMenuItem(
                 "Keep DOT file",
                 DOTLayersReader.isDebug());
@@ -304,6 +359,17 @@ public class GeneaQuilt implements PFilterAnimation.Target {
             }
         });
         
+        JCheckBoxMenuItem streamReader = new JCheckBoxMenuItem(
+                "Streaming GEDCOM Reader",
+                GEDStreamReader.isEnabled());
+        viewMenu.add(streamReader);
+        streamReader.addItemListener(new ItemListener() {
+            public void itemStateChanged(ItemEvent ev) {
+                GEDStreamReader.setEnabled(
+                        ev.getStateChange()==ItemEvent.SELECTED);
+            }
+        });
+        
         JCheckBoxMenuItem viewDebug = new JCheckBoxMenuItem("Frame Rate");
         viewMenu.add(viewDebug);
         viewDebug.addItemListener(new ItemListener() {
@@ -344,6 +410,14 @@ public class GeneaQuilt implements PFilterAnimation.Target {
 //                    getQuilt().estimateDates();
 //            }
 //        });
+        JMenuItem relationship = new JMenuItem("Relationship...");
+        editMenu.add(relationship);
+        relationship.addActionListener(new ActionListener() {
+            public void actionPerformed(ActionEvent ev) {
+                if (getQuilt() != null)
+                    getQuilt().showRelationship();
+            }
+        });
         
         frame.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
         frame.pack();
@@ -444,12 +518,70 @@ public class GeneaQuilt implements PFilterAnimation.Target {
     	return s;
     }
     
+    /**
+     * Shows how the individuals of the last two selections are related
+     * and highlights the path linking them with the last selection.
+     */
+    public void showRelationship() {
+        if (quiltManager == null)
+            return;
+        Selection first = null;
+        Selection second = null;
+        for (Selection sel : getSelectionManager().getSelections()) {
+            if (sel.getSelectedObject() instanceof PIndi) {
+                first = second;
+                second = sel;
+            }
+        }
+        if (first == null) {
+            JOptionPane.showMessageDialog(frame, 
+                    "Select two individuals to compute their relationship.",
+                    "Relationship", JOptionPane.INFORMATION_MESSAGE);
+            return;
+        }
+        if (relationshipCalculator == null 
+                || relationshipCalculator.getNetwork() != network)
+            relationshipCalculator = new RelationshipCalculator(network);
+        Indi from = ((PIndi)first.getSelectedObject()).getIndi();
+        Indi to = ((PIndi)second.getSelectedObject()).getIndi();
+        Relationship r = relationshipCalculator.compute(from, to);
+        second.setRelationPath(r.getPath().isEmpty() ? null : r.getPath());
+        
+        String s = r.getDescription()+".\n";
+        List<Vertex> common = r.getCommonAncestors();
+        if (!common.isEmpty() && r.getFromGenerations() > 0 && r.getToGenerations() > 0) {
+            s += "\nClosest common ancestors:\n";
+            for (Vertex v : common) {
+                if (v instanceof Indi) {
+                    s += "  "+((Indi)v).getName()+"\n";
+                    continue;
+                }
+                String couple = "";
+                for (Vertex spouse : network.getAscendants(v)) {
+                    if (couple.length() != 0)
+                        couple += " & ";
+                    couple += ((Indi)spouse).getName();
+                }
+                s += "  "+couple+"\n";
+            }
+        }
+        if (r.getPath().size() > 1) {
+            s += "\nShortest path: "+(r.getPath().size()/2)+" links\n";
+        }
+        JOptionPane.showMessageDialog(frame, s, "Relationship", JOptionPane.INFORMATION_MESSAGE);
+    }
+    
     private void load(String filename) {
     	GUIUtils.beginLongComputation(frame, "Loading file...");
 
     	this.filename = filename;
     	filename = filename.toLowerCase();
-    	if (filename.endsWith(".tip")) {
+    	network = new SnapshotReader().load(this.filename);
+    	final boolean fromSnapshot = network != null;
+    	if (fromSnapshot) {
+    	    LOG.info("Loaded "+this.filename+" from its snapshot");
+    	}
+    	else if (filename.endsWith(".tip")) {
             TIPReader reader = new TIPReader();
             network = reader.load(this.filename);
         }
@@ -457,7 +589,11 @@ public class GeneaQuilt implements PFilterAnimation.Target {
             PEDReader reader = new PEDReader();
             network = reader.load(this.filename);
         }
-        else { //  if (filename.endsWith(".ged")) { // defaults to GED
+        else if (GEDStreamReader.isEnabled()) { // defaults to GED
+            GEDParallelReader reader = new GEDParallelReader();
+            network = reader.load(this.filename);
+        }
+        else {
             GEDReader reader = new GEDReader();
             network = reader.load(this.filename);
         }
@@ -468,11 +604,18 @@ public class GeneaQuilt implements PFilterAnimation.Target {
             return;
             //System.exit(1);
         }
+        if (!fromSnapshot) {
+            // a snapshot holds the inbreeding and lineage counts
+            if (filename.endsWith(".ped")) {
+                new InbreedingCoefficient(network).compute();
+            }
+            new LineageCounter(network).compute();
+        }
         frame.setTitle(TITLE+": "+filename);
         
         final LayersReader layers = new LayersReader();
         GUIUtils.updateComputationMessage("Loading layers...");        
-        if (!layers.load(filename, network)) {
+        if (!fromSnapshot && !layers.load(filename, network)) {
             DOTLayersReader dlr = new DOTLayersReader();
             dlr.load(network);
         }
@@ -480,11 +623,21 @@ public class GeneaQuilt implements PFilterAnimation.Target {
         GUIUtils.updateComputationMessage("Creating visualization...");
         SwingUtilities.invokeLater(new Runnable() {
         	public void run() {
-        		createCanvas();
+        		createCanvas(fromSnapshot);
         		if (!layers.layerFileExists(GeneaQuilt.this.filename)) {
                     GUIUtils.updateComputationMessage("Saving layers...");
         			saveLayer();
         		}
+        		if (!fromSnapshot) {
+        		    // the CRC32 and the write would freeze the event thread
+        		    final Network loaded = network;
+        		    final String file = GeneaQuilt.this.filename;
+        		    new Thread(new Runnable() {
+        		        public void run() {
+        		            saveSnapshot(loaded, file);
+        		        }
+        		    }, "Snapshot writer").start();
+        		}
         	}
         });
     }
@@ -575,6 +728,18 @@ public class GeneaQuilt implements PFilterAnimation.Target {
         }
     }
 
+    void saveSnapshot(Network network, String filename) {
+        if (network == null)
+            return;
+        SnapshotWriter writer = new SnapshotWriter(network);
+        try {
+            writer.write(filename);
+        }
+        catch(IOException e) {
+            LOG.error("Cannot write snapshot file", e);
+        }
+    }
+
     void saveAsJSON() {
         saveAsJSON(network);
     }
@@ -587,6 +752,79 @@ public class GeneaQuilt implements PFilterAnimation.Target {
     	saveAsDOT(quiltManager.getSelectionManager().getSelectedNetwork());
     }
     
+    /**
+     * Saves the kinship coefficients between the selected individuals,
+     * or the individuals found by the last search, in a CSV file.
+     */
+    void saveKinshipAsCSV() {
+        if (quilt == null)
+            return;
+        ArrayList<Vertex> subset = new ArrayList<Vertex>();
+        for (Selection sel : getSelectionManager().getSelections()) {
+            if (sel.getSelectedObject() instanceof PIndi)
+                subset.add(((PIndi)sel.getSelectedObject()).getIndi());
+        }
+        if (subset.isEmpty() && searchResult != null)
+            subset.addAll(searchResult);
+        if (subset.isEmpty()) {
+            JOptionPane.showMessageDialog(frame, 
+                    "Select or search the individuals to compute their kinship.",
+                    "Kinship", JOptionPane.INFORMATION_MESSAGE);
+            return;
+        }
+        if (jexportfile == null) {
+            File f = new File(filename);
+            jexportfile = new JFileChooser(f.getParentFile());
+        }
+        else {
+            jexportfile.resetChoosableFileFilters();
+        }
+        jexportfile.addChoosableFileFilter(new FileFilter() {
+            public String getDescription() {
+                return "Choose a CSV filename";
+            }
+            public boolean accept(File f) {
+                if (f.isDirectory()) {
+                    return true;
+                }
+                return f.getName().endsWith(".csv");
+            }
+        });
+        File f = new File(filename);
+        String base = f.getName();
+        int last = base.lastIndexOf('.');
+        if (last > 0)
+            base = base.substring(0, last);
+        jexportfile.setSelectedFile(new File(f.getParentFile(), base + "-kinship.csv"));
+        int ret = jexportfile.showSaveDialog(frame);
+        if (ret == JFileChooser.APPROVE_OPTION) {
+            final String filename = jexportfile.getSelectedFile().getAbsolutePath();
+            final KinshipMatrix kinship = new KinshipMatrix(network, subset);
+            GUIUtils.beginLongComputation(frame, "Computing kinship...");
+            // the matrix can be large, keep the event thread responsive
+            new Thread(new Runnable() {
+                public void run() {
+                    String error = null;
+                    try {
+                        kinship.write(filename);
+                    }
+                    catch(Exception e) {
+                        LOG.error("Cannot write kinship file", e);
+                        error = e.getMessage();
+                    }
+                    final String message = error;
+                    SwingUtilities.invokeLater(new Runnable() {
+                        public void run() {
+                            GUIUtils.endLongComputation(frame);
+                            if (message != null)
+                                JOptionPane.showMessageDialog(frame, message);
+                        }
+                    });
+                }
+            }, "Kinship writer").start();
+        }
+    }
+    
     void saveAsDOT(Network network) {
         if (quilt == null)
             return;
@@ -667,7 +905,7 @@ public class GeneaQuilt implements PFilterAnimation.Target {
         }
     }
     
-    void createCanvas() {
+    void createCanvas(boolean fromSnapshot) {
         canvas = new PCanvas() {
             /**
              * {@inheritDoc}
@@ -691,7 +929,7 @@ public class GeneaQuilt implements PFilterAnimation.Target {
         mainLayer = canvas.getLayer();
         
         // Quilt
-        quiltManager = new QuiltManager(network);
+        quiltManager = new QuiltManager(network, fromSnapshot);
         mainLayer.addChild(quiltManager);
         
         // Selections
@@ -1145,6 +1383,7 @@ public class GeneaQuilt implements PFilterAnimation.Target {
             Vertex first = selection.get(0);
             canvas.getCamera().animateViewToPanToBounds(first.getNode().getFullBounds(), 200);
         }
+        searchResult = selection;
         return selection;
 
     }
@@ -0,0 +1,333 @@
+/**
+ * Copyright (c) 2010-2014, Jean-Daniel Fekete, Pierre Dragicevic, and INRIA.
+ * All rights reserved.
+ *
+ * Use of this source code is governed by a BSD-style license that can be
+ * found in the LICENSE file.
+ */
+package geneaquilt.algorithms;
+
+import java.util.Arrays;
+
+/**
+ * Class FeedbackArcSet finds a small set of edges whose reversal makes
+ * a directed graph acyclic, in time linear in the size of the graph.
+ * 
+ * <p>The graph is described by int arrays like in {@link NetworkSimplex}:
+ * an edge e goes from <code>tail[e]</code> to <code>head[e]</code>.
+ * The strongly connected components are computed with Tarjan's
+ * algorithm, using an explicit stack so that deep graphs cannot
+ * overflow the call stack. Only the edges inside a non trivial
+ * component can be on a cycle. These components are ordered with the
+ * heuristic of Eades, Lin and Smyth ("A fast and effective heuristic
+ * for the feedback arc set problem", IPL 47, 1993): sinks are
+ * repeatedly moved to the end of the order, sources to its start and
+ * otherwise the vertex maximizing outdegree minus indegree to its start.
+ * The edges going backward in this order are reversed.
+ * Self loops are always reported.</p>
+ * 
+ * @author Jean-Daniel Fekete
+ * @version $Revision$
+ */
+public class FeedbackArcSet {
+    private static final int SINKS = 0;
+    private static final int SOURCES = 1;
+    private final int n;
+    private final int m;
+    private final int[] tail;
+    private final int[] head;
+    private int[] outStart;
+    private int[] outEdge;
+    private int[] inStart;
+    private int[] inEdge;
+    private int[] component;
+    private int componentCount;
+    private int[] componentSize;
+    private boolean[] reversed;
+    private int reversedCount;
+
+    /**
+     * Creates a FeedbackArcSet.
+     * @param n the number of vertices
+     * @param tail the tail of each edge
+     * @param head the head of each edge
+     */
+    public FeedbackArcSet(int n, int[] tail, int[] head) {
+        this.n = n;
+        this.m = tail.length;
+        this.tail = tail;
+        this.head = head;
+    }
+
+    /**
+     * Computes the edges to reverse.
+     * @return an array telling for each edge whether it is reversed
+     */
+    public boolean[] compute() {
+        findComponents();
+        order();
+        return reversed;
+    }
+
+    /**
+     * Computes the strongly connected components only, without 
+     * searching the edges to reverse.
+     * @return the number of components
+     */
+    public int findComponents() {
+        buildAdjacency();
+        tarjan();
+        return componentCount;
+    }
+
+    /**
+     * @return the edges to reverse, valid after {@link #compute()}
+     */
+    public boolean[] getReversed() {
+        return reversed;
+    }
+
+    /**
+     * @return the number of edges to reverse
+     */
+    public int getReversedCount() {
+        return reversedCount;
+    }
+
+    /**
+     * @return the number of strongly connected components
+     */
+    public int getComponentCount() {
+        return componentCount;
+    }
+
+    /**
+     * Returns the strongly connected component of a vertex, the
+     * components are numbered in reverse topological order.
+     * @param v the vertex
+     * @return the component number
+     */
+    public int getComponent(int v) {
+        return component[v];
+    }
+
+    private void buildAdjacency() {
+        outStart = new int[n+1];
+        inStart = new int[n+1];
+        for (int e = 0; e < m; e++) {
+            outStart[tail[e]+1]++;
+            inStart[head[e]+1]++;
+        }
+        for (int v = 0; v < n; v++) {
+            outStart[v+1] += outStart[v];
+            inStart[v+1] += inStart[v];
+        }
+        outEdge = new int[m];
+        inEdge = new int[m];
+        int[] outFill = new int[n];
+        int[] inFill = new int[n];
+        for (int e = 0; e < m; e++) {
+            outEdge[outStart[tail[e]] + outFill[tail[e]]++] = e;
+            inEdge[inStart[head[e]] + inFill[head[e]]++] = e;
+        }
+    }
+
+    /**
+     * Tarjan's strongly connected components with explicit stacks.
+     */
+    private void tarjan() {
+        int[] index = new int[n];
+        int[] low = new int[n];
+        boolean[] onStack = new boolean[n];
+        int[] stack = new int[n];
+        int[] callVertex = new int[n];
+        int[] callEdge = new int[n];
+        component = new int[n];
+        componentSize = new int[n];
+        componentCount = 0;
+        Arrays.fill(index, -1);
+        int counter = 0;
+        int sp = 0;
+        for (int s = 0; s < n; s++) {
+            if (index[s] != -1)
+                continue;
+            int cp = 0;
+            index[s] = low[s] = counter++;
+            stack[sp++] = s;
+            onStack[s] = true;
+            callVertex[cp] = s;
+            callEdge[cp] = outStart[s];
+            cp++;
+            while (cp > 0) {
+                int v = callVertex[cp-1];
+                int k = callEdge[cp-1];
+                if (k < outStart[v+1]) {
+                    callEdge[cp-1]++;
+                    int w = head[outEdge[k]];
+                    if (index[w] == -1) {
+                        index[w] = low[w] = counter++;
+                        stack[sp++] = w;
+                        onStack[w] = true;
+                        callVertex[cp] = w;
+                        callEdge[cp] = outStart[w];
+                        cp++;
+                    }
+                    else if (onStack[w] && index[w] < low[v]) {
+                        low[v] = index[w];
+                    }
+                }
+                else {
+                    cp--;
+                    if (low[v] == index[v]) {
+                        int w;
+                        do {
+                            w = stack[--sp];
+                            onStack[w] = false;
+                            component[w] = componentCount;
+                            componentSize[componentCount]++;
+                        } while (w != v);
+                        componentCount++;
+                    }
+                    if (cp > 0) {
+                        int u = callVertex[cp-1];
+                        if (low[v] < low[u])
+                            low[u] = low[v];
+                    }
+                }
+            }
+        }
+    }
+
+    private boolean internal(int e) {
+        return tail[e] != head[e]
+                && component[tail[e]] == component[head[e]];
+    }
+
+    /**
+     * Eades, Lin and Smyth ordering of the vertices of the non trivial
+     * components, using buckets of vertices by outdegree minus indegree.
+     */
+    private void order() {
+        reversed = new boolean[m];
+        reversedCount = 0;
+        int[] out = new int[n];
+        int[] in = new int[n];
+        int maxDegree = 0;
+        int count = 0;
+        for (int e = 0; e < m; e++) {
+            if (tail[e] == head[e]) {
+                reversed[e] = true;
+                reversedCount++;
+            }
+            else if (internal(e)) {
+                out[tail[e]]++;
+                in[head[e]]++;
+            }
+        }
+        for (int v = 0; v < n; v++) {
+            if (componentSize[component[v]] > 1) {
+                count++;
+                maxDegree = Math.max(maxDegree, Math.max(out[v], in[v]));
+            }
+        }
+        if (count == 0)
+            return;
+        int offset = 2 + maxDegree;
+        int[] bucketHead = new int[offset + maxDegree + 1];
+        int[] bucket = new int[n];
+        int[] next = new int[n];
+        int[] prev = new int[n];
+        boolean[] removed = new boolean[n];
+        Arrays.fill(bucketHead, -1);
+        int maxBucket = SOURCES;
+        for (int v = 0; v < n; v++) {
+            if (componentSize[component[v]] <= 1) {
+                removed[v] = true;
+                continue;
+            }
+            int b = out[v] - in[v] + offset;
+            bucket[v] = b;
+            link(v, b, bucketHead, next, prev);
+            maxBucket = Math.max(maxBucket, b);
+        }
+        int[] pos = new int[n];
+        int left = 0;
+        int right = count-1;
+        while (left <= right) {
+            int v;
+            if (bucketHead[SINKS] != -1) {
+                v = bucketHead[SINKS];
+                pos[v] = right--;
+            }
+            else if (bucketHead[SOURCES] != -1) {
+                v = bucketHead[SOURCES];
+                pos[v] = left++;
+            }
+            else {
+                while (bucketHead[maxBucket] == -1)
+                    maxBucket--;
+                v = bucketHead[maxBucket];
+                pos[v] = left++;
+            }
+            unlink(v, bucket[v], bucketHead, next, prev);
+            removed[v] = true;
+            for (int k = outStart[v]; k < outStart[v+1]; k++) {
+                int e = outEdge[k];
+                int w = head[e];
+                if (removed[w] || ! internal(e))
+                    continue;
+                in[w]--;
+                maxBucket = Math.max(maxBucket,
+                        rebucket(w, out, in, offset, bucket, bucketHead, next, prev));
+            }
+            for (int k = inStart[v]; k < inStart[v+1]; k++) {
+                int e = inEdge[k];
+                int u = tail[e];
+                if (removed[u] || ! internal(e))
+                    continue;
+                out[u]--;
+                rebucket(u, out, in, offset, bucket, bucketHead, next, prev);
+            }
+        }
+        for (int e = 0; e < m; e++) {
+            if (internal(e) && pos[tail[e]] > pos[head[e]]) {
+                reversed[e] = true;
+                reversedCount++;
+            }
+        }
+    }
+
+    private static int rebucket(int v, int[] out, int[] in, int offset,
+            int[] bucket, int[] bucketHead, int[] next, int[] prev) {
+        int b;
+        if (out[v] == 0)
+            b = SINKS;
+        else if (in[v] == 0)
+            b = SOURCES;
+        else
+            b = out[v] - in[v] + offset;
+        if (b != bucket[v]) {
+            unlink(v, bucket[v], bucketHead, next, prev);
+            bucket[v] = b;
+            link(v, b, bucketHead, next, prev);
+        }
+        return b;
+    }
+
+    private static void link(int v, int b, int[] bucketHead, int[] next, int[] prev) {
+        next[v] = bucketHead[b];
+        prev[v] = -1;
+        if (bucketHead[b] != -1)
+            prev[bucketHead[b]] = v;
+        bucketHead[b] = v;
+    }
+
+    private static void unlink(int v, int b, int[] bucketHead, int[] next, int[] prev) {
+        if (prev[v] != -1)
+            next[prev[v]] = next[v];
+        else
+            bucketHead[b] = next[v];
+        if (next[v] != -1)
+            prev[next[v]] = prev[v];
+    }
+}
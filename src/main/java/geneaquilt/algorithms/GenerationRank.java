@@ -7,34 +7,65 @@
  */
 package geneaquilt.algorithms;
 
-import geneaquilt.data.Edge;
+import geneaquilt.data.Adjacency;
 import geneaquilt.data.Fam;
 import geneaquilt.data.Network;
+import geneaquilt.data.NetworkView;
 import geneaquilt.data.Vertex;
 
-import java.util.HashSet;
-import java.util.LinkedList;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.log4j.Logger;
 
 /**
- * Class GenerationRank
+ * Class GenerationRank assigns a layer to each vertex, minimizing
+ * the total length of the edges with {@link NetworkSimplex}.
+ * 
+ * <p>Ascendants are on lower layers than their descendants, and
+ * each connected component is ranked separately, individuals on
+ * even layers and families on odd layers. The edges causing cycles
+ * are reversed in the {@link Network#getAcyclicView() acyclic view}
+ * of the network, which is not modified.</p>
+ * 
+ * <p>Ranking a component only reads the adjacency and writes the
+ * layers of its own vertices, so the components are ranked
+ * concurrently on a {@link ForkJoinPool}, the largest first.</p>
  * 
  * @author Jean-Daniel Fekete
  * @version $Revision$
  */
 public class GenerationRank extends AbstractAlgorithm {
     private static final Logger LOG = Logger.getLogger(GenerationRank.class);
-    private Set<Vertex> treeNode = new HashSet<Vertex>();
-    private Set<Edge> treeEdge = new HashSet<Edge>();
+    private final int parallelism;
 
     /**
-     * Creates a GenerationRank.
+     * Creates a GenerationRank using all the available processors.
      * @param network the network
      */
     public GenerationRank(Network network) {
+        this(network, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Creates a GenerationRank using the specified number of threads.
+     * @param network the network
+     * @param parallelism the number of threads
+     */
+    public GenerationRank(Network network, int parallelism) {
         super(network);
+        this.parallelism = Math.max(1, parallelism);
+    }
+
+    /**
+     * @return the number of threads
+     */
+    public int getParallelism() {
+        return parallelism;
     }
     
     /**
@@ -46,160 +77,135 @@ public class GenerationRank extends AbstractAlgorithm {
     }
     
     private void assignLayers() {
-        Set<Edge> cycles = network.getCycles();
-        LOG.debug("Cyclic edges: "+cycles.size());
-        try {
-//            for (Edge e : network.getEdges())
-//                e.setInverted(cycles.contains(e));
-            for (Edge e : cycles) {
-                network.removeEdge(e);
-                network.addEdge(e, e.getToVertex(), e.getFromVertex());
-            }
-            
-            network.resetLayers();
-            for (Set<Vertex> comp : network.getComponents()) {
-                 assignLayers(comp);
-            }
-            int min = network.getMinLayer();
-            if (min != 0)
-                network.offsetLayer(-min, network.getVertices());
-            treeNode.clear();
-            treeEdge.clear();
+        NetworkView view = network.getAcyclicView();
+        LOG.debug("Cyclic edges: "+network.getCycles().size());
+        network.resetLayers();
+        Adjacency adj = view.getAdjacency();
+        List<Set<Vertex>> components = network.getComponents();
+        long t0 = System.currentTimeMillis();
+        int threads = Math.min(parallelism, components.size());
+        RankTask task = new RankTask(adj, components, threads);
+        if (threads <= 1) {
+            task.compute();
         }
-        finally {
-            for (Edge e : cycles) {
-                network.removeEdge(e);
-                network.addEdge(e, e.getFromVertex(), e.getToVertex());
+        else {
+            ForkJoinPool pool = new ForkJoinPool(threads);
+            try {
+                pool.invoke(task);
             }
-        }
-    }
-    
-    private void initRank(Set<Vertex> comp) {
-        LinkedList<Vertex> queue = new LinkedList<Vertex>();
-        HashSet<Vertex> processed = new HashSet<Vertex>();
-        int ctr = 0;
-        
-        for (Vertex v : comp) {
-            if (network.isOrphan(v)) {
-                queue.add(v);
-            }
-        }
-        
-        while (! queue.isEmpty()) {
-            Vertex v = queue.removeFirst();
-            processed.add(v);
-            ctr++;
-            int layer = (v instanceof Fam) ? 1 : 0;
-            for (Vertex p : network.getAscendants(v)) {
-                layer = Math.max(layer, p.getLayer()+1);
-            }
-            v.setLayer(layer);
-            for (Vertex d : network.getDescendants(v)) {
-                if (processed.containsAll(network.getAscendants(d))) {
-                    queue.addLast(d);
-                }
+            finally {
+                pool.shutdown();
             }
         }
-        assert(ctr == comp.size());
+        LOG.info("Ranked "+components.size()+" components on "
+                +Math.max(1, threads)+" threads in "
+                +(System.currentTimeMillis()-t0)+"ms");
+        int min = network.getMinLayer();
+        if (min != 0)
+            network.offsetLayer(-min, network.getVertices());
     }
     
-    private void assignLayers(Set<Vertex> comp) {
-        initRank(comp);
-        feasibleTree(comp);
-        int min = comp.size();
-        for (Vertex v : comp) {
-            min = Math.min(min, v.getLayer());
+    /**
+     * Ranks the components of a network. The root task starts one
+     * worker per thread, and each worker takes the next component in
+     * the list, sorted by decreasing size, until all are ranked.
+     */
+    static class RankTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private final Adjacency adj;
+        private final List<Set<Vertex>> components;
+        private final int[] local;
+        private final AtomicInteger next;
+        private final int workers;
+
+        RankTask(Adjacency adj, List<Set<Vertex>> components, int workers) {
+            this(adj, components, new int[adj.getVertexCount()],
+                    new AtomicInteger(), workers);
         }
-        if ((min % 2) == 1) // family is always odd
-            min--;
-        network.offsetLayer(-min, comp);
-    }
-    
-    private void feasibleTree(Set<Vertex> comp) {
-        if (comp.size() <= 1)
-            return;
-        while (tightTree(comp) < comp.size()) {
-            Edge e = null;
-            for (Vertex v : comp) {
-                for (Edge f : network.getInEdges(v)) {
-                    if (! treeEdge.contains(f)
-                            && incident(f)!=null
-                            && ((e == null)
-                                    || (slack(f) < slack(e)))) {
-                        e = f;
-                    }
+
+        private RankTask(Adjacency adj, List<Set<Vertex>> components,
+                int[] local, AtomicInteger next, int workers) {
+            this.adj = adj;
+            this.components = components;
+            this.local = local;
+            this.next = next;
+            this.workers = workers;
+        }
+
+        @Override
+        protected void compute() {
+            if (workers > 1) {
+                List<RankTask> tasks = new ArrayList<RankTask>(workers);
+                for (int i = 0; i < workers; i++) {
+                    tasks.add(new RankTask(adj, components, local, next, 0));
                 }
+                invokeAll(tasks);
+                return;
             }
-            if (e != null) {
-                int delta = slack(e);
-                if (delta != 0) {
-                    if (incident(e)==network.getDescendant(e)) 
-                        delta = -delta;//CHECK
-                    network.offsetLayer(delta, treeNode);
-                }
-                else
-                    LOG.error("Unexpected tight node");
+            int c;
+            while ((c = next.getAndIncrement()) < components.size()) {
+                Set<Vertex> comp = components.get(c);
+                long t0 = System.currentTimeMillis();
+                int iterations = assignLayers(adj, comp, local);
+                if (LOG.isDebugEnabled() && comp.size() > 1)
+                    LOG.debug("Ranked component "+c+" of size "+comp.size()
+                            +" in "+(System.currentTimeMillis()-t0)+"ms, "
+                            +iterations+" iterations");
             }
         }
     }
-    
-    private Vertex incident(Edge e) {
-        Vertex source = network.getSource(e);
-        Vertex dest = network.getDest(e);
-        if (treeNode.contains(source)) {
-            if (!treeNode.contains(dest))
-                return source;
-        }
-        else if (treeNode.contains(dest)) {
-            return dest;
-        }
-        return null;
-    }
-    
-    private int slack(Edge e) {
-        return network.getSource(e).getLayer()-network.getDest(e).getLayer()-1;
-    }
-    
-    private int tightTree(Set<Vertex> comp) {
-        treeNode.clear();
-        treeEdge.clear();
+
+    /**
+     * Ranks a component. An edge goes from a descendant to an
+     * ascendant so the simplex edges are reversed, from the
+     * ascendant (tail) to the descendant (head).
+     * @param adj the adjacency of the acyclic view of the network
+     * @param comp the component
+     * @param local a map from network ids to component ids, 
+     * shared by the components since each only uses the entries
+     * of its own vertices
+     * @return the number of simplex iterations
+     */
+    static int assignLayers(Adjacency adj, Set<Vertex> comp, int[] local) {
+        int n = comp.size();
+        int[] ids = new int[n];
+        int[] base = new int[n];
+        int m = 0;
+        int i = 0;
         for (Vertex v : comp) {
-            treeSearch(v, comp.size());
-            if (! treeEdge.isEmpty())
-                break;
+            int id = adj.getId(v);
+            ids[i] = id;
+            local[id] = i;
+            base[i] = (v instanceof Fam) ? 1 : 0;
+            m += adj.outDegree(id);
+            i++;
         }
-        
-        return treeNode.size();
-    }
-    
-    private boolean treeSearch(Vertex v, int n) {
-        for (Edge e : network.getOutEdges(v)) {
-            Vertex head = network.getDest(e);
-            if (!treeNode.contains(head) && slack(e)==0) { 
-                addTreeEdge(e);
-                if (treeEdge.size()==n-1 || treeSearch(head, n)) {
-                    return true;
-                }
+        int[] tail = new int[m];
+        int[] head = new int[m];
+        int e = 0;
+        for (i = 0; i < n; i++) {
+            int id = ids[i];
+            for (int k = adj.outBegin(id); k < adj.outEnd(id); k++) {
+                tail[e] = local[adj.outVertex(k)];
+                head[e] = i;
+                e++;
             }
         }
-        for (Edge e : network.getInEdges(v)) {
-            Vertex tail = network.getSource(e);
-            if (!treeNode.contains(tail) && slack(e)==0) { 
-                addTreeEdge(e);
-                if (treeEdge.size()==n-1 || treeSearch(tail, n))
-                    return true;
-            }
+        NetworkSimplex simplex = new NetworkSimplex(n, tail, head, base);
+        if (! simplex.compute())
+            LOG.warn("Non optimal layers for component of size "+n);
+        int[] rank = simplex.getRanks();
+        int min = Integer.MAX_VALUE;
+        for (i = 0; i < n; i++) {
+            min = Math.min(min, rank[i]);
         }
-        return false;
-    }
-        
-        private void addTreeEdge(Edge e) {
-            assert(! treeEdge.contains(e));
-            
-            treeEdge.add(e);
-            treeNode.add(network.getSource(e));
-            treeNode.add(network.getDest(e));
+        if ((min % 2) != 0) // family is always odd
+            min--;
+        for (i = 0; i < n; i++) {
+            adj.getVertex(ids[i]).setLayer(rank[i]-min);
         }
+        return simplex.getIterations();
+    }
     
 //    private int depth(Vertex v) {
 //        int max = 0;
@@ -0,0 +1,523 @@
+/**
+ * Copyright (c) 2010-2014, Jean-Daniel Fekete, Pierre Dragicevic, and INRIA.
+ * All rights reserved.
+ *
+ * Use of this source code is governed by a BSD-style license that can be
+ * found in the LICENSE file.
+ */
+package geneaquilt.algorithms;
+
+import geneaquilt.data.Adjacency;
+import geneaquilt.data.Fam;
+import geneaquilt.data.Indi;
+import geneaquilt.data.Network;
+import geneaquilt.data.Vertex;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.log4j.Logger;
+
+/**
+ * <b>KinshipMatrix</b> computes the additive relationship and kinship
+ * coefficients between all the pairs of a subset of the individuals
+ * of a network, and writes the non null ones in a CSV file.
+ *
+ * <p>Only the ancestors of the subset are considered.  They are numbered
+ * with their parents before them, their within-family variances D are
+ * computed with {@link InbreedingCoefficient#meuwissenLuo}, then the row
+ * of the triangular factor L of the relationship matrix A = L D L' is
+ * traced for each member of the subset.  The relationship between two
+ * members is the sum over their common ancestors k of
+ * L[x][k] L[y][k] D[k], so the rows are also indexed by ancestor and
+ * each member only meets the members sharing one of its ancestors.
+ * The memory is proportional to the size of the rows, and the matrix
+ * is never stored: it is computed by blocks of rows, spread over the
+ * processors with a {@link ForkJoinPool}, and written block by block.</p>
+ *
+ * @author Jean-Daniel Fekete
+ * @version $Revision$
+ */
+public class KinshipMatrix extends AbstractAlgorithm {
+    private static final Logger LOG = Logger.getLogger(KinshipMatrix.class);
+    private static final int BLOCK = 1024;
+    private final int parallelism;
+    private final Indi[] members;
+    private int[] sire;
+    private int[] dam;
+    private int closureSize;
+    private int[] memberNum;
+    private double[] f;
+    private double[] d;
+    private int[][] rowAncestors;
+    private double[][] rowWeights;
+    private int[] colStart;
+    private int[] colMember;
+    private double[] colWeight;
+    private long entries;
+
+    /**
+     * Creates a KinshipMatrix using all the available processors.
+     * @param network the network
+     * @param subset the vertices, only the individuals are kept
+     */
+    public KinshipMatrix(Network network, Collection<? extends Vertex> subset) {
+        this(network, subset, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Creates a KinshipMatrix using the specified number of threads.
+     * @param network the network
+     * @param subset the vertices, only the individuals are kept
+     * @param parallelism the number of threads
+     */
+    public KinshipMatrix(Network network, Collection<? extends Vertex> subset,
+            int parallelism) {
+        super(network);
+        this.parallelism = Math.max(1, parallelism);
+        LinkedHashSet<Indi> set = new LinkedHashSet<Indi>();
+        for (Vertex v : subset) {
+            if (v instanceof Indi)
+                set.add((Indi)v);
+        }
+        members = set.toArray(new Indi[set.size()]);
+    }
+
+    /**
+     * @return the number of threads
+     */
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    /**
+     * @return the number of individuals of the subset
+     */
+    public int getMemberCount() {
+        return members.length;
+    }
+
+    /**
+     * Returns an individual of the subset.
+     * @param x the index of the individual in the subset
+     * @return the individual
+     */
+    public Indi getMember(int x) {
+        return members[x];
+    }
+
+    /**
+     * @return the number of individuals of the subset and their ancestors
+     */
+    public int getClosureSize() {
+        return closureSize;
+    }
+
+    /**
+     * Returns the inbreeding coefficient of an individual of the subset,
+     * once computed.
+     * @param x the index of the individual in the subset
+     * @return the inbreeding coefficient
+     */
+    public double getInbreeding(int x) {
+        return f[memberNum[x]];
+    }
+
+    /**
+     * @return the number of non null coefficients written so far,
+     * counting each pair once
+     */
+    public long getEntryCount() {
+        return entries;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void compute() {
+        long time = System.currentTimeMillis();
+        number();
+        int[] generation = new int[closureSize+1];
+        f = new double[closureSize+1];
+        d = new double[closureSize+1];
+        InbreedingCoefficient.meuwissenLuo(
+                closureSize, sire, dam, generation, f, d);
+        rowAncestors = new int[members.length][];
+        rowWeights = new double[members.length][];
+        int threads = Math.min(parallelism, members.length);
+        invoke(new TraceTask(generation, new AtomicInteger(), threads), threads);
+        indexColumns();
+        LOG.info("Traced "+members.length+" individuals and "
+                +closureSize+" ancestors in "
+                +(System.currentTimeMillis()-time)+"ms, "
+                +colMember.length+" factor entries");
+    }
+
+    private static void invoke(RecursiveAction task, int threads) {
+        if (threads <= 1) {
+            task.invoke();
+            return;
+        }
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        try {
+            pool.invoke(task);
+        }
+        finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Numbers the members and their ancestors from 1 with a depth first
+     * search, the parents being numbered before their children.
+     * Parents found on a cycle of the network are dropped.
+     */
+    private void number() {
+        Adjacency adj = network.getAdjacency();
+        int n = adj.getVertexCount();
+        int[] num = new int[n];
+        boolean[] visiting = new boolean[n];
+        int[] stack = new int[16];
+        int[] parents = new int[2];
+        sire = new int[members.length+1];
+        dam = new int[members.length+1];
+        memberNum = new int[members.length];
+        closureSize = 0;
+        for (int x = 0; x < members.length; x++) {
+            int root = adj.getId(members[x]);
+            if (num[root] == 0 && !visiting[root]) {
+                int top = 0;
+                stack[top++] = root;
+                visiting[root] = true;
+                while (top > 0) {
+                    int v = stack[top-1];
+                    int count = parents(adj, v, parents);
+                    boolean pushed = false;
+                    for (int i = 0; i < count; i++) {
+                        int p = parents[i];
+                        if (num[p] == 0 && !visiting[p]) {
+                            if (top == stack.length)
+                                stack = Arrays.copyOf(stack, top*2);
+                            stack[top++] = p;
+                            visiting[p] = true;
+                            pushed = true;
+                            break;
+                        }
+                    }
+                    if (pushed)
+                        continue;
+                    top--;
+                    visiting[v] = false;
+                    int i = ++closureSize;
+                    if (i == sire.length) {
+                        sire = Arrays.copyOf(sire, i*2);
+                        dam = Arrays.copyOf(dam, i*2);
+                    }
+                    num[v] = i;
+                    for (int k = 0; k < count; k++) {
+                        int p = num[parents[k]];
+                        if (p == 0)
+                            continue;
+                        if (sire[i] == 0)
+                            sire[i] = p;
+                        else if (dam[i] == 0 && p != sire[i])
+                            dam[i] = p;
+                    }
+                }
+            }
+            memberNum[x] = num[root];
+        }
+        sire = Arrays.copyOf(sire, closureSize+1);
+        dam = Arrays.copyOf(dam, closureSize+1);
+    }
+
+    /**
+     * Stores the parents of an individual.
+     * @return the number of parents, at most 2
+     */
+    private static int parents(Adjacency adj, int v, int[] parents) {
+        int count = 0;
+        for (int k = adj.outBegin(v); k < adj.outEnd(v); k++) {
+            int fam = adj.outVertex(k);
+            if (!(adj.getVertex(fam) instanceof Fam))
+                continue;
+            for (int j = adj.outBegin(fam); j < adj.outEnd(fam) && count < 2; j++) {
+                int p = adj.outVertex(j);
+                if (adj.getVertex(p) instanceof Indi)
+                    parents[count++] = p;
+            }
+            break;
+        }
+        return count;
+    }
+
+    /**
+     * Indexes the rows of the factor by ancestor, the members of each
+     * column in increasing order.
+     */
+    private void indexColumns() {
+        colStart = new int[closureSize+2];
+        for (int[] row : rowAncestors) {
+            for (int k : row)
+                colStart[k+1]++;
+        }
+        for (int k = 1; k <= closureSize+1; k++)
+            colStart[k] += colStart[k-1];
+        colMember = new int[colStart[closureSize+1]];
+        colWeight = new double[colMember.length];
+        int[] fill = Arrays.copyOf(colStart, closureSize+1);
+        for (int x = 0; x < members.length; x++) {
+            int[] row = rowAncestors[x];
+            double[] w = rowWeights[x];
+            for (int j = 0; j < row.length; j++) {
+                int c = fill[row[j]]++;
+                colMember[c] = x;
+                colWeight[c] = w[j];
+            }
+        }
+    }
+
+    /**
+     * Traces the rows of the factor of the members. The root task starts
+     * one worker per thread, and each worker takes the next member.
+     */
+    class TraceTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private final int[] generation;
+        private final AtomicInteger next;
+        private final int workers;
+
+        TraceTask(int[] generation, AtomicInteger next, int workers) {
+            this.generation = generation;
+            this.next = next;
+            this.workers = workers;
+        }
+
+        @Override
+        protected void compute() {
+            if (workers > 1) {
+                List<TraceTask> tasks = new ArrayList<TraceTask>(workers);
+                for (int i = 0; i < workers; i++) {
+                    tasks.add(new TraceTask(generation, next, 0));
+                }
+                invokeAll(tasks);
+                return;
+            }
+            int n = closureSize;
+            double[] l = new double[n+1];
+            int[] link = new int[n+1];
+            int[] head = new int[n+1];
+            boolean[] listed = new boolean[n+1];
+            int[] ancestors = new int[16];
+            double[] weights = new double[16];
+            int x;
+            while ((x = next.getAndIncrement()) < members.length) {
+                int i = memberNum[x];
+                int count = 0;
+                l[i] = 1;
+                head[generation[i]] = i;
+                link[i] = 0;
+                for (int g = generation[i]; g >= 0; g--) {
+                    while (head[g] != 0) {
+                        int j = head[g];
+                        head[g] = link[j];
+                        listed[j] = false;
+                        if (count == ancestors.length) {
+                            ancestors = Arrays.copyOf(ancestors, count*2);
+                            weights = Arrays.copyOf(weights, count*2);
+                        }
+                        ancestors[count] = j;
+                        weights[count++] = l[j];
+                        double r = 0.5 * l[j];
+                        l[j] = 0;
+                        int p = sire[j];
+                        if (p != 0) {
+                            if (!listed[p]) {
+                                listed[p] = true;
+                                link[p] = head[generation[p]];
+                                head[generation[p]] = p;
+                            }
+                            l[p] += r;
+                        }
+                        p = dam[j];
+                        if (p != 0) {
+                            if (!listed[p]) {
+                                listed[p] = true;
+                                link[p] = head[generation[p]];
+                                head[generation[p]] = p;
+                            }
+                            l[p] += r;
+                        }
+                    }
+                }
+                rowAncestors[x] = Arrays.copyOf(ancestors, count);
+                rowWeights[x] = Arrays.copyOf(weights, count);
+            }
+        }
+    }
+
+    /**
+     * Writes the matrix in the specified file.
+     * @param filename the file name
+     * @throws IOException if the file cannot be written
+     */
+    public void write(String filename) throws IOException {
+        PrintWriter out = new PrintWriter(filename);
+        try {
+            write(out);
+        }
+        finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Writes the upper triangle of the matrix, diagonal included, one
+     * line per pair of individuals with a non null relationship.
+     * Computes the matrix first if needed.
+     * @param out the writer
+     * @throws IOException if the writer fails
+     */
+    public void write(PrintWriter out) throws IOException {
+        if (colMember == null)
+            compute();
+        long time = System.currentTimeMillis();
+        entries = 0;
+        out.println("ID1,ID2,RELATIONSHIP,KINSHIP");
+        int threads = Math.min(parallelism, members.length);
+        Scratch[] scratch = new Scratch[Math.max(1, threads)];
+        for (int i = 0; i < scratch.length; i++)
+            scratch[i] = new Scratch(members.length);
+        String[] lines = new String[BLOCK];
+        ForkJoinPool pool = threads > 1 ? new ForkJoinPool(threads) : null;
+        try {
+            for (int from = 0; from < members.length; from += BLOCK) {
+                int to = Math.min(from+BLOCK, members.length);
+                PairTask task = new PairTask(from, to, lines,
+                        scratch, new AtomicInteger(from), -1);
+                if (pool == null)
+                    task.invoke();
+                else
+                    pool.invoke(task);
+                for (int x = from; x < to; x++) {
+                    out.print(lines[x-from]);
+                    lines[x-from] = null;
+                }
+                if (out.checkError())
+                    throw new IOException("Cannot write the kinship matrix");
+            }
+        }
+        finally {
+            if (pool != null)
+                pool.shutdown();
+        }
+        for (Scratch s : scratch)
+            entries += s.entries;
+        LOG.info("Wrote "+entries+" kinship coefficients in "
+                +(System.currentTimeMillis()-time)+"ms");
+    }
+
+    /**
+     * Per thread accumulators of the relationships of one member.
+     */
+    static final class Scratch {
+        final double[] sum;
+        final int[] touched;
+        final boolean[] seen;
+        long entries;
+
+        Scratch(int n) {
+            sum = new double[n];
+            touched = new int[n];
+            seen = new boolean[n];
+        }
+    }
+
+    /**
+     * Computes a block of rows of the matrix as lines of CSV. The root
+     * task starts one worker per scratch, and each worker takes the
+     * next row of the block.
+     */
+    class PairTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private final int from;
+        private final int to;
+        private final String[] lines;
+        private final Scratch[] scratch;
+        private final AtomicInteger next;
+        private final int worker;
+
+        PairTask(int from, int to, String[] lines, Scratch[] scratch,
+                AtomicInteger next, int worker) {
+            this.from = from;
+            this.to = to;
+            this.lines = lines;
+            this.scratch = scratch;
+            this.next = next;
+            this.worker = worker;
+        }
+
+        @Override
+        protected void compute() {
+            if (worker == -1) {
+                if (scratch.length == 1) {
+                    new PairTask(from, to, lines, scratch, next, 0).compute();
+                    return;
+                }
+                List<PairTask> tasks = new ArrayList<PairTask>(scratch.length);
+                for (int i = 0; i < scratch.length; i++) {
+                    tasks.add(new PairTask(from, to, lines, scratch, next, i));
+                }
+                invokeAll(tasks);
+                return;
+            }
+            Scratch s = scratch[worker];
+            StringBuilder sb = new StringBuilder();
+            int x;
+            while ((x = next.getAndIncrement()) < to) {
+                int[] row = rowAncestors[x];
+                double[] w = rowWeights[x];
+                int count = 0;
+                for (int j = 0; j < row.length; j++) {
+                    int k = row[j];
+                    double lx = w[j] * d[k];
+                    // columns are sorted by member, keep y >= x
+                    for (int c = colStart[k+1]-1; c >= colStart[k]; c--) {
+                        int y = colMember[c];
+                        if (y < x)
+                            break;
+                        if (!s.seen[y]) {
+                            s.seen[y] = true;
+                            s.touched[count++] = y;
+                        }
+                        s.sum[y] += lx * colWeight[c];
+                    }
+                }
+                Arrays.sort(s.touched, 0, count);
+                sb.setLength(0);
+                String id = members[x].getId();
+                for (int t = 0; t < count; t++) {
+                    int y = s.touched[t];
+                    double a = s.sum[y];
+                    s.sum[y] = 0;
+                    s.seen[y] = false;
+                    sb.append(id).append(',')
+                        .append(members[y].getId()).append(',')
+                        .append(a).append(',')
+                        .append(a/2).append('\n');
+                }
+                s.entries += count;
+                lines[x-from] = sb.toString();
+            }
+        }
+    }
+}
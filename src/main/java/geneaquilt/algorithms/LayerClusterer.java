@@ -9,6 +9,8 @@ package geneaquilt.algorithms;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -17,10 +19,17 @@ import org.apache.commons.collections15.Transformer;
 import org.apache.commons.collections15.map.HashedMap;
 import edu.uci.ics.jung.algorithms.cluster.WeakComponentClusterer;
 import edu.uci.ics.jung.graph.DirectedGraph;
-import edu.uci.ics.jung.graph.Tree;
 
 /**
- * Class LayerClusterer
+ * Class LayerClusterer computes the layers of a directed graph.
+ * 
+ * <p>The vertices without successors are on layer 0 and each other
+ * vertex is one layer below its lowest successor, following the
+ * longest path.  The ranks are computed in linear time by a topological
+ * traversal from the sinks.  When the traversal is blocked by cycles,
+ * a vertex of a strongly connected component whose successors are all
+ * ranked is ranked from them, which breaks its cycles.</p>
+ * 
  * @param <V> vertex class
  * @param <E> edge class
  * 
@@ -66,42 +75,132 @@ public class LayerClusterer<V,E>
         this.graph = graph;
         this.rank = new HashedMap<V, Integer>();
         this.maxRank = 0;
-        //Tree<V, E> tree = feasibleTree(comp);
-        //TODO
-        return null;
-    }
-    
-    protected Tree<V,E> feasibleTree(Collection<V> comp) {
-        return null;
-    }
-
-    protected void init_rank(Collection<V> comp) {
+        assignRanks(comp);
+        
+        ArrayList<Set<V>> res = new ArrayList<Set<V>>(maxRank+1);
+        for (int i = 0; i <= maxRank; i++) {
+            res.add(new HashSet<V>());
+        }
         for (V v : comp) {
-            if (graph.getSuccessorCount(v)==0)
-                setRoot(v);
+            res.get(getRank(v)).add(v);
         }
+        return res;
     }
     
-    private void setRoot(V v) {
-        rank.put(v, new Integer(0));
-        assignRank(v, 0);
+    /**
+     * Returns the rank computed for a vertex by the last call to
+     * {@link #rank(DirectedGraph, Collection)}.
+     * @param v the vertex
+     * @return the rank or -1
+     */
+    public int getRank(V v) {
+        Integer r = rank.get(v);
+        if (r == null)
+            return -1;
+        return r.intValue();
     }
     
-    private void assignRank(V v, int vRank) {
-        for (V child : graph.getPredecessors(v)) {
-            Integer o = rank.get(child);
-            int newRank;
-            if (o != null) { 
-                int oldRank = o.intValue();
-                newRank = Math.max(oldRank, vRank+1);
+    /**
+     * @return the maximum rank of the last ranked component
+     */
+    public int getMaxRank() {
+        return maxRank;
+    }
+
+    /**
+     * Assigns the longest path ranks of a component.
+     * @param comp the component
+     */
+    protected void assignRanks(Collection<V> comp) {
+        Map<V,Integer> pending = new HashedMap<V, Integer>();
+        Set<V> queued = new HashSet<V>();
+        ArrayList<V> queue = new ArrayList<V>(comp.size());
+        for (V v : comp) {
+            int count = graph.getSuccessorCount(v);
+            if (count == 0) {
+                queue.add(v);
+                queued.add(v);
             }
             else
-                newRank = vRank+1;
-            
-            rank.put(child, new Integer(newRank));
-            if (newRank > maxRank)
-                maxRank = newRank;
-            assignRank(child, newRank);
+                pending.put(v, Integer.valueOf(count));
+            rank.put(v, Integer.valueOf(0));
+        }
+        
+        Iterator<V> blocked = null;
+        int head = 0;
+        while (queue.size() < comp.size() || head < queue.size()) {
+            if (head == queue.size()) {
+                // Only cycles remain, rank a vertex of the lowest
+                // remaining cycle from the successors already ranked.
+                if (blocked == null)
+                    blocked = cycleOrder(comp).iterator();
+                V w = blocked.next();
+                if (! queued.add(w))
+                    continue;
+                queue.add(w);
+            }
+            V v = queue.get(head++);
+            int vRank = rank.get(v).intValue();
+            if (vRank > maxRank)
+                maxRank = vRank;
+            for (V child : graph.getPredecessors(v)) {
+                if (queued.contains(child))
+                    continue;
+                if (rank.get(child).intValue() < vRank+1)
+                    rank.put(child, Integer.valueOf(vRank+1));
+                int count = pending.get(child).intValue()-1;
+                pending.put(child, Integer.valueOf(count));
+                if (count == 0) {
+                    queue.add(child);
+                    queued.add(child);
+                }
+            }
+        }
+    }
+
+    /**
+     * Sorts the vertices of a component by strongly connected component
+     * in reverse topological order, so that the first vertex not yet
+     * ranked belongs to a cycle whose successors are all ranked.
+     * @param comp the component
+     * @return the sorted vertices
+     */
+    protected List<V> cycleOrder(Collection<V> comp) {
+        Map<V,Integer> index = new HashedMap<V, Integer>();
+        ArrayList<V> vertices = new ArrayList<V>(comp);
+        for (int i = 0; i < vertices.size(); i++) {
+            index.put(vertices.get(i), Integer.valueOf(i));
+        }
+        int m = 0;
+        for (V v : vertices) {
+            for (V succ : graph.getSuccessors(v)) {
+                if (index.containsKey(succ))
+                    m++;
+            }
+        }
+        int[] tail = new int[m];
+        int[] head = new int[m];
+        int e = 0;
+        for (int i = 0; i < vertices.size(); i++) {
+            for (V succ : graph.getSuccessors(vertices.get(i))) {
+                if (! index.containsKey(succ))
+                    continue;
+                tail[e] = i;
+                head[e++] = index.get(succ).intValue();
+            }
+        }
+        FeedbackArcSet scc = new FeedbackArcSet(vertices.size(), tail, head);
+        int[] start = new int[scc.findComponents()+1];
+        for (int i = 0; i < vertices.size(); i++) {
+            start[scc.getComponent(i)+1]++;
+        }
+        for (int c = 1; c < start.length; c++) {
+            start[c] += start[c-1];
+        }
+        ArrayList<V> order = new ArrayList<V>(vertices);
+        for (int i = 0; i < vertices.size(); i++) {
+            order.set(start[scc.getComponent(i)]++, vertices.get(i));
         }
+        return order;
     }
 }
@@ -7,31 +7,46 @@
  */
 package geneaquilt.algorithms;
 
+import geneaquilt.data.Adjacency;
 import geneaquilt.data.Edge;
 import geneaquilt.data.Fam;
 import geneaquilt.data.Indi;
 import geneaquilt.data.Network;
+import geneaquilt.data.NetworkView;
 import geneaquilt.data.Vertex;
 
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Set;
-import java.util.Stack;
-import java.util.Map.Entry;
 
 import org.apache.log4j.Logger;
 
 /**
- * Class LayerRank2
+ * Class LayerRank2 places each individual between its farthest
+ * ancestor and its farthest descendant, counting two layers per 
+ * generation, and each family just above its children.
+ * 
+ * <p>Spouses always share the same levels, so the individuals are 
+ * grouped into couples, the classes of the spouse relation, and the 
+ * levels are propagated on the graph of the couples, from parents to 
+ * children for the ancestor levels and back for the descendant levels.
+ * Each propagation is a single topological pass over int arrays
+ * starting from all the orphans, or all the sterile vertices, at once.
+ * A couple containing a descendant of one of its members has no
+ * finite level; the edges closing such cycles are ignored.</p>
  * 
  * @author Jean-Daniel Fekete
  * @version $Revision$
  */
 public class LayerRank2 extends AbstractAlgorithm {
     private static final Logger LOG = Logger.getLogger(LayerRank2.class);
-    Map<Vertex,Integer> levelPred;
-    Map<Vertex,Integer> levelSucc;
     int depth;
+    NetworkView view;
+    private Adjacency adj;
+    private int[] couple;
+    private int[] levelPred;
+    private int[] levelSucc;
     
     /**
      * Creates athe layer ranker.
@@ -39,8 +54,6 @@ public class LayerRank2 extends AbstractAlgorithm {
      */
     public LayerRank2(Network network) {
         super(network);
-        levelPred = new HashMap<Vertex,Integer>();
-        levelSucc = new HashMap<Vertex,Integer>();        
     }
     
     /**
@@ -49,7 +62,7 @@ public class LayerRank2 extends AbstractAlgorithm {
     @Override
     public void compute() {
         Map<Vertex,Integer> map = computeLayers();
-        for (Entry<Vertex, Integer> e : map.entrySet()) {
+        for (Map.Entry<Vertex, Integer> e : map.entrySet()) {
             network.setVertexLayer(e.getKey(), e.getValue().intValue());
         }
     }
@@ -61,183 +74,217 @@ public class LayerRank2 extends AbstractAlgorithm {
     public Map<Vertex,Integer> computeLayers() {
         Set<Edge> cycles = network.getCycles();
         LOG.debug("Cyclic edges: "+cycles.size());
-        try {
-            for (Edge e : cycles)
-                network.removeEdge(e);
-            levelPred.clear();
-            levelSucc.clear();
-            for (Vertex v : network.getVertices()) {
-                if (network.isOrphan(v)) {
-                    setDepthPred(v);
-                }
-                if (network.isSterile(v)) {
-                    setDepthSucc(v);
+        view = new NetworkView(network, null, cycles);
+        adj = view.getAdjacency();
+        int n = adj.getVertexCount();
+        int couples = computeCouples();
+        
+        // one edge from the couple of the parents of a family
+        // to the couple of each of its children
+        int m = 0;
+        int[] tail = new int[adj.getEdgeCount()];
+        int[] head = new int[adj.getEdgeCount()];
+        int loops = 0;
+        for (int f = 0; f < n; f++) {
+            int parents = parentCouple(f);
+            if (parents == -1) continue;
+            for (int k = adj.inBegin(f); k < adj.inEnd(f); k++) {
+                int child = couple[adj.inVertex(k)];
+                if (child == -1) continue;
+                if (child == parents) {
+                    loops++;
+                    continue;
                 }
+                tail[m] = parents;
+                head[m] = child;
+                m++;
             }
-            depth = 0;
-            Map<Vertex,Integer> layers = new HashMap<Vertex, Integer>();
-            for (Vertex v : network.getVertices()) {
-                if (v instanceof Indi) {
-                    Indi indi = (Indi) v;
-                    int k = getLevelPred(indi)+getLevelSucc(indi);
-                    assert(k>=0);
-                    layers.put(indi, new Integer(k));
-                    if (k > depth)
-                        depth = k;
-                }
-            }
-            for (Vertex v : network.getVertices()) {
-                if (v instanceof Indi) {
-                    Indi indi = (Indi) v;
-                    int k = (depth - layers.get(indi).intValue())/2 + getLevelPred(indi);
-                    layers.put(indi, new Integer(k));
-                }
+        }
+        tail = Arrays.copyOf(tail, m);
+        head = Arrays.copyOf(head, m);
+        boolean[] cut = new FeedbackArcSet(couples, tail, head).compute();
+        
+        levelPred = new int[couples];
+        levelSucc = new int[couples];
+        Arrays.fill(levelPred, -1);
+        Arrays.fill(levelSucc, -1);
+        for (int v = 0; v < n; v++) {
+            Vertex vertex = adj.getVertex(v);
+            if (vertex instanceof Indi) {
+                if (adj.outDegree(v) == 0)
+                    levelPred[couple[v]] = 0;
+                if (adj.inDegree(v) == 0)
+                    levelSucc[couple[v]] = 0;
             }
-            for (Vertex v : network.getVertices()) {
-                if (v instanceof Fam) {
-                    Fam fam = (Fam) v;
-                    int k = famLayer(fam, layers);
-                    layers.put(fam, new Integer(k));
+            else if (vertex instanceof Fam && adj.inDegree(v) == 0) {
+                // a couple without children is two levels above them
+                for (int k = adj.outBegin(v); k < adj.outEnd(v); k++) {
+                    int c = couple[adj.outVertex(k)];
+                    if (c != -1 && levelSucc[c] < 2)
+                        levelSucc[c] = 2;
                 }
             }
-            return layers;
         }
-        finally {
-            for (Edge e : cycles)
-                network.addEdge(e, e.getFromVertex(), e.getToVertex());
+        propagate(couples, tail, head, cut, levelPred);
+        propagate(couples, head, tail, cut, levelSucc);
+        if (loops != 0 || m != 0)
+            LOG.debug("Ignored "+loops+" couples descending from themselves and "
+                    +count(cut)+" edges between couples on cycles");
+        
+        int[] layer = new int[n];
+        depth = 0;
+        for (int v = 0; v < n; v++) {
+            int c = couple[v];
+            if (c == -1) continue;
+            int k = levelPred[c]+levelSucc[c];
+            assert(k>=0);
+            layer[v] = k;
+            if (k > depth)
+                depth = k;
+        }
+        Map<Vertex,Integer> layers = new HashMap<Vertex, Integer>();
+        for (int v = 0; v < n; v++) {
+            int c = couple[v];
+            if (c == -1) continue;
+            layer[v] = (depth - layer[v])/2 + levelPred[c];
+            layers.put(adj.getVertex(v), Integer.valueOf(layer[v]));
         }
+        for (int v = 0; v < n; v++) {
+            if (adj.getVertex(v) instanceof Fam) {
+                layers.put(adj.getVertex(v), Integer.valueOf(famLayer(v, layer)));
+            }
+        }
+        couple = null;
+        levelPred = null;
+        levelSucc = null;
+        return layers;
     }
     
-    private int famLayer(Fam fam, Map<Vertex,Integer> layers) {
-        int k = depth+1;
-        for (Vertex v : network.getPredecessors(fam)) {
-            k = Math.min(k, layers.get(v).intValue()-1);
+    /**
+     * Groups the parents of each family into couples, with a
+     * union-find, and numbers the couples densely.
+     * @return the number of couples
+     */
+    private int computeCouples() {
+        int n = adj.getVertexCount();
+        int[] parent = new int[n];
+        for (int v = 0; v < n; v++) {
+            parent[v] = v;
         }
-        if (k == depth+1) {
-            k = 0;
-            for (Vertex v : network.getSuccessors(fam)) {
-                k = Math.max(k, layers.get(v).intValue()+1);
+        for (int f = 0; f < n; f++) {
+            int first = -1;
+            for (int k = adj.outBegin(f); k < adj.outEnd(f); k++) {
+                int s = adj.outVertex(k);
+                if (! (adj.getVertex(s) instanceof Indi)) continue;
+                if (first == -1) {
+                    first = find(parent, s);
+                }
+                else {
+                    int r = find(parent, s);
+                    if (r != first)
+                        parent[r] = first;
+                }
             }
-            
         }
-        return k;
+        couple = new int[n];
+        Arrays.fill(couple, -1);
+        int couples = 0;
+        for (int v = 0; v < n; v++) {
+            if (adj.getVertex(v) instanceof Indi) {
+                int r = find(parent, v);
+                if (couple[r] == -1)
+                    couple[r] = couples++;
+                couple[v] = couple[r];
+            }
+        }
+        return couples;
     }
     
-//    /**
-//     * Returns the layer associated with the specified vertex.
-//     * @param v the vertex
-//     * @return the layer
-//     */
-//    public int getLayer(Vertex v) {
-//        if (layers == null)
-//            computeLayers();
-//        Integer i = layers.get(v);
-//        if (i == null)
-//            return -1;
-//        return i.intValue();
-//    }
-    
-    private int getLevelPred(Vertex v) {
-        Integer l = levelPred.get(v);
-        if (l == null) {
-            return -1;
+    private static int find(int[] parent, int v) {
+        int root = v;
+        while (parent[root] != root)
+            root = parent[root];
+        while (parent[v] != root) {
+            int next = parent[v];
+            parent[v] = root;
+            v = next;
         }
-        return l.intValue();
+        return root;
     }
     
-    private void setLevelPred(Vertex v, int d) {
-//        LOG.debug("setLevelPred("+v+","+d+")");
-        levelPred.put(v, new Integer(d));
+    private int parentCouple(int f) {
+        for (int k = adj.outBegin(f); k < adj.outEnd(f); k++) {
+            int c = couple[adj.outVertex(k)];
+            if (c != -1)
+                return c;
+        }
+        return -1;
     }
     
-    private void setDepthPred(Vertex v) {
-        Stack<Indi> stack = new Stack<Indi>();
-        Stack<Integer> dstack = new Stack<Integer>();
-        if (v instanceof Fam) {
-            Fam fam = (Fam) v;
-            for (Vertex w : network.getPredecessors(fam)) {
-                stack.push((Indi)w);
-                dstack.push(2);
-                dstack.push(0);
-            }
+    /**
+     * Propagates the levels from the tail to the head of the edges
+     * that are not cut, in topological order, each head being at 
+     * least two levels below its tails. Levels of -1 are not propagated.
+     */
+    private static void propagate(int n, int[] tail, int[] head, boolean[] cut, int[] level) {
+        int[] start = new int[n+1];
+        int[] pending = new int[n];
+        for (int e = 0; e < tail.length; e++) {
+            if (cut[e]) continue;
+            start[tail[e]+1]++;
+            pending[head[e]]++;
         }
-        else {
-            stack.push((Indi)v);
-            dstack.push(0);
-            dstack.push(0);
-        }
-        while (! stack.isEmpty()) {
-            Indi indi = stack.pop();
-            int d = dstack.pop().intValue();
-            int i = dstack.pop().intValue();
-            if (getLevelPred(indi)>d-i)
-                continue;
-            setLevelPred(indi, d);
-            for (Indi s : network.getSpouses(indi)) {
-                stack.push(s);
-                dstack.push(1);
-                dstack.push(d);
-            }
-
-            for (Vertex f : network.getPredecessors(indi)) {
-                for (Vertex w : network.getPredecessors(f)) {
-                    stack.push((Indi)w);
-                    dstack.push(0);
-                    dstack.push(d+2);
-                }
+        for (int v = 0; v < n; v++) {
+            start[v+1] += start[v];
+        }
+        int[] next = Arrays.copyOf(start, n);
+        int[] succ = new int[start[n]];
+        for (int e = 0; e < tail.length; e++) {
+            if (! cut[e])
+                succ[next[tail[e]]++] = head[e];
+        }
+        int[] queue = new int[n];
+        int last = 0;
+        for (int v = 0; v < n; v++) {
+            if (pending[v] == 0)
+                queue[last++] = v;
+        }
+        for (int first = 0; first < last; first++) {
+            int v = queue[first];
+            int d = level[v];
+            for (int k = start[v]; k < start[v+1]; k++) {
+                int w = succ[k];
+                if (d >= 0 && level[w] < d+2)
+                    level[w] = d+2;
+                if (--pending[w] == 0)
+                    queue[last++] = w;
             }
         }
     }
     
-    private int getLevelSucc(Vertex v) {
-        Integer l = levelSucc.get(v);
-        if (l == null) {
-            return -1;
+    private static int count(boolean[] b) {
+        int c = 0;
+        for (boolean x : b) {
+            if (x) c++;
         }
-        return l.intValue();
+        return c;
     }
     
-    private void setLevelSucc(Vertex v, int d) {
-//        LOG.debug("setLevelSucc("+v+","+d+")");
-        levelSucc.put(v, new Integer(d));
-    }
-
-    private void setDepthSucc(Vertex v) {
-        Stack<Indi> stack = new Stack<Indi>();
-        Stack<Integer> dstack = new Stack<Integer>();
-        if (v instanceof Fam) {
-            Fam fam = (Fam) v;
-            for (Vertex w : network.getSuccessors(fam)) {
-                stack.push((Indi)w);
-                dstack.push(0);
-                dstack.push(2);
-            }
+    private int famLayer(int fam, int[] layer) {
+        int k = depth+1;
+        for (int i = adj.inBegin(fam); i < adj.inEnd(fam); i++) {
+            int v = adj.inVertex(i);
+            if (couple[v] != -1)
+                k = Math.min(k, layer[v]-1);
         }
-        else {
-            stack.push((Indi)v);
-            dstack.push(0);
-            dstack.push(0);
-        }
-        while (! stack.isEmpty()) {
-            Indi indi = stack.pop();
-            int d = dstack.pop().intValue();
-            int i = dstack.pop().intValue();
-            if (getLevelSucc(indi)>d-i)
-                continue;
-            setLevelSucc(indi, d);
-            for (Indi s : network.getSpouses(indi)) {
-                stack.push(s);
-                dstack.push(d);
-                dstack.push(1);
-            }
-
-            for (Vertex f : network.getSuccessors(indi)) {
-                for (Vertex w : network.getSuccessors(f)) {
-                    stack.push((Indi)w);
-                    dstack.push(0);
-                    dstack.push(d+2);
-                }
+        if (k == depth+1) {
+            k = 0;
+            for (int i = adj.outBegin(fam); i < adj.outEnd(fam); i++) {
+                int v = adj.outVertex(i);
+                if (couple[v] != -1)
+                    k = Math.max(k, layer[v]+1);
             }
         }
+        return k;
     }
 }
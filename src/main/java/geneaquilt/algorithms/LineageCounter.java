@@ -0,0 +1,250 @@
+/**
+ * Copyright (c) 2010-2014, Jean-Daniel Fekete, Pierre Dragicevic, and INRIA.
+ * All rights reserved.
+ *
+ * Use of this source code is governed by a BSD-style license that can be
+ * found in the LICENSE file.
+ */
+package geneaquilt.algorithms;
+
+import geneaquilt.data.Adjacency;
+import geneaquilt.data.Indi;
+import geneaquilt.data.Network;
+import geneaquilt.data.Vertex;
+
+import org.apache.log4j.Logger;
+
+/**
+ * <b>LineageCounter</b> estimates the number of distinct ancestors and
+ * descendants of each individual of a network with HyperLogLog sketches
+ * (Flajolet, Fusy, Gandouet and Meunier, 2007).
+ *
+ * <p>Because of pedigree collapse, the ancestors reached through
+ * different lines are the same individuals, and counting them exactly
+ * requires sets.  A sketch is a fixed array of registers where the
+ * union of two sets is the maximum of the registers, so the sketch of a
+ * vertex is the union of the sketches of its parents, computed in one
+ * pass in topological order.  The strongly connected components found
+ * by {@link StrongComponents} share one sketch, and a sketch is released as
+ * soon as all the components using it have been computed.</p>
+ *
+ * <p>Only the individuals are counted, and the counts are stored in
+ * {@link Indi#getAncestorCount()} and {@link Indi#getDescendantCount()}.
+ * With the default precision of 2<sup>7</sup> registers, the relative
+ * error is about 9%; small sets are counted almost exactly.</p>
+ *
+ * @author Jean-Daniel Fekete
+ * @version $Revision$
+ */
+public class LineageCounter extends AbstractAlgorithm {
+    private static final Logger LOG = Logger.getLogger(LineageCounter.class);
+    /** Default number of bits indexing the registers */
+    public static final int DEFAULT_PRECISION = 7;
+    private final int precision;
+    private Adjacency adj;
+    private int[] component;
+    private int[] memberStart;
+    private int[] members;
+    private int[] ancestors;
+    private int[] descendants;
+    private int maxLive;
+
+    /**
+     * Creates a LineageCounter with the default precision.
+     * @param network the network
+     */
+    public LineageCounter(Network network) {
+        this(network, DEFAULT_PRECISION);
+    }
+
+    /**
+     * Creates a LineageCounter with the specified precision.
+     * @param network the network
+     * @param precision the number of bits indexing the registers,
+     * between 4 and 16
+     */
+    public LineageCounter(Network network, int precision) {
+        super(network);
+        if (precision < 4 || precision > 16)
+            throw new IllegalArgumentException("Invalid precision "+precision);
+        this.precision = precision;
+    }
+
+    /**
+     * @return the number of bits indexing the registers
+     */
+    public int getPrecision() {
+        return precision;
+    }
+
+    /**
+     * @return the standard relative error of the counts
+     */
+    public double getRelativeError() {
+        return 1.04 / Math.sqrt(1 << precision);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void compute() {
+        long time = System.currentTimeMillis();
+        adj = network.getAdjacency();
+        int n = adj.getVertexCount();
+        StrongComponents scc = new StrongComponents(adj);
+        component = scc.getComponents();
+        memberStart = scc.getMemberStart();
+        members = scc.getMembers();
+        maxLive = 0;
+        ancestors = propagate(true);
+        descendants = propagate(false);
+        for (int v = 0; v < n; v++) {
+            Vertex vertex = adj.getVertex(v);
+            if (vertex instanceof Indi) {
+                Indi indi = (Indi) vertex;
+                indi.setAncestorCount(ancestors[v]);
+                indi.setDescendantCount(descendants[v]);
+            }
+        }
+        LOG.info("Counted the lineage of "+n+" vertices in "
+                +(System.currentTimeMillis()-time)+"ms, at most "
+                +maxLive+" live sketches of "+(1 << precision)+" registers");
+    }
+
+    /**
+     * Returns the estimated number of distinct ancestors of a vertex.
+     * @param v the vertex
+     * @return the number of individuals among its ancestors
+     */
+    public int getAncestorCount(Vertex v) {
+        return ancestors[adj.getId(v)];
+    }
+
+    /**
+     * Returns the estimated number of distinct descendants of a vertex.
+     * @param v the vertex
+     * @return the number of individuals among its descendants
+     */
+    public int getDescendantCount(Vertex v) {
+        return descendants[adj.getId(v)];
+    }
+
+    /**
+     * Computes the sketches of the components in topological order,
+     * following the out edges towards the ancestors or the in edges
+     * towards the descendants.  Components are numbered in reverse
+     * topological order, so the ancestors of a component have smaller
+     * numbers.
+     */
+    private int[] propagate(boolean up) {
+        int n = adj.getVertexCount();
+        int c = memberStart.length - 1;
+        int[] count = new int[n];
+        int[] users = new int[c];
+        for (int u = 0; u < n; u++) {
+            for (int k = adj.outBegin(u); k < adj.outEnd(u); k++) {
+                int w = adj.outVertex(k);
+                if (component[u] != component[w])
+                    users[up ? component[w] : component[u]]++;
+            }
+        }
+        byte[][] sketch = new byte[c][];
+        int live = 0;
+        int m = 1 << precision;
+        for (int i = 0; i < c; i++) {
+            int a = up ? i : c-1-i;
+            byte[] s = new byte[m];
+            for (int j = memberStart[a]; j < memberStart[a+1]; j++) {
+                int v = members[j];
+                if (adj.getVertex(v) instanceof Indi)
+                    add(s, v);
+                int begin = up ? adj.outBegin(v) : adj.inBegin(v);
+                int end = up ? adj.outEnd(v) : adj.inEnd(v);
+                for (int k = begin; k < end; k++) {
+                    int b = component[up ? adj.outVertex(k) : adj.inVertex(k)];
+                    if (b == a)
+                        continue;
+                    merge(s, sketch[b]);
+                    if (--users[b] == 0) {
+                        sketch[b] = null;
+                        live--;
+                    }
+                }
+            }
+            long estimate = Math.round(estimate(s));
+            for (int j = memberStart[a]; j < memberStart[a+1]; j++) {
+                int v = members[j];
+                int self = adj.getVertex(v) instanceof Indi ? 1 : 0;
+                count[v] = (int)Math.max(0, estimate - self);
+            }
+            if (users[a] != 0) {
+                sketch[a] = s;
+                if (++live > maxLive)
+                    maxLive = live;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Adds a vertex to a sketch.
+     * @param s the registers
+     * @param v the vertex id
+     */
+    void add(byte[] s, int v) {
+        long h = hash(v);
+        int index = (int)(h >>> (64 - precision));
+        long w = (h << precision) | (1L << (precision - 1));
+        byte rank = (byte)(Long.numberOfLeadingZeros(w) + 1);
+        if (rank > s[index])
+            s[index] = rank;
+    }
+
+    static void merge(byte[] s, byte[] t) {
+        for (int i = 0; i < s.length; i++) {
+            if (t[i] > s[i])
+                s[i] = t[i];
+        }
+    }
+
+    /**
+     * Mixes the bits of a vertex id, using the finalizer of SplitMix64.
+     */
+    private static long hash(int v) {
+        long z = (v + 1) * 0x9E3779B97F4A7C15L;
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
+    /**
+     * Estimates the cardinality of a sketch, using linear counting for
+     * the small sets.
+     * @param s the registers
+     * @return the estimated number of distinct elements
+     */
+    static double estimate(byte[] s) {
+        int m = s.length;
+        double sum = 0;
+        int zeros = 0;
+        for (int i = 0; i < m; i++) {
+            sum += Math.scalb(1.0, -s[i]);
+            if (s[i] == 0)
+                zeros++;
+        }
+        double alpha;
+        if (m == 16)
+            alpha = 0.673;
+        else if (m == 32)
+            alpha = 0.697;
+        else if (m == 64)
+            alpha = 0.709;
+        else
+            alpha = 0.7213 / (1 + 1.079 / m);
+        double e = alpha * m * m / sum;
+        if (e <= 2.5 * m && zeros != 0)
+            e = m * Math.log((double)m / zeros);
+        return e;
+    }
+}
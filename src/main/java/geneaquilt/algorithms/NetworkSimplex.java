@@ -0,0 +1,704 @@
+/**
+ * Copyright (c) 2010-2014, Jean-Daniel Fekete, Pierre Dragicevic, and INRIA.
+ * All rights reserved.
+ *
+ * Use of this source code is governed by a BSD-style license that can be
+ * found in the LICENSE file.
+ */
+package geneaquilt.algorithms;
+
+import java.util.PriorityQueue;
+import java.util.Random;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Class NetworkSimplex computes an optimal ranking of a connected
+ * directed acyclic graph, minimizing the total length of the edges
+ * with the network simplex method of Gansner, Koutsofios, North and Vo
+ * ("A Technique for Drawing Directed Graphs", IEEE TSE 1993).
+ * 
+ * <p>The graph is described by int arrays: an edge e goes from
+ * <code>tail[e]</code> to <code>head[e]</code> and requires
+ * <code>rank[head] &gt;= rank[tail]+1</code>.
+ * The initial ranks are the longest paths from the sources, starting
+ * at an optional base rank per vertex. A feasible spanning tree of
+ * tight edges is then built by merging tight subtrees, the smallest
+ * first, and edges with a negative cut value are exchanged until the
+ * ranks are optimal. The initial cut values are computed with a
+ * postorder low/lim numbering of the tree. Then, the tree is kept
+ * with parent edges, subtree sizes and a thread of its vertices in
+ * preorder, as in the primal network simplex of LEMON, so that an
+ * exchange visits the smaller side of the cut and the cycle it closes
+ * instead of renumbering the tree.</p>
+ * 
+ * <p>Since all the slacks of a bipartite graph are even when the
+ * initial ranks alternate, the parity of the base ranks is kept.</p>
+ * 
+ * @author Jean-Daniel Fekete
+ * @version $Revision$
+ */
+public class NetworkSimplex {
+    private static final Logger LOG = Logger.getLogger(NetworkSimplex.class);
+    /** Number of negative cut values examined to choose the leaving edge */
+    public static final int SEARCH_SIZE = 30;
+    private final int n;
+    private final int m;
+    private final int[] tail;
+    private final int[] head;
+    private final int[] rank;
+    private long[] rank2;
+    private long[] minlen2;
+    private int[] outStart;
+    private int[] outEdge;
+    private int[] inStart;
+    private int[] inEdge;
+    // spanning tree
+    private boolean[] inTree;
+    private int[] treeStart;
+    private int[] treeCount;
+    private int[] treeAdj;
+    private int[] treeList;
+    private int[] treeIndex;
+    private int treeSize;
+    private int[] par;
+    private int[] size;
+    private int[] last;
+    private int[] next;
+    private int[] prev;
+    private int[] cut;
+    private int[] mark;
+    private int stamp;
+    private boolean markedBelow;
+    private int[] path;
+    private int[] split;
+    private int[] resume;
+    private int[] order;
+    private int searchStart;
+    private int iterations;
+    private int maxIterations = Integer.MAX_VALUE;
+
+    /**
+     * Creates a NetworkSimplex.
+     * @param n the number of vertices
+     * @param tail the tail of each edge
+     * @param head the head of each edge
+     * @param base the minimum initial rank of each vertex or null
+     */
+    public NetworkSimplex(int n, int[] tail, int[] head, int[] base) {
+        this.n = n;
+        this.m = tail.length;
+        this.tail = tail;
+        this.head = head;
+        this.rank = new int[n];
+        if (base != null)
+            System.arraycopy(base, 0, rank, 0, n);
+    }
+
+    /**
+     * @return the ranks, valid after {@link #compute()}
+     */
+    public int[] getRanks() {
+        return rank;
+    }
+
+    /**
+     * @return the number of edge exchanges performed
+     */
+    public int getIterations() {
+        return iterations;
+    }
+
+    /**
+     * @return the maximum number of edge exchanges
+     */
+    public int getMaxIterations() {
+        return maxIterations;
+    }
+
+    /**
+     * Sets the maximum number of edge exchanges, the ranks are
+     * feasible but may not be optimal when it is reached.
+     * @param max the maximum number of edge exchanges
+     */
+    public void setMaxIterations(int max) {
+        maxIterations = max;
+    }
+
+    /**
+     * Computes the ranks.
+     * @return true if the ranks are optimal, false if the
+     * graph is cyclic, disconnected or the maximum number
+     * of iterations has been reached
+     */
+    public boolean compute() {
+        buildAdjacency();
+        if (! initRank()) {
+            LOG.error("Cannot rank a cyclic graph");
+            return false;
+        }
+        if (n <= 1)
+            return true;
+        if (! feasibleTree()) {
+            LOG.error("Cannot rank a disconnected graph");
+            return false;
+        }
+        perturb();
+        initCutValues();
+        int e;
+        while ((e = leaveEdge()) != -1) {
+            if (iterations == maxIterations)
+                return false;
+            int f = enterEdge(e);
+            update(e, f);
+            iterations++;
+        }
+        return true;
+    }
+
+    private void buildAdjacency() {
+        outStart = new int[n+1];
+        inStart = new int[n+1];
+        int loops = 0;
+        for (int e = 0; e < m; e++) {
+            if (tail[e] == head[e]) {
+                loops++;
+                continue;
+            }
+            outStart[tail[e]+1]++;
+            inStart[head[e]+1]++;
+        }
+        for (int v = 0; v < n; v++) {
+            outStart[v+1] += outStart[v];
+            inStart[v+1] += inStart[v];
+        }
+        outEdge = new int[m-loops];
+        inEdge = new int[m-loops];
+        int[] outFill = new int[n];
+        int[] inFill = new int[n];
+        for (int e = 0; e < m; e++) {
+            int t = tail[e];
+            int h = head[e];
+            if (t == h)
+                continue;
+            outEdge[outStart[t] + outFill[t]++] = e;
+            inEdge[inStart[h] + inFill[h]++] = e;
+        }
+    }
+
+    private int slack(int e) {
+        return rank[head[e]] - rank[tail[e]] - 1;
+    }
+
+    private long slack2(int e) {
+        return rank2[head[e]] - rank2[tail[e]] - minlen2[e];
+    }
+
+    /**
+     * Perturbs the minimum length of the edges out of the initial tree
+     * by a tiny random amount, kept as a secondary rank. No slack of a
+     * non tree edge is then zero when compared lexicographically, so
+     * each exchange decreases the perturbed total length and degenerate
+     * exchanges cannot cycle. The cut values, hence the optimal ranks,
+     * are not changed.
+     */
+    private void perturb() {
+        Random random = new Random(m);
+        rank2 = new long[n];
+        minlen2 = new long[m];
+        for (int e = 0; e < m; e++) {
+            if (! inTree[e])
+                minlen2[e] = -1 - (random.nextLong() >>> 24);
+        }
+    }
+
+    /**
+     * Longest path ranking in topological order,
+     * the order is kept for building the feasible tree.
+     */
+    private boolean initRank() {
+        int[] degree = new int[n];
+        int[] queue = new int[n];
+        order = queue;
+        int qtail = 0;
+        for (int v = 0; v < n; v++) {
+            degree[v] = inStart[v+1]-inStart[v];
+            if (degree[v] == 0)
+                queue[qtail++] = v;
+        }
+        for (int qhead = 0; qhead < qtail; qhead++) {
+            int v = queue[qhead];
+            for (int k = outStart[v]; k < outStart[v+1]; k++) {
+                int w = head[outEdge[k]];
+                rank[w] = Math.max(rank[w], rank[v]+1);
+                if (--degree[w] == 0)
+                    queue[qtail++] = w;
+            }
+        }
+        return qtail == n;
+    }
+
+    private void addTreeEdge(int e) {
+        inTree[e] = true;
+        treeIndex[e] = treeSize;
+        treeList[treeSize++] = e;
+        int t = tail[e];
+        treeAdj[treeStart[t] + treeCount[t]++] = e;
+        int h = head[e];
+        treeAdj[treeStart[h] + treeCount[h]++] = e;
+    }
+
+    private void removeTreeEdge(int e, int v) {
+        int start = treeStart[v];
+        int last = start + --treeCount[v];
+        for (int k = start; k < last; k++) {
+            if (treeAdj[k] == e) {
+                System.arraycopy(treeAdj, k+1, treeAdj, k, last-k);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Builds a spanning tree of tight edges.
+     * Each vertex first joins the tree of the ascendant that defines
+     * its longest path rank. Then, the smallest tree is repeatedly
+     * shifted to make its minimum slack incident edge tight and merged
+     * with the tree at the other end of this edge. A vertex belongs
+     * to a tree that at least doubles in size each time it is shifted,
+     * so the construction takes O(E log V).
+     */
+    private boolean feasibleTree() {
+        inTree = new boolean[m];
+        treeStart = new int[n+1];
+        for (int v = 0; v < n; v++) {
+            treeStart[v+1] = treeStart[v]
+                    + (outStart[v+1]-outStart[v])
+                    + (inStart[v+1]-inStart[v]);
+        }
+        treeCount = new int[n];
+        treeAdj = new int[treeStart[n]];
+        treeList = new int[n-1];
+        treeIndex = new int[m];
+
+        int[] treeOf = new int[n];
+        int[] first = new int[n];
+        int[] next = new int[n];
+        int[] size = new int[n];
+        for (int i = 0; i < n; i++) {
+            int v = order[i];
+            int t = v;
+            for (int k = inStart[v]; k < inStart[v+1]; k++) {
+                int e = inEdge[k];
+                if (slack(e) == 0) {
+                    addTreeEdge(e);
+                    t = treeOf[tail[e]];
+                    break;
+                }
+            }
+            treeOf[v] = t;
+            if (t == v) {
+                first[v] = v;
+                next[v] = -1;
+                size[v] = 1;
+            }
+            else { // v is a leaf, insert it after the tree root
+                next[v] = next[first[t]];
+                next[first[t]] = v;
+                size[t]++;
+            }
+        }
+
+        PriorityQueue<Long> heap = new PriorityQueue<Long>();
+        int trees = 0;
+        for (int v = 0; v < n; v++) {
+            if (treeOf[v] == v) {
+                heap.add(Long.valueOf(((long)size[v] << 32) | v));
+                trees++;
+            }
+        }
+        while (trees > 1 && ! heap.isEmpty()) {
+            long top = heap.poll().longValue();
+            int t = (int)top;
+            if (treeOf[t] != t || size[t] != (int)(top >>> 32))
+                continue; // merged or grown since
+            int best = -1;
+            int bestSlack = Integer.MAX_VALUE;
+            boolean bestTail = false;
+            for (int v = first[t]; v != -1 && bestSlack > 0; v = next[v]) {
+                for (int k = outStart[v]; k < outStart[v+1]; k++) {
+                    int e = outEdge[k];
+                    if (treeOf[head[e]] != t && slack(e) < bestSlack) {
+                        best = e;
+                        bestSlack = slack(e);
+                        bestTail = true;
+                    }
+                }
+                for (int k = inStart[v]; k < inStart[v+1]; k++) {
+                    int e = inEdge[k];
+                    if (treeOf[tail[e]] != t && slack(e) < bestSlack) {
+                        best = e;
+                        bestSlack = slack(e);
+                        bestTail = false;
+                    }
+                }
+            }
+            if (best == -1)
+                break; // disconnected
+            int delta = bestTail ? bestSlack : -bestSlack;
+            int u = treeOf[bestTail ? head[best] : tail[best]];
+            int last = -1;
+            for (int v = first[t]; v != -1; v = next[v]) {
+                rank[v] += delta;
+                treeOf[v] = u;
+                last = v;
+            }
+            next[last] = first[u];
+            first[u] = first[t];
+            size[u] += size[t];
+            addTreeEdge(best);
+            heap.add(Long.valueOf(((long)size[u] << 32) | u));
+            trees--;
+        }
+        return trees == 1;
+    }
+
+    private void initCutValues() {
+        par = new int[n];
+        size = new int[n];
+        last = new int[n];
+        next = new int[n];
+        prev = new int[n];
+        mark = new int[n];
+        cut = new int[m];
+        path = new int[n];
+        split = new int[n];
+        resume = new int[n];
+        int[] preorder = new int[n];
+        int[] low = new int[n];
+        int[] lim = new int[n];
+        dfsTree(preorder, low, lim);
+        for (int i = 0; i < n; i++) {
+            int v = preorder[i];
+            next[v] = preorder[(i+1) % n];
+            prev[next[v]] = v;
+        }
+        for (int i = n-1; i > 0; i--) {
+            int v = preorder[i];
+            cut[par[v]] = cutValue(par[v], v, low, lim);
+        }
+        order = null;
+    }
+
+    /**
+     * Traverses the tree from the vertex 0 in depth first order, setting
+     * the parent edges, the subtree sizes, the last vertex of each
+     * subtree in preorder and the postorder low/lim numbers.
+     */
+    private void dfsTree(int[] preorder, int[] low, int[] lim) {
+        int[] stack = new int[n];
+        int[] pos = new int[n];
+        int sp = 0;
+        int count = 0;
+        int number = 0;
+        stack[0] = 0;
+        par[0] = -1;
+        size[0] = 1;
+        preorder[count++] = 0;
+        low[0] = number;
+        while (sp >= 0) {
+            int u = stack[sp];
+            if (pos[sp] < treeCount[u]) {
+                int e = treeAdj[treeStart[u] + pos[sp]++];
+                if (e == par[u])
+                    continue;
+                int w = (tail[e] == u) ? head[e] : tail[e];
+                par[w] = e;
+                size[w] = 1;
+                preorder[count++] = w;
+                low[w] = number;
+                sp++;
+                stack[sp] = w;
+                pos[sp] = 0;
+            }
+            else {
+                lim[u] = number++;
+                last[u] = preorder[count-1];
+                if (sp > 0)
+                    size[stack[sp-1]] += size[u];
+                sp--;
+            }
+        }
+    }
+
+    private int parent(int v) {
+        int e = par[v];
+        return (tail[e] == v) ? head[e] : tail[e];
+    }
+
+    /**
+     * @return the endpoint of the tree edge e farthest from the root
+     */
+    private int lower(int e) {
+        return (par[tail[e]] == e) ? tail[e] : head[e];
+    }
+
+    /**
+     * @return the number of vertices on the smaller side of the cut
+     * made by removing the tree edge e
+     */
+    private int smallerSide(int e) {
+        int s = size[lower(e)];
+        return Math.min(s, n-s);
+    }
+
+    /**
+     * Finds the lowest common ancestor of v and w, climbing from the
+     * vertex with the smallest subtree since it cannot be an ancestor
+     * of the other.
+     */
+    private int commonAncestor(int v, int w) {
+        while (v != w) {
+            if (size[v] < size[w])
+                v = parent(v);
+            else
+                w = parent(w);
+        }
+        return v;
+    }
+
+    private void link(int u, int v) {
+        next[u] = v;
+        prev[v] = u;
+    }
+
+    /**
+     * Computes the cut value of the tree edge f, whose endpoint v
+     * is the farthest from the root, from the cut values of the
+     * tree edges below v.
+     */
+    private int cutValue(int f, int v, int[] low, int[] lim) {
+        boolean dir = (v == tail[f]);
+        int sum = 0;
+        for (int k = outStart[v]; k < outStart[v+1]; k++) {
+            sum += cutTerm(outEdge[k], v, dir, low, lim);
+        }
+        for (int k = inStart[v]; k < inStart[v+1]; k++) {
+            sum += cutTerm(inEdge[k], v, dir, low, lim);
+        }
+        return sum;
+    }
+
+    private int cutTerm(int e, int v, boolean dir, int[] low, int[] lim) {
+        int other = (tail[e] == v) ? head[e] : tail[e];
+        boolean outside = ! (low[v] <= lim[other] && lim[other] <= lim[v]);
+        int rv;
+        if (outside) {
+            rv = 1;
+        }
+        else {
+            rv = inTree[e] ? cut[e] : 0;
+            rv -= 1;
+        }
+        boolean positive;
+        if (dir)
+            positive = (head[e] == v);
+        else
+            positive = (tail[e] == v);
+        if (outside)
+            positive = ! positive;
+        return positive ? rv : -rv;
+    }
+
+    /**
+     * Finds a tree edge with a negative cut value, searching
+     * cyclically from the last one found and choosing among the first
+     * {@link #SEARCH_SIZE} ones the edge whose exchange is the cheapest,
+     * i.e. with the smallest side to search and shift.
+     */
+    private int leaveEdge() {
+        int found = -1;
+        int foundSide = 0;
+        int count = 0;
+        int size = treeSize;
+        for (int i = 0; i < size; i++) {
+            int j = (searchStart + i) % size;
+            int e = treeList[j];
+            if (cut[e] < 0) {
+                int side = smallerSide(e);
+                if (found == -1 || side < foundSide) {
+                    found = e;
+                    foundSide = side;
+                }
+                if (++count >= SEARCH_SIZE) {
+                    searchStart = j;
+                    return found;
+                }
+            }
+        }
+        if (found != -1)
+            searchStart = treeIndex[found];
+        return found;
+    }
+
+    /**
+     * Finds the non tree edge with the minimum slack crossing the
+     * cut made by removing e, in the direction opposite to e.
+     * The vertices of the smaller side of the cut are marked with
+     * the current stamp and searched along the thread.
+     */
+    private int enterEdge(int e) {
+        int v = lower(e);
+        boolean out = (v == head[e]);
+        int start = v;
+        int count = size[v];
+        markedBelow = (count <= n/2);
+        if (! markedBelow) {
+            start = next[last[v]];
+            count = n - count;
+            out = ! out;
+        }
+        stamp++;
+        int u = start;
+        for (int i = 0; i < count; i++) {
+            mark[u] = stamp;
+            u = next[u];
+        }
+        int enter = -1;
+        int best = Integer.MAX_VALUE;
+        long best2 = Long.MAX_VALUE;
+        u = start;
+        for (int i = 0; i < count; i++) {
+            int k0 = out ? outStart[u] : inStart[u];
+            int k1 = out ? outStart[u+1] : inStart[u+1];
+            for (int k = k0; k < k1; k++) {
+                int f = out ? outEdge[k] : inEdge[k];
+                if (inTree[f] || mark[out ? head[f] : tail[f]] == stamp)
+                    continue;
+                int sl = slack(f);
+                if (sl < best || (sl == best && slack2(f) < best2)) {
+                    enter = f;
+                    best = sl;
+                    best2 = slack2(f);
+                }
+            }
+            u = next[u];
+        }
+        return enter;
+    }
+
+    /**
+     * Exchanges the tree edge e with the non tree edge f found by
+     * {@link #enterEdge(int)}. The smaller side of the cut is shifted
+     * to make f tight, then the subtree below e is rerooted at the
+     * endpoint of f it contains and moved just after the other endpoint
+     * in the thread. Only the cut values, subtree sizes and parent
+     * edges along the cycle closed by f change, and the thread is
+     * rearranged by splicing the blocks of vertices hanging from
+     * this cycle.
+     */
+    private void update(int e, int f) {
+        int x = lower(e);
+        int s = size[x];
+        boolean tailBelow = (mark[tail[f]] == stamp) == markedBelow;
+        int delta = slack(f);
+        long delta2 = slack2(f);
+        if (tailBelow == markedBelow) {
+            delta = -delta;
+            delta2 = -delta2;
+        }
+        int u = markedBelow ? x : next[last[x]];
+        int count = markedBelow ? s : n - s;
+        for (int i = 0; i < count; i++) {
+            rank[u] -= delta;
+            rank2[u] -= delta2;
+            u = next[u];
+        }
+        int z = tailBelow ? tail[f] : head[f];
+        int y = tailBelow ? head[f] : tail[f];
+        int lca = commonAncestor(z, y);
+        int cutValue = cut[e];
+        treeUpdate(tail[f], lca, cutValue, true);
+        treeUpdate(head[f], lca, cutValue, false);
+        cut[f] = -cutValue;
+        cut[e] = 0;
+        for (int a = parent(x); a != lca; a = parent(a))
+            size[a] -= s;
+        for (int a = y; a != lca; a = parent(a))
+            size[a] += s;
+
+        // unlink the subtree of x from the thread
+        int end = last[x];
+        int before = prev[x];
+        link(before, next[end]);
+        for (int a = parent(x); last[a] == end; a = parent(a)) {
+            last[a] = before;
+            if (par[a] == -1)
+                break;
+        }
+
+        // reroot it at z: the path from z up to x is reversed and each
+        // vertex on it keeps its block of vertices in its old subtree
+        // but not in the subtree of its predecessor on the path
+        int k = 0;
+        path[0] = z;
+        while (path[k] != x) {
+            path[k+1] = parent(path[k]);
+            k++;
+            split[k] = prev[path[k-1]];
+            resume[k] = next[last[path[k-1]]];
+        }
+        int chain = last[z];
+        for (int i = 1; i <= k; i++) {
+            int p = path[i];
+            link(chain, p);
+            chain = split[i];
+            if (last[path[i-1]] != last[p]) {
+                link(chain, resume[i]);
+                chain = last[p];
+            }
+        }
+        for (int i = k; i > 0; i--) {
+            size[path[i]] = s - size[path[i-1]];
+            par[path[i]] = par[path[i-1]];
+            last[path[i]] = chain;
+        }
+        size[z] = s;
+        par[z] = f;
+        last[z] = chain;
+
+        // link it after y
+        link(chain, next[y]);
+        link(y, z);
+        if (last[y] == y) {
+            for (int a = y; last[a] == y; a = parent(a)) {
+                last[a] = chain;
+                if (par[a] == -1)
+                    break;
+            }
+        }
+
+        inTree[e] = false;
+        removeTreeEdge(e, tail[e]);
+        removeTreeEdge(e, head[e]);
+        inTree[f] = true;
+        treeIndex[f] = treeIndex[e];
+        treeList[treeIndex[f]] = f;
+        int t = tail[f];
+        treeAdj[treeStart[t] + treeCount[t]++] = f;
+        int h = head[f];
+        treeAdj[treeStart[h] + treeCount[h]++] = f;
+    }
+
+    private void treeUpdate(int v, int lca, int cutValue, boolean dir) {
+        while (v != lca) {
+            int e = par[v];
+            boolean d = (v == tail[e]) ? dir : !dir;
+            if (d)
+                cut[e] += cutValue;
+            else
+                cut[e] -= cutValue;
+            v = (tail[e] == v) ? head[e] : tail[e];
+        }
+    }
+}
@@ -0,0 +1,255 @@
+/**
+ * Copyright (c) 2010-2014, Jean-Daniel Fekete, Pierre Dragicevic, and INRIA.
+ * All rights reserved.
+ *
+ * Use of this source code is governed by a BSD-style license that can be
+ * found in the LICENSE file.
+ */
+package geneaquilt.algorithms;
+
+import geneaquilt.data.Fam;
+import geneaquilt.data.Indi;
+import geneaquilt.data.Vertex;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * <b>Relationship</b> describes how an individual is related to another,
+ * as computed by the {@link RelationshipCalculator}.
+ *
+ * <p>The generations are counted from each individual up to their
+ * lowest common ancestor, which is either a family, the couple of
+ * the common ancestors, or a single individual.  The name is given
+ * from the point of view of the first individual, e.g. "uncle" when
+ * the first individual is the brother of a parent of the second.</p>
+ * 
+ * @author Jean-Daniel Fekete
+ * @version $Revision$
+ */
+public class Relationship {
+    /** Name used when the individuals have no common ancestor nor path */
+    public static final String NOT_RELATED = "not related";
+    /** Name used when the individuals are only related by marriage */
+    public static final String BY_MARRIAGE = "related by marriage";
+    
+    private static final String[] ORDINALS = {
+        "zeroth", "first", "second", "third", "fourth", "fifth",
+        "sixth", "seventh", "eighth", "ninth", "tenth"
+    };
+    
+    private final Indi from;
+    private final Indi to;
+    private final List<Vertex> path;
+    private final List<Vertex> commonAncestors;
+    private final int fromGenerations;
+    private final int toGenerations;
+    private final boolean half;
+    private final boolean spouse;
+    private final String name;
+
+    /**
+     * Creates a relationship.
+     * @param from the first individual
+     * @param to the second individual
+     * @param path the shortest kinship path, empty if none
+     * @param commonAncestors the lowest common ancestors, empty if none
+     * @param fromGenerations the number of generations from the first
+     *  individual to the common ancestors or -1
+     * @param toGenerations the number of generations from the second
+     *  individual to the common ancestors or -1
+     * @param spouse true if the individuals are spouses
+     */
+    public Relationship(Indi from, Indi to, 
+            List<Vertex> path, 
+            List<Vertex> commonAncestors,
+            int fromGenerations, int toGenerations,
+            boolean spouse) {
+        this.from = from;
+        this.to = to;
+        this.path = Collections.unmodifiableList(path);
+        this.commonAncestors = Collections.unmodifiableList(commonAncestors);
+        this.fromGenerations = fromGenerations;
+        this.toGenerations = toGenerations;
+        this.spouse = spouse;
+        this.half = !commonAncestors.isEmpty()
+            && !(commonAncestors.get(0) instanceof Fam)
+            && fromGenerations > 0 && toGenerations > 0;
+        this.name = computeName();
+    }
+    
+    /**
+     * @return the first individual
+     */
+    public Indi getFrom() {
+        return from;
+    }
+    
+    /**
+     * @return the second individual
+     */
+    public Indi getTo() {
+        return to;
+    }
+    
+    /**
+     * @return the shortest path of parent/child/spouse links from the
+     *  first to the second individual, including the families crossed,
+     *  or an empty list
+     */
+    public List<Vertex> getPath() {
+        return path;
+    }
+    
+    /**
+     * @return the lowest common ancestors, families or individuals
+     */
+    public List<Vertex> getCommonAncestors() {
+        return commonAncestors;
+    }
+    
+    /**
+     * @return the number of generations between the first individual
+     *  and the common ancestors, or -1
+     */
+    public int getFromGenerations() {
+        return fromGenerations;
+    }
+    
+    /**
+     * @return the number of generations between the second individual
+     *  and the common ancestors, or -1
+     */
+    public int getToGenerations() {
+        return toGenerations;
+    }
+    
+    /**
+     * @return true if the individuals share only one of their ancestors
+     */
+    public boolean isHalf() {
+        return half;
+    }
+    
+    /**
+     * @return true if the individuals have a common ancestor
+     */
+    public boolean isBlood() {
+        return !commonAncestors.isEmpty();
+    }
+    
+    /**
+     * @return the name of the relationship, e.g. "second cousin once removed"
+     */
+    public String getName() {
+        return name;
+    }
+    
+    /**
+     * @return a sentence describing the relationship
+     */
+    public String getDescription() {
+        if (NOT_RELATED.equals(name) || BY_MARRIAGE.equals(name))
+            return from.getName()+" and "+to.getName()+" are "+name;
+        return from.getName()+" is the "+name+" of "+to.getName();
+    }
+    
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString() {
+        return getDescription();
+    }
+    
+    private String computeName() {
+        if (!isBlood()) {
+            if (spouse)
+                return gendered("husband", "wife", "spouse");
+            if (path.isEmpty())
+                return NOT_RELATED;
+            return BY_MARRIAGE;
+        }
+        int a = fromGenerations;
+        int b = toGenerations;
+        String n;
+        if (a == 0 && b == 0)
+            return "self";
+        else if (a == 0)
+            n = greats(b-1, gendered("father", "mother", "parent"), true);
+        else if (b == 0)
+            n = greats(a-1, gendered("son", "daughter", "child"), true);
+        else if (a == 1 && b == 1)
+            n = gendered("brother", "sister", "sibling");
+        else if (a == 1)
+            n = greats(b-2, gendered("uncle", "aunt", "uncle or aunt"), false);
+        else if (b == 1)
+            n = greats(a-2, gendered("nephew", "niece", "nephew or niece"), false);
+        else {
+            n = ordinal(Math.min(a, b)-1)+" cousin";
+            int removed = Math.abs(a - b);
+            if (removed == 1)
+                n += " once removed";
+            else if (removed == 2)
+                n += " twice removed";
+            else if (removed > 2)
+                n += " "+removed+" times removed";
+            if (half)
+                return "half "+n;
+        }
+        return half ? "half-"+n : n;
+    }
+    
+    /**
+     * Adds the "grand" and "great" prefixes to a direct or collateral
+     * relationship.
+     * @param level 0 for the relationship itself, 1 for grand, etc.
+     * @param base the relationship
+     * @param direct true for a direct line, which takes "grand" before
+     *  the "great" prefixes
+     * @return the prefixed relationship
+     */
+    private static String greats(int level, String base, boolean direct) {
+        if (level == 0)
+            return base;
+        if (direct) {
+            base = "grand"+base;
+            level--;
+        }
+        if (level == 0)
+            return base;
+        if (level == 1)
+            return "great-"+base;
+        if (level == 2)
+            return "great-great-"+base;
+        return ordinal(level)+" great-"+base;
+    }
+    
+    private String gendered(String male, String female, String neutral) {
+        String sex = from.getSex();
+        if ("M".equals(sex))
+            return male;
+        else if ("F".equals(sex))
+            return female;
+        return neutral;
+    }
+    
+    /**
+     * Returns the ordinal of a positive number.
+     * @param n the number
+     * @return "first", "second", ..., "11th"
+     */
+    public static String ordinal(int n) {
+        if (n < ORDINALS.length)
+            return ORDINALS[n];
+        int mod100 = n % 100;
+        if (mod100 >= 11 && mod100 <= 13)
+            return n+"th";
+        switch(n % 10) {
+        case 1: return n+"st";
+        case 2: return n+"nd";
+        case 3: return n+"rd";
+        default: return n+"th";
+        }
+    }
+}
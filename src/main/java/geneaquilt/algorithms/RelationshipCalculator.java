@@ -0,0 +1,336 @@
+/**
+ * Copyright (c) 2010-2014, Jean-Daniel Fekete, Pierre Dragicevic, and INRIA.
+ * All rights reserved.
+ *
+ * Use of this source code is governed by a BSD-style license that can be
+ * found in the LICENSE file.
+ */
+package geneaquilt.algorithms;
+
+import geneaquilt.data.Adjacency;
+import geneaquilt.data.Fam;
+import geneaquilt.data.Indi;
+import geneaquilt.data.Network;
+import geneaquilt.data.Vertex;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.log4j.Logger;
+
+/**
+ * <b>RelationshipCalculator</b> tells how two individuals of a
+ * {@link Network} are related.
+ * 
+ * <p>The lowest common ancestors are found by walking up from both
+ * individuals in breadth-first order, one level at a time on each side,
+ * until no closer common ancestor can be found.  The shortest path of
+ * parent, child and spouse links is found by a bidirectional breadth-first
+ * search over the network where individuals and families alternate,
+ * always expanding the smallest frontier.  Both searches only visit
+ * the neighborhood of the individuals, using int arrays allocated once
+ * and marked with a stamp, so a query does not depend on the size of
+ * the network.  The results are cached per pair.</p>
+ * 
+ * @author Jean-Daniel Fekete
+ * @version $Revision$
+ */
+public class RelationshipCalculator {
+    private static final Logger LOG = Logger.getLogger(RelationshipCalculator.class);
+    /** Default number of relationships kept in the cache */
+    public static final int DEFAULT_CACHE_SIZE = 256;
+    private final Network network;
+    private final int cacheSize;
+    private Adjacency adjacency;
+    private Frontier up;
+    private Frontier down;
+    private int stamp;
+    private final Map<Long,Relationship> cache;
+    
+    /**
+     * The visited vertices of one side of a search.
+     */
+    static final class Frontier {
+        final int[] mark;
+        final int[] dist;
+        final int[] prev;
+        final int[] queue;
+        int head;
+        int tail;
+        int level;
+        
+        Frontier(int n) {
+            mark = new int[n];
+            dist = new int[n];
+            prev = new int[n];
+            queue = new int[n];
+        }
+        
+        void start(int v, int stamp) {
+            head = 0;
+            tail = 0;
+            level = 0;
+            visit(v, -1, 0, stamp);
+        }
+        
+        void visit(int v, int from, int d, int stamp) {
+            mark[v] = stamp;
+            dist[v] = d;
+            prev[v] = from;
+            queue[tail++] = v;
+        }
+        
+        boolean isEmpty() {
+            return head == tail;
+        }
+        
+        int size() {
+            return tail - head;
+        }
+    }
+    
+    /**
+     * Creates a RelationshipCalculator with the default cache size.
+     * @param network the network
+     */
+    public RelationshipCalculator(Network network) {
+        this(network, DEFAULT_CACHE_SIZE);
+    }
+    
+    /**
+     * Creates a RelationshipCalculator.
+     * @param network the network
+     * @param cacheSize the number of relationships kept in the cache
+     */
+    public RelationshipCalculator(Network network, int cacheSize) {
+        this.network = network;
+        this.cacheSize = cacheSize;
+        this.cache = new LinkedHashMap<Long, Relationship>(16, 0.75f, true) {
+            protected boolean removeEldestEntry(Map.Entry<Long, Relationship> eldest) {
+                return size() > RelationshipCalculator.this.cacheSize;
+            }
+        };
+    }
+    
+    /**
+     * @return the network
+     */
+    public Network getNetwork() {
+        return network;
+    }
+    
+    /**
+     * Clears the cache of relationships.
+     */
+    public void clearCache() {
+        cache.clear();
+    }
+    
+    private void validate() {
+        Adjacency adj = network.getAdjacency();
+        if (adj != adjacency) {
+            adjacency = adj;
+            int n = adj.getVertexCount();
+            up = new Frontier(n);
+            down = new Frontier(n);
+            stamp = 0;
+            cache.clear();
+        }
+    }
+    
+    private int nextStamp() {
+        if (++stamp == Integer.MAX_VALUE) {
+            stamp = 1;
+            Arrays.fill(up.mark, 0);
+            Arrays.fill(down.mark, 0);
+        }
+        return stamp;
+    }
+    
+    /**
+     * Computes how an individual is related to another.
+     * @param from the first individual
+     * @param to the second individual
+     * @return the relationship
+     */
+    public synchronized Relationship compute(Indi from, Indi to) {
+        validate();
+        int a = adjacency.getId(from);
+        int b = adjacency.getId(to);
+        Long key = Long.valueOf(((long)a << 32) | (b & 0xFFFFFFFFL));
+        Relationship r = cache.get(key);
+        if (r != null)
+            return r;
+        long time = System.nanoTime();
+        
+        List<Vertex> common = new ArrayList<Vertex>();
+        int[] generations = findCommonAncestors(a, b, common);
+        List<Vertex> path = findPath(a, b);
+        boolean spouse = path.size() == 3 && isSpouse(path.get(1), a, b);
+        r = new Relationship(from, to, path, common, 
+                generations[0], generations[1], spouse);
+        cache.put(key, r);
+        if (LOG.isDebugEnabled()) {
+            LOG.debug(r+" computed in "
+                    +((System.nanoTime()-time)/1000)+"us");
+        }
+        return r;
+    }
+    
+    private boolean isSpouse(Vertex fam, int a, int b) {
+        if (!(fam instanceof Fam))
+            return false;
+        int f = adjacency.getId(fam);
+        int found = 0;
+        for (int k = adjacency.outBegin(f); k < adjacency.outEnd(f); k++) {
+            int w = adjacency.outVertex(k);
+            if (w == a || w == b)
+                found++;
+        }
+        return found == 2;
+    }
+    
+    /**
+     * Finds the lowest common ancestors of two vertices, walking up
+     * both sides one level at a time.
+     * A common ancestor x at distances da and db, in edges, is lower than
+     * the others when da+db is minimal.  When the two sides have been
+     * explored up to the level l, the ancestors not found yet are at
+     * least at a distance l+1, so the search stops when l+1 reaches
+     * the best distance found.
+     * @param a the first vertex id
+     * @param b the second vertex id
+     * @param common filled with the lowest common ancestors
+     * @return the generations from a and from b to the common ancestors
+     */
+    private int[] findCommonAncestors(int a, int b, List<Vertex> common) {
+        int s = nextStamp();
+        Frontier fa = up;
+        Frontier fb = down;
+        fa.start(a, s);
+        fb.start(b, s);
+        int best = Integer.MAX_VALUE;
+        int[] generations = { -1, -1 };
+        if (a == b) {
+            common.add(adjacency.getVertex(a));
+            generations[0] = generations[1] = 0;
+            return generations;
+        }
+        ArrayList<Integer> found = new ArrayList<Integer>();
+        int level = 0;
+        while ((!fa.isEmpty() || !fb.isEmpty()) && level+1 < best) {
+            for (int side = 0; side < 2; side++) {
+                Frontier f = side == 0 ? fa : fb;
+                Frontier other = side == 0 ? fb : fa;
+                int end = f.tail;
+                while (f.head < end) {
+                    int v = f.queue[f.head++];
+                    int d = f.dist[v] + 1;
+                    for (int k = adjacency.outBegin(v); k < adjacency.outEnd(v); k++) {
+                        int w = adjacency.outVertex(k);
+                        if (f.mark[w] == s)
+                            continue;
+                        f.visit(w, v, d, s);
+                        if (other.mark[w] == s) {
+                            int sum = d + other.dist[w];
+                            if (sum < best) {
+                                best = sum;
+                                found.clear();
+                            }
+                            if (sum == best)
+                                found.add(Integer.valueOf(w));
+                        }
+                    }
+                }
+            }
+            level++;
+        }
+        if (found.isEmpty())
+            return generations;
+        // Prefer the families, i.e. the couples of common ancestors
+        boolean fam = false;
+        for (Integer i : found) {
+            if (adjacency.getVertex(i.intValue()) instanceof Fam) {
+                fam = true;
+                break;
+            }
+        }
+        for (Integer i : found) {
+            Vertex x = adjacency.getVertex(i.intValue());
+            if (fam == (x instanceof Fam)) {
+                if (common.isEmpty()) {
+                    int da = fa.dist[i.intValue()];
+                    int db = fb.dist[i.intValue()];
+                    generations[0] = fam ? (da+1)/2 : da/2;
+                    generations[1] = fam ? (db+1)/2 : db/2;
+                }
+                common.add(x);
+            }
+        }
+        return generations;
+    }
+    
+    /**
+     * Finds the shortest path between two vertices following the edges
+     * in both directions, with a bidirectional breadth-first search.
+     * Each step expands a full level of the smallest frontier, and the
+     * search stops at the end of the level where the frontiers meet.
+     * @param a the first vertex id
+     * @param b the second vertex id
+     * @return the path, empty if there is none
+     */
+    private List<Vertex> findPath(int a, int b) {
+        ArrayList<Vertex> path = new ArrayList<Vertex>();
+        if (a == b) {
+            path.add(adjacency.getVertex(a));
+            return path;
+        }
+        int s = nextStamp();
+        Frontier fa = up;
+        Frontier fb = down;
+        fa.start(a, s);
+        fb.start(b, s);
+        int best = Integer.MAX_VALUE;
+        int meetFrom = -1;
+        int meetTo = -1;
+        while (!fa.isEmpty() && !fb.isEmpty() && meetFrom == -1) {
+            boolean sideA = fa.size() <= fb.size();
+            Frontier f = sideA ? fa : fb;
+            Frontier other = sideA ? fb : fa;
+            int end = f.tail;
+            while (f.head < end) {
+                int v = f.queue[f.head++];
+                int d = f.dist[v] + 1;
+                for (int dir = 0; dir < 2; dir++) {
+                    int begin = dir == 0 ? adjacency.outBegin(v) : adjacency.inBegin(v);
+                    int stop = dir == 0 ? adjacency.outEnd(v) : adjacency.inEnd(v);
+                    for (int k = begin; k < stop; k++) {
+                        int w = dir == 0 ? adjacency.outVertex(k) : adjacency.inVertex(k);
+                        if (other.mark[w] == s) {
+                            int len = d + other.dist[w];
+                            if (len < best) {
+                                best = len;
+                                meetFrom = sideA ? v : w;
+                                meetTo = sideA ? w : v;
+                            }
+                        }
+                        if (f.mark[w] != s)
+                            f.visit(w, v, d, s);
+                    }
+                }
+            }
+        }
+        if (meetFrom == -1)
+            return path;
+        for (int v = meetFrom; v != -1; v = fa.prev[v]) {
+            path.add(0, adjacency.getVertex(v));
+        }
+        for (int v = meetTo; v != -1; v = fb.prev[v]) {
+            path.add(adjacency.getVertex(v));
+        }
+        return path;
+    }
+}
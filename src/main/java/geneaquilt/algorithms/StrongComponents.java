@@ -0,0 +1,101 @@
+/**
+ * Copyright (c) 2010-2014, Jean-Daniel Fekete, Pierre Dragicevic, and INRIA.
+ * All rights reserved.
+ *
+ * Use of this source code is governed by a BSD-style license that can be
+ * found in the LICENSE file.
+ */
+package geneaquilt.algorithms;
+
+import geneaquilt.data.Adjacency;
+
+/**
+ * <b>StrongComponents</b> groups the vertices of an {@link Adjacency}
+ * by strongly connected component, computed by {@link FeedbackArcSet}.
+ *
+ * <p>The components are numbered in reverse topological order, so an
+ * edge leaving a component goes to a component with a smaller number.
+ * The members of the component <code>a</code> are stored in
+ * {@link #getMembers()} from <code>getMemberStart()[a]</code> to
+ * <code>getMemberStart()[a+1]</code> excluded.  The arrays are shared
+ * and should not be modified.</p>
+ *
+ * @author Jean-Daniel Fekete
+ * @version $Revision$
+ */
+public class StrongComponents {
+    private final int[] component;
+    private final int[] memberStart;
+    private final int[] members;
+
+    /**
+     * Computes the strongly connected components of an adjacency.
+     * @param adj the adjacency
+     */
+    public StrongComponents(Adjacency adj) {
+        int n = adj.getVertexCount();
+        int m = adj.getEdgeCount();
+        int[] tail = new int[m];
+        int[] head = new int[m];
+        for (int v = 0; v < n; v++) {
+            for (int k = adj.outBegin(v); k < adj.outEnd(v); k++) {
+                tail[k] = v;
+                head[k] = adj.outVertex(k);
+            }
+        }
+        FeedbackArcSet scc = new FeedbackArcSet(n, tail, head);
+        int c = scc.findComponents();
+        component = new int[n];
+        memberStart = new int[c+1];
+        for (int v = 0; v < n; v++) {
+            component[v] = scc.getComponent(v);
+            memberStart[component[v]+1]++;
+        }
+        for (int a = 0; a < c; a++)
+            memberStart[a+1] += memberStart[a];
+        members = new int[n];
+        int[] fill = new int[c];
+        for (int v = 0; v < n; v++) {
+            int a = component[v];
+            members[memberStart[a] + fill[a]++] = v;
+        }
+    }
+
+    /**
+     * @return the number of components
+     */
+    public int getComponentCount() {
+        return memberStart.length - 1;
+    }
+
+    /**
+     * Returns the component of a vertex.
+     * @param v the vertex id
+     * @return the component number
+     */
+    public int getComponent(int v) {
+        return component[v];
+    }
+
+    /**
+     * @return the component of each vertex id
+     */
+    public int[] getComponents() {
+        return component;
+    }
+
+    /**
+     * @return the start of the members of each component in
+     * {@link #getMembers()}, followed by the number of vertices
+     */
+    public int[] getMemberStart() {
+        return memberStart;
+    }
+
+    /**
+     * @return the vertex ids sorted by component
+     */
+    public int[] getMembers() {
+        return members;
+    }
+}
@@ -0,0 +1,53 @@
+/**
+ * Copyright (c) 2010-2014, Jean-Daniel Fekete, Pierre Dragicevic, and INRIA.
+ * All rights reserved.
+ *
+ * Use of this source code is governed by a BSD-style license that can be
+ * found in the LICENSE file.
+ */
+package geneaquilt.algorithms;
+
+import geneaquilt.data.Network;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Class SugiyamaLayering computes the layer and X position of
+ * each vertex without external program, as the layered layout
+ * of GraphViz dot would do.
+ * 
+ * <p>The ranks are computed by {@link GenerationRank} with the
+ * network simplex method and the vertices are then ordered inside
+ * their layers by {@link VertexOrder}.</p>
+ * 
+ * @author Jean-Daniel Fekete
+ * @version $Revision$
+ */
+public class SugiyamaLayering extends AbstractAlgorithm {
+    private static final Logger LOG = Logger.getLogger(SugiyamaLayering.class);
+
+    /**
+     * Creates a SugiyamaLayering.
+     * @param network the network
+     */
+    public SugiyamaLayering(Network network) {
+        super(network);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void compute() {
+        long t0 = System.currentTimeMillis();
+        GenerationRank rank = new GenerationRank(network);
+        rank.compute();
+        network.updateMinMax(true);
+        long t1 = System.currentTimeMillis();
+        VertexOrder order = new VertexOrder(network);
+        order.compute();
+        long t2 = System.currentTimeMillis();
+        LOG.info("Computed "+(network.getMaxLayer()+1)+" layers in "+(t1-t0)
+                +"ms, ordered them in "+(t2-t1)+"ms");
+    }
+}
@@ -7,6 +7,7 @@
  */
 package geneaquilt.algorithms;
 
+import geneaquilt.data.Adjacency;
 import geneaquilt.data.DateRange;
 import geneaquilt.data.Network;
 import geneaquilt.data.Vertex;
@@ -14,23 +15,100 @@ import geneaquilt.data.Vertex;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.log4j.Logger;
 
 /**
- * Class VertexOrder
+ * Class VertexOrder orders the vertices inside their layers to reduce
+ * the edge crossings, and sets their X to their position in the layer.
+ * 
+ * <p>Each layer is initially sorted by component and birth date. Then,
+ * as in GraphViz dot, each iteration sweeps the layers in alternate
+ * directions, sorting each layer by the weighted median of the positions
+ * of its neighbors in the layers already processed, and refines the order
+ * by transposing adjacent vertices while it reduces the crossings.
+ * The crossings between consecutive layers are counted in O(E log V)
+ * with an accumulator tree, and the best order found is kept.</p>
+ * 
+ * <p>Vertices never move across components, so each component is
+ * ordered separately on its own slice of the layers, concurrently on
+ * a {@link ForkJoinPool}, the largest first. The slices are then
+ * concatenated in the order of the components.</p>
  * 
  * @author Jean-Daniel Fekete
  * @version $Revision$
  */
 public class VertexOrder extends AbstractAlgorithm {
+    private static final Logger LOG = Logger.getLogger(VertexOrder.class);
+    /** Maximum number of median sweeps */
+    public static final int MAX_ITERATIONS = 24;
+    /** Number of sweeps without improvement before stopping */
+    public static final int MAX_STALL = 8;
+    /** Maximum number of transposition passes per sweep */
+    public static final int MAX_TRANSPOSE = 8;
+    private final int parallelism;
     private Vertex[][] layers;
-//    private HashMap<Vertex,Integer> bestOrder;
-//    private int bestCrossings;
+    private long crossings = -1;
+    private int iterations;
+
     /**
-     * Creates the vertex orderer
+     * Creates the vertex orderer using all the available processors.
      * @param network the network
      */
     public VertexOrder(Network network) {
+        this(network, Runtime.getRuntime().availableProcessors());
+    }
+    
+    /**
+     * Creates the vertex orderer using the specified number of threads.
+     * @param network the network
+     * @param parallelism the number of threads
+     */
+    public VertexOrder(Network network, int parallelism) {
         super(network);
+        this.parallelism = Math.max(1, parallelism);
+    }
+
+    /**
+     * @return the number of threads
+     */
+    public int getParallelism() {
+        return parallelism;
+    }
+    
+    /**
+     * Sets the layers to order instead of the layers of the network.
+     * The arrays are reordered in place, null layers are ignored.
+     * @param layers the layers, from the ancestors down
+     */
+    public void setLayers(Vertex[][] layers) {
+        this.layers = layers;
+    }
+    
+    /**
+     * @return the ordered layers
+     */
+    public Vertex[][] getLayers() {
+        return layers;
+    }
+    
+    /**
+     * @return the number of crossings of the computed order, 
+     * or -1 if not computed yet
+     */
+    public long getCrossings() {
+        return crossings;
+    }
+    
+    /**
+     * @return the largest number of sweeps performed on a component
+     */
+    public int getIterations() {
+        return iterations;
     }
     
     /**
@@ -38,117 +116,545 @@ public class VertexOrder extends AbstractAlgorithm {
      */
     @Override
     public void compute() {
-        init();
-//        bestOrder = computeOrder();
-        // TODO Auto-generated method stub
+        if (network.getVertexCount() == 0)
+            return;
+        int count = network.getComponents().size(); // assigns the component of each vertex
+        if (layers == null) {
+            layers = createLayers();
+        }
+        ComponentOrder[] components = split(network.getAdjacency(), count);
+        long t0 = System.currentTimeMillis();
+        int threads = Math.min(parallelism, components.length);
+        OrderTask task = new OrderTask(components, threads);
+        if (threads <= 1) {
+            task.compute();
+        }
+        else {
+            ForkJoinPool pool = new ForkJoinPool(threads);
+            try {
+                pool.invoke(task);
+            }
+            finally {
+                pool.shutdown();
+            }
+        }
+        long initial = 0;
+        crossings = 0;
+        iterations = 0;
+        for (ComponentOrder c : components) {
+            initial += c.initial;
+            crossings += c.crossings;
+            iterations = Math.max(iterations, c.iterations);
+        }
+        merge(components);
+        LOG.info("Ordered "+components.length+" components on "
+                +Math.max(1, threads)+" threads in "
+                +(System.currentTimeMillis()-t0)+"ms, crossings reduced from "
+                +initial+" to "+crossings);
     }
 
-    private void init() {
-        ArrayList<Vertex>[] lyrs = new ArrayList[network.getMaxLayer()+1];
+    private Vertex[][] createLayers() {
+        int min = network.getMinLayer();
+        ArrayList<Vertex>[] lyrs = new ArrayList[network.getMaxLayer()-min+1];
         for (int l = 0; l < lyrs.length; l++) {
             lyrs[l] = new ArrayList<Vertex>();
         }
         for (Vertex v : network.getVertices()) {
-            int l = v.getLayer();
-            lyrs[l].add(v);
+            lyrs[v.getLayer()-min].add(v);
         }
-        layers = new Vertex[network.getMaxLayer()+1][];
+        Vertex[][] ret = new Vertex[lyrs.length][];
         for (int l = 0; l < lyrs.length; l++) {
-            Vertex[] layer = lyrs[l].toArray(null);
-            layers[l] = layer;
-        }
-        sortLayer(layers[0], birthOrder);
-        for (int l = 1; l < layers.length; l++) {
-            
+            ret[l] = lyrs[l].toArray(new Vertex[lyrs[l].size()]);
         }
+        return ret;
     }
     
-    private static class BirthOrder implements Comparator<Vertex> {
-        public int compare(Vertex a, Vertex b) {
-            if (a.getComponent() != b.getComponent()) {
-                return a.getComponent() -  b.getComponent();
+    /**
+     * Sorts the layers by component and birth date, and cuts them
+     * into the slices of each component.
+     */
+    private ComponentOrder[] split(Adjacency adj, int count) {
+        int n = adj.getVertexCount();
+        int[] layerOf = new int[n];
+        Arrays.fill(layerOf, -1);
+        int[] order = new int[n];
+        double[] key = new double[n];
+        int[] min = new int[count];
+        int[] max = new int[count];
+        Arrays.fill(min, Integer.MAX_VALUE);
+        Arrays.fill(max, -1);
+        for (int l = 0; l < layers.length; l++) {
+            Vertex[] layer = layers[l];
+            if (layer == null) continue;
+            Arrays.sort(layer, birthOrder);
+            for (Vertex v : layer) {
+                int c = v.getComponent();
+                min[c] = Math.min(min[c], l);
+                max[c] = l;
             }
-            DateRange da = a.getDateRange();
-            DateRange db = b.getDateRange();
-            return da.compareTo(db);
         }
+        ComponentOrder[] components = new ComponentOrder[count];
+        for (int c = 0; c < count; c++) {
+            int span = (max[c] == -1) ? 0 : max[c]-min[c]+1;
+            components[c] = new ComponentOrder(adj, layerOf, order, key, min[c], span);
+        }
+        for (int l = 0; l < layers.length; l++) {
+            Vertex[] layer = layers[l];
+            if (layer == null) continue;
+            for (int i = 0; i < layer.length; ) {
+                int c = layer[i].getComponent();
+                int j = i+1;
+                while (j < layer.length && layer[j].getComponent() == c)
+                    j++;
+                components[c].setLayer(l-min[c], Arrays.copyOfRange(layer, i, j));
+                i = j;
+            }
+        }
+        return components;
     }
-    private static final BirthOrder birthOrder = new BirthOrder();
     
-    private void sortLayer(Vertex[] layer, Comparator<Vertex> order) {
-        Arrays.sort(layer, order);
-        setOrder(layer);
+    /**
+     * Concatenates the slices of the components in each layer.
+     */
+    private void merge(ComponentOrder[] components) {
+        int[] fill = new int[layers.length];
+        for (ComponentOrder c : components) {
+            for (int l = 0; l < c.layers.length; l++) {
+                Vertex[] slice = c.layers[l];
+                if (slice == null) continue;
+                System.arraycopy(slice, 0, layers[c.base+l], fill[c.base+l], slice.length);
+                fill[c.base+l] += slice.length;
+            }
+        }
+        for (Vertex[] layer : layers) {
+            if (layer != null)
+                setOrder(layer);
+        }
     }
     
-    private void setOrder(Vertex[] layer) {
+    private static void setOrder(Vertex[] layer) {
         for (int i = 0; i < layer.length; i++) {
             layer[i].setX(i);
         }
     }
-//    
-//    private int getOrder(Vertex v) {
-//        return (int)v.getX();
-//    }
-//    
-//    private HashMap<Vertex,Integer> computeOrder() {
-//        HashMap<Vertex,Integer> order = new HashMap<Vertex, Integer>(network.getVertexCount());
-//        for (int l = 0; l < layers.length; l++) {
-//            Vertex[] layer = layers[l];
-//            layers[l] = layer;
-//            for (int i = 0; i < layer.length; i++) {
-//                order.put(layer[i], new Integer(i));
-//            }
-//        }
-//        return order;
-//    }
     
-//    private int minimizeCrossings(int startpass, int endpass) {
-//        int currentCross = Integer.MAX_VALUE;
-//        int bestCross = currentCross;
-//        HashMap<Vertex,Integer> savedOrder = null;
-//        
-//        if (startpass > 1) {
-//            bestCross = currentCross = computeCrossings();
-//            savedOrder = computeOrder();
-//        }
-//        
-//        for (int pass = startpass; pass <= endpass; pass++) {
-//            
-//        }
-//        
-//        return bestCross;
-//    }
+    /**
+     * Orders the components. The root task starts one worker per
+     * thread, and each worker takes the next component in the list,
+     * sorted by decreasing size, until all are ordered.
+     */
+    static class OrderTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private final ComponentOrder[] components;
+        private final AtomicInteger next;
+        private final int workers;
+
+        OrderTask(ComponentOrder[] components, int workers) {
+            this(components, new AtomicInteger(), workers);
+        }
+
+        private OrderTask(ComponentOrder[] components, AtomicInteger next, int workers) {
+            this.components = components;
+            this.next = next;
+            this.workers = workers;
+        }
+
+        @Override
+        protected void compute() {
+            if (workers > 1) {
+                List<OrderTask> tasks = new ArrayList<OrderTask>(workers);
+                for (int i = 0; i < workers; i++) {
+                    tasks.add(new OrderTask(components, next, 0));
+                }
+                invokeAll(tasks);
+                return;
+            }
+            int c;
+            while ((c = next.getAndIncrement()) < components.length) {
+                ComponentOrder comp = components[c];
+                long t0 = System.currentTimeMillis();
+                comp.compute();
+                if (LOG.isDebugEnabled() && comp.initial > 0)
+                    LOG.debug("Ordered component "+c+" in "
+                            +(System.currentTimeMillis()-t0)+"ms, "
+                            +comp.iterations+" sweeps, crossings reduced from "
+                            +comp.initial+" to "+comp.crossings);
+            }
+        }
+    }
     
-//    private int computeCrossings() {
-//        int count = 0;
-//        for (int l = network.getMinLayer(); l <= network.getMaxLayer(); l++) {
-//            count += computeCrossings(l);
-//        }
-//        return count;
-//    }
+    /**
+     * Orders the slices of the layers holding one component.
+     * 
+     * <p>The layer, position and key of the vertices are stored in
+     * arrays shared by all the components since each only uses the 
+     * entries of its own vertices. Everything else, including the
+     * comparator reading the keys, is confined to the thread
+     * ordering the component.</p>
+     */
+    static class ComponentOrder {
+        final Adjacency adj;
+        final int[] layerOf;
+        final int[] order;
+        final double[] key;
+        final int base;
+        final Vertex[][] layers;
+        long initial;
+        long crossings;
+        int iterations;
+        private Vertex[][] best;
+        private double[] median;
+        private int[] left;
+        private int[][] above;
+        private int[][] below;
+        private int[] tree;
+        private boolean[] candidate;
+
+        ComponentOrder(Adjacency adj, int[] layerOf, int[] order, double[] key,
+                int base, int span) {
+            this.adj = adj;
+            this.layerOf = layerOf;
+            this.order = order;
+            this.key = key;
+            this.base = base;
+            this.layers = new Vertex[span][];
+        }
+        
+        void setLayer(int l, Vertex[] slice) {
+            layers[l] = slice;
+            for (int i = 0; i < slice.length; i++) {
+                int id = adj.getId(slice[i]);
+                layerOf[id] = l;
+                order[id] = i;
+            }
+        }
+
+        void compute() {
+            if (layers.length < 2)
+                return;
+            init();
+            transpose(false);
+            crossings = countCrossings();
+            initial = crossings;
+            saveBest();
+            int stall = 0;
+            for (iterations = 0; iterations < MAX_ITERATIONS && crossings != 0; ) {
+                sweep((iterations & 1) == 0);
+                transpose((iterations++ & 3) >= 2);
+                long c = countCrossings();
+                stall = (c < crossings) ? 0 : stall+1;
+                if (c <= crossings) {
+                    crossings = c;
+                    saveBest();
+                }
+                if (stall == MAX_STALL)
+                    break;
+            }
+            for (int l = 0; l < layers.length; l++) {
+                if (layers[l] != null)
+                    System.arraycopy(best[l], 0, layers[l], 0, layers[l].length);
+            }
+            best = null;
+            median = null;
+            left = null;
+            above = null;
+            below = null;
+            tree = null;
+            candidate = null;
+        }
+
+        void init() {
+            int maxDegree = 0;
+            int maxWidth = 0;
+            for (Vertex[] layer : layers) {
+                if (layer == null) continue;
+                maxWidth = Math.max(maxWidth, layer.length);
+                for (Vertex v : layer) {
+                    int id = adj.getId(v);
+                    maxDegree = Math.max(maxDegree, adj.outDegree(id)+adj.inDegree(id));
+                }
+            }
+            median = new double[maxDegree];
+            left = new int[maxDegree];
+            above = new int[2][maxDegree];
+            below = new int[2][maxDegree];
+            tree = new int[maxWidth+1];
+            best = new Vertex[layers.length][];
+            candidate = new boolean[layers.length];
+        }
+        
+        private int width(int l) {
+            if (l < 0 || l >= layers.length || layers[l] == null)
+                return 0;
+            return layers[l].length;
+        }
+
+        /**
+         * Sorts each layer by the weighted median of the positions of the 
+         * neighbors of its vertices in the layers above when sweeping down,
+         * in the layers below otherwise.
+         * Vertices without such neighbors keep their position.
+         */
+        private void sweep(boolean down) {
+            if (down) {
+                for (int l = 1; l < layers.length; l++) {
+                    sortLayer(l, true);
+                }
+            }
+            else {
+                for (int l = layers.length-2; l >= 0; l--) {
+                    sortLayer(l, false);
+                }
+            }
+        }
+        
+        private void sortLayer(int l, boolean down) {
+            Vertex[] layer = layers[l];
+            if (layer == null || layer.length < 2)
+                return;
+            for (Vertex v : layer) {
+                int id = adj.getId(v);
+                int n = 0;
+                for (int k = adj.outBegin(id); k < adj.outEnd(id); k++) {
+                    n = addPosition(adj.outVertex(k), l, down, n);
+                }
+                for (int k = adj.inBegin(id); k < adj.inEnd(id); k++) {
+                    n = addPosition(adj.inVertex(k), l, down, n);
+                }
+                key[id] = (n == 0) ? position(id) : weightedMedian(n);
+            }
+            Arrays.sort(layer, medianOrder);
+            for (int i = 0; i < layer.length; i++) {
+                order[adj.getId(layer[i])] = i;
+            }
+        }
+        
+        private int addPosition(int w, int l, boolean down, int n) {
+            int lw = layerOf[w];
+            if (lw != -1 && (down ? lw < l : lw > l)) {
+                median[n++] = position(w);
+            }
+            return n;
+        }
+        
+        /**
+         * Positions are normalized in [0,1] so that layers of
+         * different sizes can be compared.
+         */
+        private double position(int id) {
+            return (order[id] + 0.5) / width(layerOf[id]);
+        }
+        
+        /**
+         * Weighted median of Gansner et al., biased towards the side
+         * where the positions are packed more tightly.
+         */
+        private double weightedMedian(int n) {
+            Arrays.sort(median, 0, n);
+            int m = n / 2;
+            if ((n & 1) == 1)
+                return median[m];
+            if (n == 2)
+                return (median[0] + median[1]) / 2;
+            double l = median[m-1] - median[0];
+            double r = median[n-1] - median[m];
+            if (l + r == 0)
+                return (median[m-1] + median[m]) / 2;
+            return (median[m-1] * r + median[m] * l) / (l + r);
+        }
+
+        /**
+         * Exchanges adjacent vertices while it reduces the crossings
+         * with the neighbor layers.
+         * When reverse is true, vertices are also exchanged when the 
+         * crossings are unchanged, to escape from local minima.
+         */
+        private void transpose(boolean reverse) {
+            Arrays.fill(candidate, true);
+            long delta;
+            int pass = 0;
+            do {
+                delta = 0;
+                for (int l = 0; l < layers.length; l++) {
+                    if (candidate[l]) {
+                        candidate[l] = false;
+                        delta += transpose(l, reverse);
+                    }
+                }
+            }
+            while (delta > 0 && ++pass < MAX_TRANSPOSE);
+        }
         
-//    private int computeCrossings(int l) {
-//        int cross = 0;
-//        int max = 0;
-//        Vertex[] layer = layers[l];
-//        int[] count = new int[layer.length+1];
-//        
-//        for (int top = 0; top < layer.length; top++) {
-//            Vertex v = layer[top];
-//            if (max > 0) {
-//                for (Vertex w : network.getDescendants(v)) {
-//                    for (int k = getOrder(w)+1; k <= max; k++) {
-//                        cross += count[k];
-//                    }
-//                }
-//            }
-//            for (Vertex w : network.getDescendants(v)) {
-//                int inv = getOrder(w);
-//                if (inv > max) max = inv;
-//                count[inv]++;
-//            }
-//        }
-//        
-//        return cross;
-//    }
+        /**
+         * Transposes the vertices of one layer, marking the layers
+         * to examine again in the next pass.
+         * The neighbors of each vertex are collected once, the vertex
+         * on the left of the next pair being either v or w.
+         * @return the number of crossings removed
+         */
+        private long transpose(int l, boolean reverse) {
+            Vertex[] layer = layers[l];
+            if (layer == null || layer.length < 2)
+                return 0;
+            long delta = 0;
+            int a = adj.getId(layer[0]);
+            int na0 = neighborOrder(a, l-1, above[0]);
+            int na1 = neighborOrder(a, l+1, below[0]);
+            for (int i = 0; i < layer.length-1; i++) {
+                Vertex v = layer[i];
+                Vertex w = layer[i+1];
+                int b = adj.getId(w);
+                int nb0 = neighborOrder(b, l-1, above[1]);
+                int nb1 = neighborOrder(b, l+1, below[1]);
+                long c = crossings(above[0], na0, above[1], nb0)
+                        + crossings(below[0], na1, below[1], nb1);
+                if (c != 0) {
+                    long s = crossings(above[1], nb0, above[0], na0)
+                            + crossings(below[1], nb1, below[0], na1);
+                    if (s < c || (reverse && s == c)) {
+                        layer[i] = w;
+                        layer[i+1] = v;
+                        order[a] = i+1;
+                        order[b] = i;
+                        delta += c - s;
+                        candidate[l] = true;
+                        if (l > 0)
+                            candidate[l-1] = true;
+                        if (l < layers.length-1)
+                            candidate[l+1] = true;
+                        continue; // v stays on the left of the next pair
+                    }
+                }
+                int[] t = above[0]; above[0] = above[1]; above[1] = t;
+                t = below[0]; below[0] = below[1]; below[1] = t;
+                a = b;
+                na0 = nb0;
+                na1 = nb1;
+            }
+            return delta;
+        }
+        
+        /**
+         * Counts the crossings between the edges from two vertices to
+         * a layer, given the sorted positions of their neighbors,
+         * when the first vertex is placed before the second.
+         */
+        static long crossings(int[] pa, int na, int[] pb, int nb) {
+            if (na == 0 || nb == 0)
+                return 0;
+            long c = 0;
+            int i = 0;
+            for (int j = 0; j < nb; j++) {
+                while (i < na && pa[i] <= pb[j])
+                    i++;
+                c += na - i;
+            }
+            return c;
+        }
+        
+        /**
+         * Collects the sorted positions of the neighbors of a vertex
+         * in the specified layer.
+         */
+        int neighborOrder(int id, int l, int[] pos) {
+            int n = 0;
+            for (int k = adj.outBegin(id); k < adj.outEnd(id); k++) {
+                int w = adj.outVertex(k);
+                if (layerOf[w] == l)
+                    pos[n++] = order[w];
+            }
+            for (int k = adj.inBegin(id); k < adj.inEnd(id); k++) {
+                int w = adj.inVertex(k);
+                if (layerOf[w] == l)
+                    pos[n++] = order[w];
+            }
+            if (n > 1)
+                Arrays.sort(pos, 0, n);
+            return n;
+        }
+
+        /**
+         * Counts the crossings between all the consecutive layers.
+         */
+        private long countCrossings() {
+            long count = 0;
+            for (int l = 0; l < layers.length-1; l++) {
+                count += countCrossings(l);
+            }
+            return count;
+        }
+        
+        /**
+         * Counts the crossings between a layer and the next one with the
+         * accumulator tree of Barth, J&uuml;nger and Mutzel: the edges are 
+         * inserted in lexicographic order and each one crosses the edges 
+         * already inserted that end to its right.
+         */
+        long countCrossings(int l) {
+            Vertex[] layer = layers[l];
+            int w = width(l+1);
+            if (layer == null || w == 0)
+                return 0;
+            Arrays.fill(tree, 0, w+1, 0);
+            long count = 0;
+            int inserted = 0;
+            for (Vertex v : layer) {
+                int n = neighborOrder(adj.getId(v), l+1, left);
+                for (int k = 0; k < n; k++) {
+                    int before = 0;
+                    for (int i = left[k]+1; i > 0; i -= i & -i) {
+                        before += tree[i];
+                    }
+                    count += inserted - before;
+                }
+                for (int k = 0; k < n; k++) {
+                    for (int i = left[k]+1; i <= w; i += i & -i) {
+                        tree[i]++;
+                    }
+                }
+                inserted += n;
+            }
+            return count;
+        }
+        
+        private void saveBest() {
+            for (int l = 0; l < layers.length; l++) {
+                Vertex[] layer = layers[l];
+                if (layer == null) continue;
+                if (best[l] == null)
+                    best[l] = new Vertex[layer.length];
+                System.arraycopy(layer, 0, best[l], 0, layer.length);
+            }
+        }
+
+        private final Comparator<Vertex> medianOrder = new Comparator<Vertex>() {
+            public int compare(Vertex a, Vertex b) {
+                int ia = adj.getId(a);
+                int ib = adj.getId(b);
+                int ret = Double.compare(key[ia], key[ib]);
+                if (ret != 0)
+                    return ret;
+                return order[ia] - order[ib];
+            }
+        };
+    }
+    
+    private static class BirthOrder implements Comparator<Vertex> {
+        public int compare(Vertex a, Vertex b) {
+            if (a.getComponent() != b.getComponent()) {
+                return a.getComponent() -  b.getComponent();
+            }
+            DateRange da = a.getDateRange();
+            DateRange db = b.getDateRange();
+            // DateRange.compareTo is not transitive for overlapping ranges
+            if (! da.isValid())
+                return db.isValid() ? 1 : 0;
+            if (! db.isValid())
+                return -1;
+            long ca = da.getCenter();
+            long cb = db.getCenter();
+            return ca < cb ? -1 : (ca == cb ? 0 : 1);
+        }
+    }
+    private static final BirthOrder birthOrder = new BirthOrder();
 }
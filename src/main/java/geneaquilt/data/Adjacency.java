@@ -0,0 +1,273 @@
+/**
+ * Copyright (c) 2010-2014, Jean-Daniel Fekete, Pierre Dragicevic, and INRIA.
+ * All rights reserved.
+ *
+ * Use of this source code is governed by a BSD-style license that can be
+ * found in the LICENSE file.
+ */
+package geneaquilt.data;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * <b>Adjacency</b> is a compact, read-only snapshot of the structure
+ * of a {@link Network} in compressed sparse row (CSR) form.
+ *
+ * <p>Vertices are numbered with dense int ids from 0 to
+ * {@link #getVertexCount()}-1. For each vertex, its out edges (towards
+ * its ascendants) and its in edges (from its descendants) are stored
+ * contiguously in int arrays, so neighbors are iterated without
+ * allocation:</p>
+ * <pre>
+ * Adjacency adj = network.getAdjacency();
+ * for (int k = adj.outBegin(v); k &lt; adj.outEnd(v); k++) {
+ *     int w = adj.outVertex(k);
+ *     ...
+ * }
+ * </pre>
+ *
+ * <p>The snapshot is rebuilt by the network when its structure changes.
+ * A {@link NetworkView} has its own adjacency, oriented by the view,
+ * with the same ids as the adjacency of its network.</p>
+ *
+ * @author Jean-Daniel Fekete
+ * @version $Revision$
+ */
+public final class Adjacency {
+    private final Network network;
+    private final Vertex[] vertices;
+    private final int[] outStart;
+    private final int[] outVertex;
+    private final Edge[] outEdge;
+    private final int[] inStart;
+    private final int[] inVertex;
+    private final Edge[] inEdge;
+    private final Adjacency base;
+    private Map<Vertex,Integer> foreign;
+
+    Adjacency(Network network, Vertex[] vertices) {
+        this(network, vertices, null, null);
+    }
+
+    /**
+     * Creates the adjacency of a view, sharing the ids of the
+     * adjacency of the network.
+     * @param base the adjacency of the network
+     * @param view the view
+     */
+    Adjacency(Adjacency base, NetworkView view) {
+        this(base.network, base.vertices, base, view);
+    }
+
+    private Adjacency(Network network, Vertex[] vertices, Adjacency base, NetworkView view) {
+        this.network = network;
+        this.vertices = vertices;
+        this.base = base;
+        int n = vertices.length;
+        if (base != null) {
+            foreign = base.foreign;
+        }
+        else {
+            for (int i = 0; i < n; i++) {
+                Vertex v = vertices[i];
+                if (v.getIndexOwner() != network) {
+                    if (foreign == null)
+                        foreign = new HashMap<Vertex, Integer>();
+                    foreign.put(v, Integer.valueOf(i));
+                }
+            }
+        }
+        int m = network.getEdgeCount();
+        outStart = new int[n+1];
+        inStart = new int[n+1];
+        int[] src = new int[m];
+        int[] dst = new int[m];
+        Edge[] edges = new Edge[m];
+        int e = 0;
+        for (Edge edge : network.getEdges()) {
+            int s, d;
+            if (view == null) {
+                s = getId(network.getSource(edge));
+                d = getId(network.getDest(edge));
+            }
+            else {
+                if (view.isHidden(edge))
+                    continue;
+                s = getId(view.getSource(edge));
+                d = getId(view.getDest(edge));
+            }
+            src[e] = s;
+            dst[e] = d;
+            edges[e] = edge;
+            outStart[s+1]++;
+            inStart[d+1]++;
+            e++;
+        }
+        m = e;
+        for (int i = 0; i < n; i++) {
+            outStart[i+1] += outStart[i];
+            inStart[i+1] += inStart[i];
+        }
+        outVertex = new int[m];
+        outEdge = new Edge[m];
+        inVertex = new int[m];
+        inEdge = new Edge[m];
+        int[] outFill = new int[n];
+        int[] inFill = new int[n];
+        for (e = 0; e < m; e++) {
+            int s = src[e];
+            int d = dst[e];
+            int k = outStart[s] + outFill[s]++;
+            outVertex[k] = d;
+            outEdge[k] = edges[e];
+            k = inStart[d] + inFill[d]++;
+            inVertex[k] = s;
+            inEdge[k] = edges[e];
+        }
+    }
+
+    /**
+     * @return the network
+     */
+    public Network getNetwork() {
+        return network;
+    }
+
+    /**
+     * @return the adjacency of the network for the adjacency
+     * of a view, null otherwise
+     */
+    Adjacency getBase() {
+        return base;
+    }
+
+    /**
+     * @return the number of vertices
+     */
+    public int getVertexCount() {
+        return vertices.length;
+    }
+
+    /**
+     * @return the number of edges
+     */
+    public int getEdgeCount() {
+        return outVertex.length;
+    }
+
+    /**
+     * Returns the vertex with the specified dense id.
+     * @param id the id
+     * @return the vertex
+     */
+    public Vertex getVertex(int id) {
+        return vertices[id];
+    }
+
+    /**
+     * Returns the dense id of the specified vertex.
+     * @param v the vertex
+     * @return the id or -1 if the vertex is not in the network
+     */
+    public int getId(Vertex v) {
+        if (v.getIndexOwner() == network)
+            return v.getIndex();
+        if (foreign == null)
+            return -1;
+        Integer i = foreign.get(v);
+        if (i == null)
+            return -1;
+        return i.intValue();
+    }
+
+    /**
+     * Returns the first out edge slot of a vertex,
+     * leading to its ascendants.
+     * @param v the vertex id
+     * @return the first slot
+     */
+    public int outBegin(int v) {
+        return outStart[v];
+    }
+
+    /**
+     * Returns the end of the out edge slots of a vertex.
+     * @param v the vertex id
+     * @return the slot after the last one
+     */
+    public int outEnd(int v) {
+        return outStart[v+1];
+    }
+
+    /**
+     * @param v the vertex id
+     * @return the number of out edges, i.e. of ascendants
+     */
+    public int outDegree(int v) {
+        return outStart[v+1]-outStart[v];
+    }
+
+    /**
+     * Returns the destination of an out edge slot.
+     * @param k the slot
+     * @return the vertex id of the ascendant
+     */
+    public int outVertex(int k) {
+        return outVertex[k];
+    }
+
+    /**
+     * Returns the edge of an out edge slot.
+     * @param k the slot
+     * @return the edge
+     */
+    public Edge outEdge(int k) {
+        return outEdge[k];
+    }
+
+    /**
+     * Returns the first in edge slot of a vertex,
+     * coming from its descendants.
+     * @param v the vertex id
+     * @return the first slot
+     */
+    public int inBegin(int v) {
+        return inStart[v];
+    }
+
+    /**
+     * Returns the end of the in edge slots of a vertex.
+     * @param v the vertex id
+     * @return the slot after the last one
+     */
+    public int inEnd(int v) {
+        return inStart[v+1];
+    }
+
+    /**
+     * @param v the vertex id
+     * @return the number of in edges, i.e. of descendants
+     */
+    public int inDegree(int v) {
+        return inStart[v+1]-inStart[v];
+    }
+
+    /**
+     * Returns the source of an in edge slot.
+     * @param k the slot
+     * @return the vertex id of the descendant
+     */
+    public int inVertex(int k) {
+        return inVertex[k];
+    }
+
+    /**
+     * Returns the edge of an in edge slot.
+     * @param k the slot
+     * @return the edge
+     */
+    public Edge inEdge(int k) {
+        return inEdge[k];
+    }
+}
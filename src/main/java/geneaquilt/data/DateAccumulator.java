@@ -0,0 +1,131 @@
+/**
+ * Copyright (c) 2010-2014, Jean-Daniel Fekete, Pierre Dragicevic, and INRIA.
+ * All rights reserved.
+ *
+ * Use of this source code is governed by a BSD-style license that can be
+ * found in the LICENSE file.
+ */
+package geneaquilt.data;
+
+/**
+ * <b>DateAccumulator</b> is a mutable range of dates used to
+ * compute the union or intersection of {@link DateRange}s,
+ * which are immutable.
+ * 
+ * @author Jean-Daniel Fekete
+ * @version $Revision$
+ */
+public class DateAccumulator {
+    private long start;
+    private long end;
+
+    /**
+     * Creates an invalid accumulator, ready for unions.
+     */
+    public DateAccumulator() {
+        setInvalid();
+    }
+
+    /**
+     * Creates an accumulator initialized with the specified date.
+     * @param date the date
+     */
+    public DateAccumulator(DateRange date) {
+        start = date.getStart();
+        end = date.getEnd();
+    }
+
+    /**
+     * Sets the range to invalid with
+     * end = MIN_INF and start = MAX_INF, ready for unions.
+     */
+    public void setInvalid() {
+        start = DateRange.MAX_INF;
+        end = DateRange.MIN_INF;
+    }
+
+    /**
+     * Clears the range, making as long as possible,
+     * ready for intersections.
+     */
+    public void clear() {
+        start = DateRange.MIN_INF;
+        end = DateRange.MAX_INF;
+    }
+
+    /**
+     * @return the start
+     */
+    public long getStart() {
+        return start;
+    }
+
+    /**
+     * @return the end
+     */
+    public long getEnd() {
+        return end;
+    }
+
+    /**
+     * @return true of the range is valid
+     */
+    public boolean isValid() {
+        return start <= end;
+    }
+
+    /**
+     * @return the center of the interval
+     * except when it is unbound in one direction
+     */
+    public long getCenter() {
+        return DateRange.center(start, end);
+    }
+
+    /**
+     * Computes the union of this range with the specified date
+     * @param other the other date
+     */
+    public void union(DateRange other) {
+        if (other.isValid()) {
+            start = Math.min(other.getStart(), start);
+            end = Math.max(other.getEnd(), end);
+        }
+    }
+
+    /**
+     * Computes the union of this range with the specified one
+     * @param other the other range
+     */
+    public void union(DateAccumulator other) {
+        if (other.isValid()) {
+            start = Math.min(other.start, start);
+            end = Math.max(other.end, end);
+        }
+    }
+
+    /**
+     * Computes the intersection of this range with the specified date
+     * @param other the other date
+     */
+    public void intersection(DateRange other) {
+        if (other.isValid()) {
+            start = Math.max(other.getStart(), start);
+            end = Math.min(other.getEnd(), end);
+        }
+    }
+
+    /**
+     * @return a new date range with the current value
+     */
+    public DateRange toDateRange() {
+        return new DateRange(start, end);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public String toString() {
+        return toDateRange().toString();
+    }
+}
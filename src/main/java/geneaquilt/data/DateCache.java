@@ -0,0 +1,74 @@
+/**
+ * Copyright (c) 2010-2014, Jean-Daniel Fekete, Pierre Dragicevic, and INRIA.
+ * All rights reserved.
+ *
+ * Use of this source code is governed by a BSD-style license that can be
+ * found in the LICENSE file.
+ */
+package geneaquilt.data;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * <b>DateCache</b> memoizes the parsed dates while a file is loaded.
+ * 
+ * <p>Genealogies repeat the same date strings many times, so each
+ * distinct text is parsed once and the resulting immutable
+ * {@link DateRange} is shared by all the vertices using it.
+ * The cache is meant to live as long as a load and should be
+ * dropped afterwards.</p>
+ * 
+ * @author Jean-Daniel Fekete
+ * @version $Revision$
+ */
+public class DateCache {
+    private final Map<String,DateRange> dates = new HashMap<String, DateRange>();
+    private int hits;
+
+    /**
+     * Creates an empty date cache.
+     */
+    public DateCache() {
+    }
+
+    /**
+     * Returns the date for the specified GEDCOM text,
+     * parsing it only the first time.
+     * @param text the date text
+     * @return the shared date, maybe invalid
+     */
+    public DateRange get(String text) {
+        DateRange d = dates.get(text);
+        if (d == null) {
+            d = new DateRange(text);
+            dates.put(text, d);
+        }
+        else {
+            hits++;
+        }
+        return d;
+    }
+
+    /**
+     * @return the number of distinct dates
+     */
+    public int size() {
+        return dates.size();
+    }
+
+    /**
+     * @return the number of dates returned without parsing
+     */
+    public int getHits() {
+        return hits;
+    }
+
+    /**
+     * Clears the cache.
+     */
+    public void clear() {
+        dates.clear();
+        hits = 0;
+    }
+}
@@ -8,14 +8,20 @@
 package geneaquilt.data;
 
 import java.text.ParseException;
-import java.util.Calendar;
-import java.util.HashMap;
-import java.util.TimeZone;
 
 /**
  * <b>DateRange</b> is the implementation of a
  * GEDCOM date with a precision unit of one second. 
  * 
+ * <p>Dates are counted in seconds from January 1st 1970 in the
+ * proleptic Gregorian calendar, computed arithmetically without
+ * any shared Calendar so dates can be parsed and formatted
+ * concurrently from several threads.</p>
+ * 
+ * <p>DateRange values are immutable so they can be shared, see
+ * {@link DateCache}. Unions and intersections are computed with a
+ * {@link DateAccumulator}.</p>
+ * 
  * @author Jean-Daniel Fekete
  * @version $Revision$
  */
@@ -39,29 +45,24 @@ public class DateRange implements Comparable<DateRange> {
     private String mode;
     private long start;
     private long end;
-    private boolean approximated;
-    private boolean calculated;
-    private boolean estimated;
-    private boolean interpolated;
 
-    static final Calendar calendar = Calendar.getInstance(TimeZone.getTimeZone("GMT"));
-    static final HashMap<String, Integer> MONTH = new HashMap<String, Integer>();
     static final String[] MONTHS = {
         "JAN", "FEB", "MAR", "APR", "MAY", "JUN", 
         "JUL", "AUG", "SEP", "OCT", "NOV", "DEC"
     };
-    static {
-        calendar.setLenient(true);
-        for (int i = 0; i < MONTHS.length; i++) {
-            MONTH.put(MONTHS[i], new Integer(i));
-        }
-    }
+    static final String[] MODES = {
+        "ABT", "EST", "BEF", "AFT", "BET", "CAL"
+    };
+    private static final String AND = "AND";
+    private static final String ABOUT = "ABOUT";
+    private static final int NONE = Integer.MIN_VALUE;
     
     /**
      * Creates an invalid date. 
      */
     public DateRange() {
-        setInvalid();
+        start = MAX_INF;
+        end = MIN_INF;
     }
     
     /**
@@ -76,9 +77,9 @@ public class DateRange implements Comparable<DateRange> {
     }
     
     /**
-     * Creates a date from a GEDCom syntax
+     * Creates a date from a GEDCom syntax.
+     * The date is invalid if the syntax is not recognized.
      * @param dateString the string specifying the date
-     * @throws ParseException if the syntax is not recognized
      */
     public DateRange(String dateString) {
         try {
@@ -108,15 +109,6 @@ public class DateRange implements Comparable<DateRange> {
         this.end = end;
     }
 
-    /**
-     * Clears the date, making as long as possible.
-     */
-    public void clear()  {
-        start = MIN_INF;
-        end = MAX_INF;
-        text = null;
-    }
-    
     /**
      * Returns the Year/Month/Day of the specified date value
      * in seconds.
@@ -128,13 +120,69 @@ public class DateRange implements Comparable<DateRange> {
         if (fields == null) {
             fields = new int[3];
         }
-        calendar.setTimeInMillis(value*1000);
-        fields[0] = calendar.get(Calendar.YEAR);
-        fields[1] = calendar.get(Calendar.MONDAY);
-        fields[2] = calendar.get(Calendar.DAY_OF_MONTH);
+        long z = floorDiv(value, DAY) + 719468;
+        long era = floorDiv(z, 146097);
+        long doe = z - era*146097;
+        long yoe = (doe - doe/1460 + doe/36524 - doe/146096) / 365;
+        long doy = doe - (365*yoe + yoe/4 - yoe/100);
+        long mp = (5*doy + 2)/153;
+        // eras and years start in March
+        fields[0] = (int)(yoe + era*400 + (mp >= 10 ? 1 : 0));
+        fields[1] = (int)(mp < 10 ? mp+2 : mp-10);
+        fields[2] = (int)(doy - (153*mp+2)/5 + 1);
         return fields;
     }
 
+    /**
+     * Returns the number of days from January 1st 1970 of the
+     * specified day in the proleptic Gregorian calendar.
+     * Months and days out of their range are carried over,
+     * e.g. day 0 is the last day of the previous month.
+     * @param year the year, 0 being 1 BC
+     * @param month the month, from 0 to 11
+     * @param day the day of the month, starting at 1
+     * @return the number of days
+     */
+    public static long daysFromCivil(int year, int month, int day) {
+        long y = year + floorDiv(month, 12);
+        int m = (int)(month - floorDiv(month, 12)*12) + 1;
+        if (m <= 2)
+            y--;
+        long era = floorDiv(y, 400);
+        long yoe = y - era*400;
+        long doy = (153*(m + (m > 2 ? -3 : 9)) + 2)/5;
+        long doe = yoe*365 + yoe/4 - yoe/100 + doy;
+        return era*146097 + doe - 719468 + day - 1;
+    }
+    
+    /**
+     * Returns the date value in seconds of the specified day.
+     * @param year the year
+     * @param month the month, from 0 to 11
+     * @param day the day of the month, starting at 1
+     * @return the date value
+     */
+    public static long valueOf(int year, int month, int day) {
+        return daysFromCivil(year, month, day)*DAY;
+    }
+    
+    private static int yearOfDays(long days) {
+        long z = days + 719468;
+        long era = floorDiv(z, 146097);
+        long doe = z - era*146097;
+        long yoe = (doe - doe/1460 + doe/36524 - doe/146096) / 365;
+        long doy = doe - (365*yoe + yoe/4 - yoe/100);
+        long mp = (5*doy + 2)/153;
+        return (int)(yoe + era*400 + (mp >= 10 ? 1 : 0));
+    }
+
+    static long floorDiv(long a, long b) {
+        long q = a / b;
+        if ((a % b != 0) && ((a < 0) != (b < 0)))
+            q--;
+        return q;
+    }
+
     /**
      * Returns the date of the starting year day for the
      * specified date value
@@ -142,9 +190,7 @@ public class DateRange implements Comparable<DateRange> {
      * @return the start of the year
      */
     public static long yearFloor(long value) {
-        calendar.setTimeInMillis(value*1000);
-        int year = calendar.get(Calendar.YEAR);
-        return yearFloor(year);
+        return yearFloor(yearOfDays(floorDiv(value, DAY)));
     }
     
     /**
@@ -153,8 +199,7 @@ public class DateRange implements Comparable<DateRange> {
      * @return the date value for January first
      */
     public static long yearFloor(int year) {
-        calendar.set(year, 0, 1);
-        return calendar.getTimeInMillis()/1000;        
+        return valueOf(year, 0, 1);
     }
     
     /**
@@ -164,32 +209,9 @@ public class DateRange implements Comparable<DateRange> {
      * @return the end of the year
      */
     public static long yearCeil(long value) {
-        calendar.setTimeInMillis(value*1000);
-        int year = calendar.get(Calendar.YEAR);
-        calendar.set(year+1, 0, 1);
-        return calendar.getTimeInMillis()/1000;
+        return yearFloor(yearOfDays(floorDiv(value, DAY))+1);
     }
     
-//    public static DateRange createGregorian(int year) {
-//        return new DateRange(yearFloor(year), yearCeil(year));
-//    }
-    
-//    public static DateRange createGregorian(int month, int year) {
-//        calendar.set(year, month, 0);
-//        long floor = calendar.getTimeInMillis()/1000;
-//        calendar.set(year, month, 30);
-//        long ceil = calendar.getTimeInMillis()/1000;
-//        return new DateRange(floor, ceil);
-//    }
-
-//    public static DateRange createGregorian(int day, int month, int year) {
-//        calendar.set(year, month, day);
-//        long floor = calendar.getTimeInMillis()/1000;
-//        calendar.set(year, month, day+1);
-//        long ceil = calendar.getTimeInMillis()/1000;
-//        return new DateRange(floor, ceil);
-//    }
-    
     /**
      * @return true if the range is maximal
      */
@@ -197,17 +219,6 @@ public class DateRange implements Comparable<DateRange> {
         return start == MIN_INF && end == MAX_INF;
     }
     
-    /**
-     * Sets the date to invalid with
-     * end = MIN_INF and start = MAX_INF.
-     */
-    public void setInvalid() {
-        start = MAX_INF;
-        end = MIN_INF;
-        text = null;
-        
-    }
-    
     /**
      * @return the start
      */
@@ -215,14 +226,6 @@ public class DateRange implements Comparable<DateRange> {
         return start;
     }
     
-    /**
-     * @param start the start to set
-     */
-    public void setStart(long start) {
-        this.start = start;
-        text = null;
-    }
-    
     /**
      * @return the end
      */
@@ -230,13 +233,6 @@ public class DateRange implements Comparable<DateRange> {
         return end;
     }
     
-    /**
-     * @param end the end to set
-     */
-    public void setEnd(long end) {
-        this.end = end;
-        text = null;
-    }
 
     /**
      * @return true of the date range is valid
@@ -260,40 +256,13 @@ public class DateRange implements Comparable<DateRange> {
     }
     
     /**
-     * Computes the union of this date with the specified one
-     * @param other the other date
-     */
-    public void union(DateRange other) {
-        if (other.isValid()) {
-            this.start = Math.min(other.getStart(), this.start);
-            this.end = Math.max(other.getEnd(), this.end);
-            text = null;
-        }
-    }
-    
-    /**
-     * Computes the intersection of this date with the specified one
-     * @param other the other date
-     */
-    public void intersection(DateRange other) {
-        if (other.isValid()) {
-            this.start = Math.max(other.getStart(), this.start);
-            this.end = Math.min(other.getEnd(), this.end);
-            text = null;
-        }
-        
-    }
-    
-    /**
-     * Sets the year as a plus/minus 6 month range around jan 1st
+     * Creates a range of one year centered on January 1st
+     * of the specified year.
      * @param year the year
+     * @return a new date range
      */
-    public void setYear(int year) {
-        calendar.set(year, 6, 15);
-        end = calendar.getTimeInMillis()/1000;
-        calendar.roll(Calendar.YEAR, false);
-        start = calendar.getTimeInMillis()/1000;
-        text = null;
+    public static DateRange aroundYear(int year) {
+        return new DateRange(valueOf(year-1, 6, 15), valueOf(year, 6, 15));
     }
     
     /**
@@ -302,7 +271,11 @@ public class DateRange implements Comparable<DateRange> {
      * except when it is unbound in one direction
      */
     public long getCenter() {
-        if (! isValid())
+        return center(start, end);
+    }
+    
+    static long center(long start, long end) {
+        if (start > end)
             return MIN_INF;
         if (start == MIN_INF)
             return end;
@@ -312,32 +285,89 @@ public class DateRange implements Comparable<DateRange> {
     }
         
     static int parseMonth(String m) {
-        Integer i = MONTH.get(m);
-        if  (i == null)
+        return parseMonth(m, 0, m.length());
+    }
+    
+    static int parseMonth(CharSequence s, int begin, int end) {
+        if (end-begin != 3)
             return -1;
-        return i.intValue();
+        for (int i = 0; i < MONTHS.length; i++) {
+            if (matches(s, begin, end, MONTHS[i]))
+                return i;
+        }
+        return -1;
     }
     
-    static int[] parseInt(String y) {
-        int s = y.indexOf('/');
-        try {
-            if (s != -1) {
-                int[] ret = new int[2];
-                String y1 = y.substring(0, s);
-                String y2 = y.substring(s+1);
-                ret[0] = Integer.parseInt(y1);
-                ret[1]= Integer.parseInt(y2);
-                return ret;
-            }
-            else {
-                int[] ret = new int[1];
-                ret[0] = Integer.parseInt(y);
-                return ret;
-            }
+    private static boolean matches(CharSequence s, int begin, int end, String word) {
+        if (end-begin != word.length())
+            return false;
+        for (int i = begin; i < end; i++) {
+            if (Character.toUpperCase(s.charAt(i)) != word.charAt(i-begin))
+                return false;
         }
-        catch(NumberFormatException e) {
-            return null;
+        return true;
+    }
+    
+    private static boolean isSpace(char c) {
+        return c == ' ' || c == '\t';
+    }
+    
+    private static int skipSpaces(CharSequence s, int i, int len) {
+        while (i < len && isSpace(s.charAt(i)))
+            i++;
+        return i;
+    }
+    
+    private static int tokenEnd(CharSequence s, int i, int len) {
+        while (i < len && !isSpace(s.charAt(i)))
+            i++;
+        return i;
+    }
+    
+    private static String parseMode(CharSequence s, int begin, int end) {
+        for (int i = 0; i < MODES.length; i++) {
+            if (matches(s, begin, end, MODES[i]))
+                return MODES[i];
         }
+        if (matches(s, begin, end, ABOUT))
+            return MODES[0];
+        return null;
+    }
+    
+    /**
+     * Parses an unsigned int.
+     * @return the int or -1 if the text is not a number
+     */
+    private static int parseInt(CharSequence s, int begin, int end) {
+        if (begin == end || end-begin > 9)
+            return -1;
+        int v = 0;
+        for (int i = begin; i < end; i++) {
+            char c = s.charAt(i);
+            if (c < '0' || c > '9')
+                return -1;
+            v = v*10 + (c-'0');
+        }
+        return v;
+    }
+    
+    /**
+     * Parses the second part of a dual year such as 1699/00,
+     * which can be abbreviated.
+     */
+    private static int parseDualYear(int year, CharSequence s, int begin, int end) {
+        int y = parseInt(s, begin, end);
+        if (y < 0)
+            return -1;
+        if (y < year) {
+            int scale = 1;
+            for (int i = begin; i < end; i++)
+                scale *= 10;
+            y += year - year % scale;
+            if (y < year)
+                y += scale;
+        }
+        return y;
     }
     
     /**
@@ -345,126 +375,105 @@ public class DateRange implements Comparable<DateRange> {
      * @param dateString the string specifying the date
      * @throws ParseException if the syntax is not recognized
      */
-    public void parse(String dateString) throws ParseException {
+    private void parse(String dateString) throws ParseException {
         this.text = dateString;
         mode = null;
-        
-        String[] field = dateString.split(" +");
-        int f;
-        for (f = 0; f < field.length; f++) {
-            field[f] = field[f].toUpperCase(); 
+        int len = dateString.length();
+        int i = skipSpaces(dateString, 0, len);
+        int e = tokenEnd(dateString, i, len);
+        String m = parseMode(dateString, i, e);
+        if (m != null) {
+            mode = m;
+            i = e;
         }
-        f = 0;
-        if ("ABT".equals(field[f])
-                || "about".equals(field[f])
-                || "EST".equals(field[f])
-                || "BEF".equals(field[f])
-                || "AFT".equals(field[f])
-                || "BET".equals(field[f])) {
-            mode = field[f];
-            f++;
-            if ("BET".equals(mode)) {
-                for (int i = f; i < field.length; i++) {
-                    if ("AND".equals(field[i])) {
-                        parse(field, f, i-f);
-                        //TODO parse(field, i+1, field.length-i);
-                        return;
-                    }
-                }
+        try {
+            i = parsePart(dateString, i, len);
+            if (i < len) {
+                if (mode != MODES[4])
+                    throw new ParseException("Unexpected AND", i);
+                // BET date AND date
+                long s = start;
+                i = skipSpaces(dateString, i+AND.length(), len);
+                parsePart(dateString, i, len);
+                start = s;
             }
         }
-        int n = field.length-f;
-        parse(field, f, n);
+        catch(ParseException ex) {
+            start = MAX_INF;
+            end = MIN_INF;
+            throw ex;
+        }
     }
 
-    private void parse(String[] field, int f, int n) throws ParseException {
-        try {
-        if (n == 3) {
-            // day month year
-            int month = parseMonth(field[f+1]);
-            int[] day = null;
-            if (month < 0) {
-                month = parseMonth(field[f]);
-                if (month >= 0) {
-                    day = parseInt(field[f+1]); 
-                }
-            }
-            else {
-                day = parseInt(field[f]);
-            }
-            int[] y= parseInt(field[f+2]);
-            if (month >=0 && y != null && day != null) {
-                if (y.length == 1) {
-                    int year = y[0];
-                    calendar.set(year, month, day[0]);
-                    end = calendar.getTimeInMillis()/1000;
-                    calendar.set(year, month, day[0]);
-                    start = calendar.getTimeInMillis()/1000;
-                }
-                else {
-                    int year1 = y[0];
-                    int year2 = y[1];
-                    calendar.set(year2, month, day[0]);
-                    end = calendar.getTimeInMillis()/1000;
-                    calendar.set(year1, month, day[0]);
-                    start = calendar.getTimeInMillis()/1000;
-                }
+    /**
+     * Parses one date from a range of text, made of
+     * a year, a month and a year or a day, a month and a year,
+     * up to the end of the text or an AND keyword.
+     * Years can be dual, such as 1699/00.
+     * @return the position of the AND keyword or len
+     */
+    private int parsePart(CharSequence s, int i, int len) throws ParseException {
+        int n = 0;
+        int month = -1;
+        int monthPos = -1;
+        int day = NONE;
+        int year1 = NONE;
+        int year2 = NONE;
+        for (i = skipSpaces(s, i, len); i < len; i = skipSpaces(s, i, len)) {
+            int e = tokenEnd(s, i, len);
+            if (matches(s, i, e, AND))
+                break;
+            if (++n > 3)
+                throw new ParseException("Invalid date format", i);
+            int m = parseMonth(s, i, e);
+            if (m != -1) {
+                if (month != -1)
+                    throw new ParseException("Invalid date format", i);
+                month = m;
+                monthPos = n-1;
+                i = e;
+                continue;
             }
-            else {
-                throw new ParseException("Invalid date format", 0);
+            if (year1 != NONE) {
+                // the previous number was the day
+                if (day != NONE || year1 != year2)
+                    throw new ParseException("Invalid date format", i);
+                day = year1;
             }
-        }
-        else if (n == 2) {
-            int month = parseMonth(field[f]);
-            int[] y = parseInt(field[f+1]);
-            if (month != -1 && y != null) {
-                if (y.length == 1) {
-                    int year = y[0];
-                    calendar.set(year, month+1, 0);
-                    end = calendar.getTimeInMillis()/1000;
-                    calendar.set(year, month, 1); // calendar should be lenient for month-1
-                    start = calendar.getTimeInMillis()/1000;
-                }
-                else {
-                    int year1 = y[0];
-                    int year2 = y[1];
-                    calendar.set(year2, month+1, 0);
-                    end = calendar.getTimeInMillis()/1000;
-                    calendar.set(year1, month, 1);
-                    start = calendar.getTimeInMillis()/1000;
-                }
+            int slash = i;
+            while (slash < e && s.charAt(slash) != '/')
+                slash++;
+            year1 = parseInt(s, i, slash);
+            if (year1 < 0)
+                throw new ParseException("Invalid date format", i);
+            if (slash < e) {
+                year2 = parseDualYear(year1, s, slash+1, e);
+                if (year2 < 0)
+                    throw new ParseException("Invalid date format", slash+1);
             }
             else {
-                throw new ParseException("Invalid date format", 0);
+                year2 = year1;
             }
+            i = e;
         }
-        else if (n == 1) {
-            int[] y = parseInt(field[f]);
-            if (y != null) {
-                if (y.length == 2) {
-                    int year1 = y[0];
-                    int year2 = y[1];
-                    calendar.set(year2, 11, 31);
-                    end = calendar.getTimeInMillis()/1000;
-                    calendar.set(year1, 0, 1);
-                    start = calendar.getTimeInMillis()/1000;
-                }
-                else {
-                    int year = y[0];
-                    calendar.set(year, 11, 31);
-                    end = calendar.getTimeInMillis()/1000;
-                    calendar.set(year, 0, 1);
-                    start = calendar.getTimeInMillis()/1000;                
-                }
-            }
-            else {
-                throw new ParseException("Invalid date format", 0);
-            }
+        if (year1 == NONE
+                || (n == 3 && (monthPos == -1 || monthPos == 2))
+                || (n == 2 && monthPos != 0)
+                || (n == 1 && month != -1))
+            throw new ParseException("Invalid date format", i);
+        if (n == 3) {
+            start = valueOf(year1, month, day);
+            end = valueOf(year2, month, day);
         }
+        else if (n == 2) {
+            start = valueOf(year1, month, 1);
+            end = valueOf(year2, month+1, 0);
         }
-        catch(NumberFormatException e) {
-            throw new ParseException("Invalid format", 0);
+        else {
+            start = valueOf(year1, 0, 1);
+            end = valueOf(year2, 11, 31);
         }
+        return i;
     }
     
     /**
@@ -494,13 +503,10 @@ public class DateRange implements Comparable<DateRange> {
             return "-INF";
         else if (timeInSeconds >= MAX_INF)
             return "INF";
-        calendar.setTimeInMillis(timeInSeconds*1000);
-        int day = calendar.get(Calendar.DAY_OF_MONTH);
-        int month = calendar.get(Calendar.MONTH);
-        int year = calendar.get(Calendar.YEAR);
-        String ret = Integer.toString(day) + " " 
-            + MONTHS[month] + " "
-            + Integer.toString(year);
+        int[] ymd = getYMD(timeInSeconds, new int[3]);
+        String ret = Integer.toString(ymd[2]) + " " 
+            + MONTHS[ymd[1]] + " "
+            + Integer.toString(ymd[0]);
         return ret;
     }
 
@@ -572,59 +578,23 @@ public class DateRange implements Comparable<DateRange> {
     }
 
     /**
-     * @return the approximated
+     * @return true if the date is approximated (ABT)
      */
     public boolean isApproximated() {
-        return approximated;
-    }
-
-    /**
-     * @param approximated the approximated to set
-     */
-    public void setApproximated(boolean approximated) {
-        this.approximated = approximated;
+        return mode == MODES[0];
     }
 
     /**
-     * @return the calculated
+     * @return true if the date is calculated (CAL)
      */
     public boolean isCalculated() {
-        return calculated;
+        return mode == MODES[5];
     }
 
     /**
-     * @param calculated the calculated to set
-     */
-    public void setCalculated(boolean calculated) {
-        this.calculated = calculated;
-    }
-
-    /**
-     * @return the estimated
+     * @return true if the date is estimated (EST)
      */
     public boolean isEstimated() {
-        return estimated;
-    }
-
-    /**
-     * @param estimated the estimated to set
-     */
-    public void setEstimated(boolean estimated) {
-        this.estimated = estimated;
+        return mode == MODES[1];
     }
-
-    /**
-     * @return the interpolated
-     */
-    public boolean isInterpolated() {
-        return interpolated;
-    }
-
-    /**
-     * @param interpolated the interpolated to set
-     */
-    public void setInterpolated(boolean interpolated) {
-        this.interpolated = interpolated;
-    }
-
 }
@@ -113,10 +113,10 @@ public class Edge {
      * @return the sex of either of the vertices
      */
     public String getSex() {
-        String s = fromVertex.getStringProperty("SEX");
+        String s = fromVertex.getSex();
         if (s != null)
             return s;
-        return toVertex.getStringProperty("SEX");
+        return toVertex.getSex();
     }
     
     /**
@@ -131,8 +131,7 @@ public class Fam extends Vertex {
     public DateRange findMarriage() {
         DateRange d = getMarriage();
         if (d == null) {
-            d = new DateRange();
-            d.clear();
+            d = new DateRange(DateRange.MIN_INF, DateRange.MAX_INF);
             setMarriage(d);
         }
         return d;
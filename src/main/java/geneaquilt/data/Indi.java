@@ -22,8 +22,24 @@ import java.util.List;
  * @version $Revision$
  */
 public class Indi extends Vertex {
+    /** Property name of the sex */
+    public static final String SEX_KEY = "SEX";
+    /** Property name of the inbreeding coefficient */
+    public static final String INBREEDING_KEY = "INBREEDING";
+    /** Property name of the estimated number of distinct ancestors */
+    public static final String ANCESTORS_KEY = "ANCESTORS";
+    /** Property name of the estimated number of distinct descendants */
+    public static final String DESCENDANTS_KEY = "DESCENDANTS";
+    private static final String[] FIELD_KEYS = {
+        LAYER_KEY, DOI_KEY, COMPONENT_KEY, SEX_KEY, INBREEDING_KEY,
+        ANCESTORS_KEY, DESCENDANTS_KEY
+    };
     private ArrayList<String> fams;
     private String famc;
+    private String sex;
+    private double inbreeding = Double.NaN;
+    private int ancestorCount = -1;
+    private int descendantCount = -1;
     /** Use that attribute for names */
     private transient String label;
     
@@ -46,6 +62,70 @@ public class Indi extends Vertex {
         return new PIndi(this);
     }
     
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected String[] getFieldKeys() {
+        return FIELD_KEYS;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected boolean isFieldKey(String key) {
+        return SEX_KEY.equals(key) 
+            || INBREEDING_KEY.equals(key) 
+            || ANCESTORS_KEY.equals(key) 
+            || DESCENDANTS_KEY.equals(key) 
+            || super.isFieldKey(key);
+    }
+    
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected Object getFieldProperty(String key) {
+        if (SEX_KEY.equals(key))
+            return sex;
+        if (INBREEDING_KEY.equals(key))
+            return Double.isNaN(inbreeding) ? null : Double.valueOf(inbreeding);
+        if (ANCESTORS_KEY.equals(key))
+            return ancestorCount < 0 ? null : Integer.valueOf(ancestorCount);
+        if (DESCENDANTS_KEY.equals(key))
+            return descendantCount < 0 ? null : Integer.valueOf(descendantCount);
+        return super.getFieldProperty(key);
+    }
+    
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected Object setFieldProperty(String key, Object value) {
+        if (SEX_KEY.equals(key)) {
+            Object old = sex;
+            setSex(value == null ? null : value.toString());
+            return old;
+        }
+        if (INBREEDING_KEY.equals(key)) {
+            Object old = getFieldProperty(key);
+            inbreeding = value == null ? Double.NaN : ((Number)value).doubleValue();
+            return old;
+        }
+        if (ANCESTORS_KEY.equals(key)) {
+            Object old = getFieldProperty(key);
+            ancestorCount = value == null ? -1 : toCount(value);
+            return old;
+        }
+        if (DESCENDANTS_KEY.equals(key)) {
+            Object old = getFieldProperty(key);
+            descendantCount = value == null ? -1 : toCount(value);
+            return old;
+        }
+        return super.setFieldProperty(key, value);
+    }
+    
     /**
      * @return a suitable label
      */
@@ -177,15 +257,72 @@ public class Indi extends Vertex {
     /**
      * @return the sex
      */
+    @Override
     public String getSex() {
-        return getStringProperty("SEX");
+        return sex;
     }
 
     /**
      * @param sex the sex to set
      */
     public void setSex(String sex) {
-        setProperty("SEX", sex);
+        if ("M".equals(sex))
+            this.sex = "M";
+        else if ("F".equals(sex))
+            this.sex = "F";
+        else
+            this.sex = sex;
+        label = null;
+    }
+
+    /**
+     * @return the inbreeding coefficient or NaN if it is not computed
+     */
+    public double getInbreeding() {
+        return inbreeding;
+    }
+
+    /**
+     * @param inbreeding the inbreeding coefficient to set
+     */
+    public void setInbreeding(double inbreeding) {
+        this.inbreeding = inbreeding;
+    }
+
+    private static int toCount(Object value) {
+        if (value instanceof Number)
+            return ((Number)value).intValue();
+        return Integer.parseInt(value.toString());
+    }
+
+    /**
+     * @return the estimated number of distinct ancestors or -1 if it
+     * is not computed
+     */
+    public int getAncestorCount() {
+        return ancestorCount;
+    }
+
+    /**
+     * @param count the estimated number of distinct ancestors to set
+     */
+    public void setAncestorCount(int count) {
+        this.ancestorCount = count;
+    }
+
+    /**
+     * @return the estimated number of distinct descendants or -1 if it
+     * is not computed
+     */
+    public int getDescendantCount() {
+        return descendantCount;
+    }
+
+    /**
+     * @param count the estimated number of distinct descendants to set
+     */
+    public void setDescendantCount(int count) {
+        this.descendantCount = count;
     }
 
     /**
@@ -204,8 +341,7 @@ public class Indi extends Vertex {
     public DateRange findBirth() {
         DateRange d = getBirth();
         if (d == null) {
-            d = new DateRange();
-            d.clear();
+            d = new DateRange(DateRange.MIN_INF, DateRange.MAX_INF);
             setDate("BIRT.DATE", d);
         }
         return d;
@@ -234,8 +370,7 @@ public class Indi extends Vertex {
     public DateRange findDeath() {
         DateRange d = getDeath();
         if (d == null) {
-            d = new DateRange();
-            d.clear();
+            d = new DateRange(DateRange.MIN_INF, DateRange.MAX_INF);
             setDate("DEAT.DATE", d);
         }
         return d;
@@ -264,8 +399,7 @@ public class Indi extends Vertex {
     public DateRange findChr() {
         DateRange d = getChr();
         if (d == null) {
-            d = new DateRange();
-            d.clear();
+            d = new DateRange(DateRange.MIN_INF, DateRange.MAX_INF);
             setDate("CHR.DATE", d);
         }
         return d;
@@ -287,8 +421,7 @@ public class Indi extends Vertex {
     public DateRange findBurial() {
         DateRange d = getBurial();
         if (d == null) {
-            d = new DateRange();
-            d.clear();
+            d = new DateRange(DateRange.MIN_INF, DateRange.MAX_INF);
             setDate("BURI.DATE", d);
         }
         return d;
@@ -18,9 +18,10 @@ import java.util.Map;
 import java.util.Set;
 
 import org.apache.log4j.Logger;
-import edu.uci.ics.jung.algorithms.cluster.WeakComponentClusterer;
 import edu.uci.ics.jung.graph.DirectedSparseGraph;
-import geneaquilt.algorithms.BFSCycleFinder;
+import edu.uci.ics.jung.graph.util.EdgeType;
+import edu.uci.ics.jung.graph.util.Pair;
+import geneaquilt.algorithms.FeedbackArcSet;
 
 /**
  * Class Network
@@ -37,6 +38,13 @@ public class Network extends DirectedSparseGraph<Vertex, Edge>{
     private boolean minMaxUpdated = false;
     private Set<Object> selection;
     private Set<Edge> cycles;
+    private PropertyStore properties;
+    private Vertex[] byId = new Vertex[16];
+    private int idCount;
+    private boolean idHoles;
+    private Adjacency adjacency;
+    private NetworkView acyclicView;
+    private Reachability reachability;
 
     /**
      * Creates a newtork.
@@ -44,6 +52,42 @@ public class Network extends DirectedSparseGraph<Vertex, Edge>{
     public Network() {
         index = new HashMap<String, Vertex>();
         selection = new HashSet<Object>();
+        properties = new PropertyStore();
+    }
+    
+    /**
+     * Creates a network sized for the specified number of
+     * vertices and edges.
+     * @param vertexCount the expected number of vertices
+     * @param edgeCount the expected number of edges
+     */
+    public Network(int vertexCount, int edgeCount) {
+        int vcap = Math.max(16, vertexCount*4/3+1);
+        vertices = new HashMap<Vertex, Pair<Map<Vertex,Edge>>>(vcap);
+        edges = new HashMap<Edge, Pair<Vertex>>(Math.max(16, edgeCount*4/3+1));
+        index = new HashMap<String, Vertex>(vcap);
+        selection = new HashSet<Object>();
+        properties = new PropertyStore();
+        byId = new Vertex[Math.max(16, vertexCount)];
+    }
+    
+    /**
+     * Creates a network sized for the specified number of
+     * vertices and edges, using the specified property store.
+     * @param vertexCount the expected number of vertices
+     * @param edgeCount the expected number of edges
+     * @param properties the property store of the vertices
+     */
+    Network(int vertexCount, int edgeCount, PropertyStore properties) {
+        this(vertexCount, edgeCount);
+        this.properties = properties;
+    }
+    
+    /**
+     * @return the columnar store holding the vertex properties
+     */
+    public PropertyStore getPropertyStore() {
+        return properties;
     }
     
     /**
@@ -61,7 +105,20 @@ public class Network extends DirectedSparseGraph<Vertex, Edge>{
     @Override
     public boolean addVertex(Vertex vertex) {
         index.put(vertex.getId(), vertex);
-        return super.addVertex(vertex);
+        vertex.bindPropertyStore(properties, true);
+        if (! super.addVertex(vertex))
+            return false;
+        if (vertex.getIndexOwner() == null) {
+            if (idCount == byId.length) {
+                Vertex[] n = new Vertex[idCount*2];
+                System.arraycopy(byId, 0, n, 0, idCount);
+                byId = n;
+            }
+            vertex.setIndex(this, idCount);
+            byId[idCount++] = vertex;
+        }
+        adjacency = null;
+        return true;
     }
     
     /**
@@ -70,7 +127,80 @@ public class Network extends DirectedSparseGraph<Vertex, Edge>{
     @Override
     public boolean removeVertex(Vertex vertex) {
         index.remove(vertex.getId());
-        return super.removeVertex(vertex);
+        if (! super.removeVertex(vertex))
+            return false;
+        if (vertex.getIndexOwner() == this) {
+            byId[vertex.getIndex()] = null;
+            vertex.setIndex(null, -1);
+            idHoles = true;
+        }
+        adjacency = null;
+        return true;
+    }
+    
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean addEdge(Edge edge, Pair<? extends Vertex> endpoints, EdgeType edgeType) {
+        if (! super.addEdge(edge, endpoints, edgeType))
+            return false;
+        adjacency = null;
+        return true;
+    }
+    
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean removeEdge(Edge edge) {
+        if (! super.removeEdge(edge))
+            return false;
+        adjacency = null;
+        return true;
+    }
+    
+    /**
+     * Returns the compact adjacency structure of this network, where
+     * vertices are numbered with dense int ids and neighbors can be
+     * iterated without allocation.
+     * The structure is rebuilt after the network has been modified.
+     * @return the adjacency structure
+     */
+    public Adjacency getAdjacency() {
+        if (adjacency == null) {
+            if (idHoles) {
+                int n = 0;
+                for (int i = 0; i < idCount; i++) {
+                    Vertex v = byId[i];
+                    if (v != null) {
+                        v.setIndex(this, n);
+                        byId[n++] = v;
+                    }
+                }
+                for (int i = n; i < idCount; i++)
+                    byId[i] = null;
+                idCount = n;
+                idHoles = false;
+            }
+            Vertex[] vertices;
+            if (idCount == getVertexCount()) {
+                vertices = new Vertex[idCount];
+                System.arraycopy(byId, 0, vertices, 0, idCount);
+            }
+            else {
+                // Some vertices are owned by another network
+                vertices = new Vertex[getVertexCount()];
+                System.arraycopy(byId, 0, vertices, 0, idCount);
+                int n = idCount;
+                for (Vertex v : getVertices()) {
+                    if (v.getIndexOwner() != this)
+                        vertices[n++] = v;
+                }
+            }
+            adjacency = new Adjacency(this, vertices);
+        }
+        return adjacency;
     }
     
     /**
@@ -79,10 +209,40 @@ public class Network extends DirectedSparseGraph<Vertex, Edge>{
     public List<Set<Vertex>> getComponents() {
         if (components == null) {
             LOG.debug("Computing connected components");
-            WeakComponentClusterer<Vertex, Edge> clusterer 
-                = new WeakComponentClusterer<Vertex, Edge>();
-            Set<Set<Vertex>> ret = clusterer.transform(this);
-            components = new ArrayList<Set<Vertex>>(ret);
+            Adjacency adj = getAdjacency();
+            int n = adj.getVertexCount();
+            boolean[] visited = new boolean[n];
+            int[] queue = new int[n];
+            components = new ArrayList<Set<Vertex>>();
+            for (int root = 0; root < n; root++) {
+                if (visited[root])
+                    continue;
+                int head = 0, tail = 0;
+                queue[tail++] = root;
+                visited[root] = true;
+                while (head < tail) {
+                    int v = queue[head++];
+                    for (int k = adj.outBegin(v); k < adj.outEnd(v); k++) {
+                        int w = adj.outVertex(k);
+                        if (! visited[w]) {
+                            visited[w] = true;
+                            queue[tail++] = w;
+                        }
+                    }
+                    for (int k = adj.inBegin(v); k < adj.inEnd(v); k++) {
+                        int w = adj.inVertex(k);
+                        if (! visited[w]) {
+                            visited[w] = true;
+                            queue[tail++] = w;
+                        }
+                    }
+                }
+                Set<Vertex> comp = new HashSet<Vertex>(tail*2);
+                for (int i = 0; i < tail; i++) {
+                    comp.add(adj.getVertex(queue[i]));
+                }
+                components.add(comp);
+            }
             LOG.debug("Sorting connected components");
             Collections.sort(
                     components,
@@ -108,15 +268,51 @@ public class Network extends DirectedSparseGraph<Vertex, Edge>{
      */
     public Set<Edge> getCycles() {
         if (cycles == null) {
-            BFSCycleFinder<Vertex, Edge> cycleFinder 
-                = new BFSCycleFinder<Vertex, Edge>(this);
-            cycles = new HashSet<Edge>();
-            for (Set<Vertex> comp : getComponents()) {
-                cycles.addAll(cycleFinder.findCycles(comp));
+            Adjacency adj = getAdjacency();
+            int m = adj.getEdgeCount();
+            int[] tail = new int[m];
+            int[] head = new int[m];
+            for (int v = 0; v < adj.getVertexCount(); v++) {
+                for (int k = adj.outBegin(v); k < adj.outEnd(v); k++) {
+                    tail[k] = v;
+                    head[k] = adj.outVertex(k);
+                }
+            }
+            FeedbackArcSet fas = new FeedbackArcSet(adj.getVertexCount(), tail, head);
+            boolean[] reversed = fas.compute();
+            cycles = new HashSet<Edge>(fas.getReversedCount()*4/3+1);
+            for (int k = 0; k < m; k++) {
+                if (reversed[k])
+                    cycles.add(adj.outEdge(k));
             }
         }
         return cycles;
     }
+
+    /**
+     * Returns a view of this network where the edges causing cycles
+     * are reversed, so that algorithms requiring an acyclic graph
+     * don't need to modify the network.
+     * @return the acyclic view
+     */
+    public NetworkView getAcyclicView() {
+        if (acyclicView == null)
+            acyclicView = new NetworkView(this, getCycles());
+        return acyclicView;
+    }
+    
+    /**
+     * Returns the reachability index of this network, answering
+     * ancestry queries without traversal.
+     * The index is rebuilt on demand after the network has been modified.
+     * @return the reachability index
+     */
+    public Reachability getReachability() {
+        Adjacency adj = getAdjacency();
+        if (reachability == null || reachability.getAdjacency() != adj)
+            reachability = new Reachability(adj);
+        return reachability;
+    }
     
     /**
      * @return the number of components
@@ -0,0 +1,240 @@
+/**
+ * Copyright (c) 2010-2014, Jean-Daniel Fekete, Pierre Dragicevic, and INRIA.
+ * All rights reserved.
+ *
+ * Use of this source code is governed by a BSD-style license that can be
+ * found in the LICENSE file.
+ */
+package geneaquilt.data;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * <b>NetworkBuilder</b> collects the vertices and edges read from a file
+ * and materializes the {@link Network} in one bulk step.
+ *
+ * <p>Vertices are numbered in the order they are added, and edges are
+ * buffered as (from,to) pairs of these numbers in a primitive array.
+ * Duplicate edges are removed by a single sort when the network is
+ * built, so readers don't need to create an {@link Edge} and test
+ * {@link Network#containsEdge(Object)} for every link.</p>
+ *
+ * <p>The builder also holds a {@link DateCache} so that the dates
+ * parsed while loading are shared, and the {@link PropertyStore} that
+ * the network will use, so that the properties read are stored
+ * directly in it.  Readers should create the vertices with
+ * {@link #addIndi(String)} and {@link #addFam(String)} before setting
+ * their properties.</p>
+ *
+ * @author Jean-Daniel Fekete
+ * @version $Revision$
+ */
+public class NetworkBuilder {
+    private final ArrayList<Vertex> vertices = new ArrayList<Vertex>();
+    private final Map<String,Integer> index = new HashMap<String, Integer>();
+    private long[] edges = new long[64];
+    private int edgeCount;
+    private final DateCache dates = new DateCache();
+    private final PropertyStore properties = new PropertyStore();
+
+    /**
+     * Creates an empty network builder.
+     */
+    public NetworkBuilder() {
+    }
+
+    /**
+     * Adds a vertex, its id should be set.
+     * If a vertex with the same id has already been added, it is kept
+     * and the specified vertex is ignored.
+     * The properties already set are moved to the store of this builder.
+     * @param v the vertex
+     * @return the number of the vertex in this builder
+     */
+    public int addVertex(Vertex v) {
+        Integer i = index.get(v.getId());
+        if (i != null)
+            return i.intValue();
+        int n = vertices.size();
+        index.put(v.getId(), Integer.valueOf(n));
+        vertices.add(v);
+        v.bindPropertyStore(properties, false);
+        return n;
+    }
+
+    /**
+     * Creates an individual bound to the property store of this
+     * builder and adds it.
+     * @param id the id
+     * @return the new individual, ignored by the builder if a vertex
+     * with the same id has already been added
+     */
+    public Indi addIndi(String id) {
+        Indi indi = new Indi();
+        indi.bindPropertyStore(properties, false);
+        indi.setId(id);
+        addVertex(indi);
+        return indi;
+    }
+
+    /**
+     * Creates a family bound to the property store of this
+     * builder and adds it.
+     * @param id the id
+     * @return the new family, ignored by the builder if a vertex
+     * with the same id has already been added
+     */
+    public Fam addFam(String id) {
+        Fam fam = new Fam();
+        fam.bindPropertyStore(properties, false);
+        fam.setId(id);
+        addVertex(fam);
+        return fam;
+    }
+
+    /**
+     * Returns the vertex with the specified id.
+     * @param id the id
+     * @return the vertex or null
+     */
+    public Vertex getVertex(String id) {
+        Integer i = index.get(id);
+        if (i == null)
+            return null;
+        return vertices.get(i.intValue());
+    }
+
+    /**
+     * Returns the number of the vertex with the specified id.
+     * @param id the id
+     * @return the number or -1
+     */
+    public int indexOf(String id) {
+        Integer i = index.get(id);
+        if (i == null)
+            return -1;
+        return i.intValue();
+    }
+
+    /**
+     * @return the vertices added so far, in insertion order
+     */
+    public List<Vertex> getVertices() {
+        return vertices;
+    }
+
+    /**
+     * @return the number of vertices
+     */
+    public int getVertexCount() {
+        return vertices.size();
+    }
+
+    /**
+     * @return the property store of the vertices added so far
+     */
+    public PropertyStore getPropertyStore() {
+        return properties;
+    }
+
+    /**
+     * @return the date cache used while loading
+     */
+    public DateCache getDateCache() {
+        return dates;
+    }
+
+    /**
+     * Adds an edge between two vertices designated by their numbers.
+     * @param from the number of the source vertex
+     * @param to the number of the destination vertex
+     */
+    public void addEdge(int from, int to) {
+        if (edgeCount == edges.length) {
+            long[] n = new long[edgeCount*2];
+            System.arraycopy(edges, 0, n, 0, edgeCount);
+            edges = n;
+        }
+        edges[edgeCount++] = ((long)from << 32) | (to & 0xFFFFFFFFL);
+    }
+
+    /**
+     * Adds an edge between two vertices designated by their ids.
+     * @param from the id of the source vertex
+     * @param to the id of the destination vertex
+     * @return false if one of the vertices is unknown
+     */
+    public boolean addEdge(String from, String to) {
+        int f = indexOf(from);
+        int t = indexOf(to);
+        if (f == -1 || t == -1)
+            return false;
+        addEdge(f, t);
+        return true;
+    }
+
+    /**
+     * Adds an edge between two vertices that have been added.
+     * @param from the source vertex
+     * @param to the destination vertex
+     * @return false if one of the vertices is unknown
+     */
+    public boolean addEdge(Vertex from, Vertex to) {
+        return addEdge(from.getId(), to.getId());
+    }
+
+    /**
+     * Adds the edges from each individual to the family where it is
+     * a child (FAMC) and from each family to its spouses (FAMS),
+     * ignoring the references to unknown families.
+     */
+    public void addFamilyEdges() {
+        for (int i = 0; i < vertices.size(); i++) {
+            Vertex v = vertices.get(i);
+            if (v instanceof Indi) {
+                Indi indi = (Indi) v;
+                if (indi.getFamc() != null) {
+                    int fam = indexOf(indi.getFamc());
+                    if (fam != -1)
+                        addEdge(i, fam);
+                }
+                for (String fid : indi.getFams()) {
+                    int fam = indexOf(fid);
+                    if (fam != -1)
+                        addEdge(fam, i);
+                }
+            }
+        }
+    }
+
+    /**
+     * Builds the network, removing duplicate edges.
+     * @return a new network
+     */
+    public Network build() {
+        Arrays.sort(edges, 0, edgeCount);
+        int m = 0;
+        for (int i = 0; i < edgeCount; i++) {
+            if (m == 0 || edges[i] != edges[m-1])
+                edges[m++] = edges[i];
+        }
+        edgeCount = m;
+        Network network = new Network(vertices.size(), edgeCount, properties);
+        for (Vertex v : vertices) {
+            network.addVertex(v);
+        }
+        for (int i = 0; i < edgeCount; i++) {
+            Vertex from = vertices.get((int)(edges[i] >>> 32));
+            Vertex to = vertices.get((int)edges[i]);
+            Edge edge = new Edge(from.getId(), to.getId());
+            edge.setFromVertex(from);
+            edge.setToVertex(to);
+            network.addEdge(edge, from, to);
+        }
+        return network;
+    }
+}
@@ -0,0 +1,229 @@
+/**
+ * Copyright (c) 2010-2014, Jean-Daniel Fekete, Pierre Dragicevic, and INRIA.
+ * All rights reserved.
+ *
+ * Use of this source code is governed by a BSD-style license that can be
+ * found in the LICENSE file.
+ */
+package geneaquilt.data;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Set;
+
+/**
+ * <b>NetworkView</b> is a read-only directed view of a {@link Network}
+ * where a set of edges are logically reversed and another set hidden.
+ *
+ * <p>Algorithms that need an acyclic graph traverse the view instead
+ * of removing and adding edges on the network, so other readers never
+ * see a modified network and several algorithms can run concurrently.
+ * The view follows the conventions of the network: an edge goes from
+ * the descendant (source) to the ascendant (dest).</p>
+ *
+ * <p>The view keeps references to the sets of edges; they should not
+ * be modified while the view is used.</p>
+ *
+ * @author Jean-Daniel Fekete
+ * @version $Revision$
+ */
+public class NetworkView {
+    private final Network network;
+    private final Set<Edge> reversed;
+    private final Set<Edge> hidden;
+    private Adjacency adjacency;
+
+    /**
+     * Creates a view of a network with reversed edges.
+     * @param network the network
+     * @param reversed the reversed edges or null
+     */
+    public NetworkView(Network network, Set<Edge> reversed) {
+        this(network, reversed, null);
+    }
+
+    /**
+     * Creates a view of a network with reversed and hidden edges.
+     * @param network the network
+     * @param reversed the reversed edges or null
+     * @param hidden the hidden edges or null
+     */
+    public NetworkView(Network network, Set<Edge> reversed, Set<Edge> hidden) {
+        this.network = network;
+        this.reversed = reversed == null ? Collections.<Edge>emptySet() : reversed;
+        this.hidden = hidden == null ? Collections.<Edge>emptySet() : hidden;
+    }
+
+    /**
+     * @return the network
+     */
+    public Network getNetwork() {
+        return network;
+    }
+
+    /**
+     * @param e the edge
+     * @return true if the edge is reversed in this view
+     */
+    public boolean isReversed(Edge e) {
+        return reversed.contains(e);
+    }
+
+    /**
+     * @param e the edge
+     * @return true if the edge is hidden in this view
+     */
+    public boolean isHidden(Edge e) {
+        return hidden.contains(e);
+    }
+
+    /**
+     * Returns the source of an edge in this view.
+     * @param e the edge
+     * @return the source
+     */
+    public Vertex getSource(Edge e) {
+        return isReversed(e) ? network.getDest(e) : network.getSource(e);
+    }
+
+    /**
+     * Returns the destination of an edge in this view.
+     * @param e the edge
+     * @return the destination
+     */
+    public Vertex getDest(Edge e) {
+        return isReversed(e) ? network.getSource(e) : network.getDest(e);
+    }
+
+    /**
+     * Returns the edges going out of a vertex in this view.
+     * @param v the vertex
+     * @return a new collection of edges
+     */
+    public Collection<Edge> getOutEdges(Vertex v) {
+        return edges(v, true);
+    }
+
+    /**
+     * Returns the edges coming into a vertex in this view.
+     * @param v the vertex
+     * @return a new collection of edges
+     */
+    public Collection<Edge> getInEdges(Vertex v) {
+        return edges(v, false);
+    }
+
+    private Collection<Edge> edges(Vertex v, boolean out) {
+        Collection<Edge> direct = out ? network.getOutEdges(v) : network.getInEdges(v);
+        Collection<Edge> inverse = out ? network.getInEdges(v) : network.getOutEdges(v);
+        if (direct == null)
+            return Collections.emptyList();
+        ArrayList<Edge> ret = new ArrayList<Edge>(direct.size());
+        for (Edge e : direct) {
+            if (! isHidden(e) && ! isReversed(e))
+                ret.add(e);
+        }
+        if (reversed.isEmpty())
+            return ret;
+        for (Edge e : inverse) {
+            if (! isHidden(e) && isReversed(e))
+                ret.add(e);
+        }
+        return ret;
+    }
+
+    /**
+     * Returns the successors of a vertex in this view.
+     * @param v the vertex
+     * @return a new collection of vertices
+     */
+    public Collection<Vertex> getSuccessors(Vertex v) {
+        Collection<Edge> edges = getOutEdges(v);
+        ArrayList<Vertex> ret = new ArrayList<Vertex>(edges.size());
+        for (Edge e : edges) {
+            ret.add(getDest(e));
+        }
+        return ret;
+    }
+
+    /**
+     * Returns the predecessors of a vertex in this view.
+     * @param v the vertex
+     * @return a new collection of vertices
+     */
+    public Collection<Vertex> getPredecessors(Vertex v) {
+        Collection<Edge> edges = getInEdges(v);
+        ArrayList<Vertex> ret = new ArrayList<Vertex>(edges.size());
+        for (Edge e : edges) {
+            ret.add(getSource(e));
+        }
+        return ret;
+    }
+
+    /**
+     * Returns the ascendants of a vertex in this view.
+     * @param v the vertex
+     * @return the ascendants
+     */
+    public Collection<Vertex> getAscendants(Vertex v) {
+        return getSuccessors(v);
+    }
+
+    /**
+     * Returns the descendants of a vertex in this view.
+     * @param v the vertex
+     * @return the descendants
+     */
+    public Collection<Vertex> getDescendants(Vertex v) {
+        return getPredecessors(v);
+    }
+
+    /**
+     * Check if a vertex has no ascendant in this view.
+     * @param v the vertex
+     * @return true/false
+     */
+    public boolean isOrphan(Vertex v) {
+        return getOutEdges(v).isEmpty();
+    }
+
+    /**
+     * Check if a vertex has no descendant in this view.
+     * @param v the vertex
+     * @return true/false
+     */
+    public boolean isSterile(Vertex v) {
+        return getInEdges(v).isEmpty();
+    }
+
+    /**
+     * Returns the spouses of an individual in this view.
+     * @param indi the individual
+     * @return the spouses
+     */
+    public Collection<Indi> getSpouses(Indi indi) {
+        ArrayList<Indi> spouses = new ArrayList<Indi>();
+        for (Vertex f : getDescendants(indi)) {
+            for (Vertex s : getAscendants(f)) {
+                if (s != indi && s instanceof Indi) {
+                    spouses.add((Indi)s);
+                }
+            }
+        }
+        return spouses;
+    }
+
+    /**
+     * Returns the compact adjacency structure of this view, using the
+     * same dense ids as the adjacency of the network. It is rebuilt when
+     * the network has been modified.
+     * @return the adjacency structure
+     */
+    public synchronized Adjacency getAdjacency() {
+        Adjacency base = network.getAdjacency();
+        if (adjacency == null || adjacency.getBase() != base)
+            adjacency = new Adjacency(base, this);
+        return adjacency;
+    }
+}
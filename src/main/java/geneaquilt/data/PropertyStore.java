@@ -0,0 +1,580 @@
+/**
+ * Copyright (c) 2010-2014, Jean-Daniel Fekete, Pierre Dragicevic, and INRIA.
+ * All rights reserved.
+ *
+ * Use of this source code is governed by a BSD-style license that can be
+ * found in the LICENSE file.
+ */
+package geneaquilt.data;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.regex.Pattern;
+
+/**
+ * <b>PropertyStore</b> is a columnar store holding the properties
+ * of all the vertices of a network.
+ *
+ * <p>Each vertex owns a row. Property keys are interned once in a
+ * dictionary mapping them to a column, and string values are
+ * dictionary-encoded so that repeated values (places, surnames, sexes)
+ * are shared by all the rows using them.
+ * Multi-valued properties are stored as lists in a single cell,
+ * the legacy "KEY.2", "KEY.3" names are only produced by
+ * {@link #getProperties(int)} for display and export.</p>
+ *
+ * @author Jean-Daniel Fekete
+ * @version $Revision$
+ */
+public class PropertyStore {
+    private final Map<String,Column> columns = new HashMap<String, Column>();
+    private final ArrayList<Column> columnList = new ArrayList<Column>();
+    private final Map<String,String> dictionary = new HashMap<String, String>();
+    private int rowCount;
+
+    /**
+     * A multi-valued cell.
+     */
+    static final class Values extends ArrayList<Object> {
+        Values(int capacity) {
+            super(capacity);
+        }
+    }
+
+    /**
+     * A column holding the values of one property key.
+     * A column starts sparse, with the rows holding a value kept sorted,
+     * so a rare key only costs its own values; it becomes a dense array
+     * indexed by row once most of the rows hold a value.
+     */
+    static final class Column {
+        final String key;
+        Object[] cells;
+        int[] rows;
+        Object[] values;
+        int size;
+
+        Column(String key) {
+            this.key = key;
+            this.rows = new int[4];
+            this.values = new Object[4];
+        }
+
+        private int indexOf(int row) {
+            if (size != 0 && rows[size-1] < row)
+                return -size-1;
+            return Arrays.binarySearch(rows, 0, size, row);
+        }
+
+        Object get(int row) {
+            if (cells != null) {
+                if (row >= cells.length)
+                    return null;
+                return cells[row];
+            }
+            int i = indexOf(row);
+            return i < 0 ? null : values[i];
+        }
+
+        void set(int row, Object cell) {
+            if (cells != null) {
+                if (row >= cells.length) {
+                    if (cell == null)
+                        return;
+                    Object[] n = new Object[Math.max(row+1, cells.length+(cells.length>>1))];
+                    System.arraycopy(cells, 0, n, 0, cells.length);
+                    cells = n;
+                }
+                cells[row] = cell;
+                return;
+            }
+            int i = indexOf(row);
+            if (i >= 0) {
+                if (cell != null) {
+                    values[i] = cell;
+                    return;
+                }
+                size--;
+                System.arraycopy(rows, i+1, rows, i, size-i);
+                System.arraycopy(values, i+1, values, i, size-i);
+                values[size] = null;
+                return;
+            }
+            if (cell == null)
+                return;
+            i = -i-1;
+            if (size == rows.length) {
+                rows = Arrays.copyOf(rows, size*2);
+                values = Arrays.copyOf(values, size*2);
+            }
+            System.arraycopy(rows, i, rows, i+1, size-i);
+            System.arraycopy(values, i, values, i+1, size-i);
+            rows[i] = row;
+            values[i] = cell;
+            size++;
+            // an entry costs an int and a reference, a dense row a reference
+            int length = rows[size-1]+1;
+            if (3*size >= 2*length)
+                densify(length);
+        }
+
+        private void densify(int length) {
+            cells = new Object[Math.max(length, 16)];
+            for (int i = 0; i < size; i++)
+                cells[rows[i]] = values[i];
+            rows = null;
+            values = null;
+            size = 0;
+        }
+    }
+
+    /**
+     * Creates an empty property store.
+     */
+    public PropertyStore() {
+    }
+
+    /**
+     * Allocates a new row.
+     * @return the row index
+     */
+    public int addRow() {
+        return rowCount++;
+    }
+
+    /**
+     * @return the number of allocated rows
+     */
+    public int getRowCount() {
+        return rowCount;
+    }
+
+    /**
+     * @return the number of distinct keys
+     */
+    public int getKeyCount() {
+        return columnList.size();
+    }
+
+    /**
+     * @return the number of distinct dictionary-encoded values
+     */
+    public int getDictionarySize() {
+        return dictionary.size();
+    }
+
+    /**
+     * Returns the key of the specified column.
+     * @param col the column index
+     * @return the key
+     */
+    public String getKey(int col) {
+        return columnList.get(col).key;
+    }
+
+    /**
+     * Returns the interned instance of a key or value.
+     * @param s the string
+     * @return the shared instance equal to s
+     */
+    public String intern(String s) {
+        if (s == null)
+            return null;
+        String i = dictionary.get(s);
+        if (i == null) {
+            dictionary.put(s, s);
+            i = s;
+        }
+        return i;
+    }
+
+    private Object encode(Object value) {
+        if (value instanceof String)
+            return intern((String)value);
+        return value;
+    }
+
+    private Column getColumn(String key) {
+        return columns.get(key);
+    }
+
+    private Column findColumn(String key) {
+        Column c = columns.get(key);
+        if (c == null) {
+            key = intern(key);
+            c = new Column(key);
+            columns.put(key, c);
+            columnList.add(c);
+        }
+        return c;
+    }
+
+    /**
+     * Returns the index encoded in a legacy "KEY.n" name,
+     * where n starts at 2 for the second value.
+     * @param key the key
+     * @return the position of the '.' or -1
+     */
+    static int legacySuffix(String key) {
+        int dot = key.lastIndexOf('.');
+        if (dot <= 0 || dot == key.length()-1)
+            return -1;
+        for (int i = dot+1; i < key.length(); i++) {
+            char c = key.charAt(i);
+            if (c < '0' || c > '9')
+                return -1;
+        }
+        return dot;
+    }
+
+    private static Object cellValue(Object cell, int index) {
+        if (cell instanceof Values) {
+            Values v = (Values) cell;
+            if (index < v.size())
+                return v.get(index);
+            return null;
+        }
+        return index == 0 ? cell : null;
+    }
+
+    /**
+     * Returns the first value of the specified property.
+     * For compatibility, "KEY.n" returns the nth value of KEY
+     * when no property is named "KEY.n".
+     * @param row the row
+     * @param key the key
+     * @return the value or null
+     */
+    public Object get(int row, String key) {
+        Column c = getColumn(key);
+        if (c != null)
+            return cellValue(c.get(row), 0);
+        int dot = legacySuffix(key);
+        if (dot == -1)
+            return null;
+        c = getColumn(key.substring(0, dot));
+        if (c == null)
+            return null;
+        int n = Integer.parseInt(key.substring(dot+1));
+        if (n < 2)
+            return null;
+        return cellValue(c.get(row), n-1);
+    }
+
+    /**
+     * Returns the value of the specified property at the specified index.
+     * @param row the row
+     * @param key the key
+     * @param index the index, 0 for the first value
+     * @return the value or null
+     */
+    public Object get(int row, String key, int index) {
+        Column c = getColumn(key);
+        if (c == null)
+            return null;
+        return cellValue(c.get(row), index);
+    }
+
+    /**
+     * Returns the number of values of the specified property.
+     * @param row the row
+     * @param key the key
+     * @return the number of values
+     */
+    public int getCount(int row, String key) {
+        Column c = getColumn(key);
+        if (c == null)
+            return 0;
+        Object cell = c.get(row);
+        if (cell == null)
+            return 0;
+        if (cell instanceof Values)
+            return ((Values)cell).size();
+        return 1;
+    }
+
+    /**
+     * Returns all the values of the specified property.
+     * @param row the row
+     * @param key the key
+     * @return an unmodifiable list, maybe empty
+     */
+    public List<Object> getAll(int row, String key) {
+        Column c = getColumn(key);
+        if (c == null)
+            return Collections.emptyList();
+        Object cell = c.get(row);
+        if (cell == null)
+            return Collections.emptyList();
+        if (cell instanceof Values)
+            return Collections.unmodifiableList((Values)cell);
+        return Collections.singletonList(cell);
+    }
+
+    /**
+     * Appends a value to the specified property.
+     * @param row the row
+     * @param key the key
+     * @param value the value
+     * @return the index of the new value
+     */
+    public int add(int row, String key, Object value) {
+        Column c = findColumn(key);
+        Object cell = c.get(row);
+        value = encode(value);
+        if (cell == null) {
+            c.set(row, value);
+            return 0;
+        }
+        Values v;
+        if (cell instanceof Values) {
+            v = (Values) cell;
+        }
+        else {
+            v = new Values(2);
+            v.add(cell);
+            c.set(row, v);
+        }
+        v.add(value);
+        return v.size()-1;
+    }
+
+    /**
+     * Sets the value of the specified property at the specified index,
+     * appending it if the index is past the last value.
+     * @param row the row
+     * @param key the key
+     * @param value the value, null to remove it
+     * @param index the index, 0 for the first value
+     * @return the old value
+     */
+    public Object set(int row, String key, Object value, int index) {
+        if (value == null)
+            return remove(row, key, index);
+        Column c = findColumn(key);
+        Object cell = c.get(row);
+        value = encode(value);
+        if (cell == null) {
+            c.set(row, value);
+            return null;
+        }
+        if (cell instanceof Values) {
+            Values v = (Values) cell;
+            if (index < v.size())
+                return v.set(index, value);
+            v.add(value);
+            return null;
+        }
+        if (index == 0) {
+            c.set(row, value);
+            return cell;
+        }
+        Values v = new Values(2);
+        v.add(cell);
+        v.add(value);
+        c.set(row, v);
+        return null;
+    }
+
+    private Object remove(int row, String key, int index) {
+        Column c = getColumn(key);
+        if (c == null)
+            return null;
+        Object cell = c.get(row);
+        if (cell == null)
+            return null;
+        if (cell instanceof Values) {
+            Values v = (Values) cell;
+            if (index >= v.size())
+                return null;
+            Object old = v.remove(index);
+            if (v.size() == 1)
+                c.set(row, v.get(0));
+            return old;
+        }
+        if (index == 0) {
+            c.set(row, null);
+            return cell;
+        }
+        return null;
+    }
+
+    /**
+     * Removes all the values of the specified property.
+     * @param row the row
+     * @param key the key
+     * @return the first removed value or null
+     */
+    public Object remove(int row, String key) {
+        Column c = getColumn(key);
+        if (c == null)
+            return null;
+        Object cell = c.get(row);
+        c.set(row, null);
+        return cellValue(cell, 0);
+    }
+
+    /**
+     * Removes all the properties of a row.
+     * @param row the row
+     */
+    public void clear(int row) {
+        for (Column c : columnList) {
+            c.set(row, null);
+        }
+    }
+
+    /**
+     * Copies all the properties of a row from another store.
+     * @param from the source store
+     * @param fromRow the source row
+     * @param toRow the destination row in this store
+     */
+    public void copyRow(PropertyStore from, int fromRow, int toRow) {
+        for (Column src : from.columnList) {
+            Object cell = src.get(fromRow);
+            if (cell == null)
+                continue;
+            Column c = findColumn(src.key);
+            if (cell instanceof Values) {
+                Values v = (Values) cell;
+                Values copy = new Values(v.size());
+                for (Object o : v) {
+                    copy.add(encode(o));
+                }
+                c.set(toRow, copy);
+            }
+            else {
+                c.set(toRow, encode(cell));
+            }
+        }
+    }
+
+    /**
+     * Returns all the properties of a row, sorted by key, with the
+     * multiple values named "KEY", "KEY.2", "KEY.3".
+     * @param row the row
+     * @return a new map
+     */
+    public Map<String,Object> getProperties(int row) {
+        TreeMap<String,Object> ret = new TreeMap<String, Object>();
+        for (Column c : columnList) {
+            Object cell = c.get(row);
+            if (cell == null)
+                continue;
+            if (cell instanceof Values) {
+                Values v = (Values) cell;
+                ret.put(c.key, v.get(0));
+                for (int i = 1; i < v.size(); i++) {
+                    ret.put(c.key+"."+(i+1), v.get(i));
+                }
+            }
+            else {
+                ret.put(c.key, cell);
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * Returns the keys of the properties set in a row.
+     * @param row the row
+     * @return a new list of keys
+     */
+    public List<String> getKeys(int row) {
+        ArrayList<String> ret = new ArrayList<String>();
+        for (Column c : columnList) {
+            if (c.get(row) != null)
+                ret.add(c.key);
+        }
+        return ret;
+    }
+
+    /**
+     * Returns all the values of a row.
+     * @param row the row
+     * @return a new list
+     */
+    public List<Object> getValues(int row) {
+        ArrayList<Object> ret = new ArrayList<Object>();
+        for (Column c : columnList) {
+            Object cell = c.get(row);
+            if (cell instanceof Values)
+                ret.addAll((Values)cell);
+            else if (cell != null)
+                ret.add(cell);
+        }
+        return ret;
+    }
+
+    /**
+     * Tests whether a value of the specified property contains
+     * the specified text.
+     * @param row the row
+     * @param key the key or null for all the properties
+     * @param text the text
+     * @return true if the text is found
+     */
+    public boolean contains(int row, String key, String text) {
+        if (key != null) {
+            Column c = getColumn(key);
+            return c != null && contains(c.get(row), text);
+        }
+        for (Column c : columnList) {
+            if (contains(c.get(row), text))
+                return true;
+        }
+        return false;
+    }
+
+    private static boolean contains(Object cell, String text) {
+        if (cell == null)
+            return false;
+        if (cell instanceof Values) {
+            for (Object o : (Values)cell) {
+                if (o != null && o.toString().contains(text))
+                    return true;
+            }
+            return false;
+        }
+        return cell.toString().contains(text);
+    }
+
+    /**
+     * Tests whether a value of the specified property matches
+     * the specified pattern.
+     * @param row the row
+     * @param key the key or null for all the properties
+     * @param p the pattern
+     * @return true if the pattern is found
+     */
+    public boolean find(int row, String key, Pattern p) {
+        if (key != null) {
+            Column c = getColumn(key);
+            return c != null && find(c.get(row), p);
+        }
+        for (Column c : columnList) {
+            if (find(c.get(row), p))
+                return true;
+        }
+        return false;
+    }
+
+    private static boolean find(Object cell, Pattern p) {
+        if (cell == null)
+            return false;
+        if (cell instanceof Values) {
+            for (Object o : (Values)cell) {
+                if (o != null && p.matcher(o.toString()).find())
+                    return true;
+            }
+            return false;
+        }
+        return p.matcher(cell.toString()).find();
+    }
+}
@@ -0,0 +1,458 @@
+/**
+ * Copyright (c) 2010-2014, Jean-Daniel Fekete, Pierre Dragicevic, and INRIA.
+ * All rights reserved.
+ *
+ * Use of this source code is governed by a BSD-style license that can be
+ * found in the LICENSE file.
+ */
+package geneaquilt.data;
+
+import geneaquilt.algorithms.StrongComponents;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.log4j.Logger;
+
+/**
+ * <b>Reachability</b> is an index answering ancestry queries on a
+ * {@link Network} without traversing it.
+ *
+ * <p>The strongly connected components of the network are collapsed,
+ * then each component is labeled with a list of intervals following
+ * the tree cover of Agrawal, Borgida and Jagadish ("Efficient
+ * management of transitive relationships in large data and knowledge
+ * bases", SIGMOD 1989). A spanning forest of the components is numbered
+ * in post-order, so the tree part of the reachable set of a component
+ * is a single interval; the intervals inherited through the other edges
+ * are merged with it. Genealogies are nearly trees, so the lists stay
+ * short. Two labelings are kept, one following the ascendants and one
+ * following the descendants. As suggested by Agrawal et al., the tree
+ * parent of a component is the one reached by the most vertices, which
+ * is estimated by labeling the ascendants twice.</p>
+ *
+ * <p>{@link #isAncestor(Vertex, Vertex)} is a binary search in a list,
+ * the ancestors and descendants of a vertex are enumerated or counted
+ * directly from the intervals.
+ * The index is built from an {@link Adjacency} snapshot and is rebuilt
+ * lazily by {@link Network#getReachability()} when the network
+ * changes.</p>
+ *
+ * @author Jean-Daniel Fekete
+ * @version $Revision$
+ */
+public final class Reachability {
+    private static final Logger LOG = Logger.getLogger(Reachability.class);
+    private final Adjacency adjacency;
+    private final int[] component;
+    private final int[] memberStart;
+    private final int[] members;
+    private final Labels ascendants;
+    private final Labels descendants;
+
+    /**
+     * The interval labels of the components in one direction.
+     */
+    static final class Labels {
+        final int[] post;
+        final int[] byPost;
+        final int[] countBefore;
+        final int[] start;
+        int[] lo;
+        int[] hi;
+        int size;
+
+        /**
+         * Labels the components.
+         * @param r the reachability index
+         * @param up true to follow the ascendants, false the descendants
+         * @param weight the weight of the components or null
+         */
+        Labels(Reachability r, boolean up, int[] weight) {
+            Adjacency adj = r.adjacency;
+            int c = r.memberStart.length-1;
+            // Edges between components, without duplicates
+            int[] succStart = new int[c+1];
+            int[] succ = new int[adj.getEdgeCount()];
+            int[] stamp = new int[c];
+            Arrays.fill(stamp, -1);
+            int m = 0;
+            for (int a = 0; a < c; a++) {
+                succStart[a] = m;
+                for (int i = r.memberStart[a]; i < r.memberStart[a+1]; i++) {
+                    int v = r.members[i];
+                    int begin = up ? adj.outBegin(v) : adj.inBegin(v);
+                    int end = up ? adj.outEnd(v) : adj.inEnd(v);
+                    for (int k = begin; k < end; k++) {
+                        int b = r.component[up ? adj.outVertex(k) : adj.inVertex(k)];
+                        if (b != a && stamp[b] != a) {
+                            stamp[b] = a;
+                            succ[m++] = b;
+                        }
+                    }
+                }
+            }
+            succStart[c] = m;
+
+            // Spanning forest, the parent of a component is the one
+            // reaching it with the highest weight, or the first one
+            int[] parent = new int[c];
+            Arrays.fill(parent, -1);
+            for (int a = 0; a < c; a++) {
+                for (int k = succStart[a]; k < succStart[a+1]; k++) {
+                    int b = succ[k];
+                    if (parent[b] == -1 || (weight != null && weight[a] > weight[parent[b]]))
+                        parent[b] = a;
+                }
+            }
+            int[] childStart = new int[c+1];
+            for (int b = 0; b < c; b++) {
+                if (parent[b] != -1)
+                    childStart[parent[b]+1]++;
+            }
+            for (int a = 0; a < c; a++)
+                childStart[a+1] += childStart[a];
+            int[] children = new int[c];
+            int[] fill = new int[c];
+            for (int b = 0; b < c; b++) {
+                if (parent[b] != -1) {
+                    int a = parent[b];
+                    children[childStart[a] + fill[a]++] = b;
+                }
+            }
+
+            // Post-order numbering of the forest
+            post = new int[c];
+            byPost = new int[c];
+            int[] low = new int[c];
+            int[] stack = new int[c];
+            int[] next = fill;
+            int counter = 0;
+            for (int root = 0; root < c; root++) {
+                if (parent[root] != -1)
+                    continue;
+                int sp = 0;
+                stack[sp++] = root;
+                next[root] = childStart[root];
+                low[root] = counter;
+                while (sp > 0) {
+                    int a = stack[sp-1];
+                    if (next[a] < childStart[a+1]) {
+                        int b = children[next[a]++];
+                        next[b] = childStart[b];
+                        low[b] = counter;
+                        stack[sp++] = b;
+                    }
+                    else {
+                        sp--;
+                        post[a] = counter;
+                        byPost[counter++] = a;
+                    }
+                }
+            }
+            countBefore = new int[c+1];
+            for (int p = 0; p < c; p++) {
+                int a = byPost[p];
+                countBefore[p+1] = countBefore[p]
+                        + r.memberStart[a+1] - r.memberStart[a];
+            }
+
+            // Interval lists, in topological order so that the lists
+            // of the successors are known
+            start = new int[c+1];
+            int[] end = new int[c];
+            lo = new int[Math.max(16, c+c/2)];
+            hi = new int[lo.length];
+            long[] buffer = new long[16];
+            for (int i = 0; i < c; i++) {
+                int a = up ? i : c-1-i;
+                int n = 0;
+                buffer[n++] = ((long)low[a] << 32) | post[a];
+                for (int k = succStart[a]; k < succStart[a+1]; k++) {
+                    int b = succ[k];
+                    int count = end[b] - start[b];
+                    if (n + count > buffer.length) {
+                        long[] nb = new long[Math.max(n + count, buffer.length*2)];
+                        System.arraycopy(buffer, 0, nb, 0, n);
+                        buffer = nb;
+                    }
+                    for (int j = start[b]; j < end[b]; j++) {
+                        buffer[n++] = ((long)lo[j] << 32) | hi[j];
+                    }
+                }
+                if (n > 1)
+                    Arrays.sort(buffer, 0, n);
+                start[a] = size;
+                int l = (int)(buffer[0] >>> 32);
+                int h = (int)buffer[0];
+                for (int j = 1; j < n; j++) {
+                    int l2 = (int)(buffer[j] >>> 32);
+                    int h2 = (int)buffer[j];
+                    if (l2 <= h+1) {
+                        if (h2 > h)
+                            h = h2;
+                    }
+                    else {
+                        add(l, h);
+                        l = l2;
+                        h = h2;
+                    }
+                }
+                add(l, h);
+                end[a] = size;
+            }
+            // The lists are stored in processing order, shift the
+            // starts so that start[a+1] ends the list of a
+            int[] s = new int[c+1];
+            int[] packedLo = new int[size];
+            int[] packedHi = new int[size];
+            int p = 0;
+            for (int a = 0; a < c; a++) {
+                s[a] = p;
+                int len = end[a] - start[a];
+                System.arraycopy(lo, start[a], packedLo, p, len);
+                System.arraycopy(hi, start[a], packedHi, p, len);
+                p += len;
+            }
+            s[c] = p;
+            System.arraycopy(s, 0, start, 0, c+1);
+            lo = packedLo;
+            hi = packedHi;
+        }
+
+        private void add(int l, int h) {
+            if (size == lo.length) {
+                int[] n = new int[size*2];
+                System.arraycopy(lo, 0, n, 0, size);
+                lo = n;
+                n = new int[size*2];
+                System.arraycopy(hi, 0, n, 0, size);
+                hi = n;
+            }
+            lo[size] = l;
+            hi[size] = h;
+            size++;
+        }
+
+        /**
+         * Tests whether a component reaches another one.
+         * @param a the first component
+         * @param b the second component
+         * @return true if b is in the reachable set of a
+         */
+        boolean reaches(int a, int b) {
+            int p = post[b];
+            int l = start[a];
+            int h = start[a+1]-1;
+            while (l <= h) {
+                int mid = (l + h) >>> 1;
+                if (hi[mid] < p)
+                    l = mid + 1;
+                else if (lo[mid] > p)
+                    h = mid - 1;
+                else
+                    return true;
+            }
+            return false;
+        }
+
+        /**
+         * Returns the number of vertices reachable from a component,
+         * including its own vertices.
+         * @param a the component
+         * @return the number of vertices
+         */
+        int count(int a) {
+            int n = 0;
+            for (int k = start[a]; k < start[a+1]; k++) {
+                n += countBefore[hi[k]+1] - countBefore[lo[k]];
+            }
+            return n;
+        }
+    }
+
+    /**
+     * Builds the reachability index of a network.
+     * @param network the network
+     */
+    public Reachability(Network network) {
+        this(network.getAdjacency());
+    }
+
+    /**
+     * Builds the reachability index of an adjacency snapshot.
+     * @param adj the adjacency
+     */
+    public Reachability(Adjacency adj) {
+        long time = System.currentTimeMillis();
+        this.adjacency = adj;
+        int n = adj.getVertexCount();
+        StrongComponents scc = new StrongComponents(adj);
+        int c = scc.getComponentCount();
+        component = scc.getComponents();
+        memberStart = scc.getMemberStart();
+        members = scc.getMembers();
+        // Each labeling chooses the tree parents reached by the most
+        // vertices, counted with the labeling of the other direction
+        int[] weight = new int[c];
+        Labels first = new Labels(this, true, null);
+        for (int a = 0; a < c; a++)
+            weight[a] = first.count(a);
+        descendants = new Labels(this, false, weight);
+        for (int a = 0; a < c; a++)
+            weight[a] = descendants.count(a);
+        ascendants = new Labels(this, true, weight);
+        if (LOG.isDebugEnabled()) {
+            LOG.debug("Reachability of "+n+" vertices in "+c
+                    +" components labeled with "+ascendants.size
+                    +" ascendant and "+descendants.size
+                    +" descendant intervals in "
+                    +(System.currentTimeMillis()-time)+"ms");
+        }
+    }
+
+    /**
+     * @return the adjacency snapshot indexed
+     */
+    public Adjacency getAdjacency() {
+        return adjacency;
+    }
+
+    /**
+     * Tests whether a vertex is an ancestor of another, i.e. can be
+     * reached from it following the edges towards the ascendants.
+     * @param a the possible ancestor id
+     * @param b the vertex id
+     * @return true if a is an ancestor of b
+     */
+    public boolean isAncestor(int a, int b) {
+        if (a == b)
+            return false;
+        int ca = component[a];
+        int cb = component[b];
+        if (ca == cb)
+            return true; // on a cycle
+        // components are numbered in reverse topological order
+        if (ca > cb)
+            return false;
+        return ascendants.reaches(cb, ca);
+    }
+
+    /**
+     * Tests whether a vertex is an ancestor of another.
+     * @param a the possible ancestor
+     * @param b the vertex
+     * @return true if a is an ancestor of b
+     */
+    public boolean isAncestor(Vertex a, Vertex b) {
+        return isAncestor(adjacency.getId(a), adjacency.getId(b));
+    }
+
+    /**
+     * Tests whether a vertex is a descendant of another.
+     * @param a the possible descendant
+     * @param b the vertex
+     * @return true if a is a descendant of b
+     */
+    public boolean isDescendant(Vertex a, Vertex b) {
+        return isAncestor(b, a);
+    }
+
+    /**
+     * Returns the number of ancestors of a vertex.
+     * @param v the vertex id
+     * @return the number of ancestors
+     */
+    public int getAncestorCount(int v) {
+        return ascendants.count(component[v]) - 1;
+    }
+
+    /**
+     * Returns the number of ancestors of a vertex.
+     * @param v the vertex
+     * @return the number of ancestors
+     */
+    public int getAncestorCount(Vertex v) {
+        return getAncestorCount(adjacency.getId(v));
+    }
+
+    /**
+     * Returns the number of descendants of a vertex.
+     * @param v the vertex id
+     * @return the number of descendants
+     */
+    public int getDescendantCount(int v) {
+        return descendants.count(component[v]) - 1;
+    }
+
+    /**
+     * Returns the number of descendants of a vertex.
+     * @param v the vertex
+     * @return the number of descendants
+     */
+    public int getDescendantCount(Vertex v) {
+        return getDescendantCount(adjacency.getId(v));
+    }
+
+    /**
+     * Returns the ids of the ancestors of a vertex.
+     * @param v the vertex id
+     * @return a new array of ids
+     */
+    public int[] getAncestorIds(int v) {
+        return collect(ascendants, v);
+    }
+
+    /**
+     * Returns the ids of the descendants of a vertex.
+     * @param v the vertex id
+     * @return a new array of ids
+     */
+    public int[] getDescendantIds(int v) {
+        return collect(descendants, v);
+    }
+
+    /**
+     * Returns the ancestors of a vertex, the Fam vertices included.
+     * @param v the vertex
+     * @return a new list of vertices
+     */
+    public List<Vertex> getAncestors(Vertex v) {
+        return toVertices(getAncestorIds(adjacency.getId(v)));
+    }
+
+    /**
+     * Returns the descendants of a vertex, the Fam vertices included.
+     * @param v the vertex
+     * @return a new list of vertices
+     */
+    public List<Vertex> getDescendants(Vertex v) {
+        return toVertices(getDescendantIds(adjacency.getId(v)));
+    }
+
+    private int[] collect(Labels labels, int v) {
+        int a = component[v];
+        int[] ret = new int[labels.count(a) - 1];
+        int n = 0;
+        for (int k = labels.start[a]; k < labels.start[a+1]; k++) {
+            for (int p = labels.lo[k]; p <= labels.hi[k]; p++) {
+                int b = labels.byPost[p];
+                for (int i = memberStart[b]; i < memberStart[b+1]; i++) {
+                    int w = members[i];
+                    if (w != v)
+                        ret[n++] = w;
+                }
+            }
+        }
+        return ret;
+    }
+
+    private List<Vertex> toVertices(int[] ids) {
+        ArrayList<Vertex> ret = new ArrayList<Vertex>(ids.length);
+        for (int id : ids) {
+            ret.add(adjacency.getVertex(id));
+        }
+        return ret;
+    }
+}
@@ -7,13 +7,10 @@
  */
 package geneaquilt.data;
 
-import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.TreeMap;
-import java.util.Map.Entry;
-import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 import edu.umd.cs.piccolo.PNode;
@@ -39,14 +36,29 @@ public abstract class Vertex {
     public final String UNICODE_MARIAGE = "\u26AD";
     /** Character for HETERO */
     public final String UNICODE_HETERO = "\u26A4";
+    /** Property name of the layer */
+    public static final String LAYER_KEY = "LAYER";
+    /** Property name of the degree of interest */
+    public static final String DOI_KEY = "DOI";
+    /** Property name of the connected component */
+    public static final String COMPONENT_KEY = "COMP";
+    private static final String[] FIELD_KEYS = {
+        LAYER_KEY, DOI_KEY, COMPONENT_KEY
+    };
     
     private PNode node;
     private double x;
     private String id;
     private int layer = -1;
+    private double doi = Double.POSITIVE_INFINITY;
+    private int component = -1;
     protected DateRange dateRange;
     private boolean dateRangeInvalid = true;
-    private Map<String,Object> props = new TreeMap<String, Object>();
+    private PropertyStore store;
+    private int row;
+    private boolean privateStore;
+    private int index = -1;
+    private Network indexOwner;
     
     /**
      * Creates a vertex.
@@ -77,6 +89,63 @@ public abstract class Vertex {
     	node = null;
     }
     
+    /**
+     * Binds this vertex to a property store, moving the properties
+     * already set into it.
+     * A vertex already bound to a network store keeps it, whereas a
+     * private store or the store of a {@link NetworkBuilder} is only
+     * held until the vertex is added to a network.
+     * @param s the store
+     * @param network true if s is the store of a network
+     */
+    void bindPropertyStore(PropertyStore s, boolean network) {
+        if (s != store) {
+            if (store != null && !privateStore)
+                return;
+            int newRow = s.addRow();
+            if (store != null)
+                s.copyRow(store, row, newRow);
+            store = s;
+            row = newRow;
+            privateStore = true;
+        }
+        if (network)
+            privateStore = false;
+    }
+
+    /**
+     * @return the dense id of this vertex in its owning network
+     */
+    int getIndex() {
+        return index;
+    }
+
+    /**
+     * @return the network that assigned the dense id or null
+     */
+    Network getIndexOwner() {
+        return indexOwner;
+    }
+
+    /**
+     * Sets the dense id of this vertex in the specified network.
+     * @param owner the network
+     * @param index the id
+     */
+    void setIndex(Network owner, int index) {
+        this.indexOwner = owner;
+        this.index = index;
+    }
+
+    private PropertyStore store() {
+        if (store == null) {
+            store = new PropertyStore();
+            row = store.addRow();
+            privateStore = true;
+        }
+        return store;
+    }
+
     /**
      * Searches for the specified text in the specified field.
      * @param text the text to search
@@ -87,31 +156,17 @@ public abstract class Vertex {
         if (text == null || text.length()==0)
             return false;
         if (field == null) {
-            for (Object v : props.values()) {
-                if (v == null)
-                    continue;
-                String value = v.toString();
-                if (value.contains(text))
+            for (String key : getFieldKeys()) {
+                Object v = getFieldProperty(key);
+                if (v != null && v.toString().contains(text))
                     return true;
             }
         }
-        else {
-            Object v = getProperty(field);
-            if (v == null)
-                return false;
-            boolean f = v.toString().contains(text);
-            if (f)
-                return f;
-            for (int cnt = 2; true; cnt++) {
-                v = getProperty(field+"."+cnt);
-                if (v == null)
-                    return false;
-                if (v.toString().contains(text))
-                    return true;
-            }
-            
+        else if (isFieldKey(field)) {
+            Object v = getFieldProperty(field);
+            return v != null && v.toString().contains(text);
         }
-        return false;
+        return store != null && store.contains(row, field, text);
     }
     
     /**
@@ -125,43 +180,80 @@ public abstract class Vertex {
         if (p == null)
             return false;
         if (field == null) {
-            for (Object v : props.values()) {
-                if (v == null)
-                    continue;
-                String value = v.toString();
-                Matcher m = p.matcher(value);
-                if (m.find())
+            for (String key : getFieldKeys()) {
+                Object v = getFieldProperty(key);
+                if (v != null && p.matcher(v.toString()).find())
                     return true;
             }
         }
-        else {
-            Object v = getProperty(field);
-            if (v == null)
-                return false;
-            Matcher m = p.matcher(v.toString());
-            if (m.find())
-               return true;
-            for (int cnt = 2; true; cnt++) {
-                v = getProperty(field+"."+cnt);
-                if (v == null)
-                    return false;
-                m = p.matcher(v.toString());
-                if (m.find())
-                    return true;
-            }
+        else if (isFieldKey(field)) {
+            Object v = getFieldProperty(field);
+            return v != null && p.matcher(v.toString()).find();
         }
-        return false;
+        return store != null && store.find(row, field, p);
     }
     
-
-    
     /**
      * Returns the property with the specified key as an object
      * @param key the key
      * @return the value
      */
     public Object getProperty(String key) {
-        return props.get(key);
+        if (isFieldKey(key))
+            return getFieldProperty(key);
+        if (store == null)
+            return null;
+        return store.get(row, key);
+    }
+
+    /**
+     * @return the names of the properties backed by typed fields
+     */
+    protected String[] getFieldKeys() {
+        return FIELD_KEYS;
+    }
+
+    /**
+     * Checks whether the specified property is backed by a typed field.
+     * @param key the property name
+     * @return true if the property is a typed field
+     */
+    protected boolean isFieldKey(String key) {
+        return LAYER_KEY.equals(key) 
+            || DOI_KEY.equals(key) 
+            || COMPONENT_KEY.equals(key);
+    }
+
+    /**
+     * Returns the value of a property backed by a typed field.
+     * @param key the property name
+     * @return the boxed value or null if the field is unset
+     */
+    protected Object getFieldProperty(String key) {
+        if (LAYER_KEY.equals(key))
+            return layer == -1 ? null : Integer.valueOf(layer);
+        if (DOI_KEY.equals(key))
+            return doi == Double.POSITIVE_INFINITY ? null : Double.valueOf(doi);
+        if (COMPONENT_KEY.equals(key))
+            return component == -1 ? null : Integer.valueOf(component);
+        return null;
+    }
+
+    /**
+     * Sets the value of a property backed by a typed field.
+     * @param key the property name
+     * @param value the value or null to unset the field
+     * @return the old value
+     */
+    protected Object setFieldProperty(String key, Object value) {
+        Object old = getFieldProperty(key);
+        if (LAYER_KEY.equals(key))
+            layer = value == null ? -1 : ((Number)value).intValue();
+        else if (DOI_KEY.equals(key))
+            doi = value == null ? Double.POSITIVE_INFINITY : ((Number)value).doubleValue();
+        else if (COMPONENT_KEY.equals(key))
+            component = value == null ? -1 : ((Number)value).intValue();
+        return old;
     }
 
     
@@ -171,7 +263,7 @@ public abstract class Vertex {
      * @return the value
      */
     public String getStringProperty(String key) {
-        Object o = props.get(key);
+        Object o = getProperty(key);
         if (o != null)
             return o.toString();
         return null;
@@ -199,34 +291,48 @@ public abstract class Vertex {
         return (DateRange)getProperty(key);
     }
     /**
-     * Sets the specified property, returning the old value or null
+     * Adds a value to the specified property, keeping the
+     * previous values.
      * @param key the key
      * @param value the new value
-     * @return the real key
+     * @return the real key, "KEY.n" for the nth value
      */
     public String setProperty(String key, Object value) {
-        int count = 2;
-        String k2 = key;
-        while (props.get(k2) != null) {
-            k2 = key+"."+count;
-            count++;
+        if (value == null)
+            return key;
+        if (isFieldKey(key)) {
+            setFieldProperty(key, value);
+            return key;
         }
-        props.put(k2, value);
-        return k2;
+        int index = store().add(row, key, value);
+        if (index == 0)
+            return key;
+        return key+"."+(index+1);
     }
     
     /**
      * Set the nth property with the specified key
      * @param key the key
      * @param value the value
-     * @param count the property number
+     * @param count the property number, 0 for the first one
      * @return the old property value
      */
     public Object setProperty(String key, Object value, int count) {
-        if (count == 0)
-            return props.put(key, value);
-        else
-            return props.put(key+"."+count,value);
+        if (isFieldKey(key))
+            return setFieldProperty(key, value);
+        int index = count < 2 ? 0 : count-1;
+        return store().set(row, key, value, index);
+    }
+
+    /**
+     * Returns the keys of the properties stored in the property store,
+     * excluding the ones backed by typed fields.
+     * @return a list of keys
+     */
+    public List<String> getPropertyKeys() {
+        if (store == null)
+            return Collections.emptyList();
+        return store.getKeys(row);
     }
 
     /**
@@ -235,19 +341,15 @@ public abstract class Vertex {
      * @return a table of properties with the name
      */
     public List<Object> getAllProperties(String key) {
-        Object v = props.get(key);
-        if (v == null)
-            return Collections.EMPTY_LIST;
-        ArrayList<Object> ret = new ArrayList<Object>(1);
-        ret.add(v);
-        int count = 2;
-        for (String k2 = key+"."+count;
-            (v = props.get(k2)) != null;
-            k2 = key+"."+count) {
-            ret.add(v);
+        if (isFieldKey(key)) {
+            Object v = getFieldProperty(key);
+            if (v == null)
+                return Collections.emptyList();
+            return Collections.singletonList(v);
         }
-        
-        return ret;
+        if (store == null)
+            return Collections.emptyList();
+        return store.getAll(row, key);
     }
     
     /**
@@ -256,16 +358,13 @@ public abstract class Vertex {
      * @return the old value
      */
     public Object removeProperty(String key) {
-        Object o = props.remove(key);
-        if (o != null && o instanceof DateRange)
+        if (isFieldKey(key))
+            return setFieldProperty(key, null);
+        if (store == null)
+            return null;
+        Object o = store.remove(row, key);
+        if (o instanceof DateRange)
             dateRangeInvalid = true;
-        if (o != null) {
-            int count = 2;
-            for (String k2 = key+"."+count;
-                (o = props.remove(k2)) != null;
-                k2 = key+"."+count)
-                ; // nothing
-        }
         return o;
     }
 
@@ -293,25 +392,36 @@ public abstract class Vertex {
     }
     
     /**
+     * Returns a snapshot of the properties, sorted by key, with the
+     * multiple values named "KEY", "KEY.2", "KEY.3".
      * @return the props
      */
     public Map<String, Object> getProps() {
+        Map<String,Object> props;
+        if (store == null)
+            props = new TreeMap<String, Object>();
+        else
+            props = store.getProperties(row);
+        for (String key : getFieldKeys()) {
+            Object v = getFieldProperty(key);
+            if (v != null)
+                props.put(key, v);
+        }
         return props;
     }
     
     protected void updateMinMaxDate() {
         if (! dateRangeInvalid)
             return;
-        if (dateRange == null) {
-            dateRange = new DateRange();            
-        }
-        dateRange.setInvalid();
-        for (Entry<String, Object> o : props.entrySet()) {
-            if (o.getValue() instanceof DateRange) {
-                DateRange date = (DateRange) o.getValue();
-                dateRange.union(date);
+        DateAccumulator acc = new DateAccumulator();
+        if (store != null) {
+            for (Object o : store.getValues(row)) {
+                if (o instanceof DateRange) {
+                    acc.union((DateRange)o);
+                }
             }
         }
+        dateRange = acc.toDateRange();
         dateRangeInvalid = false;
     }
     
@@ -372,7 +482,6 @@ public abstract class Vertex {
      */
     public void setLayer(int layer) {
         this.layer = layer;
-        setProperty("LAYER", new Integer(layer), 0);
     }
 
     /**
@@ -393,30 +502,34 @@ public abstract class Vertex {
      * @return the DOI
      */
     public double getDOI() {
-        return getDoubleProperty("DOI", Double.POSITIVE_INFINITY);
+        return doi;
     }
 
     /**
      * @param DOI the dOI to set
      */
     public void setDOI(double DOI) {
-        setProperty("DOI", new Double(DOI), 0);
+        this.doi = DOI;
+    }
+
+    /**
+     * @return the sex or null if the vertex has none
+     */
+    public String getSex() {
+        return null;
     }
 
     /**
      * @return the component
      */
     public int getComponent() {
-        Integer i = (Integer)getProperty("COMP");
-        if (i == null)
-            return -1;
-        return i.intValue();
+        return component;
     }
     
     /**
      * @param component the component to set
      */
     public void setComponent(int component) {
-        setProperty("COMP", new Integer(component), 0);
+        this.component = component;
     }
 }
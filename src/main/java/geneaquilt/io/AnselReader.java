@@ -0,0 +1,134 @@
+/**
+ * Copyright (c) 2010-2014, Jean-Daniel Fekete, Pierre Dragicevic, and INRIA.
+ * All rights reserved.
+ *
+ * Use of this source code is governed by a BSD-style license that can be
+ * found in the LICENSE file.
+ */
+package geneaquilt.io;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+
+/**
+ * <b>AnselReader</b> decodes a stream of bytes encoded in ANSEL
+ * (ANSI/NISO Z39.47), the default character set of GEDCOM files.
+ * 
+ * <p>ANSEL writes combining diacritics before the letter they modify
+ * whereas Unicode writes them after, so the marks are buffered and
+ * emitted after their base character.</p>
+ *
+ * @author Jean-Daniel Fekete
+ * @version $Revision$
+ */
+public class AnselReader extends Reader {
+    /** Characters for the bytes 0xA0 to 0xFF, '?' when undefined. */
+    static final String HIGH =
+        "?\u0141\u00D8\u0110\u00DE\u00C6\u0152\u02B9" + // A0
+        "\u00B7\u266D\u00AE\u00B1\u01A0\u01AF\u02BC?" + // A8
+        "\u02BB\u0142\u00F8\u0111\u00FE\u00E6\u0153\u02BA" + // B0
+        "\u0131\u00A3\u00F0?\u01A1\u01B0??" + // B8
+        "\u00B0\u2113\u2117\u00A9\u266F\u00BF\u00A1?" + // C0
+        "???????\u00DF" + // C8
+        "????????" + // D0
+        "????????" + // D8
+        "\u0309\u0300\u0301\u0302\u0303\u0304\u0306\u0307" + // E0
+        "\u0308\u030C\u030A\uFE20\uFE21\u0315\u030B\u0310" + // E8
+        "\u0327\u0328\u0323\u0324\u0325\u0333\u0332\u0326" + // F0
+        "\u031C\u032E\uFE22\uFE23??\u0313?"; // F8
+    private final InputStream in;
+    private char[] marks = new char[4];
+    private int markCount;
+    private int markPos;
+    private int lookahead = -2;
+
+    /**
+     * Creates an ANSEL reader.
+     * @param in the byte stream, preferably buffered
+     */
+    public AnselReader(InputStream in) {
+        this.in = in;
+    }
+
+    /**
+     * Decodes one ANSEL byte.
+     * @param b the byte, from 0 to 255
+     * @return the unicode character
+     */
+    public static char decode(int b) {
+        if (b < 0x80)
+            return (char)b;
+        if (b < 0xA0)
+            return '?';
+        return HIGH.charAt(b-0xA0);
+    }
+
+    /**
+     * Tests whether an ANSEL byte is a combining diacritic.
+     * @param b the byte
+     * @return true if it is a combining diacritic
+     */
+    public static boolean isCombining(int b) {
+        return b >= 0xE0 && decode(b) != '?';
+    }
+
+    private int readByte() throws IOException {
+        if (lookahead != -2) {
+            int b = lookahead;
+            lookahead = -2;
+            return b;
+        }
+        return in.read();
+    }
+
+    private int readChar() throws IOException {
+        if (markPos < markCount)
+            return marks[markPos++];
+        int b = readByte();
+        if (b < 0 || !isCombining(b))
+            return b < 0 ? -1 : decode(b);
+        markCount = 0;
+        markPos = 0;
+        while (b >= 0 && isCombining(b)) {
+            if (markCount == marks.length) {
+                char[] n = new char[markCount*2];
+                System.arraycopy(marks, 0, n, 0, markCount);
+                marks = n;
+            }
+            marks[markCount++] = decode(b);
+            b = readByte();
+        }
+        if (b < 0 || b == '\n' || b == '\r') {
+            // no base character, keep the marks alone
+            lookahead = b;
+            return marks[markPos++];
+        }
+        return decode(b);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int read(char[] cbuf, int off, int len) throws IOException {
+        int n = 0;
+        while (n < len) {
+            int c = readChar();
+            if (c == -1)
+                break;
+            cbuf[off+n++] = (char)c;
+        }
+        if (n == 0 && len != 0)
+            return -1;
+        return n;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+}
@@ -7,6 +7,7 @@
  */
 package geneaquilt.io;
 
+import geneaquilt.algorithms.SugiyamaLayering;
 import geneaquilt.data.Network;
 import geneaquilt.data.Vertex;
 import geneaquilt.utils.GUIUtils;
@@ -21,12 +22,15 @@ import java.util.HashMap;
 import java.util.TreeSet;
 import java.util.Map.Entry;
 
-import javax.swing.JOptionPane;
-
 import org.apache.log4j.Logger;
 
 /**
- * Class DOTLayersReader
+ * Class DOTLayersReader computes the layer and X position of each vertex.
+ * 
+ * <p>By default, the layers are computed in process by
+ * {@link SugiyamaLayering}. When enabled, the GraphViz dot program
+ * is run instead and the positions are read from its output,
+ * falling back to the in-process layering if dot cannot be run.</p>
  * 
  * @author Jean-Daniel Fekete
  * @version $Revision$
@@ -34,14 +38,30 @@ import org.apache.log4j.Logger;
 public class DOTLayersReader {
     private static final Logger LOG = Logger.getLogger(DOTLayersReader.class);
     private static boolean debug = false;
+    private static boolean dotEnabled = false;
     
     /**
-     * Reads a layer file when it exists, associating a layer
+     * Computes the layers, associating a layer
      * and X position to each vertex.
      * @param network the network
      * @return true if it has been loaded, false otherwise
      */
     public boolean load(Network network) {
+        if (dotEnabled && loadDOT(network))
+            return true;
+        GUIUtils.updateComputationMessage("Computing layers...");
+        try {
+            SugiyamaLayering layering = new SugiyamaLayering(network);
+            layering.compute();
+        }
+        catch(Exception e) {
+            LOG.error("Cannot compute layers", e);
+            return false;
+        }
+        return true;
+    }
+
+    private boolean loadDOT(Network network) {
         try {
             DOTWriter writer = new DOTWriter(network);
             String msg = "Computing layers...";
@@ -68,8 +88,7 @@ public class DOTLayersReader {
             	proc = Runtime.getRuntime().exec(arg);
             }
         	catch(IOException e) {
-                JOptionPane.showMessageDialog(null, "Cannot find the 'dot' program. The generations will not be correctly assigned.\n\nTo fix this problem, make sure GraphViz is installed and the dot executable is accessible from " + System.getProperty("user.dir") + "\nThen, delete the .lyr file and relaunch GeneaQuilts.", "Error", JOptionPane.ERROR_MESSAGE);
-                LOG.warn("Cannot find the dot program");
+                LOG.warn("Cannot find the dot program, computing the layers in process");
                 return false;
             }
 
@@ -131,6 +150,22 @@ public class DOTLayersReader {
 
 
 
+    /**
+     * @return true if the dot program is used to compute the layers
+     */
+    public static boolean isDotEnabled() {
+        return dotEnabled;
+    }
+
+    /**
+     * Sets whether the GraphViz dot program is used
+     * to compute the layers instead of the in-process layering.
+     * @param enabled true to use dot
+     */
+    public static void setDotEnabled(boolean enabled) {
+        dotEnabled = enabled;
+    }
+
     /**
      * @return the debug
      */
@@ -0,0 +1,286 @@
+/**
+ * Copyright (c) 2010-2014, Jean-Daniel Fekete, Pierre Dragicevic, and INRIA.
+ * All rights reserved.
+ *
+ * Use of this source code is governed by a BSD-style license that can be
+ * found in the LICENSE file.
+ */
+package geneaquilt.io;
+
+import geneaquilt.data.Network;
+import geneaquilt.data.NetworkBuilder;
+import geneaquilt.data.Vertex;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Class GEDParallelReader loads large GEDCOM files on several threads.
+ * 
+ * <p>The file is memory-mapped and split into chunks ending on level-0
+ * record boundaries, since records only depend on each other through
+ * their cross-references. Each chunk is parsed by a
+ * {@link GEDStreamReader} on a fork/join pool into its own
+ * {@link NetworkBuilder}. The vertices are then merged in file order
+ * and the FAMC/FAMS links are resolved in a final single-threaded
+ * pass.</p>
+ * 
+ * <p>Files encoded in UTF-16 or larger than 2GB are read sequentially
+ * by the {@link GEDStreamReader}.</p>
+ * 
+ * @author Jean-Daniel Fekete
+ * @version $Revision$
+ */
+public class GEDParallelReader {
+    private static final Logger LOG = Logger.getLogger(GEDParallelReader.class);
+    /** Minimal size of a chunk parsed by one task. */
+    public static final int MIN_CHUNK = 1 << 20;
+    private final int parallelism;
+    private int minChunk = MIN_CHUNK;
+
+    /**
+     * Creates a reader using all the available processors.
+     */
+    public GEDParallelReader() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Creates a reader using the specified number of threads.
+     * @param parallelism the number of threads
+     */
+    public GEDParallelReader(int parallelism) {
+        this.parallelism = Math.max(1, parallelism);
+    }
+
+    /**
+     * @return the minimal size of a chunk
+     */
+    public int getMinChunk() {
+        return minChunk;
+    }
+
+    /**
+     * @param minChunk the minimal size of a chunk
+     */
+    public void setMinChunk(int minChunk) {
+        this.minChunk = Math.max(1, minChunk);
+    }
+
+    /**
+     * Loads a GEDCOM file
+     * @param filename the file name
+     * @return a network or null
+     */
+    public Network load(String filename) {
+        long t0 = System.currentTimeMillis();
+        RandomAccessFile file = null;
+        try {
+            file = new RandomAccessFile(filename, "r");
+            FileChannel channel = file.getChannel();
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                LOG.info("File too large to be mapped, reading sequentially");
+                return new GEDStreamReader().load(filename);
+            }
+            MappedByteBuffer buffer = channel.map(
+                    FileChannel.MapMode.READ_ONLY, 0, size);
+            byte[] header = new byte[(int)Math.min(size, GEDStreamReader.HEADER_SIZE)];
+            buffer.duplicate().get(header);
+            String encoding = GEDStreamReader.findEncoding(header, header.length);
+            int start = 0;
+            if (encoding == GEDStreamReader.UTF8_BOM) {
+                start = 3;
+                encoding = "UTF-8";
+            }
+            if (encoding.startsWith("UTF-16")) {
+                LOG.info("Reading UTF-16 file sequentially");
+                return new GEDStreamReader().load(filename);
+            }
+            int[] bounds = split(buffer, start, (int)size);
+            int chunks = bounds.length-1;
+            NetworkBuilder[] parts = new NetworkBuilder[chunks];
+            if (chunks == 1) {
+                parts[0] = parse(buffer, bounds[0], bounds[1], encoding);
+            }
+            else {
+                ForkJoinPool pool = new ForkJoinPool(parallelism);
+                try {
+                    pool.invoke(new ParseTask(buffer, bounds, encoding, parts));
+                }
+                finally {
+                    pool.shutdown();
+                }
+            }
+            long t1 = System.currentTimeMillis();
+
+            NetworkBuilder builder = new NetworkBuilder();
+            for (NetworkBuilder part : parts) {
+                for (Vertex v : part.getVertices()) {
+                    builder.addVertex(v);
+                }
+            }
+            builder.addFamilyEdges();
+            Network network = builder.build();
+            LOG.info("Parsed "+chunks+" chunks in "+(t1-t0)+"ms, "
+                    +"linked "+builder.getVertexCount()+" vertices in "
+                    +(System.currentTimeMillis()-t1)+"ms");
+            return network;
+        }
+        catch(IOException e) {
+            LOG.error("Cannot read "+filename, e);
+            return null;
+        }
+        catch(RuntimeException e) {
+            LOG.error("Cannot parse "+filename, e);
+            return null;
+        }
+        finally {
+            if (file != null) try {
+                file.close();
+            }
+            catch(IOException e) {
+                LOG.warn("Cannot close "+filename, e);
+            }
+        }
+    }
+
+    /**
+     * Splits the buffer into chunks starting on level-0 lines.
+     * @param buffer the buffer
+     * @param start the first byte to parse
+     * @param end the end of the buffer
+     * @return the chunk bounds, the first being start and the last end
+     */
+    int[] split(ByteBuffer buffer, int start, int end) {
+        int chunkSize = Math.max(minChunk, (end-start)/(parallelism*4)+1);
+        ArrayList<Integer> bounds = new ArrayList<Integer>();
+        bounds.add(Integer.valueOf(start));
+        int pos = start + chunkSize;
+        while (pos < end) {
+            pos = nextRecord(buffer, pos, end);
+            if (pos >= end)
+                break;
+            bounds.add(Integer.valueOf(pos));
+            pos += chunkSize;
+        }
+        bounds.add(Integer.valueOf(end));
+        int[] ret = new int[bounds.size()];
+        for (int i = 0; i < ret.length; i++) {
+            ret[i] = bounds.get(i).intValue();
+        }
+        return ret;
+    }
+
+    /**
+     * Returns the position of the next line starting with "0 ".
+     */
+    static int nextRecord(ByteBuffer buffer, int pos, int end) {
+        for (int i = pos; i < end-2; i++) {
+            byte b = buffer.get(i);
+            if ((b == '\n' || b == '\r') 
+                    && buffer.get(i+1) == '0' 
+                    && buffer.get(i+2) == ' ')
+                return i+1;
+        }
+        return end;
+    }
+
+    static NetworkBuilder parse(ByteBuffer buffer, int from, int to, String encoding)
+        throws IOException {
+        ByteBuffer chunk = buffer.duplicate();
+        chunk.limit(to);
+        chunk.position(from);
+        BufferedReader in = new BufferedReader(
+                GEDStreamReader.openReader(
+                        new ByteBufferInputStream(chunk.slice()), encoding),
+                1 << 16);
+        NetworkBuilder part = new NetworkBuilder();
+        new GEDStreamReader().read(in, part);
+        return part;
+    }
+
+    static class ParseTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private final ByteBuffer buffer;
+        private final int[] bounds;
+        private final String encoding;
+        private final NetworkBuilder[] parts;
+        private final int chunk;
+
+        ParseTask(ByteBuffer buffer, int[] bounds, String encoding, NetworkBuilder[] parts) {
+            this(buffer, bounds, encoding, parts, -1);
+        }
+
+        private ParseTask(ByteBuffer buffer, int[] bounds, String encoding, NetworkBuilder[] parts, int chunk) {
+            this.buffer = buffer;
+            this.bounds = bounds;
+            this.encoding = encoding;
+            this.parts = parts;
+            this.chunk = chunk;
+        }
+
+        @Override
+        protected void compute() {
+            if (chunk == -1) {
+                List<ParseTask> tasks = new ArrayList<ParseTask>(parts.length);
+                for (int i = 0; i < parts.length; i++) {
+                    tasks.add(new ParseTask(buffer, bounds, encoding, parts, i));
+                }
+                invokeAll(tasks);
+                return;
+            }
+            try {
+                parts[chunk] = parse(buffer, bounds[chunk], bounds[chunk+1], encoding);
+            }
+            catch(IOException e) {
+                throw new RuntimeException(e);
+            }
+        }
+    }
+
+    /**
+     * An input stream reading the remaining bytes of a buffer.
+     */
+    static class ByteBufferInputStream extends InputStream {
+        private final ByteBuffer buffer;
+
+        ByteBufferInputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            if (!buffer.hasRemaining())
+                return -1;
+            return buffer.get() & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (len == 0)
+                return 0;
+            if (!buffer.hasRemaining())
+                return -1;
+            len = Math.min(len, buffer.remaining());
+            buffer.get(b, off, len);
+            return len;
+        }
+
+        @Override
+        public int available() {
+            return buffer.remaining();
+        }
+    }
+}
@@ -7,11 +7,11 @@
  */
 package geneaquilt.io;
 
-import geneaquilt.data.Edge;
+import geneaquilt.data.DateCache;
 import geneaquilt.data.Fam;
 import geneaquilt.data.Indi;
 import geneaquilt.data.Network;
-import geneaquilt.data.Vertex;
+import geneaquilt.data.NetworkBuilder;
 import org.gedcom4j.model.Family;
 import org.gedcom4j.model.FamilyChild;
 import org.gedcom4j.model.FamilySpouse;
@@ -30,7 +30,7 @@ import org.gedcom4j.parser.GedcomParser;
  * @version $Revision$
  */
 public class GEDReader  {
-    private Network network;
+    private NetworkBuilder builder;
 
     /**
      * Loads a GEDCOM file
@@ -39,14 +39,13 @@ public class GEDReader  {
      */
     public Network load(String filename) {
         GedcomParser gp = new GedcomParser();
-        network = new Network();
+        builder = new NetworkBuilder();
+        DateCache dates = builder.getDateCache();
         try {
             gp.load(filename);
             
             for (Individual i: gp.gedcom.individuals.values()) {
-                Indi indi = new Indi();
-                indi.setId(i.xref);
-                network.addVertex(indi);
+                Indi indi = builder.addIndi(i.xref);
                 for (PersonalName p : i.names) {
                     indi.setProperty("NAME", p.basic);
                     if (p.givenName != null)
@@ -84,7 +83,7 @@ public class GEDReader  {
                         indi.setProperty(tag+".CAUSE", ee.cause.trim());
                     
                     if (ee.date != null) 
-                        indi.setDate(tag+".DATE", ee.date.trim());
+                        indi.setDate(tag+".DATE", dates.get(ee.date.trim()));
                     
                     if (ee.description != null)
                         indi.setProperty(tag+".DESC", ee.description.trim());
@@ -92,9 +91,7 @@ public class GEDReader  {
                 }
             }
             for (Family f : gp.gedcom.families.values()) {
-                Fam fam = new Fam();
-                fam.setId(f.xref);
-                network.addVertex(fam);
+                Fam fam = builder.addFam(f.xref);
                 if (f.husband != null)
                     fam.setHusb(f.husband.xref);
                 if (f.wife != null)
@@ -106,36 +103,8 @@ public class GEDReader  {
             return null;
         }
 
-        for (Vertex v : network.getVertices()) {
-            if (v instanceof Indi) {
-                Indi indi = (Indi) v;
-                if (indi.getFamc() != null) {
-                    Vertex fam = network.getVertex(indi.getFamc());
-                    if (fam != null) {
-                        Edge edge = new Edge(v.getId(), indi.getFamc());
-                        if (!network.containsEdge(edge)) {
-                            network.addEdge(edge, indi, fam);
-                            edge.setFromVertex(v);
-                            edge.setToVertex(fam);
-                        }
-                    }
-                }
-                if (indi.getFams() != null) {
-                    for (String fid : indi.getFams()) {
-                        Vertex fam = network.getVertex(fid);
-                        if (fam != null) {
-                            Edge edge = new Edge(fam.getId(), v.getId());
-                            if (!network.containsEdge(edge)) {
-                                network.addEdge(edge, fam, indi);
-                                edge.setFromVertex(fam);
-                                edge.setToVertex(indi);
-                            }
-                        }
-                    }
-                }
-            }
-        }
-        return network;
+        builder.addFamilyEdges();
+        return builder.build();
     }
 
 }
@@ -0,0 +1,402 @@
+/**
+ * Copyright (c) 2010-2014, Jean-Daniel Fekete, Pierre Dragicevic, and INRIA.
+ * All rights reserved.
+ *
+ * Use of this source code is governed by a BSD-style license that can be
+ * found in the LICENSE file.
+ */
+package geneaquilt.io;
+
+import geneaquilt.data.DateCache;
+import geneaquilt.data.Fam;
+import geneaquilt.data.Indi;
+import geneaquilt.data.Network;
+import geneaquilt.data.NetworkBuilder;
+import geneaquilt.data.Vertex;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Class GEDStreamReader reads a GEDCOM file line by line and builds
+ * the network directly, without creating the gedcom4j object model.
+ * 
+ * <p>Each line is split into its level, optional xref, tag and value.
+ * CONC and CONT lines are appended to the value of the line they
+ * continue before it is processed. The character set is taken from
+ * the byte order mark or the CHAR header: ANSEL, UTF-8, UNICODE,
+ * ASCII, ANSI and IBMPC are supported.</p>
+ * 
+ * <p>The same properties as {@link GEDReader} are extracted so both
+ * readers can be compared.</p>
+ * 
+ * @author Jean-Daniel Fekete
+ * @version $Revision$
+ */
+public class GEDStreamReader {
+    private static final Logger LOG = Logger.getLogger(GEDStreamReader.class);
+    private static boolean enabled = true;
+    static final int HEADER_SIZE = 8192;
+    /** Name of the ANSEL encoding. */
+    static final String ANSEL = "ANSEL";
+    /** UTF-8 with a byte order mark to skip. */
+    static final String UTF8_BOM = "UTF-8 BOM";
+    static final Set<String> ATTRIBUTES = new HashSet<String>(Arrays.asList(
+            "CAST", "DSCR", "EDUC", "IDNO", "NATI", "NCHI", "NMR", "OCCU",
+            "PROP", "RELI", "RESI", "SSN", "TITL", "FACT"));
+    static final Set<String> EVENTS = new HashSet<String>(Arrays.asList(
+            "ADOP", "BAPM", "BARM", "BASM", "BIRT", "BLES", "BURI", "CENS",
+            "CHR", "CHRA", "CONF", "CREM", "DEAT", "EMIG", "FCOM", "GRAD",
+            "IMMI", "NATU", "ORDN", "RETI", "PROB", "WILL", "EVEN"));
+
+    private NetworkBuilder builder;
+    private DateCache dates;
+    private Vertex record;
+    private String[] context = new String[8];
+    private int level = -1;
+    private String xref;
+    private String tag;
+    private StringBuilder value = new StringBuilder();
+    private boolean hasValue;
+
+    /**
+     * Creates a streaming GEDCOM reader.
+     */
+    public GEDStreamReader() {
+    }
+
+    /**
+     * @return true if the streaming reader should be used
+     * instead of {@link GEDReader}
+     */
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * @param e true to use the streaming reader
+     * instead of {@link GEDReader}
+     */
+    public static void setEnabled(boolean e) {
+        enabled = e;
+    }
+
+    /**
+     * Loads a GEDCOM file
+     * @param filename the file name
+     * @return a network or null
+     */
+    public Network load(String filename) {
+        NetworkBuilder builder = new NetworkBuilder();
+        BufferedReader in = null;
+        try {
+            InputStream bin = new BufferedInputStream(
+                    new FileInputStream(filename), 1 << 16);
+            in = new BufferedReader(openReader(bin), 1 << 16);
+            read(in, builder);
+        }
+        catch(IOException e) {
+            LOG.error("Cannot read "+filename, e);
+            return null;
+        }
+        finally {
+            if (in != null) try {
+                in.close();
+            }
+            catch(IOException e) {
+                LOG.warn("Cannot close "+filename, e);
+            }
+        }
+        builder.addFamilyEdges();
+        DateCache dates = builder.getDateCache();
+        LOG.debug("Parsed "+dates.size()+" distinct dates, "+dates.getHits()+" reused");
+        return builder.build();
+    }
+
+    /**
+     * Reads GEDCOM lines, adding the individuals and families
+     * to the specified builder. No edge is added.
+     * @param in the reader
+     * @param b the network builder
+     * @throws IOException if the reader fails
+     */
+    void read(BufferedReader in, NetworkBuilder b) throws IOException {
+        builder = b;
+        dates = b.getDateCache();
+        record = null;
+        level = -1;
+        String line;
+        while ((line = in.readLine()) != null) {
+            parseLine(line);
+        }
+        flush();
+    }
+
+    /**
+     * Creates a reader decoding the specified GEDCOM stream
+     * according to its byte order mark or CHAR header.
+     * @param in the stream, supporting mark/reset
+     * @return a reader
+     * @throws IOException if the stream cannot be read
+     */
+    public static Reader openReader(InputStream in) throws IOException {
+        byte[] header = new byte[HEADER_SIZE];
+        in.mark(HEADER_SIZE);
+        int len = 0;
+        int n;
+        while (len < HEADER_SIZE 
+                && (n = in.read(header, len, HEADER_SIZE-len)) > 0) {
+            len += n;
+        }
+        in.reset();
+        String encoding = findEncoding(header, len);
+        if (encoding == UTF8_BOM) {
+            in.skip(3);
+            encoding = "UTF-8";
+        }
+        return openReader(in, encoding);
+    }
+    
+    /**
+     * Creates a reader decoding the specified stream.
+     * @param in the stream
+     * @param encoding the encoding returned by {@link #findEncoding(byte[], int)}
+     * @return a reader
+     * @throws IOException if the encoding is not supported
+     */
+    static Reader openReader(InputStream in, String encoding) throws IOException {
+        if (ANSEL.equals(encoding))
+            return new AnselReader(in);
+        return new InputStreamReader(in, encoding);
+    }
+
+    /**
+     * Finds the encoding of a GEDCOM file from the byte order mark
+     * or the CHAR line of its header.
+     * @param header the first bytes of the file
+     * @param len the number of bytes
+     * @return a java charset name, {@link #ANSEL} or {@link #UTF8_BOM}
+     * @throws IOException if the header cannot be decoded
+     */
+    static String findEncoding(byte[] header, int len) throws IOException {
+        if (len >= 3 
+                && (header[0]&0xFF) == 0xEF 
+                && (header[1]&0xFF) == 0xBB 
+                && (header[2]&0xFF) == 0xBF) {
+            return UTF8_BOM;
+        }
+        if (len >= 2) {
+            int b0 = header[0]&0xFF;
+            int b1 = header[1]&0xFF;
+            if ((b0 == 0xFE && b1 == 0xFF) || (b0 == 0xFF && b1 == 0xFE))
+                return "UTF-16";
+            if (b0 == 0 && b1 == '0')
+                return "UTF-16BE";
+            if (b0 == '0' && b1 == 0)
+                return "UTF-16LE";
+        }
+        String charset = findCharset(new String(header, 0, len, "ISO-8859-1"));
+        if (charset == null || ANSEL.equals(charset))
+            return ANSEL;
+        if ("UTF-8".equals(charset) || "UTF8".equals(charset))
+            return "UTF-8";
+        if ("UNICODE".equals(charset))
+            return "UTF-16";
+        if ("ASCII".equals(charset))
+            return "ISO-8859-1";
+        if ("IBMPC".equals(charset))
+            return "IBM437";
+        if (charset.startsWith("ANSI") 
+                || charset.indexOf("WINDOWS") != -1)
+            return "windows-1252";
+        try {
+            if (Charset.isSupported(charset))
+                return charset;
+        }
+        catch(IllegalArgumentException e) {
+            // not a legal charset name, e.g. "ISO 8859-1"
+        }
+        LOG.warn("Unknown charset "+charset+", using ANSEL");
+        return ANSEL;
+    }
+
+    /**
+     * Finds the value of the CHAR line of the header.
+     * @param header the beginning of the file
+     * @return the charset in upper case or null
+     */
+    static String findCharset(String header) {
+        int i = 0;
+        int len = header.length();
+        while (i < len) {
+            int end = i;
+            while (end < len && header.charAt(end) != '\n' && header.charAt(end) != '\r')
+                end++;
+            String line = header.substring(i, end).trim();
+            if (line.startsWith("1 CHAR ")) {
+                return line.substring(7).trim().toUpperCase();
+            }
+            if (i != 0 && line.startsWith("0 "))
+                break; // end of the header
+            i = end+1;
+        }
+        return null;
+    }
+
+    private void parseLine(String line) {
+        int len = line.length();
+        int i = 0;
+        while (i < len && Character.isWhitespace(line.charAt(i)))
+            i++;
+        if (i == len)
+            return;
+        int lev = 0;
+        int start = i;
+        while (i < len && Character.isDigit(line.charAt(i))) {
+            lev = lev*10 + (line.charAt(i)-'0');
+            i++;
+        }
+        if (i == start || i == len || line.charAt(i) != ' ') {
+            LOG.warn("Invalid GEDCOM line: "+line);
+            return;
+        }
+        i++;
+        String x = null;
+        if (i < len && line.charAt(i) == '@') {
+            int end = line.indexOf(' ', i);
+            if (end == -1) {
+                LOG.warn("Invalid GEDCOM line: "+line);
+                return;
+            }
+            x = line.substring(i, end);
+            i = end+1;
+        }
+        int end = line.indexOf(' ', i);
+        if (end == -1)
+            end = len;
+        String t = line.substring(i, end);
+        if ("CONC".equals(t) || "CONT".equals(t)) {
+            if (level == -1)
+                return;
+            if ("CONT".equals(t))
+                value.append('\n');
+            if (end < len)
+                value.append(line, end+1, len);
+            hasValue = true;
+            return;
+        }
+        flush();
+        level = lev;
+        xref = x;
+        tag = t;
+        value.setLength(0);
+        hasValue = end < len;
+        if (hasValue)
+            value.append(line, end+1, len);
+    }
+
+    private void flush() {
+        if (level == -1)
+            return;
+        process(level, xref, tag, hasValue ? value.toString() : null);
+        level = -1;
+    }
+
+    private void process(int lev, String x, String t, String val) {
+        if (lev >= context.length) {
+            String[] n = new String[Math.max(lev+1, context.length*2)];
+            System.arraycopy(context, 0, n, 0, context.length);
+            context = n;
+        }
+        context[lev] = t;
+        if (lev == 0) {
+            record = null;
+            if (x == null)
+                return;
+            if ("INDI".equals(t)) {
+                record = builder.getVertex(x);
+                if (!(record instanceof Indi)) {
+                    record = builder.addIndi(x);
+                }
+            }
+            else if ("FAM".equals(t)) {
+                record = builder.getVertex(x);
+                if (!(record instanceof Fam)) {
+                    record = builder.addFam(x);
+                }
+            }
+        }
+        else if (record instanceof Indi) {
+            processIndi((Indi)record, lev, t, val);
+        }
+        else if (record instanceof Fam) {
+            processFam((Fam)record, lev, t, val);
+        }
+    }
+
+    private void processIndi(Indi indi, int lev, String t, String val) {
+        if (lev == 1) {
+            if ("NAME".equals(t)) {
+                indi.setProperty("NAME", val);
+            }
+            else if (val == null) {
+                return;
+            }
+            else if ("SEX".equals(t)) {
+                indi.setSex(val.trim());
+            }
+            else if ("FAMC".equals(t)) {
+                indi.setFamc(val.trim());
+            }
+            else if ("FAMS".equals(t)) {
+                indi.addFams(val.trim());
+            }
+            else if ("ALIA".equals(t)) {
+                indi.setProperty("NAME.ALIAS", val.trim());
+            }
+            else if (ATTRIBUTES.contains(t)) {
+                indi.setProperty(t, val);
+            }
+            else if (EVENTS.contains(t)) {
+                indi.setProperty(t+".DESC", val.trim());
+            }
+        }
+        else if (lev == 2 && val != null) {
+            String parent = context[1];
+            if ("NAME".equals(parent)) {
+                if ("GIVN".equals(t) || "SURN".equals(t) || "NICK".equals(t))
+                    indi.setProperty("NAME."+t, val);
+            }
+            else if (EVENTS.contains(parent)) {
+                if ("DATE".equals(t))
+                    indi.setDate(parent+".DATE", dates.get(val.trim()));
+                else if ("ADDR".equals(t))
+                    indi.setProperty(parent+".ADDR", val);
+                else if ("AGE".equals(t))
+                    indi.setProperty(parent+".AGE", val.trim());
+                else if ("CAUS".equals(t))
+                    indi.setProperty(parent+".CAUSE", val.trim());
+            }
+        }
+    }
+
+    private void processFam(Fam fam, int lev, String t, String val) {
+        if (lev != 1 || val == null)
+            return;
+        if ("HUSB".equals(t))
+            fam.setHusb(val.trim());
+        else if ("WIFE".equals(t))
+            fam.setWife(val.trim());
+    }
+}
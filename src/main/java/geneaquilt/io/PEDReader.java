@@ -7,11 +7,10 @@
  */
 package geneaquilt.io;
 
-import geneaquilt.data.Edge;
 import geneaquilt.data.Fam;
 import geneaquilt.data.Indi;
 import geneaquilt.data.Network;
-import geneaquilt.data.Vertex;
+import geneaquilt.data.NetworkBuilder;
 
 import java.io.BufferedReader;
 import java.io.FileReader;
@@ -24,7 +23,7 @@ import java.io.FileReader;
  * @author Jean-Daniel Fekete
  */
 public class PEDReader {
-    private Network network;
+    private NetworkBuilder builder;
     private String[] tmpLine = new String[7];
     private static final String DELIMS = " \t";
     
@@ -37,11 +36,9 @@ public class PEDReader {
         if (id.equals("0") || id.equals("."))
             return null;
         id = "I"+fam+"_"+id;
-        Indi indi = (Indi)network.getVertex(id);
+        Indi indi = (Indi)builder.getVertex(id);
         if (indi == null) {
-            indi = new Indi();
-            indi.setId(id);
-            network.addVertex(indi);
+            indi = builder.addIndi(id);
         }
         return indi;
     }
@@ -67,15 +64,17 @@ public class PEDReader {
             return null;
         
         String id = "F"+f+"_"+(wife==null?"unknown":wife)+"_"+(husb==null?"unkown":husb);
-        Fam fam = (Fam)network.getVertex(id);
+        Fam fam = (Fam)builder.getVertex(id);
         if (fam == null) {
-            fam = new Fam();
-            fam.setId(id);
-            fam.setHusb(h.getId());
-            h.addFams(fam.getId());
-            fam.setWife(w.getId());
-            w.addFams(fam.getId());
-            network.addVertex(fam);
+            fam = builder.addFam(id);
+            if (h != null) {
+                fam.setHusb(h.getId());
+                h.addFams(fam.getId());
+            }
+            if (w != null) {
+                fam.setWife(w.getId());
+                w.addFams(fam.getId());
+            }
         }
         return fam;
     }
@@ -134,7 +133,7 @@ public class PEDReader {
         try {
             FileReader fin = new FileReader(filename);
             BufferedReader in = new BufferedReader(fin);
-            network = new Network();
+            builder = new NetworkBuilder();
             
             String line;
             int lineNum = 0;
@@ -167,35 +166,7 @@ public class PEDReader {
         catch(Exception e) {
             e.printStackTrace();
         }
-        for (Vertex v : network.getVertices()) {
-            if (v instanceof Indi) {
-                Indi indi = (Indi) v;
-                if (indi.getFamc() != null) {
-                    Vertex fam = network.getVertex(indi.getFamc());
-                    if (fam != null) {
-                        Edge edge = new Edge(v.getId(), indi.getFamc());
-                        if (!network.containsEdge(edge)) {
-                            network.addEdge(edge, indi, fam);
-                            edge.setFromVertex(v);
-                            edge.setToVertex(fam);
-                        }
-                    }
-                }
-                if (indi.getFams() != null) {
-                    for (String fid : indi.getFams()) {
-                        Vertex fam = network.getVertex(fid);
-                        if (fam != null) {
-                            Edge edge = new Edge(fam.getId(), v.getId());
-                            if (!network.containsEdge(edge)) {
-                                network.addEdge(edge, fam, indi);
-                                edge.setFromVertex(fam);
-                                edge.setToVertex(indi);
-                            }
-                        }
-                    }
-                }
-            }
-        }
-        return network;
+        builder.addFamilyEdges();
+        return builder.build();
     }
 }
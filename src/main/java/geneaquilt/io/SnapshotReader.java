@@ -0,0 +1,216 @@
+/**
+ * Copyright (c) 2010-2014, Jean-Daniel Fekete, Pierre Dragicevic, and INRIA.
+ * All rights reserved.
+ *
+ * Use of this source code is governed by a BSD-style license that can be
+ * found in the LICENSE file.
+ */
+package geneaquilt.io;
+
+import geneaquilt.data.DateCache;
+import geneaquilt.data.DateRange;
+import geneaquilt.data.Fam;
+import geneaquilt.data.Indi;
+import geneaquilt.data.Network;
+import geneaquilt.data.NetworkBuilder;
+import geneaquilt.data.Vertex;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Class SnapshotReader reads the binary snapshot written by
+ * {@link SnapshotWriter} through a memory-mapped buffer.
+ * 
+ * <p>A snapshot is only used when the size, modification time and
+ * CRC32 of the source file and the size and modification time of
+ * its layer file match the ones recorded; otherwise the source
+ * file should be parsed again.</p>
+ * 
+ * <p>The vertices are added to the network in the saved order, so the
+ * ids of its adjacency follow the order of the layers of the quilt.</p>
+ * 
+ * @author Jean-Daniel Fekete
+ * @version $Revision$
+ */
+public class SnapshotReader {
+    private static final Logger LOG = Logger.getLogger(SnapshotReader.class);
+    private ByteBuffer in;
+    private String[] strings;
+    private byte[] scratch = new byte[256];
+
+    /**
+     * Creates a SnapshotReader.
+     */
+    public SnapshotReader() {
+    }
+
+    /**
+     * Loads the snapshot of the specified source file
+     * when it exists and is up to date.
+     * @param filename the source file name
+     * @return a network with its layers or null
+     */
+    public Network load(String filename) {
+        File snapshot = new File(SnapshotWriter.getSnapshotFile(filename));
+        if (!snapshot.exists())
+            return null;
+        long t0 = System.currentTimeMillis();
+        RandomAccessFile file = null;
+        try {
+            file = new RandomAccessFile(snapshot, "r");
+            FileChannel channel = file.getChannel();
+            in = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (!checkHeader(filename)) {
+                LOG.info("Snapshot "+snapshot+" is out of date");
+                return null;
+            }
+            Network network = read();
+            LOG.info("Read snapshot "+snapshot+" in "+(System.currentTimeMillis()-t0)+"ms");
+            return network;
+        }
+        catch(IOException e) {
+            LOG.warn("Cannot read snapshot "+snapshot, e);
+        }
+        catch(BufferUnderflowException e) {
+            LOG.warn("Truncated snapshot "+snapshot, e);
+        }
+        catch(RuntimeException e) {
+            LOG.warn("Invalid snapshot "+snapshot, e);
+        }
+        finally {
+            in = null;
+            strings = null;
+            if (file != null) try {
+                file.close();
+            }
+            catch(IOException e) {
+                LOG.warn("Cannot close "+snapshot, e);
+            }
+        }
+        return null;
+    }
+
+    private boolean checkHeader(String filename) throws IOException {
+        if (in.remaining() < 48 
+                || in.getInt() != SnapshotWriter.MAGIC 
+                || in.getInt() != SnapshotWriter.VERSION)
+            return false;
+        File source = new File(filename);
+        File layers = new File(SnapshotWriter.replaceExtension(filename, ".lyr"));
+        long size = in.getLong();
+        long mtime = in.getLong();
+        long crc = in.getLong();
+        long layerSize = in.getLong();
+        long layerMtime = in.getLong();
+        if (size != source.length() || mtime != source.lastModified())
+            return false;
+        if (layers.exists()) {
+            if (layerSize != layers.length() || layerMtime != layers.lastModified())
+                return false;
+        }
+        else if (layerSize != -1) {
+            return false;
+        }
+        return crc == SnapshotWriter.checksum(source);
+    }
+
+    private Network read() {
+        int count = in.getInt();
+        strings = new String[count];
+        for (int i = 0; i < count; i++) {
+            int len = in.getInt();
+            if (len > scratch.length)
+                scratch = new byte[Math.max(len, scratch.length*2)];
+            in.get(scratch, 0, len);
+            strings[i] = new String(scratch, 0, len, SnapshotWriter.UTF8);
+        }
+        int vertexCount = in.getInt();
+        int edgeCount = in.getInt();
+        NetworkBuilder builder = new NetworkBuilder();
+        for (int i = 0; i < vertexCount; i++) {
+            readVertex(builder);
+        }
+        for (int i = 0; i < edgeCount; i++) {
+            int from = in.getInt();
+            int to = in.getInt();
+            builder.addEdge(from, to);
+        }
+        return builder.build();
+    }
+
+    private String string() {
+        int i = in.getInt();
+        return i == -1 ? null : strings[i];
+    }
+
+    private Vertex readVertex(NetworkBuilder builder) {
+        DateCache dates = builder.getDateCache();
+        byte type = in.get();
+        Vertex v;
+        if (type == SnapshotWriter.INDI) {
+            Indi indi = builder.addIndi(string());
+            indi.removeProperty("ID");
+            indi.setSex(string());
+            indi.setFamc(string());
+            int n = in.getInt();
+            for (int i = 0; i < n; i++) {
+                indi.addFams(string());
+            }
+            indi.setInbreeding(in.getDouble());
+            indi.setAncestorCount(in.getInt());
+            indi.setDescendantCount(in.getInt());
+            v = indi;
+        }
+        else if (type == SnapshotWriter.FAM) {
+            Fam fam = builder.addFam(string());
+            int n = in.getInt();
+            for (int i = 0; i < n; i++) {
+                fam.addChil(string());
+            }
+            v = fam;
+        }
+        else {
+            throw new IllegalStateException("Unknown vertex type "+type);
+        }
+        v.setLayer(in.getInt());
+        v.setX(in.getDouble());
+        int keys = in.getInt();
+        for (int k = 0; k < keys; k++) {
+            String key = string();
+            int n = in.getInt();
+            for (int i = 0; i < n; i++) {
+                byte tag = in.get();
+                if (tag == SnapshotWriter.STRING) {
+                    v.setProperty(key, string());
+                }
+                else if (tag == SnapshotWriter.DATE_TEXT) {
+                    v.setProperty(key, dates.get(string()));
+                }
+                else if (tag == SnapshotWriter.DATE_RANGE) {
+                    long start = in.getLong();
+                    v.setProperty(key, new DateRange(start, in.getLong()));
+                }
+                else if (tag == SnapshotWriter.INTEGER) {
+                    v.setProperty(key, Integer.valueOf(in.getInt()));
+                }
+                else if (tag == SnapshotWriter.DOUBLE) {
+                    v.setProperty(key, Double.valueOf(in.getDouble()));
+                }
+                else if (tag == SnapshotWriter.BOOLEAN) {
+                    v.setProperty(key, Boolean.valueOf(in.get() != 0));
+                }
+                else {
+                    throw new IllegalStateException("Unknown value type "+tag);
+                }
+            }
+        }
+        return v;
+    }
+}
@@ -0,0 +1,274 @@
+/**
+ * Copyright (c) 2010-2014, Jean-Daniel Fekete, Pierre Dragicevic, and INRIA.
+ * All rights reserved.
+ *
+ * Use of this source code is governed by a BSD-style license that can be
+ * found in the LICENSE file.
+ */
+package geneaquilt.io;
+
+import geneaquilt.data.DateRange;
+import geneaquilt.data.Edge;
+import geneaquilt.data.Fam;
+import geneaquilt.data.Indi;
+import geneaquilt.data.Network;
+import geneaquilt.data.Vertex;
+import geneaquilt.nodes.QuiltManager;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Class SnapshotWriter saves a loaded network in a binary snapshot
+ * file (.gqs) next to its source file, so it can be reopened
+ * without parsing the source and computing the layers again.
+ * 
+ * <p>The snapshot starts with the size, modification time and CRC32
+ * of the source file, and the size and modification time of its
+ * layer file, followed by a table of all the strings, the vertices
+ * with their properties, layer and x position, and the edges.
+ * The vertices are saved layer by layer in the order of the
+ * {@link QuiltManager}, so the quilt can be rebuilt without sorting
+ * them again, and the inbreeding coefficient and lineage counts of
+ * the individuals are saved with them.
+ * Each property value is tagged with its type, so dates, integers,
+ * doubles and booleans are read back with their type; other values
+ * are saved as strings.
+ * It is read back by {@link SnapshotReader}.</p>
+ * 
+ * @author Jean-Daniel Fekete
+ * @version $Revision$
+ */
+public class SnapshotWriter {
+    private static final Logger LOG = Logger.getLogger(SnapshotWriter.class);
+    /** Snapshot file extension */
+    public static final String EXTENSION = ".gqs";
+    static final int MAGIC = 0x47515331; // GQS1
+    static final int VERSION = 3;
+    static final byte INDI = 0;
+    static final byte FAM = 1;
+    static final byte STRING = 0;
+    static final byte DATE_TEXT = 1;
+    static final byte DATE_RANGE = 2;
+    static final byte INTEGER = 3;
+    static final byte DOUBLE = 4;
+    static final byte BOOLEAN = 5;
+    static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private Network network;
+    private Map<String,Integer> strings;
+    private List<String> stringList;
+
+    /**
+     * Creates a SnapshotWriter for a specified network
+     * @param network the network
+     */
+    public SnapshotWriter(Network network) {
+        this.network = network;
+    }
+
+    /**
+     * Returns the name of the snapshot file of a source file.
+     * @param filename the source file name
+     * @return the snapshot file name
+     */
+    public static String getSnapshotFile(String filename) {
+        return replaceExtension(filename, EXTENSION);
+    }
+
+    static String replaceExtension(String filename, String ext) {
+        int last = filename.lastIndexOf('.');
+        if (last == -1 || last < filename.lastIndexOf(File.separatorChar))
+            return filename + ext;
+        return filename.substring(0, last) + ext;
+    }
+
+    /**
+     * Computes the CRC32 of a file.
+     * @param file the file
+     * @return the checksum
+     * @throws IOException if the file cannot be read
+     */
+    static long checksum(File file) throws IOException {
+        CRC32 crc = new CRC32();
+        byte[] buffer = new byte[1 << 16];
+        InputStream in = new FileInputStream(file);
+        try {
+            int n;
+            while ((n = in.read(buffer)) > 0) {
+                crc.update(buffer, 0, n);
+            }
+        }
+        finally {
+            in.close();
+        }
+        return crc.getValue();
+    }
+
+    /**
+     * Writes the snapshot of the network loaded from the specified file.
+     * @param filename the source file name
+     * @throws IOException if a writing error occurs
+     */
+    public void write(String filename) throws IOException {
+        long t0 = System.currentTimeMillis();
+        File source = new File(filename);
+        File layers = new File(replaceExtension(filename, ".lyr"));
+        strings = new HashMap<String, Integer>();
+        stringList = new ArrayList<String>();
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(1 << 16);
+        DataOutputStream body = new DataOutputStream(bytes);
+        List<Vertex> vertices = new ArrayList<Vertex>(network.getVertices());
+        Collections.sort(vertices, LAYER_ORDER);
+        Map<Vertex,Integer> number = new HashMap<Vertex, Integer>(vertices.size()*2);
+        for (Vertex v : vertices) {
+            number.put(v, Integer.valueOf(number.size()));
+            writeVertex(body, v);
+        }
+        for (Edge e : network.getEdges()) {
+            body.writeInt(number.get(network.getSource(e)).intValue());
+            body.writeInt(number.get(network.getDest(e)).intValue());
+        }
+        body.flush();
+
+        File snapshot = new File(getSnapshotFile(filename));
+        File tmp = new File(snapshot.getPath()+".tmp");
+        DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(tmp), 1 << 16));
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(source.length());
+            out.writeLong(source.lastModified());
+            out.writeLong(checksum(source));
+            out.writeLong(layers.exists() ? layers.length() : -1);
+            out.writeLong(layers.exists() ? layers.lastModified() : -1);
+            out.writeInt(stringList.size());
+            for (String s : stringList) {
+                byte[] b = s.getBytes(UTF8);
+                out.writeInt(b.length);
+                out.write(b);
+            }
+            out.writeInt(vertices.size());
+            out.writeInt(network.getEdgeCount());
+            bytes.writeTo(out);
+        }
+        finally {
+            out.close();
+        }
+        if (snapshot.exists() && !snapshot.delete())
+            throw new IOException("Cannot replace "+snapshot);
+        if (!tmp.renameTo(snapshot))
+            throw new IOException("Cannot rename "+tmp+" to "+snapshot);
+        LOG.info("Wrote snapshot "+snapshot+" in "+(System.currentTimeMillis()-t0)+"ms");
+    }
+
+    /**
+     * Orders the vertices by layer, then in the order of the layers
+     * of the {@link QuiltManager}.
+     */
+    static final Comparator<Vertex> LAYER_ORDER = new Comparator<Vertex>() {
+        private final Comparator<Vertex> quiltOrder = QuiltManager.COMPARATOR;
+
+        public int compare(Vertex o1, Vertex o2) {
+            int ret = o1.getLayer() - o2.getLayer();
+            if (ret != 0)
+                return ret;
+            return quiltOrder.compare(o1, o2);
+        }
+    };
+
+    private int string(String s) {
+        if (s == null)
+            return -1;
+        Integer i = strings.get(s);
+        if (i == null) {
+            i = Integer.valueOf(stringList.size());
+            strings.put(s, i);
+            stringList.add(s);
+        }
+        return i.intValue();
+    }
+
+    private void writeStrings(DataOutputStream out, List<String> list) throws IOException {
+        out.writeInt(list.size());
+        for (String s : list) {
+            out.writeInt(string(s));
+        }
+    }
+
+    private void writeVertex(DataOutputStream out, Vertex v) throws IOException {
+        if (v instanceof Indi) {
+            Indi indi = (Indi) v;
+            out.writeByte(INDI);
+            out.writeInt(string(v.getId()));
+            out.writeInt(string(indi.getSex()));
+            out.writeInt(string(indi.getFamc()));
+            writeStrings(out, indi.getFams());
+            out.writeDouble(indi.getInbreeding());
+            out.writeInt(indi.getAncestorCount());
+            out.writeInt(indi.getDescendantCount());
+        }
+        else {
+            out.writeByte(FAM);
+            out.writeInt(string(v.getId()));
+            writeStrings(out, ((Fam)v).getChil());
+        }
+        out.writeInt(v.getLayer());
+        out.writeDouble(v.getX());
+        List<String> keys = v.getPropertyKeys();
+        out.writeInt(keys.size());
+        for (String key : keys) {
+            List<Object> values = v.getAllProperties(key);
+            out.writeInt(string(key));
+            out.writeInt(values.size());
+            for (Object o : values) {
+                if (o instanceof DateRange) {
+                    DateRange d = (DateRange) o;
+                    if (d.getText() != null) {
+                        out.writeByte(DATE_TEXT);
+                        out.writeInt(string(d.getText()));
+                    }
+                    else {
+                        out.writeByte(DATE_RANGE);
+                        out.writeLong(d.getStart());
+                        out.writeLong(d.getEnd());
+                    }
+                }
+                else if (o instanceof Integer) {
+                    out.writeByte(INTEGER);
+                    out.writeInt(((Integer)o).intValue());
+                }
+                else if (o instanceof Double) {
+                    out.writeByte(DOUBLE);
+                    out.writeDouble(((Double)o).doubleValue());
+                }
+                else if (o instanceof Boolean) {
+                    out.writeByte(BOOLEAN);
+                    out.writeBoolean(((Boolean)o).booleanValue());
+                }
+                else {
+                    out.writeByte(STRING);
+                    out.writeInt(string(o.toString()));
+                }
+            }
+        }
+    }
+}
@@ -7,17 +7,15 @@
  */
 package geneaquilt.io;
 
-import geneaquilt.data.Edge;
-import geneaquilt.data.Fam;
 import geneaquilt.data.Indi;
 import geneaquilt.data.Network;
+import geneaquilt.data.NetworkBuilder;
 import geneaquilt.data.Vertex;
 
 import java.io.BufferedReader;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.net.URL;
-import java.util.HashMap;
 
 /**
  * Class TESTReader
@@ -26,8 +24,7 @@ import java.util.HashMap;
  * @version $Revision$
  */
 public class TESTReader {
-    private HashMap<String,Vertex> vertex;
-    private Network net;
+    private NetworkBuilder builder;
 
     /**
      * Creates a TESTReader
@@ -47,8 +44,7 @@ public class TESTReader {
             BufferedReader in = new BufferedReader(
                     new InputStreamReader(bin, "UTF-8"));
             
-            net = new Network();
-            vertex = new HashMap<String, Vertex>();
+            builder = new NetworkBuilder();
             
             String line;
             while ((line = in.readLine())!= null) {
@@ -56,13 +52,10 @@ public class TESTReader {
                 Vertex v = findVertex(fields[0]);
                 for (int i = 1; i < fields.length; i++) {
                     Vertex other = findVertex(fields[i]);
-                    Edge e = new Edge(other.getId(), v.getId());
-                    e.setFromVertex(other);
-                    e.setToVertex(v);
-                    net.addEdge(e, other, v);
+                    builder.addEdge(other, v);
                 }
             }
-            return net;
+            return builder.build();
             
         } catch (Exception e) {
             e.printStackTrace();
@@ -71,19 +64,16 @@ public class TESTReader {
     }
     
     private Vertex findVertex(String id) {
-        Vertex v = vertex.get(id);
+        Vertex v = builder.getVertex(id);
         if (v == null) {
             if (id.startsWith("F")) {
-                v = new Fam();
+                v = builder.addFam(id);
             }
             else {
-                Indi i = new Indi();
+                Indi i = builder.addIndi(id);
                 i.setName(id);
                 v = i;
             }
-            v.setId(id);
-            vertex.put(id, v);
-            net.addVertex(v);
         }
         return v;
     }
@@ -7,10 +7,11 @@
  */
 package geneaquilt.io;
 
-import geneaquilt.data.Edge;
+import geneaquilt.data.DateCache;
 import geneaquilt.data.Fam;
 import geneaquilt.data.Indi;
 import geneaquilt.data.Network;
+import geneaquilt.data.NetworkBuilder;
 import geneaquilt.data.Vertex;
 
 import java.io.BufferedReader;
@@ -26,7 +27,7 @@ import java.util.ArrayList;
  * @author Jean-Daniel Fekete
  */
 public class TIPReader {
-    private Network network;
+    private NetworkBuilder builder;
     
     /**
      * Creates a TIP Reader.
@@ -43,7 +44,8 @@ public class TIPReader {
         try {
             FileReader fin = new FileReader(filename);
             BufferedReader in = new BufferedReader(fin);
-            network = new Network();
+            builder = new NetworkBuilder();
+            DateCache dates = builder.getDateCache();
             
             String line;
             int lineNum = 0;
@@ -63,8 +65,7 @@ public class TIPReader {
                 Indi indi;
                 switch(type) {
                 case 0:
-                    indi = new Indi();
-                    indi.setId(id);
+                    indi = builder.addIndi(id);
                     if ("0".equals(field[2])) {
                         indi.setSex("M");
                     }
@@ -73,10 +74,9 @@ public class TIPReader {
                     }
                     // 2 is unkown
                     indi.setName(field[3]);
-                    network.addVertex(indi);
                     break;
                 case 1:
-                    indi = (Indi)network.getVertex(id);
+                    indi = (Indi)builder.getVertex(id);
                     if (indi == null) {
                         System.err.println("Invalid id at line "+lineNum+line);
                         continue;
@@ -103,7 +103,10 @@ public class TIPReader {
                     String val = field[3];
                     if ("GENERATION".equals(prop)) {
                         int gen = Integer.parseInt(val.trim());
-                        network.getVertex(id).setLayer(2*gen);
+                        builder.getVertex(id).setLayer(2*gen);
+                    }
+                    else if (prop.endsWith(".DATE")) {
+                        builder.getVertex(id).setDate(prop, dates.get(val.trim()));
                     }
                     //TODO
                     break;
@@ -117,7 +120,7 @@ public class TIPReader {
             in.close();
             fin.close();
 
-            ArrayList<Vertex> vertices = new ArrayList<Vertex>(network.getVertices());
+            ArrayList<Vertex> vertices = new ArrayList<Vertex>(builder.getVertices());
             
             for (Vertex v : vertices) {
                 if (v instanceof Indi) {
@@ -128,33 +131,14 @@ public class TIPReader {
                         Fam fam = getFam(mother, father);
                         fam.addChil(indi.getId());
                         indi.setFamc(fam.getId());
-                        Edge edge = new Edge(indi.getId(), fam.getId());
-                        if (! network.containsEdge(edge)) {
-                            network.addEdge(edge, indi, fam);
-                            edge.setFromVertex(indi);
-                            edge.setToVertex(fam);
-                        }
+                        builder.addEdge(indi, fam);
                     }
                     
                     String spouse = (String)indi.getProperty("SPOUSE");
                     if (spouse != null) {
-                        Indi spouseIndi = (Indi)network.getVertex(spouse);
-                        assert(spouseIndi != null);
-                        Fam fam = getFam(spouse, indi.getId());
-                        Edge edge = new Edge(fam.getId(), spouse);
-                        if (! network.containsEdge(edge)) {
-                            network.addEdge(edge, fam, spouseIndi);
-                            spouseIndi.addFams(fam.getId());
-                            edge.setFromVertex(fam);
-                            edge.setToVertex(spouseIndi);
-                        }
-                        edge = new Edge(fam.getId(), indi.getId());
-                        if (! network.containsEdge(edge)) {
-                            network.addEdge(edge, fam, indi);
-                            indi.addFams(fam.getId());
-                            edge.setFromVertex(fam);
-                            edge.setToVertex(indi);
-                        }
+                        assert(builder.getVertex(spouse) != null);
+                        // getFam links the family to both spouses
+                        getFam(spouse, indi.getId());
                     }
                 }
             }
@@ -169,7 +153,7 @@ public class TIPReader {
 //                  e.printStackTrace();
 //              }
 //          }
-            return network;
+            return builder.build();
         }
         catch(Exception e) {
             e.printStackTrace();
@@ -179,37 +163,23 @@ public class TIPReader {
     
     private Fam getFam(String wife, String husb) {
         String id = "F"+(wife==null?"unknown":wife)+"_"+(husb==null?"unkown":husb);
-        Fam fam = (Fam)network.getVertex(id);
+        Fam fam = (Fam)builder.getVertex(id);
         if (fam == null) {
-            fam = new Fam();
-            fam.setId(id);
+            fam = builder.addFam(id);
             fam.setHusb(husb);
             fam.setWife(wife);
-            network.addVertex(fam);
             if (husb!=null) {
-                Edge edge = new Edge(id, husb);
-                if (! network.containsEdge(edge)) {
-                    Indi husbIndi = (Indi)network.getVertex(husb);
-                    network.addEdge(edge, fam, husbIndi);
-                    husbIndi.addFams(id);
-                    edge.setFromVertex(fam);
-                    edge.setToVertex(husbIndi);
-                }
+                Indi husbIndi = (Indi)builder.getVertex(husb);
+                builder.addEdge(fam, husbIndi);
+                husbIndi.addFams(id);
             }
             if (wife != null) {
-                Edge edge = new Edge(id, wife);
-                if (! network.containsEdge(edge)) {
-                    Indi wifeIndi = (Indi)network.getVertex(wife);
-                    if (wifeIndi == null) {
-                        wifeIndi = new Indi();
-                        wifeIndi.setId(wife);
-                        network.addVertex(wifeIndi);
-                    }
-                    network.addEdge(edge, fam, wifeIndi);
-                    wifeIndi.addFams(id);
-                    edge.setFromVertex(fam);
-                    edge.setToVertex(wifeIndi);
+                Indi wifeIndi = (Indi)builder.getVertex(wife);
+                if (wifeIndi == null) {
+                    wifeIndi = builder.addIndi(wife);
                 }
+                builder.addEdge(fam, wifeIndi);
+                wifeIndi.addFams(id);
             }
         }
         return fam;
@@ -14,12 +14,10 @@ import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
-import java.util.HashSet;
-import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
 import java.util.Set;
-import java.util.SortedMap;
-import java.util.TreeMap;
 import java.util.Map.Entry;
 
 import org.apache.log4j.Logger;
@@ -27,6 +25,9 @@ import edu.umd.cs.piccolo.PNode;
 import edu.umd.cs.piccolo.util.PBounds;
 import edu.umd.cs.piccolo.util.PPaintContext;
 import geneaquilt.algorithms.GenerationRank;
+import geneaquilt.algorithms.VertexOrder;
+import geneaquilt.data.Adjacency;
+import geneaquilt.data.DateAccumulator;
 import geneaquilt.data.DateRange;
 import geneaquilt.data.Edge;
 import geneaquilt.data.Fam;
@@ -60,6 +61,7 @@ public class QuiltManager extends PNode {
     private SelectionManager selectionManager;
     private boolean familyFirst;
     private Hull hull;
+    private static boolean alignByDate = true;
 
     /**
      * Creates a Quilt manager and checks for sanity
@@ -68,10 +70,26 @@ public class QuiltManager extends PNode {
      * @param fg the foreground node
      */
     public QuiltManager(Network network) {
+        this(network, false);
+    }
+
+    /**
+     * Creates a Quilt manager.
+     * When the network comes from a snapshot, its layers are already
+     * fixed and its vertices are stored in the order of the layers,
+     * so they are used as is.
+     * @param network the network
+     * @param fromSnapshot true if the network was read from a snapshot
+     */
+    public QuiltManager(Network network, boolean fromSnapshot) {
         this.network = network;
 //        network.breakCycles();
-        assignLayers();
-        if (network.isLayerComputed()) {
+        boolean ordered = network.isLayerComputed();
+        assignLayers(fromSnapshot);
+        if (fromSnapshot) {
+            LOG.info("Layers and order read from the snapshot");
+        }
+        else if (ordered) {
             LOG.info("Layers already assigned");
             updateSortedLayers();
         }
@@ -259,7 +277,7 @@ public class QuiltManager extends PNode {
         hull.setBounds(0, 0, x, y); // optional -- only needed if hull is added to the scenegraph for debugging
     }
     
-    private void assignLayers() { 
+    private void assignLayers(boolean fromSnapshot) { 
         LOG.debug("Entering assignLayers");
         if (! network.isLayerComputed()) {
             GenerationRank rank = new GenerationRank(network);
@@ -275,11 +293,23 @@ public class QuiltManager extends PNode {
 //        }
         
         layerCount = network.getMaxLayer()+1;
-        fixLayers();
-//        fixLayersByDate();
+        Collection<Vertex> vertices = network.getVertices();
+        if (fromSnapshot) {
+            // the ids follow the saved order of the layers
+            Adjacency adj = network.getAdjacency();
+            Vertex[] ordered = new Vertex[adj.getVertexCount()];
+            for (int i = 0; i < ordered.length; i++)
+                ordered[i] = adj.getVertex(i);
+            vertices = Arrays.asList(ordered);
+        }
+        else {
+            fixLayers();
+            if (alignByDate)
+                fixLayersByDate();
+        }
         this.individual = new ArrayList[(layerCount+1)/2];
         this.family = new ArrayList[(layerCount+1)/2];
-        for (Vertex v : network.getVertices()) {
+        for (Vertex v : vertices) {
             int l = v.getLayer()/2;
             if (l < 0) {
                 LOG.error("Negative layer");
@@ -372,252 +402,250 @@ public class QuiltManager extends PNode {
         if (compCount < 2)
             return;
         LOG.debug("Fixing layers by date");
-        List<SortedMap<Integer,DateRange>> layerDate = computeLayerDate(compCount);
-        List<Set<Vertex>> layerVertex = new ArrayList<Set<Vertex>>(network.getComponents());
-        // Filter out components with no date
-//        for (int i = 0; i < layerDate.size(); i++) {
-//            if (layerDate.get(i) == null) {
-//                layerVertex.remove(i);
-//                layerDate.remove(i);
-//                LOG.debug("Removed layer "+i+" with no date");
-//                i--;
-//            }
-//        }
+        int[] min = new int[compCount];
+        int[] max = new int[compCount];
+        boolean[] fixed = new boolean[compCount];
+        List<Map<Integer,DateAccumulator>> layerDate = computeLayerDate(min, max, fixed);
+        int[] shift = new int[compCount];
+        int[] parent = new int[compCount];
+        List<List<Integer>> members = new ArrayList<List<Integer>>(compCount);
+        for (int c = 0; c < compCount; c++) {
+            parent[c] = c;
+            List<Integer> m = new ArrayList<Integer>(1);
+            m.add(Integer.valueOf(c));
+            members.add(m);
+        }
         
-        while (layerDate.size() > 1) {
-            BestMatch bestMatch = computeBestMatch(layerDate);
-            if (bestMatch == null)
-                break; // no more improvements
+        PriorityQueue<DateMatch> queue = computeMatches(layerDate);
+        int groups = compCount;
+        while (! queue.isEmpty()) {
+            DateMatch m = queue.poll();
+            int r1 = find(parent, m.comp1);
+            int r2 = find(parent, m.comp2);
+            if (r1 == r2)
+                continue;
+            // the dates of the layers may have changed with the merges
+            int layer1 = m.layer1 + shift[m.comp1];
+            int layer2 = m.layer2 + shift[m.comp2];
+            long dist = Math.abs(
+                    layerDate.get(r1).get(Integer.valueOf(layer1)).getCenter()
+                    - layerDate.get(r2).get(Integer.valueOf(layer2)).getCenter());
+            if (dist > m.dist) {
+                m.dist = dist;
+                queue.add(m);
+                continue;
+            }
             LOG.debug(
-                    "Merging best match bewteen layers("+bestMatch.layer1+", "+bestMatch.layer2+") "
-                    +"with delta "+bestMatch.delta);
-            mergeLayers(layerDate, bestMatch, layerVertex);
+                    "Merging best match between components("+r1+", "+r2+") "
+                    +"with delta "+(layer1-layer2));
+            if (members.get(r1).size() < members.get(r2).size())
+                mergeLayers(r2, r1, layer2-layer1, parent, shift, members, layerDate);
+            else
+                mergeLayers(r1, r2, layer1-layer2, parent, shift, members, layerDate);
+            groups--;
         }
 
-        LOG.debug("Ending with "+layerDate.size()+" disconnected components");
-        fixMinMax(layerDate, layerVertex);
+        LOG.debug("Ending with "+groups+" disconnected components");
+        fixMinMax(parent, shift, min, max, fixed);
+    }
+    
+    private static int find(int[] parent, int c) {
+        int root = c;
+        while (parent[root] != root)
+            root = parent[root];
+        while (parent[c] != root) {
+            int next = parent[c];
+            parent[c] = root;
+            c = next;
+        }
+        return root;
     }
 
-    private void fixMinMax(
-            List<SortedMap<Integer, DateRange>> layerDate, 
-            List<Set<Vertex>> layerVertex) {
+    private void fixMinMax(int[] parent, int[] shift, int[] min, int[] max, boolean[] fixed) {
         LOG.debug("Fixing min and max layers");
         boolean bumpToMax = true;
-        
-        assert(layerDate.size()==layerVertex.size());
+        int compCount = parent.length;
         int maxCount = layerCount;
-        int[] min = new int[layerDate.size()];
-        int[] max = new int[layerDate.size()];
-        int i = 0;
-        for (Set<Vertex> s : layerVertex) {
-            min[i] = Integer.MAX_VALUE;
-            max[i] = Integer.MIN_VALUE;
-            for (Vertex v : s) {
-                if (v.getProperty(DOTWriter.GENERATION_KEY) != null) {
-                    min[i] = 0;
-                    max[i] = maxCount-1;
-                    break;
-                }
-                int l = v.getLayer();
-                min[i] = Math.min(min[i], l);
-                max[i] = Math.max(max[i], l);
+        int[] gmin = new int[compCount];
+        int[] gmax = new int[compCount];
+        Arrays.fill(gmin, Integer.MAX_VALUE);
+        Arrays.fill(gmax, Integer.MIN_VALUE);
+        for (int c = 0; c < compCount; c++) {
+            int r = find(parent, c);
+            if (fixed[c]) {
+                gmin[r] = 0;
+                gmax[r] = Integer.MAX_VALUE;
             }
-            int count = (max[i] - min[i]) + 1;
+            else if (gmax[r] != Integer.MAX_VALUE) {
+                gmin[r] = Math.min(gmin[r], min[c]+shift[c]);
+                gmax[r] = Math.max(gmax[r], max[c]+shift[c]);
+            }
+        }
+        for (int r = 0; r < compCount; r++) {
+            if (parent[r] != r) continue;
+            if (gmax[r] == Integer.MAX_VALUE) {
+                // don't move components containing nodes with a specified generation
+                gmax[r] = layerCount-1;
+            }
+            int count = (gmax[r] - gmin[r]) + 1;
             if (count > maxCount) {
                 maxCount = count;
             }
-            if (min[i] < 0) {
-                LOG.debug("Layer "+i+" has min="+min[i]);
+            if (gmin[r] < 0) {
+                LOG.debug("Component "+r+" has min="+gmin[r]);
             }
-            i++;
         }
         LOG.debug("New layers count "+maxCount+" (was "+layerCount+")");
-        for (i = 0; i < layerDate.size(); i++) {
-            Set<Vertex> s = layerVertex.get(i);
+        for (int c = 0; c < compCount; c++) {
+            int r = parent[c];
             int offset;
             if (bumpToMax) {
-                offset = maxCount - max[i] - 1; 
+                offset = maxCount - gmax[r] - 1; 
             }
             else {
-                offset = -min[i];
+                offset = -gmin[r];
             }
-            if ((min[i]+offset) < 0) {
-                offset = -min[i];
+            if ((gmin[r]+offset) < 0) {
+                offset = -gmin[r];
             }
-            LOG.debug("Moving comp "+i+" by "+offset);
+            offset += shift[c];
             if (offset != 0) {
-                for (Vertex v : s) {
+                LOG.debug("Moving comp "+c+" by "+offset);
+                for (Vertex v : getComponent(c)) {
                     v.setLayer(v.getLayer()+offset);
                 }
             }
         }
         layerCount = maxCount;
+        network.updateMinMax(true);
     }
 
-    private List<SortedMap<Integer, DateRange>> computeLayerDate(int compCount) {
-        ArrayList<SortedMap<Integer, DateRange>> layerDate = 
-            new ArrayList<SortedMap<Integer,DateRange>>(compCount);
+    /**
+     * Computes the union of the dates of the individuals in each layer
+     * of each component, and the min and max layer of the components.
+     * Components containing vertices with a specified generation are 
+     * marked as fixed and have no dates.
+     */
+    private List<Map<Integer, DateAccumulator>> computeLayerDate(
+            int[] min, int[] max, boolean[] fixed) {
+        int compCount = min.length;
+        ArrayList<Map<Integer, DateAccumulator>> layerDate = 
+            new ArrayList<Map<Integer,DateAccumulator>>(compCount);
         for (int c = 0; c < compCount; c++) {
-            SortedMap<Integer,DateRange> l = new TreeMap<Integer,DateRange>();
-            Set<Vertex> comp = getComponent(c);
-            for (Vertex v : comp) {
-                if (v instanceof Fam) {
+            Map<Integer,DateAccumulator> l = new HashMap<Integer,DateAccumulator>();
+            min[c] = Integer.MAX_VALUE;
+            max[c] = Integer.MIN_VALUE;
+            for (Vertex v : getComponent(c)) {
+                min[c] = Math.min(min[c], v.getLayer());
+                max[c] = Math.max(max[c], v.getLayer());
+                if (fixed[c] || v instanceof Fam) {
                     continue; // only align indi generations
                 }
                 if (v.getProperty(DOTWriter.GENERATION_KEY) != null) {
                     // don't move components containing nodes with a specified generation
+                    fixed[c] = true;
                     l.clear();
-                    break;
+                    continue;
                 }
                 DateRange d = v.getDateRange();
                 if (!d.isValid())
                     continue;
-                Integer layer = new Integer(v.getLayer());
-                DateRange dr = l.get(layer);
+                Integer layer = Integer.valueOf(v.getLayer());
+                DateAccumulator dr = l.get(layer);
                 if (dr == null) {
-                    dr = new DateRange(d);
+                    dr = new DateAccumulator(d);
                     l.put(layer, dr);
                 }
                 else {
                     dr.union(d);
                 }
             }
-            if (l.isEmpty())
-                layerDate.add(null);
-            else
-                layerDate.add(l);
+            layerDate.add(l);
         }
         return layerDate;
     }
     
-    static class BestMatch {
+    /**
+     * A candidate alignment of a layer of two components.
+     */
+    static class DateMatch implements Comparable<DateMatch> {
+        int comp1;
         int layer1;
+        int comp2;
         int layer2;
-        int delta;
-    }
-    
-    private BestMatch computeBestMatch(List<SortedMap<Integer, DateRange>> layerDate) {
-        LOG.debug("Computing best match for "+layerDate.size()+" layers");
-        BestMatch bm = new BestMatch();
-        int bestLayer1 = -1;
-        int bestLayer2 = -1;
-        int bestDelta = 0;
-        long bestDist = Long.MAX_VALUE;
-        
-        int n = layerDate.size();
+        long dist;
         
-        for (int layer1 = 0; layer1 < n && bestDist != 0;layer1++) {
-            for (int layer2 = layer1+1; layer2 < n; layer2++) {
-//                LOG.debug("computing distance between ("+layer1+", "+layer2+")");
-                long dist = computeDistance(layerDate.get(layer1), layerDate.get(layer2), bm);
-//                LOG.debug(" distance="+dist);
-                if (dist < bestDist) {
-//                    LOG.debug(" best so far");
-                    bestDist = dist;
-                    bestLayer1 = layer1;
-                    bestLayer2 = layer2;
-                    bestDelta = bm.delta;
-                    if (bestDist == 0)
-                        break;
-                }
-            }
+        DateMatch(int comp1, int layer1, int comp2, int layer2, long dist) {
+            this.comp1 = comp1;
+            this.layer1 = layer1;
+            this.comp2 = comp2;
+            this.layer2 = layer2;
+            this.dist = dist;
+        }
+
+        public int compareTo(DateMatch o) {
+            return dist < o.dist ? -1 : (dist == o.dist ? 0 : 1);
         }
-        if (bestLayer1 == -1)
-            return null;
-        bm.layer1 = bestLayer1;
-        bm.layer2 = bestLayer2;
-        bm.delta = bestDelta;
-//        LOG.debug("Best distance is "+bestDist);
-        return bm;
     }
     
-    private long computeDistance(SortedMap<Integer, DateRange> l1, SortedMap<Integer, DateRange> l2, BestMatch bm) {
-        long bestDist = Long.MAX_VALUE;
-        if (l1 == null || l2 == null) {
-            bm.delta = 0;
-            return bestDist;
-        }
-        
-        Iterator<Entry<Integer,DateRange>> 
-            iter1 = l1.entrySet().iterator(),
-            iter2 = l2.entrySet().iterator();
-        Entry<Integer,DateRange> e1 = null, e2 = null;
-        boolean need1 = true, need2 = true;
-        while(true) {
-            if (need1) {
-                if (iter1.hasNext()) {
-                    e1 = iter1.next();
-                    need1 = false;
-                }
-                else {
-                    break;
-                }
-            }
-            if (need2) {
-                if (iter2.hasNext()) {
-                    e2 = iter2.next();
-                    need2 = false;
-                }
-                else {
-                    break;
-                }
+    /**
+     * Sorts the layers of all the components by the center of their dates
+     * and creates a candidate match for each consecutive pair belonging
+     * to different components. The closest layers of two groups of 
+     * components are always consecutive in this order, so the queue
+     * holds the best match until all the groups are merged.
+     */
+    private PriorityQueue<DateMatch> computeMatches(
+            List<Map<Integer, DateAccumulator>> layerDate) {
+        ArrayList<long[]> entries = new ArrayList<long[]>();
+        for (int c = 0; c < layerDate.size(); c++) {
+            for (Entry<Integer, DateAccumulator> e : layerDate.get(c).entrySet()) {
+                entries.add(new long[] { 
+                        e.getValue().getCenter(), c, e.getKey().intValue() });
             }
-            int layer1 = e1.getKey().intValue();
-            DateRange dr1 = e1.getValue();
-            int layer2 = e2.getKey().intValue();
-            DateRange dr2 = e2.getValue();
-
-            if (!dr1.isValid()) {
-                need1 = true;
+        }
+        Collections.sort(entries, new Comparator<long[]>() {
+            public int compare(long[] o1, long[] o2) {
+                return o1[0] < o2[0] ? -1 : (o1[0] == o2[0] ? 0 : 1);
             }
-            else if (!dr2.isValid()) {
-                need2 = true;
-            }
-            else {
-                long rel = dr1.getCenter() - dr2.getCenter();
-                long dist = Math.abs(rel);
-                if (dist < bestDist) {
-                    bestDist = dist;
-                    bm.delta = layer1-layer2;
-                    if (dist == 0) 
-                        break;
-                }
-                if (rel < 0) {
-                    need1 = true;
-                }
-                else {
-                    need2 = true;
-                }
+        });
+        PriorityQueue<DateMatch> queue = new PriorityQueue<DateMatch>(
+                Math.max(1, entries.size()));
+        for (int i = 1; i < entries.size(); i++) {
+            long[] e1 = entries.get(i-1);
+            long[] e2 = entries.get(i);
+            if (e1[1] != e2[1]) {
+                queue.add(new DateMatch(
+                        (int)e1[1], (int)e1[2], (int)e2[1], (int)e2[2], e2[0]-e1[0]));
             }
         }
-        return bestDist;
+        return queue;
     }
     
-    private void mergeLayers(
-            List<SortedMap<Integer, DateRange>> layerDate,
-            BestMatch bm,
-            List<Set<Vertex>> layerVertex) {
-        SortedMap<Integer, DateRange> l = layerDate.get(bm.layer1);
-        for (Entry<Integer, DateRange> e : layerDate.get(bm.layer2).entrySet()) {
-            Integer nl = new Integer(e.getKey().intValue()+bm.delta);
-            assert(nl.intValue() >= 0);
-            DateRange dr = l.get(nl);
+    /**
+     * Moves the components of the group r2 by delta layers and 
+     * merges them and their dates into the group r1.
+     */
+    private void mergeLayers(int r1, int r2, int delta,
+            int[] parent, int[] shift, List<List<Integer>> members,
+            List<Map<Integer, DateAccumulator>> layerDate) {
+        for (Integer c : members.get(r2)) {
+            shift[c.intValue()] += delta;
+        }
+        members.get(r1).addAll(members.get(r2));
+        members.set(r2, null);
+        Map<Integer, DateAccumulator> l = layerDate.get(r1);
+        for (Entry<Integer, DateAccumulator> e : layerDate.get(r2).entrySet()) {
+            Integer nl = Integer.valueOf(e.getKey().intValue()+delta);
+            DateAccumulator dr = l.get(nl);
             if (dr == null)
                 l.put(nl, e.getValue());
             else {
                 dr.union(e.getValue()); // merge
             }
         }
-        layerDate.remove(bm.layer2);
-
-        // update the vertex layers
-        Set<Vertex> comp1 = new HashSet<Vertex>(layerVertex.get(bm.layer1));
-        for (Vertex v : layerVertex.get(bm.layer2)) {
-            int layer = v.getLayer()+bm.delta;
-            v.setLayer(layer);
-            comp1.add(v);
-        }
-        layerVertex.remove(bm.layer2);
+        layerDate.set(r2, null);
+        parent[r2] = r1;
     }
     
     double distance(DateRange d1, DateRange d2) {
@@ -636,15 +664,11 @@ public class QuiltManager extends PNode {
     }
         
     private static class VertexComparator implements Comparator<Vertex> {
-        public boolean changed = false;
         public int compare(Vertex o1, Vertex o2) {
             int ret = o1.getComponent()-o2.getComponent();
             if (ret != 0)
                 return ret;
-            ret = (int)Math.signum(o1.getX()-o2.getX());
-            if (ret > 0)
-                changed = true;
-            return ret;
+            return (int)Math.signum(o1.getX()-o2.getX());
         }
     }
     /** The comparator used to order the vertices in Y */
@@ -668,45 +692,30 @@ public class QuiltManager extends PNode {
             layers[2*g+1-famOffset] = layer;
         }
         
-        // initialize the positions
-        initPositions(layers);
-        boolean changed = true;
-        int maxIter = 100;
-        while (changed & maxIter-- > 0) {
-            for (int g = 0; g < (layerCount-1); g++) {
-                updateBarycenterUp(layers[g]);
-            }
-            for (int g = layerCount-1; g > 1; g--) {
-                updateBarycenterDown(layers[g]);
-            }
-            COMPARATOR.changed = false;
-            for (int g = 0; g < layerCount; g++) {
-                Arrays.sort(layers[g], COMPARATOR);
-            }
-            changed = COMPARATOR.changed;
-            initPositions(layers);
-        }
-        
-//        for (int g = 0; g < family.length; g++) {
-//            if (family[g] == null) continue;
-//            Vertex[] layer = layers[2*g+famOffset];
-//            List<Fam> fam = family[g];
-//            for (int i = 0; i < layer.length; i++) {
-//                fam.set(i, (Fam)layer[i]);
-//            }
-//        }
-//        
-//        for (int g = 0; g < individual.length; g++) {
-//            if (individual[g]==null) continue;
-//            Vertex[] layer = layers[2*g+1-famOffset];
-//            List<Indi> indi = individual[g];
-//            for (int i = 0; i < layer.length; i++) {
-//                indi.set(i, (Indi)layer[i]);
-//            }
-//        }
+        VertexOrder order = new VertexOrder(network);
+        order.setLayers(layers);
+        order.compute();
+        LOG.debug("Ordered "+layerCount+" layers with "+order.getCrossings()+" crossings");
         updateSortedLayers();
     }
     
+    /**
+     * @return true if the disconnected components are aligned 
+     * by the dates of their generations
+     */
+    public static boolean isAlignByDate() {
+        return alignByDate;
+    }
+
+    /**
+     * Sets whether the disconnected components are aligned 
+     * by the dates of their generations.
+     * @param align true to align the components
+     */
+    public static void setAlignByDate(boolean align) {
+        alignByDate = align;
+    }
+    
     /**
      * @return the layerCount
      */
@@ -729,45 +738,6 @@ public class QuiltManager extends PNode {
         
     }
     
-    private void updateBarycenterUp(Vertex[] layer) {
-        for (int i = 0; i < layer.length; i++) {
-            Vertex v = layer[i];
-            double barycenter = barycenter(network.getPredecessors(v));
-            if (barycenter != Double.NaN)
-                v.setX(barycenter);
-        }
-    }
-    
-    private void updateBarycenterDown(Vertex[] layer) {
-        for (int i = 0; i < layer.length; i++) {
-            Vertex v = layer[i];
-            double barycenter = barycenter(network.getSuccessors(v));
-            if (barycenter != Double.NaN)
-                v.setX(barycenter);
-        }
-    }
-    
-    private static double barycenter(Collection<Vertex> vertices) {
-        double d = 0;
-        int n = 0;
-        for (Vertex v : vertices) {
-            d += v.getX();
-            n++;
-        }
-        if (n == 0) 
-            return Double.NaN;
-        return d/n;
-    }
-
-    private void initPositions(Vertex[][] layers) {
-        for (int g = 0; g < layerCount; g++) {
-            Vertex[] layer = layers[g];
-            for (int i = 0; i < layer.length; i++) {
-                layer[i].setX(i);
-            }
-        }
-    }
-    
     private PNode createIndiLines(int g) {
     	last_line.setLine(0, 0, 0, 0);
     	double line_spacing_offset = (1 - GraphicsConstants.INDI_LINE_SPACING) * 0.5;
@@ -31,6 +31,7 @@ import edu.umd.cs.piccolo.event.PBasicInputEventHandler;
 import edu.umd.cs.piccolo.event.PInputEvent;
 import edu.umd.cs.piccolo.util.PBounds;
 import edu.umd.cs.piccolo.util.PPaintContext;
+import geneaquilt.data.DateAccumulator;
 import geneaquilt.data.DateRange;
 import geneaquilt.data.Indi;
 import geneaquilt.data.Vertex;
@@ -118,11 +119,11 @@ public class TimeLine extends PNode implements ChangeListener {
     }
 
     DateRange computeFullRange() {
-        DateRange full = new DateRange();
+        DateAccumulator full = new DateAccumulator();
         for (Vertex v : manager.getNetwork().getVertices()) {
             full.union(v.getDateRange());
         }
-        return full;
+        return full.toDateRange();
     }
 
     /**
@@ -140,8 +141,7 @@ public class TimeLine extends PNode implements ChangeListener {
         PBounds fullBounds = viewedCanvas.getLayer().getFullBoundsReference();
         viewBounds.y = fullBounds.y;
         viewBounds.height = fullBounds.height;
-        DateRange visible = new DateRange();
-        visible.setInvalid();
+        DateAccumulator visible = new DateAccumulator();
         ArrayList<PNode> picked = new ArrayList<PNode>();
         viewedCanvas.getLayer().findIntersectingNodes(viewBounds, picked);
         for (PNode n : picked) {
@@ -159,7 +159,7 @@ public class TimeLine extends PNode implements ChangeListener {
             // }
         }
 
-        return visible;
+        return visible.toDateRange();
     }
     
     /**
@@ -10,6 +10,7 @@ package geneaquilt.selection;
 import edu.uci.ics.jung.algorithms.util.MapBinaryHeap;
 import edu.umd.cs.piccolo.PNode;
 import geneaquilt.data.Edge;
+import geneaquilt.data.Indi;
 import geneaquilt.data.Network;
 import geneaquilt.data.Vertex;
 import geneaquilt.nodes.PEdge;
@@ -24,6 +25,11 @@ import java.util.Map;
  * <b>DOIManager</b> manages the degree of interest
  * of nodes.
  * 
+ * <p>When weighted by lineage, the individuals with many distinct
+ * ancestors and descendants, as estimated by
+ * {@link geneaquilt.algorithms.LineageCounter}, are closer to the
+ * selections: crossing them costs down to half a step.</p>
+ * 
  * @author Jean-Daniel Fekete
  */
 public class DOIManager {
@@ -33,6 +39,8 @@ public class DOIManager {
     private MapBinaryHeap<PNode> heap; 
     private double highlightDistance = 0;
     private double maxDistance = 10;
+    private double maxLineage;
+    private static boolean lineageWeighted = false;
     
     /**
      * Creates a DOIManager for a specified quiltManager and selectionManager.
@@ -66,6 +74,20 @@ public class DOIManager {
         return quiltManager.getNetwork();
     }
     
+    /**
+     * @return true if the DOI is weighted by the size of the lineages
+     */
+    public static boolean isLineageWeighted() {
+        return lineageWeighted;
+    }
+    
+    /**
+     * @param weighted true to weight the DOI by the size of the lineages
+     */
+    public static void setLineageWeighted(boolean weighted) {
+        lineageWeighted = weighted;
+    }
+    
     private final Comparator<PNode> nodeComparator =
         new Comparator<PNode>() {
         public int compare(PNode o1, PNode o2) {
@@ -81,6 +103,12 @@ public class DOIManager {
     public void computeDOI() {
         distance.clear();
         heap = new MapBinaryHeap<PNode>(nodeComparator);
+        maxLineage = 0;
+        if (lineageWeighted) {
+            for (Vertex v : getNetwork().getVertices()) {
+                maxLineage = Math.max(maxLineage, lineage(v));
+            }
+        }
 //        Set<Set<Vertex>> components = new HashSet<Set<Vertex>>();
         
         for (Selection sel : selectionManager.getSelections()) {
@@ -156,6 +184,18 @@ public class DOIManager {
     
     protected double nextDistFrom(PNode n) {
         Double d = distance.get(n);
+        if (maxLineage > 0 && n instanceof PVertex) {
+            double l = lineage(((PVertex)n).getVertex());
+            return d.doubleValue() + 1 - 0.5 * Math.log1p(l) / Math.log1p(maxLineage);
+        }
         return d.doubleValue()+1; // can be log
     }
+    
+    private static double lineage(Vertex v) {
+        if (!(v instanceof Indi))
+            return 0;
+        Indi indi = (Indi) v;
+        return Math.max(0, indi.getAncestorCount()) 
+            + Math.max(0, indi.getDescendantCount());
+    }
 }
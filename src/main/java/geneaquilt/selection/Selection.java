@@ -18,8 +18,8 @@ import geneaquilt.selection.highlight.HighlightManager;
 import geneaquilt.utils.GUIUtils;
 
 import java.awt.Color;
-import java.util.ArrayList;
 import java.util.Collection;
+import java.util.List;
 import java.util.Set;
 
 /**
@@ -37,9 +37,7 @@ public class Selection {
     private final Color selectionColor_strong;
     private final Color selectionColor_opaque;
     private PNode selectedObject;
-    
-    private final ArrayList<PNode> highlighted_successors_tmp = new ArrayList<PNode>(); // for optimization
-    private final ArrayList<PNode> highlighted_predecessors_tmp = new ArrayList<PNode>(); // for optimization
+    private List<Vertex> relationPath;
     
     /** The Highlight mode. */
     public enum HighlightMode {
@@ -135,11 +133,50 @@ public class Selection {
     		highlightPredecessors();
     	if (mode == HighlightMode.HIGHLIGHT_ALL || mode == HighlightMode.HIGHLIGHT_SUCCESSORS)
     		highlightSuccessors();
+    	if (relationPath != null)
+    		highlightPath(relationPath);
    		highlightSelection();
    		highlightManager.selectionModeChanged(this);
    		highlightManager.repaint();
     }
     
+    /**
+     * Sets the path of a relationship to highlight with this selection,
+     * such as the one computed by a
+     * {@link geneaquilt.algorithms.RelationshipCalculator}.
+     * @param path the vertices of the path or null to remove it
+     */
+    public void setRelationPath(List<Vertex> path) {
+    	this.relationPath = path;
+    	updateHighlights();
+    }
+    
+    /**
+     * @return the path of the relationship highlighted or null
+     */
+    public List<Vertex> getRelationPath() {
+    	return relationPath;
+    }
+    
+    /**
+     * Highlights the vertices of a path and the edges linking them.
+     * @param path the path
+     */
+    protected void highlightPath(List<Vertex> path) {
+    	Vertex prev = null;
+    	for (Vertex v : path) {
+    		highlight(v.getNode());
+    		if (prev != null) {
+    			Edge e = network.findEdge(prev, v);
+    			if (e == null)
+    				e = network.findEdge(v, prev);
+    			if (e != null)
+    				highlight(e.getNode());
+    		}
+    		prev = v;
+    	}
+    }
+    
     /**
      * Highlights the selection.
      */
@@ -153,7 +190,6 @@ public class Selection {
      * Highlights the ascendants/predecessors.
      */
     protected void highlightPredecessors() {
-    	highlighted_predecessors_tmp.clear();
         if (selectedObject instanceof PEdge) {
             PEdge pedge = (PEdge) selectedObject;
            	highlightPredecessors(pedge.getEdge().getFromVertex());
@@ -166,14 +202,12 @@ public class Selection {
             PFam pfam = (PFam) selectedObject;
             highlightPredecessors(pfam.getFam());
         }
-    	highlighted_predecessors_tmp.clear();
     }
 
     /**
      * Hightlight the descendants/successors
      */
     protected void highlightSuccessors() {
-    	highlighted_successors_tmp.clear();
         if (selectedObject instanceof PEdge) {
             PEdge pedge = (PEdge) selectedObject;
            	highlightSuccessors(pedge.getEdge().getFromVertex());
@@ -186,11 +220,16 @@ public class Selection {
             PFam pfam = (PFam) selectedObject;
             highlightSuccessors(pfam.getFam());
         }
-    	highlighted_successors_tmp.clear();
     }
 
     protected void highlightPredecessors(Vertex v) {
-    	    	
+        highlightInEdges(v);
+        for (Vertex d : network.getReachability().getDescendants(v)) {
+            highlightInEdges(d);
+        }
+    }
+    
+    private void highlightInEdges(Vertex v) {
         highlight(v.getNode());
         
         Collection<Edge> inEdges = network.getInEdges(v);
@@ -211,15 +250,17 @@ public class Selection {
         		highlight(e.getNode());
         	else
         		highlight(e.getNode(), showFrom, showTo);
-        	if (!highlighted_predecessors_tmp.contains(network.getSource(e).getNode())) {
-        		highlighted_predecessors_tmp.add(network.getSource(e).getNode());
-                highlightPredecessors(network.getSource(e));
-        	}
         }
     }
     
     protected void highlightSuccessors(Vertex v) {
-    	
+        highlightOutEdges(v);
+        for (Vertex a : network.getReachability().getAncestors(v)) {
+            highlightOutEdges(a);
+        }
+    }
+    
+    private void highlightOutEdges(Vertex v) {
         highlight(v.getNode());
         
         Collection<Edge> outEdges = network.getOutEdges(v);
@@ -240,10 +281,6 @@ public class Selection {
         		highlight(e.getNode());
         	else
         		highlight(e.getNode(), showFrom, showTo);
-        	if (!highlighted_successors_tmp.contains(network.getDest(e).getNode())) {
-        		highlighted_successors_tmp.add(network.getDest(e).getNode());
-        		highlightSuccessors(network.getDest(e));
-        	}
         }
     }
     
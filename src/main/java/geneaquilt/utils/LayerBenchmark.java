@@ -0,0 +1,111 @@
+/**
+ * Copyright (c) 2010-2014, Jean-Daniel Fekete, Pierre Dragicevic, and INRIA.
+ * All rights reserved.
+ *
+ * Use of this source code is governed by a BSD-style license that can be
+ * found in the LICENSE file.
+ */
+package geneaquilt.utils;
+
+import geneaquilt.algorithms.GenerationRank;
+import geneaquilt.algorithms.LayerClusterer;
+import geneaquilt.algorithms.LayerRank;
+import geneaquilt.algorithms.LayerRank2;
+import geneaquilt.data.Edge;
+import geneaquilt.data.Network;
+import geneaquilt.data.Vertex;
+import geneaquilt.io.GEDReader;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * <b>LayerBenchmark</b> measures the time taken by the layer ranking
+ * algorithms on a GEDCOM file, royal92.ged by default, and checks that
+ * the layers computed by the {@link LayerClusterer} place each vertex
+ * below its successors.
+ * 
+ * @author Jean-Daniel Fekete
+ * @version $Revision$
+ */
+public class LayerBenchmark {
+    /** Number of measured runs of each algorithm */
+    public static final int RUNS = 10;
+
+    /**
+     * Runs the benchmark.
+     * @param args the GEDCOM file name, optional
+     */
+    public static void main(String[] args) {
+        String file = (args.length > 0) ? args[0] : "data/royal92.ged";
+        Network network = new GEDReader().load(file);
+        if (network == null) {
+            System.err.println("Cannot load "+file);
+            return;
+        }
+        System.out.println(file+": "+network.getVertexCount()+" vertices, "
+                +network.getEdgeCount()+" edges");
+        
+        // warm up
+        new LayerRank2(network).computeLayers();
+        new LayerRank(network).compute();
+        
+        Benchmark.beginTask("LayerRank2 x"+RUNS);
+        for (int i = 0; i < RUNS; i++) {
+            new LayerRank2(network).computeLayers();
+        }
+        Benchmark.endTask();
+        
+        Benchmark.beginTask("LayerRank x"+RUNS);
+        for (int i = 0; i < RUNS; i++) {
+            new LayerRank(network).compute();
+        }
+        Benchmark.endTask();
+        
+        Benchmark.beginTask("LayerClusterer x"+RUNS);
+        List<Set<Vertex>> layers = null;
+        for (int i = 0; i < RUNS; i++) {
+            layers = new LayerClusterer<Vertex, Edge>().transform(network);
+        }
+        Benchmark.endTask();
+        int bad = checkLayers(network, layers);
+        System.out.println("LayerClusterer: "+layers.size()+" layers, "
+                +bad+" edges not going up");
+        
+        Benchmark.beginTask("GenerationRank x"+RUNS);
+        for (int i = 0; i < RUNS; i++) {
+            new GenerationRank(network).compute();
+        }
+        Benchmark.endTask();
+    
+    }
+
+    /**
+     * Counts the edges whose source is not on a layer below its
+     * destination, they should only come from cycles.
+     * @param network the network
+     * @param layers the layers
+     * @return the number of edges going down or within a layer
+     */
+    public static int checkLayers(Network network, List<Set<Vertex>> layers) {
+        Map<Vertex,Integer> layer = new HashMap<Vertex, Integer>();
+        for (int i = 0; i < layers.size(); i++) {
+            for (Vertex v : layers.get(i)) {
+                layer.put(v, Integer.valueOf(i));
+            }
+        }
+        if (layer.size() != network.getVertexCount())
+            System.err.println("Layered "+layer.size()+" vertices out of "
+                    +network.getVertexCount());
+        int bad = 0;
+        for (Edge e : network.getEdges()) {
+            Integer from = layer.get(network.getSource(e));
+            Integer to = layer.get(network.getDest(e));
+            if (from == null || to == null || from.intValue() <= to.intValue())
+                bad++;
+        }
+        return bad;
+    }
+}
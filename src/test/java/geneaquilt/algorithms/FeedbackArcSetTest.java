@@ -0,0 +1,180 @@
+/**
+ * Copyright (c) 2010-2014, Jean-Daniel Fekete, Pierre Dragicevic, and INRIA.
+ * All rights reserved.
+ *
+ * Use of this source code is governed by a BSD-style license that can be
+ * found in the LICENSE file.
+ */
+package geneaquilt.algorithms;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * <b>FeedbackArcSetTest</b> checks that reversing the edges found by
+ * {@link FeedbackArcSet} makes random digraphs acyclic, that self loops
+ * are reported, and that long paths and cycles do not overflow the
+ * call stack.
+ *
+ * @author Jean-Daniel Fekete
+ * @version $Revision$
+ */
+public class FeedbackArcSetTest {
+    private static final int LONG = 200000;
+
+    /**
+     * Checks the reversed edges and the components of random digraphs.
+     */
+    @Test
+    public void testRandom() {
+        Random random = new Random(1);
+        for (int g = 0; g < 300; g++) {
+            int n = 1 + random.nextInt(60);
+            int m = random.nextInt(3*n + 1);
+            int[] tail = new int[m];
+            int[] head = new int[m];
+            for (int e = 0; e < m; e++) {
+                tail[e] = random.nextInt(n);
+                head[e] = random.nextInt(n);
+            }
+            FeedbackArcSet fas = new FeedbackArcSet(n, tail, head);
+            boolean[] reversed = fas.compute();
+            check("graph "+g, fas, n, tail, head, reversed);
+            // the components alone are the same
+            FeedbackArcSet scc = new FeedbackArcSet(n, tail, head);
+            assertEquals("graph "+g, fas.getComponentCount(), scc.findComponents());
+            assertNull("graph "+g, scc.getReversed());
+            for (int v = 0; v < n; v++)
+                assertEquals("graph "+g, fas.getComponent(v), scc.getComponent(v));
+        }
+    }
+
+    /**
+     * Checks that self loops are always reported.
+     */
+    @Test
+    public void testSelfLoops() {
+        int[] tail = { 0, 1, 1, 2 };
+        int[] head = { 0, 1, 2, 1 };
+        FeedbackArcSet fas = new FeedbackArcSet(3, tail, head);
+        boolean[] reversed = fas.compute();
+        assertTrue(reversed[0]);
+        assertTrue(reversed[1]);
+        assertTrue(reversed[2] != reversed[3]);
+        assertEquals(3, fas.getReversedCount());
+        assertEquals(fas.getComponent(1), fas.getComponent(2));
+        assertFalse(fas.getComponent(0) == fas.getComponent(1));
+        check("loops", fas, 3, tail, head, reversed);
+    }
+
+    /**
+     * Checks that a long cycle is broken once, without recursion.
+     */
+    @Test(timeout = 20000)
+    public void testLongCycle() {
+        int[] tail = new int[LONG];
+        int[] head = new int[LONG];
+        for (int v = 0; v < LONG; v++) {
+            tail[v] = v;
+            head[v] = (v+1) % LONG;
+        }
+        FeedbackArcSet fas = new FeedbackArcSet(LONG, tail, head);
+        boolean[] reversed = fas.compute();
+        assertEquals(1, fas.getComponentCount());
+        assertEquals(1, fas.getReversedCount());
+        check("cycle", fas, LONG, tail, head, reversed);
+    }
+
+    /**
+     * Checks that a long path has one component per vertex, numbered
+     * in reverse topological order.
+     */
+    @Test(timeout = 20000)
+    public void testLongPath() {
+        int[] tail = new int[LONG-1];
+        int[] head = new int[LONG-1];
+        for (int v = 0; v < LONG-1; v++) {
+            tail[v] = v;
+            head[v] = v+1;
+        }
+        FeedbackArcSet fas = new FeedbackArcSet(LONG, tail, head);
+        fas.compute();
+        assertEquals(LONG, fas.getComponentCount());
+        assertEquals(0, fas.getReversedCount());
+        for (int v = 0; v < LONG-1; v++)
+            assertTrue(fas.getComponent(v) > fas.getComponent(v+1));
+    }
+
+    /**
+     * Checks that the graph is acyclic once the reversed edges are
+     * turned around and the self loops removed, that only the edges
+     * inside a component are reversed, at most half of them, and that
+     * the components are numbered in reverse topological order.
+     */
+    private static void check(String name, FeedbackArcSet fas, int n,
+            int[] tail, int[] head, boolean[] reversed) {
+        int m = tail.length;
+        int count = 0;
+        int internal = 0;
+        int internalReversed = 0;
+        int[] degree = new int[n];
+        int[] outStart = new int[n+1];
+        for (int e = 0; e < m; e++) {
+            if (reversed[e])
+                count++;
+            if (tail[e] == head[e]) {
+                assertTrue(name+": self loop "+e, reversed[e]);
+                continue;
+            }
+            int ct = fas.getComponent(tail[e]);
+            int ch = fas.getComponent(head[e]);
+            if (ct == ch) {
+                internal++;
+                if (reversed[e])
+                    internalReversed++;
+            }
+            else {
+                assertFalse(name+": edge "+e+" between components", reversed[e]);
+                assertTrue(name+": component order of "+e, ct > ch);
+            }
+            int from = reversed[e] ? head[e] : tail[e];
+            outStart[from+1]++;
+        }
+        assertEquals(name, count, fas.getReversedCount());
+        assertTrue(name+": "+internalReversed+" of "+internal+" reversed",
+                2*internalReversed <= internal);
+
+        for (int v = 0; v < n; v++)
+            outStart[v+1] += outStart[v];
+        int[] out = new int[outStart[n]];
+        int[] fill = new int[n];
+        for (int e = 0; e < m; e++) {
+            if (tail[e] == head[e])
+                continue;
+            int from = reversed[e] ? head[e] : tail[e];
+            int to = reversed[e] ? tail[e] : head[e];
+            out[outStart[from] + fill[from]++] = to;
+            degree[to]++;
+        }
+        int[] queue = new int[n];
+        int qtail = 0;
+        for (int v = 0; v < n; v++) {
+            if (degree[v] == 0)
+                queue[qtail++] = v;
+        }
+        for (int qhead = 0; qhead < qtail; qhead++) {
+            int v = queue[qhead];
+            for (int k = outStart[v]; k < outStart[v+1]; k++) {
+                if (--degree[out[k]] == 0)
+                    queue[qtail++] = out[k];
+            }
+        }
+        assertEquals(name+": acyclic", n, qtail);
+    }
+}
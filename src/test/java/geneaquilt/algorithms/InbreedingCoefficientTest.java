@@ -0,0 +1,210 @@
+/**
+ * Copyright (c) 2010-2014, Jean-Daniel Fekete, Pierre Dragicevic, and INRIA.
+ * All rights reserved.
+ *
+ * Use of this source code is governed by a BSD-style license that can be
+ * found in the LICENSE file.
+ */
+package geneaquilt.algorithms;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import geneaquilt.data.Indi;
+import geneaquilt.data.Network;
+import geneaquilt.data.Vertex;
+import geneaquilt.io.PEDReader;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * <b>InbreedingCoefficientTest</b> checks the inbreeding coefficients
+ * computed by {@link InbreedingCoefficient} on a pedigree with known
+ * values, and compares them with the tabular method on random pedigrees
+ * and on the pedigree samples.
+ *
+ * @author Jean-Daniel Fekete
+ * @version $Revision$
+ */
+public class InbreedingCoefficientTest {
+    private static final File DATA = new File("src/data");
+    private static final double EPSILON = 1e-12;
+
+    /**
+     * Checks the matings of full siblings, half siblings, a parent and
+     * its child, and an individual with a missing parent.
+     */
+    @Test
+    public void testKnown() {
+        // 1, 2 and 7 are founders, 3 and 4 are full siblings, 
+        // 3 and 8 are half siblings through 1
+        int[] sire = { 0, 0, 0, 1, 1, 3, 3, 0, 1, 3, 5, 1, 5 };
+        int[] dam  = { 0, 0, 0, 2, 2, 4, 4, 0, 7, 8, 0, 3, 6 };
+        double[] expected = {
+                -1, 0, 0, 0, 0, 
+                0.25,   // 5: full siblings
+                0.25,   // 6: full sibling of 5
+                0, 0,
+                0.125,  // 9: half siblings
+                0,      // 10: missing parent
+                0.25,   // 11: parent and child
+                0.375   // 12: full siblings, themselves inbred
+        };
+        int n = sire.length - 1;
+        double[] f = new double[n+1];
+        int[] generation = new int[n+1];
+        InbreedingCoefficient.meuwissenLuo(n, sire, dam, 
+                generation, f, new double[n+1]);
+        for (int i = 0; i <= n; i++)
+            assertEquals("F of "+i, expected[i], f[i], EPSILON);
+        assertEquals(2, generation[5]);
+        assertEquals(3, generation[12]);
+        assertEquals(3, generation[10]);
+        assertArrayEquals(tabular(sire, dam), f);
+    }
+
+    /**
+     * Compares with the tabular method on random pedigrees.
+     */
+    @Test
+    public void testRandom() {
+        Random random = new Random(1);
+        int inbred = 0;
+        for (int g = 0; g < 200; g++) {
+            int n = 1 + random.nextInt(80);
+            int[] sire = new int[n+1];
+            int[] dam = new int[n+1];
+            for (int i = 2; i <= n; i++) {
+                if (random.nextInt(5) == 0)
+                    continue; // founder
+                if (random.nextInt(3) == 0 && sire[i-1] != 0) {
+                    // full sibling of the previous individual
+                    sire[i] = sire[i-1];
+                    dam[i] = dam[i-1];
+                    continue;
+                }
+                // parents among the last ones, so that matings are close
+                int lo = Math.max(1, i-12);
+                sire[i] = lo + random.nextInt(i-lo);
+                if (random.nextInt(10) != 0) {
+                    dam[i] = lo + random.nextInt(i-lo);
+                    if (dam[i] == sire[i])
+                        dam[i] = 0;
+                }
+            }
+            double[] f = new double[n+1];
+            InbreedingCoefficient.meuwissenLuo(n, sire, dam, 
+                    new int[n+1], f, new double[n+1]);
+            assertArrayEquals(tabular(sire, dam), f);
+            for (int i = 1; i <= n; i++) {
+                if (f[i] > 0)
+                    inbred++;
+            }
+        }
+        assertTrue("No inbred individual", inbred > 100);
+    }
+
+    /**
+     * Compares the coefficients stored in the individuals of the pedigree
+     * samples with the tabular method.
+     */
+    @Test
+    public void testPED() {
+        File[] files = DATA.listFiles(new FilenameFilter() {
+            public boolean accept(File dir, String name) {
+                return name.endsWith(".ped");
+            }
+        });
+        assertNotNull("Missing "+DATA, files);
+        Arrays.sort(files);
+        int checked = 0;
+        for (File file : files) {
+            Network network = new PEDReader().load(file.getPath());
+            assertNotNull(file.getName(), network);
+            InbreedingCoefficient inbreeding = new InbreedingCoefficient(network);
+            inbreeding.compute();
+            List<Indi> indis = new ArrayList<Indi>();
+            Map<Indi,Integer> num = new HashMap<Indi, Integer>();
+            for (Vertex v : network.getVertices()) {
+                if (v instanceof Indi)
+                    number(network, (Indi) v, indis, num);
+            }
+            assertEquals(file.getName(), indis.size(), inbreeding.getCount());
+            int n = indis.size();
+            int[] sire = new int[n+1];
+            int[] dam = new int[n+1];
+            for (int i = 1; i <= n; i++) {
+                List<Indi> parents = network.getParents(indis.get(i-1));
+                if (parents.size() == 2) {
+                    sire[i] = num.get(parents.get(0)).intValue();
+                    dam[i] = num.get(parents.get(1)).intValue();
+                }
+            }
+            double[] f = tabular(sire, dam);
+            for (int i = 1; i <= n; i++) {
+                Indi indi = indis.get(i-1);
+                assertEquals(file.getName()+": F of "+indi, 
+                        f[i], indi.getInbreeding(), EPSILON);
+            }
+            checked++;
+        }
+        assertTrue("No .ped file in "+DATA, checked > 0);
+    }
+
+    /**
+     * Numbers an individual from 1 after its ancestors.
+     */
+    private static int number(Network network, Indi indi, 
+            List<Indi> indis, Map<Indi,Integer> num) {
+        Integer i = num.get(indi);
+        if (i != null)
+            return i.intValue();
+        for (Indi p : network.getParents(indi))
+            number(network, p, indis, num);
+        indis.add(indi);
+        num.put(indi, Integer.valueOf(indis.size()));
+        return indis.size();
+    }
+
+    /**
+     * Computes the inbreeding coefficients from the additive relationship
+     * matrix A, built row by row with a[i][i] = 1 + a[s][t] / 2 and
+     * a[i][j] = (a[j][s] + a[j][t]) / 2, F being a[i][i] - 1.
+     */
+    private static double[] tabular(int[] sire, int[] dam) {
+        int n = sire.length - 1;
+        double[][] a = new double[n+1][n+1];
+        double[] f = new double[n+1];
+        f[0] = -1;
+        for (int i = 1; i <= n; i++) {
+            int s = sire[i];
+            int t = dam[i];
+            for (int j = 1; j < i; j++) {
+                double r = 0;
+                if (s != 0)
+                    r += a[j][s];
+                if (t != 0)
+                    r += a[j][t];
+                a[i][j] = a[j][i] = r / 2;
+            }
+            a[i][i] = 1 + ((s != 0 && t != 0) ? a[s][t] / 2 : 0);
+            f[i] = a[i][i] - 1;
+        }
+        return f;
+    }
+
+    private static void assertArrayEquals(double[] expected, double[] actual) {
+        assertEquals(expected.length, actual.length);
+        for (int i = 0; i < expected.length; i++)
+            assertEquals("F of "+i, expected[i], actual[i], EPSILON);
+    }
+}
@@ -0,0 +1,190 @@
+/**
+ * Copyright (c) 2010-2014, Jean-Daniel Fekete, Pierre Dragicevic, and INRIA.
+ * All rights reserved.
+ *
+ * Use of this source code is governed by a BSD-style license that can be
+ * found in the LICENSE file.
+ */
+package geneaquilt.algorithms;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import geneaquilt.data.Indi;
+import geneaquilt.data.Network;
+import geneaquilt.data.Vertex;
+import geneaquilt.io.PEDReader;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * <b>KinshipMatrixTest</b> compares the coefficients written by
+ * {@link KinshipMatrix} with the additive relationship matrix computed
+ * by the tabular method on the pedigree samples.
+ *
+ * @author Jean-Daniel Fekete
+ * @version $Revision$
+ */
+public class KinshipMatrixTest {
+    private static final File DATA = new File("src/data");
+    private static final double EPSILON = 1e-12;
+
+    /**
+     * Checks all the individuals of the samples, on one thread and
+     * on several.
+     */
+    @Test
+    public void testPED() throws IOException {
+        for (File file : list()) {
+            Network network = new PEDReader().load(file.getPath());
+            assertNotNull(file.getName(), network);
+            List<Indi> indis = indis(network);
+            check(file.getName(), network, indis, 1);
+            check(file.getName(), network, indis, 4);
+        }
+    }
+
+    /**
+     * Checks random subsets of the samples, whose ancestors are only
+     * partly included.
+     */
+    @Test
+    public void testSubsets() throws IOException {
+        Random random = new Random(1);
+        for (File file : list()) {
+            Network network = new PEDReader().load(file.getPath());
+            List<Indi> indis = indis(network);
+            for (int i = 0; i < 5; i++) {
+                List<Indi> subset = new ArrayList<Indi>(indis);
+                Collections.shuffle(subset, random);
+                subset = subset.subList(0, 1 + random.nextInt(subset.size()));
+                check(file.getName(), network, subset, 1 + random.nextInt(4));
+            }
+        }
+    }
+
+    private static File[] list() {
+        File[] files = DATA.listFiles(new FilenameFilter() {
+            public boolean accept(File dir, String name) {
+                return name.endsWith(".ped");
+            }
+        });
+        assertNotNull("Missing "+DATA, files);
+        assertTrue("No .ped file in "+DATA, files.length > 0);
+        Arrays.sort(files);
+        return files;
+    }
+
+    /**
+     * Returns the individuals of a network, their parents before them.
+     */
+    private static List<Indi> indis(Network network) {
+        List<Indi> indis = new ArrayList<Indi>();
+        Map<Indi,Integer> num = new HashMap<Indi, Integer>();
+        for (Vertex v : network.getVertices()) {
+            if (v instanceof Indi)
+                number(network, (Indi) v, indis, num);
+        }
+        return indis;
+    }
+
+    private static void number(Network network, Indi indi, 
+            List<Indi> indis, Map<Indi,Integer> num) {
+        if (num.containsKey(indi))
+            return;
+        for (Indi p : network.getParents(indi))
+            number(network, p, indis, num);
+        indis.add(indi);
+        num.put(indi, Integer.valueOf(indis.size()-1));
+    }
+
+    /**
+     * Compares the CSV lines written for a subset with the relationship
+     * matrix of all the individuals.
+     */
+    private static void check(String name, Network network, 
+            List<Indi> subset, int threads) throws IOException {
+        Map<Indi,Integer> index = new HashMap<Indi, Integer>();
+        List<Indi> indis = indis(network);
+        for (int i = 0; i < indis.size(); i++)
+            index.put(indis.get(i), Integer.valueOf(i));
+        double[][] a = tabular(network, indis, index);
+
+        KinshipMatrix kinship = new KinshipMatrix(network, subset, threads);
+        StringWriter text = new StringWriter();
+        PrintWriter out = new PrintWriter(text);
+        kinship.write(out);
+        out.close();
+        String[] lines = text.toString().split("\n");
+        assertEquals(name, "ID1,ID2,RELATIONSHIP,KINSHIP", lines[0]);
+        assertEquals(name, lines.length-1, kinship.getEntryCount());
+        assertEquals(name, subset.size(), kinship.getMemberCount());
+
+        Map<String,Double> written = new HashMap<String, Double>();
+        for (int l = 1; l < lines.length; l++) {
+            String[] field = lines[l].split(",");
+            assertEquals(name+": "+lines[l], 4, field.length);
+            double r = Double.parseDouble(field[2]);
+            assertEquals(name+": "+lines[l], r/2, Double.parseDouble(field[3]), EPSILON);
+            assertTrue(name+": "+lines[l]+" written twice",
+                    written.put(field[0]+","+field[1], Double.valueOf(r)) == null);
+        }
+        int expected = 0;
+        for (int x = 0; x < subset.size(); x++) {
+            Indi ix = kinship.getMember(x);
+            int i = index.get(ix).intValue();
+            assertEquals(name+": F of "+ix, a[i][i] - 1, kinship.getInbreeding(x), EPSILON);
+            for (int y = x; y < subset.size(); y++) {
+                Indi iy = kinship.getMember(y);
+                double r = a[i][index.get(iy).intValue()];
+                Double w = written.get(ix.getId()+","+iy.getId());
+                if (r == 0) {
+                    assertTrue(name+": "+ix+","+iy+" not null", w == null);
+                    continue;
+                }
+                expected++;
+                assertNotNull(name+": "+ix+","+iy+" missing", w);
+                assertEquals(name+": "+ix+","+iy, r, w.doubleValue(), EPSILON);
+            }
+        }
+        assertEquals(name, expected, written.size());
+    }
+
+    /**
+     * Computes the additive relationship matrix row by row, with
+     * a[i][i] = 1 + a[s][t] / 2 and a[i][j] = (a[j][s] + a[j][t]) / 2.
+     */
+    private static double[][] tabular(Network network, List<Indi> indis,
+            Map<Indi,Integer> index) {
+        int n = indis.size();
+        double[][] a = new double[n][n];
+        for (int i = 0; i < n; i++) {
+            List<Indi> parents = network.getParents(indis.get(i));
+            int s = parents.size() > 0 ? index.get(parents.get(0)).intValue() : -1;
+            int t = parents.size() > 1 ? index.get(parents.get(1)).intValue() : -1;
+            for (int j = 0; j < i; j++) {
+                double r = 0;
+                if (s != -1)
+                    r += a[j][s];
+                if (t != -1)
+                    r += a[j][t];
+                a[i][j] = a[j][i] = r / 2;
+            }
+            a[i][i] = 1 + ((s != -1 && t != -1) ? a[s][t] / 2 : 0);
+        }
+        return a;
+    }
+}
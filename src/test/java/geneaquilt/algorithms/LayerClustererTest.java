@@ -0,0 +1,133 @@
+/**
+ * Copyright (c) 2010-2014, Jean-Daniel Fekete, Pierre Dragicevic, and INRIA.
+ * All rights reserved.
+ *
+ * Use of this source code is governed by a BSD-style license that can be
+ * found in the LICENSE file.
+ */
+package geneaquilt.algorithms;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import geneaquilt.data.Adjacency;
+import geneaquilt.data.Edge;
+import geneaquilt.data.Network;
+import geneaquilt.data.Vertex;
+import geneaquilt.io.GEDParallelReader;
+import geneaquilt.io.PEDReader;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.Test;
+
+import edu.uci.ics.jung.graph.DirectedGraph;
+import edu.uci.ics.jung.graph.DirectedSparseGraph;
+
+/**
+ * <b>LayerClustererTest</b> checks that the {@link LayerClusterer} ranks
+ * every vertex of the sample files and places each vertex above its
+ * successors, except along the edges of a cycle.
+ *
+ * @author Jean-Daniel Fekete
+ * @version $Revision$
+ */
+public class LayerClustererTest {
+    private static final File DATA = new File("src/data");
+
+    /**
+     * Checks the layers of the GEDCOM samples.
+     */
+    @Test
+    public void testGED() {
+        for (File file : list(".ged")) {
+            Network network = new GEDParallelReader().load(file.getPath());
+            assertNotNull(file.getName(), network);
+            checkLayers(file.getName(), network);
+        }
+    }
+
+    /**
+     * Checks the layers of the pedigree samples.
+     */
+    @Test
+    public void testPED() {
+        for (File file : list(".ped")) {
+            Network network = new PEDReader().load(file.getPath());
+            assertNotNull(file.getName(), network);
+            checkLayers(file.getName(), network);
+        }
+    }
+
+    /**
+     * Checks that a vertex leading to a cycle is not ranked with the
+     * cycle when it comes first in the component.
+     */
+    @Test
+    public void testCycle() {
+        DirectedGraph<String, String> graph =
+            new DirectedSparseGraph<String, String>();
+        graph.addEdge("AB", "A", "B");
+        graph.addEdge("BA", "B", "A");
+        graph.addEdge("CA", "C", "A");
+        LayerClusterer<String, String> clusterer =
+            new LayerClusterer<String, String>();
+        clusterer.rank(graph, Arrays.asList("C", "A", "B"));
+        assertTrue(clusterer.getRank("C") > clusterer.getRank("A"));
+        assertTrue(clusterer.getRank("A") >= 0);
+        assertTrue(clusterer.getRank("B") >= 0);
+    }
+
+    private static File[] list(final String suffix) {
+        File[] files = DATA.listFiles(new FilenameFilter() {
+            public boolean accept(File dir, String name) {
+                return name.endsWith(suffix);
+            }
+        });
+        assertNotNull("Missing "+DATA, files);
+        assertTrue("No "+suffix+" file in "+DATA, files.length > 0);
+        Arrays.sort(files);
+        return files;
+    }
+
+    private static void checkLayers(String name, Network network) {
+        List<Set<Vertex>> layers =
+            new LayerClusterer<Vertex, Edge>().transform(network);
+        Map<Vertex,Integer> layer = new HashMap<Vertex, Integer>();
+        for (int i = 0; i < layers.size(); i++) {
+            for (Vertex v : layers.get(i)) {
+                assertTrue(name+": "+v+" ranked twice",
+                        layer.put(v, Integer.valueOf(i)) == null);
+            }
+        }
+        assertEquals(name+": ranked vertices",
+                network.getVertexCount(), layer.size());
+
+        Adjacency adj = network.getAdjacency();
+        int n = adj.getVertexCount();
+        int[] tail = new int[adj.getEdgeCount()];
+        int[] head = new int[adj.getEdgeCount()];
+        for (int v = 0; v < n; v++) {
+            for (int k = adj.outBegin(v); k < adj.outEnd(v); k++) {
+                tail[k] = v;
+                head[k] = adj.outVertex(k);
+            }
+        }
+        FeedbackArcSet scc = new FeedbackArcSet(n, tail, head);
+        scc.findComponents();
+        for (int e = 0; e < tail.length; e++) {
+            if (scc.getComponent(tail[e]) == scc.getComponent(head[e]))
+                continue;
+            Vertex from = adj.getVertex(tail[e]);
+            Vertex to = adj.getVertex(head[e]);
+            assertTrue(name+": "+from+" not above "+to,
+                    layer.get(from).intValue() > layer.get(to).intValue());
+        }
+    }
+}
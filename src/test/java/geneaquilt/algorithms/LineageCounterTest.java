@@ -0,0 +1,198 @@
+/**
+ * Copyright (c) 2010-2014, Jean-Daniel Fekete, Pierre Dragicevic, and INRIA.
+ * All rights reserved.
+ *
+ * Use of this source code is governed by a BSD-style license that can be
+ * found in the LICENSE file.
+ */
+package geneaquilt.algorithms;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import geneaquilt.data.Adjacency;
+import geneaquilt.data.Indi;
+import geneaquilt.data.Network;
+import geneaquilt.data.Reachability;
+import geneaquilt.data.Vertex;
+import geneaquilt.io.GEDParallelReader;
+import geneaquilt.io.PEDReader;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * <b>LineageCounterTest</b> checks the HyperLogLog estimates of
+ * {@link LineageCounter} against their standard error, i.e. the root
+ * mean square of their relative error, on sets of
+ * increasing size, on unions of sketches, and on the ancestors and
+ * descendants of the individuals of the sample files counted exactly
+ * with the {@link Reachability} index.
+ *
+ * @author Jean-Daniel Fekete
+ * @version $Revision$
+ */
+public class LineageCounterTest {
+    private static final File DATA = new File("src/data");
+    /** Sets smaller than this are expected to be counted almost exactly */
+    private static final int SMALL = 10;
+    /** Sets larger than this are compared with the standard error */
+    private static final int LARGE = 100;
+    /** Tolerance on the root mean square of the relative errors */
+    private static final double RMS = 1.25;
+    /** Largest relative error, in standard errors */
+    private static final double WORST = 6;
+
+    /**
+     * Checks the estimates of independent sets, smaller and larger than
+     * the number of registers, for several precisions.
+     */
+    @Test
+    public void testEstimate() {
+        Random random = new Random(1);
+        for (int p = 4; p <= 13; p += 3) {
+            LineageCounter counter = new LineageCounter(new Network(), p);
+            double error = counter.getRelativeError();
+            int m = 1 << p;
+            assertEquals(0, LineageCounter.estimate(new byte[m]), 0);
+            for (int size = m/2; size <= 8*m; size *= 4) {
+                double sum = 0;
+                int trials = 200;
+                for (int t = 0; t < trials; t++) {
+                    byte[] s = new byte[m];
+                    int base = random.nextInt(1 << 30);
+                    for (int v = 0; v < size; v++)
+                        counter.add(s, base + v);
+                    double r = Math.abs(LineageCounter.estimate(s) - size) / size;
+                    assertTrue("p="+p+" size="+size+" error "+r, r < WORST*error);
+                    sum += r*r;
+                }
+                assertTrue("p="+p+" size="+size+" error "+Math.sqrt(sum/trials),
+                        Math.sqrt(sum/trials) < RMS*error);
+            }
+            if (p < 7)
+                continue;
+            byte[] s = new byte[m];
+            for (int n = 1; n <= 16; n++) {
+                counter.add(s, random.nextInt(1 << 30));
+                assertEquals("p="+p+" n="+n, n, LineageCounter.estimate(s), 2);
+            }
+        }
+    }
+
+    /**
+     * Checks that merging the sketches of two sets gives the sketch
+     * of their union, whose estimate is within the standard error.
+     */
+    @Test
+    public void testMerge() {
+        Random random = new Random(1);
+        LineageCounter counter = new LineageCounter(new Network());
+        int m = 1 << counter.getPrecision();
+        double error = counter.getRelativeError();
+        double sum = 0;
+        int trials = 200;
+        for (int t = 0; t < trials; t++) {
+            int n = LARGE + random.nextInt(5000);
+            int offset = random.nextInt(n);
+            byte[] a = new byte[m];
+            byte[] b = new byte[m];
+            byte[] union = new byte[m];
+            // a holds [0,n), b holds [offset,offset+n)
+            int base = random.nextInt(1000000);
+            for (int v = 0; v < n + offset; v++) {
+                if (v < n)
+                    counter.add(a, base + v);
+                if (v >= offset)
+                    counter.add(b, base + v);
+                counter.add(union, base + v);
+            }
+            LineageCounter.merge(a, b);
+            assertArrayEquals("trial "+t, union, a);
+            double r = Math.abs(LineageCounter.estimate(a) - (n + offset)) / (n + offset);
+            assertTrue("trial "+t+" error "+r, r < WORST*error);
+            sum += r*r;
+        }
+        assertTrue("Error "+Math.sqrt(sum/trials), Math.sqrt(sum/trials) < RMS*error);
+    }
+
+    /**
+     * Compares the counts of the individuals of the samples with their
+     * exact numbers of ancestors and descendants.
+     */
+    @Test
+    public void testCounts() {
+        double error = 0;
+        double sum = 0;
+        int large = 0;
+        double smallSum = 0;
+        int small = 0;
+        for (File file : list()) {
+            Network network = file.getName().endsWith(".ped") 
+                    ? new PEDReader().load(file.getPath()) 
+                    : new GEDParallelReader().load(file.getPath());
+            assertNotNull(file.getName(), network);
+            LineageCounter counter = new LineageCounter(network);
+            counter.compute();
+            error = counter.getRelativeError();
+            Reachability reach = network.getReachability();
+            Adjacency adj = reach.getAdjacency();
+            for (int v = 0; v < adj.getVertexCount(); v++) {
+                Vertex vertex = adj.getVertex(v);
+                if (!(vertex instanceof Indi))
+                    continue;
+                Indi indi = (Indi) vertex;
+                assertEquals(counter.getAncestorCount(indi), indi.getAncestorCount());
+                assertEquals(counter.getDescendantCount(indi), indi.getDescendantCount());
+                for (int up = 0; up < 2; up++) {
+                    int exact = indis(adj, up == 1 
+                            ? reach.getAncestorIds(v) : reach.getDescendantIds(v));
+                    int estimate = up == 1 
+                            ? indi.getAncestorCount() : indi.getDescendantCount();
+                    String name = file.getName()+": "+indi+(up == 1 ? " ancestors" : " descendants");
+                    if (exact <= SMALL) {
+                        // collisions in the registers only lose elements
+                        assertTrue(name+" "+estimate+" for "+exact, estimate <= exact+1);
+                        smallSum += Math.abs(estimate - exact);
+                        small++;
+                    }
+                    else if (exact >= LARGE) {
+                        double r = Math.abs(estimate - exact) / (double)exact;
+                        assertTrue(name+" "+estimate+" for "+exact, r < WORST*error);
+                        sum += r*r;
+                        large++;
+                    }
+                }
+            }
+        }
+        assertTrue("No large lineage", large > 0);
+        assertTrue("Error "+Math.sqrt(sum/large), Math.sqrt(sum/large) < RMS*error);
+        assertTrue("Mean error of small lineages "+smallSum/small, smallSum/small < 0.1);
+    }
+
+    private static int indis(Adjacency adj, int[] ids) {
+        int count = 0;
+        for (int id : ids) {
+            if (adj.getVertex(id) instanceof Indi)
+                count++;
+        }
+        return count;
+    }
+
+    private static File[] list() {
+        File[] files = DATA.listFiles(new FilenameFilter() {
+            public boolean accept(File dir, String name) {
+                return name.endsWith(".ged") || name.endsWith(".ped");
+            }
+        });
+        assertNotNull("Missing "+DATA, files);
+        assertTrue("No sample in "+DATA, files.length > 0);
+        Arrays.sort(files);
+        return files;
+    }
+}
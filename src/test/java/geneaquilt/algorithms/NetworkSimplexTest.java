@@ -0,0 +1,197 @@
+/**
+ * Copyright (c) 2010-2014, Jean-Daniel Fekete, Pierre Dragicevic, and INRIA.
+ * All rights reserved.
+ *
+ * Use of this source code is governed by a BSD-style license that can be
+ * found in the LICENSE file.
+ */
+package geneaquilt.algorithms;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * <b>NetworkSimplexTest</b> compares the total edge length of the ranks
+ * computed by {@link NetworkSimplex} with the optimum found by brute
+ * force on small random connected DAGs, and checks that the parity of
+ * the base ranks is kept on bipartite DAGs such as the individuals and
+ * families of a genealogy.
+ *
+ * @author Jean-Daniel Fekete
+ * @version $Revision$
+ */
+public class NetworkSimplexTest {
+    private static final int GRAPHS = 3000;
+    private int n;
+    private int[] tail;
+    private int[] head;
+    private int[] topo;
+    private int bestSpan;
+
+    /**
+     * Checks the optimality on random DAGs, starting from the longest
+     * paths or from random base ranks so that edges are exchanged.
+     */
+    @Test
+    public void testOptimal() {
+        Random random = new Random(1);
+        int exchanges = 0;
+        for (int g = 0; g < GRAPHS; g++) {
+            randomDAG(random, null);
+            // random initial ranks, far from the optimum
+            int[] base = null;
+            if ((g & 1) != 0) {
+                base = new int[n];
+                for (int v = 0; v < n; v++)
+                    base[v] = random.nextInt(2*n);
+            }
+            NetworkSimplex simplex = new NetworkSimplex(n, tail, head, base);
+            assertTrue("graph "+g, simplex.compute());
+            int[] rank = simplex.getRanks();
+            checkFeasible(g, rank);
+            assertEquals("graph "+g, bruteForce(), span(rank));
+            exchanges += simplex.getIterations();
+        }
+        assertTrue("No edge exchanged", exchanges > GRAPHS/10);
+    }
+
+    /**
+     * Checks the optimality and the parity of the ranks on random
+     * bipartite DAGs, with families on odd base ranks.
+     */
+    @Test
+    public void testParity() {
+        Random random = new Random(2);
+        for (int g = 0; g < GRAPHS; g++) {
+            boolean[] fam = new boolean[2 + random.nextInt(6)];
+            for (int v = 0; v < fam.length; v++)
+                fam[v] = random.nextBoolean();
+            fam[0] = false;
+            fam[1] = true;
+            randomDAG(random, fam);
+            int[] base = new int[n];
+            for (int v = 0; v < n; v++)
+                base[v] = fam[v] ? 1 : 0;
+            NetworkSimplex simplex = new NetworkSimplex(n, tail, head, base);
+            assertTrue("graph "+g, simplex.compute());
+            int[] rank = simplex.getRanks();
+            checkFeasible(g, rank);
+            assertEquals("graph "+g, bruteForce(), span(rank));
+            for (int v = 0; v < n; v++)
+                assertEquals("graph "+g+" parity of "+v,
+                        base[v], rank[v] & 1);
+        }
+    }
+
+    /**
+     * Checks that cyclic and disconnected graphs are rejected.
+     */
+    @Test
+    public void testInvalid() {
+        assertFalse(new NetworkSimplex(3, new int[] { 0, 1, 2 },
+                new int[] { 1, 2, 0 }, null).compute());
+        assertFalse(new NetworkSimplex(4, new int[] { 0, 2 },
+                new int[] { 1, 3 }, null).compute());
+        assertTrue(new NetworkSimplex(1, new int[0], new int[0], null).compute());
+    }
+
+    /**
+     * Creates a random connected DAG following a random topological
+     * order, with edges between different types when types are given.
+     */
+    private void randomDAG(Random random, boolean[] fam) {
+        n = fam == null ? 2 + random.nextInt(8) : fam.length;
+        topo = new int[n];
+        for (int i = 0; i < n; i++) {
+            int j = random.nextInt(i+1);
+            topo[i] = topo[j];
+            topo[j] = i;
+        }
+        if (fam != null) {
+            // the first two vertices in the order have different types
+            int i = 1;
+            while (fam[topo[i]] == fam[topo[0]])
+                i++;
+            int t = topo[1];
+            topo[1] = topo[i];
+            topo[i] = t;
+        }
+        int[] t = new int[n*n];
+        int[] h = new int[n*n];
+        int m = 0;
+        for (int i = 1; i < n; i++) {
+            // spanning tree, to a previous vertex
+            int j;
+            do {
+                j = random.nextInt(i);
+            } while (fam != null && fam[topo[j]] == fam[topo[i]]);
+            t[m] = topo[j];
+            h[m++] = topo[i];
+        }
+        for (int i = 0; i < n; i++) {
+            for (int j = i+1; j < n; j++) {
+                if (fam != null && fam[topo[i]] == fam[topo[j]])
+                    continue;
+                if (random.nextInt(3) == 0) {
+                    t[m] = topo[i];
+                    h[m++] = topo[j];
+                }
+            }
+        }
+        tail = new int[m];
+        head = new int[m];
+        System.arraycopy(t, 0, tail, 0, m);
+        System.arraycopy(h, 0, head, 0, m);
+    }
+
+    private void checkFeasible(int g, int[] rank) {
+        for (int e = 0; e < tail.length; e++)
+            assertTrue("graph "+g+" edge "+e, rank[head[e]] >= rank[tail[e]]+1);
+    }
+
+    private int span(int[] rank) {
+        int s = 0;
+        for (int e = 0; e < tail.length; e++)
+            s += rank[head[e]] - rank[tail[e]];
+        return s;
+    }
+
+    /**
+     * Finds the minimum total length over the ranks from 0 to n-1,
+     * which contain a translation of an optimal ranking since it has a
+     * spanning tree of edges of length 1.
+     */
+    private int bruteForce() {
+        bestSpan = Integer.MAX_VALUE;
+        int[] rank = new int[n];
+        Arrays.fill(rank, -1);
+        search(0, rank);
+        return bestSpan;
+    }
+
+    private void search(int i, int[] rank) {
+        if (i == n) {
+            int s = span(rank);
+            if (s < bestSpan)
+                bestSpan = s;
+            return;
+        }
+        int v = topo[i];
+        int low = 0;
+        for (int e = 0; e < head.length; e++) {
+            if (head[e] == v)
+                low = Math.max(low, rank[tail[e]]+1);
+        }
+        for (int r = low; r < n; r++) {
+            rank[v] = r;
+            search(i+1, rank);
+        }
+        rank[v] = -1;
+    }
+}
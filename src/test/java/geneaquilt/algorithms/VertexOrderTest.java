@@ -0,0 +1,224 @@
+/**
+ * Copyright (c) 2010-2014, Jean-Daniel Fekete, Pierre Dragicevic, and INRIA.
+ * All rights reserved.
+ *
+ * Use of this source code is governed by a BSD-style license that can be
+ * found in the LICENSE file.
+ */
+package geneaquilt.algorithms;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import geneaquilt.algorithms.VertexOrder.ComponentOrder;
+import geneaquilt.data.Adjacency;
+import geneaquilt.data.Edge;
+import geneaquilt.data.Indi;
+import geneaquilt.data.Network;
+import geneaquilt.data.Vertex;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * <b>VertexOrderTest</b> compares the crossings counted by the accumulator
+ * tree of {@link VertexOrder} and the crossings saved by exchanging two
+ * adjacent vertices with an independent count of the inversions of the
+ * edges, sorted by merge sort, on random layered graphs.
+ *
+ * @author Jean-Daniel Fekete
+ * @version $Revision$
+ */
+public class VertexOrderTest {
+    private static final int GRAPHS = 500;
+    private Adjacency adj;
+    private int[] layerOf;
+    private int[] order;
+    private ComponentOrder comp;
+
+    /**
+     * Checks the crossings between consecutive layers.
+     */
+    @Test
+    public void testCountCrossings() {
+        Random random = new Random(1);
+        long total = 0;
+        for (int g = 0; g < GRAPHS; g++) {
+            randomGraph(random);
+            for (int l = 0; l < comp.layers.length-1; l++) {
+                long expected = inversions(l);
+                assertEquals("graph "+g+" layer "+l, expected, comp.countCrossings(l));
+                total += expected;
+            }
+        }
+        assertTrue("No crossing", total > GRAPHS);
+    }
+
+    /**
+     * Checks that the crossings computed for a pair of adjacent vertices
+     * in both orders give the change of the crossings of the graph when
+     * the vertices are exchanged.
+     */
+    @Test
+    public void testTranspose() {
+        Random random = new Random(2);
+        int changed = 0;
+        for (int g = 0; g < GRAPHS; g++) {
+            randomGraph(random);
+            int degree = 0;
+            for (int v = 0; v < adj.getVertexCount(); v++)
+                degree = Math.max(degree, adj.outDegree(v)+adj.inDegree(v));
+            int[][] pos = new int[4][degree];
+            for (int l = 0; l < comp.layers.length; l++) {
+                Vertex[] layer = comp.layers[l];
+                for (int i = 0; i+1 < layer.length; i++) {
+                    int a = adj.getId(layer[i]);
+                    int b = adj.getId(layer[i+1]);
+                    int na0 = comp.neighborOrder(a, l-1, pos[0]);
+                    int nb0 = comp.neighborOrder(b, l-1, pos[1]);
+                    int na1 = comp.neighborOrder(a, l+1, pos[2]);
+                    int nb1 = comp.neighborOrder(b, l+1, pos[3]);
+                    long c = ComponentOrder.crossings(pos[0], na0, pos[1], nb0)
+                            + ComponentOrder.crossings(pos[2], na1, pos[3], nb1);
+                    long s = ComponentOrder.crossings(pos[1], nb0, pos[0], na0)
+                            + ComponentOrder.crossings(pos[3], nb1, pos[2], na1);
+                    assertEquals("graph "+g+" layer "+l+" pair "+i,
+                            pairs(pos[0], na0, pos[1], nb0)
+                            + pairs(pos[2], na1, pos[3], nb1), c);
+                    long before = around(l);
+                    layer[i] = adj.getVertex(b);
+                    layer[i+1] = adj.getVertex(a);
+                    order[a] = i+1;
+                    order[b] = i;
+                    long after = around(l);
+                    assertEquals("graph "+g+" layer "+l+" pair "+i,
+                            before - after, c - s);
+                    if (c != s)
+                        changed++;
+                }
+            }
+        }
+        assertTrue("No crossing changed", changed > GRAPHS);
+    }
+
+    /**
+     * Creates a random graph of 2 to 6 layers of 1 to 8 vertices, with
+     * edges from a layer to the previous one, and sets the layers of a
+     * component orderer.
+     */
+    private void randomGraph(Random random) {
+        Vertex[][] layers = new Vertex[2 + random.nextInt(5)][];
+        Network network = new Network();
+        int count = 0;
+        for (int l = 0; l < layers.length; l++) {
+            layers[l] = new Vertex[1 + random.nextInt(8)];
+            for (int i = 0; i < layers[l].length; i++) {
+                Indi indi = new Indi();
+                indi.setId("I"+(count++));
+                network.addVertex(indi);
+                layers[l][i] = indi;
+            }
+        }
+        for (int l = 1; l < layers.length; l++) {
+            double density = random.nextDouble();
+            for (Vertex from : layers[l]) {
+                for (Vertex to : layers[l-1]) {
+                    if (random.nextDouble() < density)
+                        network.addEdge(new Edge(from.getId(), to.getId()), from, to);
+                }
+            }
+        }
+        adj = network.getAdjacency();
+        int n = adj.getVertexCount();
+        layerOf = new int[n];
+        Arrays.fill(layerOf, -1);
+        order = new int[n];
+        comp = new ComponentOrder(adj, layerOf, order, new double[n], 0, layers.length);
+        for (int l = 0; l < layers.length; l++) {
+            Collections.shuffle(Arrays.asList(layers[l]), random);
+            comp.setLayer(l, layers[l]);
+        }
+        comp.init();
+    }
+
+    /**
+     * @return the crossings between a layer and its neighbor layers
+     */
+    private long around(int l) {
+        long c = inversions(l);
+        if (l > 0)
+            c += inversions(l-1);
+        return c;
+    }
+
+    /**
+     * Counts the crossings between a layer and the next one as the
+     * inversions of the positions of the lower ends of the edges,
+     * sorted by upper then lower end.
+     */
+    private long inversions(int l) {
+        if (l+1 >= comp.layers.length)
+            return 0;
+        long[] edges = new long[adj.getEdgeCount()];
+        int m = 0;
+        for (Vertex v : comp.layers[l]) {
+            int id = adj.getId(v);
+            for (int k = adj.inBegin(id); k < adj.inEnd(id); k++) {
+                int w = adj.inVertex(k);
+                if (layerOf[w] == l+1)
+                    edges[m++] = ((long)order[id] << 32) | order[w];
+            }
+        }
+        Arrays.sort(edges, 0, m);
+        int[] lower = new int[m];
+        for (int e = 0; e < m; e++)
+            lower[e] = (int)edges[e];
+        return mergeCount(lower, new int[m], 0, m);
+    }
+
+    /**
+     * Counts the pairs of neighbors of a vertex and of the next one
+     * whose edges cross, comparing all the pairs.
+     */
+    private static long pairs(int[] pa, int na, int[] pb, int nb) {
+        long c = 0;
+        for (int i = 0; i < na; i++) {
+            for (int j = 0; j < nb; j++) {
+                if (pa[i] > pb[j])
+                    c++;
+            }
+        }
+        return c;
+    }
+
+    /**
+     * Sorts a range by merge sort and returns the number of pairs
+     * in strictly decreasing order.
+     */
+    private static long mergeCount(int[] a, int[] tmp, int lo, int hi) {
+        if (hi - lo < 2)
+            return 0;
+        int mid = (lo + hi) >>> 1;
+        long c = mergeCount(a, tmp, lo, mid) + mergeCount(a, tmp, mid, hi);
+        int i = lo;
+        int j = mid;
+        int k = lo;
+        while (i < mid && j < hi) {
+            if (a[j] < a[i]) {
+                c += mid - i;
+                tmp[k++] = a[j++];
+            }
+            else {
+                tmp[k++] = a[i++];
+            }
+        }
+        while (i < mid)
+            tmp[k++] = a[i++];
+        while (j < hi)
+            tmp[k++] = a[j++];
+        System.arraycopy(tmp, lo, a, lo, hi - lo);
+        return c;
+    }
+}
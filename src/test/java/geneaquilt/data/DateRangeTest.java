@@ -0,0 +1,155 @@
+/**
+ * Copyright (c) 2010-2014, Jean-Daniel Fekete, Pierre Dragicevic, and INRIA.
+ * All rights reserved.
+ *
+ * Use of this source code is governed by a BSD-style license that can be
+ * found in the LICENSE file.
+ */
+package geneaquilt.data;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Calendar;
+import java.util.Date;
+import java.util.GregorianCalendar;
+import java.util.TimeZone;
+
+import org.junit.Test;
+
+/**
+ * <b>DateRangeTest</b> pins the GEDCOM date syntax accepted by
+ * {@link DateRange} and checks its day arithmetic against a proleptic
+ * Gregorian calendar.
+ *
+ * @author Jean-Daniel Fekete
+ * @version $Revision$
+ */
+public class DateRangeTest {
+
+    private static long day(int year, int month, int day) {
+        return DateRange.valueOf(year, month, day);
+    }
+
+    private static void assertRange(String text, long start, long end) {
+        DateRange d = new DateRange(text);
+        assertTrue(text, d.isValid());
+        assertEquals(text+" start", DateRange.format(start), d.formatStart());
+        assertEquals(text+" end", DateRange.format(end), d.formatEnd());
+        assertEquals(text, text, d.getText());
+    }
+
+    private static void assertInvalid(String text) {
+        DateRange d = new DateRange(text);
+        assertFalse(text, d.isValid());
+        assertEquals("??"+text, d.toString());
+    }
+
+    /**
+     * Checks the day, month and year forms.
+     */
+    @Test
+    public void testSimpleDates() {
+        assertRange("12 MAY 1900", day(1900, 4, 12), day(1900, 4, 12));
+        assertRange("MAY 1900", day(1900, 4, 1), day(1900, 4, 31));
+        assertRange("FEB 1900", day(1900, 1, 1), day(1900, 1, 28));
+        assertRange("FEB 2000", day(2000, 1, 1), day(2000, 1, 29));
+        assertRange("1900", day(1900, 0, 1), day(1900, 11, 31));
+        assertRange("  3 jan 1750 ", day(1750, 0, 3), day(1750, 0, 3));
+        assertRange("1 JAN 100", day(100, 0, 1), day(100, 0, 1));
+        assertNull(new DateRange("1900").getMode());
+    }
+
+    /**
+     * Checks that dual years span both years.
+     */
+    @Test
+    public void testDualYears() {
+        assertRange("1699/00", day(1699, 0, 1), day(1700, 11, 31));
+        assertRange("11 FEB 1731/32", day(1731, 1, 11), day(1732, 1, 11));
+        assertRange("1709/1710", day(1709, 0, 1), day(1710, 11, 31));
+        assertInvalid("1709/x");
+    }
+
+    /**
+     * Checks the modes and the ranges.
+     */
+    @Test
+    public void testModes() {
+        DateRange d = new DateRange("ABT 1850");
+        assertTrue(d.isApproximated());
+        assertEquals(DateRange.format(day(1850, 0, 1)), d.formatStart());
+        assertTrue(new DateRange("ABOUT 1850").isApproximated());
+        assertTrue(new DateRange("abt 1850").isApproximated());
+        assertTrue(new DateRange("CAL 1850").isCalculated());
+        assertTrue(new DateRange("EST 1850").isEstimated());
+        assertEquals("BEF", new DateRange("BEF 1 JAN 1800").getMode());
+        assertEquals("AFT", new DateRange("AFT 1800").getMode());
+        assertRange("BET 1800 AND 1810", day(1800, 0, 1), day(1810, 11, 31));
+        assertRange("BET MAR 1800 AND 5 JUN 1801",
+                day(1800, 2, 1), day(1801, 5, 5));
+        assertInvalid("1800 AND 1810");
+    }
+
+    /**
+     * Checks that the unsupported forms are invalid instead of
+     * a bogus date.
+     */
+    @Test
+    public void testInvalid() {
+        assertInvalid("FROM 1800 TO 1810");
+        assertInvalid("12 MAY");
+        assertInvalid("MAY");
+        assertInvalid("(unknown)");
+        assertInvalid("1900 MAY");
+        assertInvalid("1 2 3 1900");
+        assertInvalid("");
+        assertFalse(new DateRange().isValid());
+    }
+
+    /**
+     * Checks the carry of days and months out of their range.
+     */
+    @Test
+    public void testCarry() {
+        // 1900 is not a leap year, 2000 is
+        assertEquals(day(1900, 2, 1), day(1900, 1, 29));
+        assertEquals(day(2000, 1, 29) + DateRange.DAY, day(2000, 2, 1));
+        assertEquals(day(1899, 11, 31), day(1900, 0, 0));
+        assertEquals(day(1901, 0, 1), day(1900, 12, 1));
+        assertEquals(day(1899, 11, 1), day(1900, -1, 1));
+        assertEquals(0, day(1970, 0, 1));
+        assertArrayEquals(new int[] { 1900, 2, 1 },
+                DateRange.getYMD(day(1900, 1, 29), null));
+        assertArrayEquals(new int[] { 100, 0, 1 },
+                DateRange.getYMD(day(100, 0, 1), null));
+    }
+
+    /**
+     * Compares the day arithmetic with a proleptic Gregorian calendar,
+     * from year 1 to 2100.
+     */
+    @Test
+    public void testCalendar() {
+        GregorianCalendar cal = new GregorianCalendar(TimeZone.getTimeZone("UTC"));
+        cal.setGregorianChange(new Date(Long.MIN_VALUE));
+        cal.clear();
+        cal.set(1, Calendar.JANUARY, 1);
+        int[] ymd = new int[3];
+        while (cal.get(Calendar.YEAR) <= 2100) {
+            int year = cal.get(Calendar.YEAR);
+            int month = cal.get(Calendar.MONTH);
+            int day = cal.get(Calendar.DAY_OF_MONTH);
+            long value = cal.getTimeInMillis() / 1000;
+            assertEquals(year+"-"+month+"-"+day, value, day(year, month, day));
+            DateRange.getYMD(value, ymd);
+            assertArrayEquals(new int[] { year, month, day }, ymd);
+            assertEquals(day(year, 0, 1), DateRange.yearFloor(value));
+            assertEquals(day(year+1, 0, 1), DateRange.yearCeil(value));
+            cal.add(Calendar.DAY_OF_MONTH, 1);
+        }
+    }
+}
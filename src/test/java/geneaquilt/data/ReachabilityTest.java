@@ -0,0 +1,182 @@
+/**
+ * Copyright (c) 2010-2014, Jean-Daniel Fekete, Pierre Dragicevic, and INRIA.
+ * All rights reserved.
+ *
+ * Use of this source code is governed by a BSD-style license that can be
+ * found in the LICENSE file.
+ */
+package geneaquilt.data;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import geneaquilt.io.GEDParallelReader;
+import geneaquilt.io.PEDReader;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+/**
+ * <b>ReachabilityTest</b> compares the ancestry queries, counts and
+ * enumerations of {@link Reachability} with a breadth-first search on
+ * the sample files and on a small graph with cycles.
+ *
+ * @author Jean-Daniel Fekete
+ * @version $Revision$
+ */
+public class ReachabilityTest {
+    private static final File DATA = new File("src/data");
+    /** Maximum number of vertices checked per file */
+    private static final int SAMPLE = 300;
+
+    /**
+     * Checks the GEDCOM samples.
+     */
+    @Test
+    public void testGED() {
+        for (File file : list(".ged")) {
+            Network network = new GEDParallelReader().load(file.getPath());
+            assertNotNull(file.getName(), network);
+            check(file.getName(), network);
+        }
+    }
+
+    /**
+     * Checks the pedigree samples.
+     */
+    @Test
+    public void testPED() {
+        for (File file : list(".ped")) {
+            Network network = new PEDReader().load(file.getPath());
+            assertNotNull(file.getName(), network);
+            check(file.getName(), network);
+        }
+    }
+
+    /**
+     * Checks a graph with a cycle, a self loop, a vertex leading to
+     * the cycle and a vertex reached from it.
+     */
+    @Test
+    public void testCycles() {
+        Network network = new Network();
+        Vertex[] v = new Vertex[7];
+        for (int i = 0; i < v.length; i++) {
+            Indi indi = new Indi();
+            indi.setId("I"+i);
+            network.addVertex(indi);
+            v[i] = indi;
+        }
+        // 0 -> 1 -> 2 -> 0, 3 -> 1, 2 -> 4 -> 4, 5 -> 6
+        int[][] edges = { {0,1}, {1,2}, {2,0}, {3,1}, {2,4}, {4,4}, {5,6} };
+        for (int[] e : edges) {
+            network.addEdge(new Edge(v[e[0]].getId(), v[e[1]].getId()),
+                    v[e[0]], v[e[1]]);
+        }
+        Reachability reach = network.getReachability();
+        assertTrue(reach.isAncestor(v[1], v[0]));
+        assertTrue(reach.isAncestor(v[0], v[1]));
+        assertTrue(reach.isAncestor(v[4], v[3]));
+        assertTrue(reach.isDescendant(v[3], v[4]));
+        assertTrue(! reach.isAncestor(v[3], v[0]));
+        assertTrue(! reach.isAncestor(v[4], v[4]));
+        assertEquals(3, reach.getAncestorCount(v[0]));
+        assertEquals(4, reach.getAncestorCount(v[3]));
+        assertEquals(0, reach.getAncestorCount(v[4]));
+        assertEquals(4, reach.getDescendantCount(v[4]));
+        assertEquals(1, reach.getDescendantCount(v[6]));
+        check("cycles", network);
+    }
+
+    private static File[] list(final String suffix) {
+        File[] files = DATA.listFiles(new FilenameFilter() {
+            public boolean accept(File dir, String name) {
+                return name.endsWith(suffix);
+            }
+        });
+        assertNotNull("Missing "+DATA, files);
+        assertTrue("No "+suffix+" file in "+DATA, files.length > 0);
+        Arrays.sort(files);
+        return files;
+    }
+
+    /**
+     * Compares the ancestors and descendants of a sample of the vertices
+     * with a search following the out edges and the in edges.
+     */
+    private static void check(String name, Network network) {
+        Reachability reach = network.getReachability();
+        Adjacency adj = reach.getAdjacency();
+        int n = adj.getVertexCount();
+        int step = Math.max(1, n / SAMPLE);
+        for (int v = 0; v < n; v += step) {
+            Vertex vertex = adj.getVertex(v);
+            int[] ancestors = search(adj, v, true);
+            int[] descendants = search(adj, v, false);
+            assertEquals(name+": ancestors of "+vertex,
+                    ancestors.length, reach.getAncestorCount(v));
+            assertEquals(name+": descendants of "+vertex,
+                    descendants.length, reach.getDescendantCount(v));
+            assertArrayEquals(name+": ancestor ids of "+vertex,
+                    ancestors, sorted(reach.getAncestorIds(v)));
+            assertArrayEquals(name+": descendant ids of "+vertex,
+                    descendants, sorted(reach.getDescendantIds(v)));
+            for (int a = 0, i = 0; a < n; a++) {
+                boolean expected = i < ancestors.length && ancestors[i] == a;
+                if (expected)
+                    i++;
+                assertEquals(name+": "+adj.getVertex(a)+" ancestor of "+vertex,
+                        expected, reach.isAncestor(a, v));
+            }
+            for (int d = 0, i = 0; d < n; d++) {
+                boolean expected = i < descendants.length && descendants[i] == d;
+                if (expected)
+                    i++;
+                assertEquals(name+": "+adj.getVertex(d)+" descendant of "+vertex,
+                        expected, reach.isDescendant(adj.getVertex(d), vertex));
+            }
+        }
+    }
+
+    /**
+     * Returns the sorted ids of the vertices reached from a vertex, which
+     * is excluded, following the out edges towards the ascendants or the
+     * in edges towards the descendants.
+     */
+    private static int[] search(Adjacency adj, int v, boolean up) {
+        int n = adj.getVertexCount();
+        boolean[] seen = new boolean[n];
+        int[] queue = new int[n];
+        int tail = 0;
+        queue[tail++] = v;
+        seen[v] = true;
+        for (int head = 0; head < tail; head++) {
+            int u = queue[head];
+            int begin = up ? adj.outBegin(u) : adj.inBegin(u);
+            int end = up ? adj.outEnd(u) : adj.inEnd(u);
+            for (int k = begin; k < end; k++) {
+                int w = up ? adj.outVertex(k) : adj.inVertex(k);
+                if (! seen[w]) {
+                    seen[w] = true;
+                    queue[tail++] = w;
+                }
+            }
+        }
+        int[] ret = new int[tail-1];
+        int k = 0;
+        for (int w = 0; w < n; w++) {
+            if (seen[w] && w != v)
+                ret[k++] = w;
+        }
+        return ret;
+    }
+
+    private static int[] sorted(int[] ids) {
+        Arrays.sort(ids);
+        return ids;
+    }
+}